@@ -0,0 +1,128 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.database;
+
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Position in an ordered result set used for keyset (seek) pagination. The
+ * cursor records the ordering it was created for and the sort key values of
+ * the last row returned; the next page is fetched by seeking past those values
+ * instead of skipping over an offset. Cursors are exchanged with clients as
+ * opaque URL safe tokens.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class QueryCursor {
+
+    /**
+     * Public constructor.
+     *
+     * @param ordering The name of the ordering the cursor applies to.
+     * @param keys The sort key values of the last row in ordering precedence.
+     */
+    public QueryCursor(final String ordering, final List<String> keys) {
+        _ordering = ordering;
+        _keys = ImmutableList.copyOf(keys);
+    }
+
+    /**
+     * Decode a cursor from its token.
+     *
+     * @param token The token created by <code>encode</code>.
+     * @return The decoded <code>QueryCursor</code>.
+     * @throws IllegalArgumentException if the token is not a valid cursor.
+     */
+    public static QueryCursor decode(final String token) {
+        final List<String> values;
+        try {
+            values = OBJECT_MAPPER.readValue(Base64.getUrlDecoder().decode(token), STRING_LIST_TYPE);
+        } catch (final IOException | IllegalArgumentException e) {
+            throw new IllegalArgumentException(String.format("Invalid cursor; token=%s", token), e);
+        }
+        if (values == null || values.size() < 2 || values.contains(null)) {
+            throw new IllegalArgumentException(String.format("Invalid cursor; token=%s", token));
+        }
+        return new QueryCursor(values.get(0), values.subList(1, values.size()));
+    }
+
+    /**
+     * Encode the cursor as an opaque URL safe token.
+     *
+     * @return The token.
+     */
+    public String encode() {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(
+                    OBJECT_MAPPER.writeValueAsBytes(
+                            ImmutableList.builder().add(_ordering).addAll(_keys).build()));
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to encode cursor", e);
+        }
+    }
+
+    /**
+     * Retrieve the sort key values after verifying that the cursor was created
+     * for the expected ordering.
+     *
+     * @param ordering The name of the ordering of the current query.
+     * @param keyCount The number of sort keys of the current query.
+     * @return The sort key values in ordering precedence.
+     * @throws IllegalArgumentException if the cursor does not match the query.
+     */
+    public List<String> getKeys(final String ordering, final int keyCount) {
+        if (!_ordering.equals(ordering) || _keys.size() != keyCount) {
+            throw new IllegalArgumentException(String.format(
+                    "Cursor does not match query ordering; cursor=%s, ordering=%s",
+                    this,
+                    ordering));
+        }
+        return _keys;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("ordering", _ordering)
+                .put("keys", _keys)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private final String _ordering;
+    private final List<String> _keys;
+
+    private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
+    private static final TypeReference<List<String>> STRING_LIST_TYPE = new TypeReference<List<String>>() { };
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.database.h2.triggers;
+
+import com.google.common.collect.Sets;
+import org.h2.api.Trigger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Trigger to maintain the hostname trigrams in <code>portal.hosts_name_trigrams</code>
+ * after every insert, delete or update statement. The trigrams are only
+ * rewritten when the hostname changes.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class HostsUpdateNameTrigramsTrigger implements Trigger {
+
+    /**
+     * Compute the trigrams of the lower case form of a hostname or partial
+     * hostname. Queries must use this method so that their trigrams agree with
+     * the indexed ones.
+     *
+     * @param name The hostname or partial hostname.
+     * @return The distinct trigrams; empty if the name is shorter than three characters.
+     */
+    public static Set<String> getTrigrams(final String name) {
+        final String lowerName = name.toLowerCase(Locale.getDefault());
+        final Set<String> trigrams = Sets.newTreeSet();
+        for (int i = 0; i + TRIGRAM_LENGTH <= lowerName.length(); ++i) {
+            trigrams.add(lowerName.substring(i, i + TRIGRAM_LENGTH));
+        }
+        return trigrams;
+    }
+
+    @Override
+    public void init(
+            final Connection conn,
+            final String schemaName,
+            final String triggerName,
+            final String tableName,
+            final boolean before,
+            final int type) throws SQLException {}
+
+    @Override
+    public void fire(final Connection conn, final Object[] oldRow, final Object[] newRow) throws SQLException {
+        if (oldRow != null && newRow != null && oldRow[NAME_INDEX].equals(newRow[NAME_INDEX])) {
+            return;
+        }
+        if (oldRow != null) {
+            try (PreparedStatement statement = conn.prepareStatement("DELETE FROM portal.hosts_name_trigrams WHERE host = ?")) {
+                statement.setLong(1, (long) oldRow[ID_INDEX]);
+                statement.executeUpdate();
+            }
+        }
+        if (newRow != null) {
+            try (PreparedStatement statement = conn.prepareStatement(
+                    "INSERT INTO portal.hosts_name_trigrams (host, trigram) VALUES (?, ?)")) {
+                for (final String trigram : getTrigrams((String) newRow[NAME_INDEX])) {
+                    statement.setLong(1, (long) newRow[ID_INDEX]);
+                    statement.setString(2, trigram);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // ignore
+    }
+
+    @Override
+    public void remove() {
+        // ignore
+    }
+
+    private static final int ID_INDEX = 0;
+    private static final int NAME_INDEX = 4;
+    private static final int TRIGRAM_LENGTH = 3;
+}
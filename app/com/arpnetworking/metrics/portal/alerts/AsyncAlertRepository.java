@@ -0,0 +1,148 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.alerts;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Alert;
+import models.internal.AlertQuery;
+import models.internal.Organization;
+import models.internal.QueryResult;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Asynchronous variant of the <code>AlertRepository</code>. Each call is
+ * executed against the wrapped repository on the repository executor.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Singleton
+public final class AsyncAlertRepository {
+
+    /**
+     * Public constructor.
+     *
+     * @param repository The <code>AlertRepository</code> to execute calls against.
+     * @param executor The <code>Executor</code> to execute calls on.
+     */
+    @Inject
+    public AsyncAlertRepository(final AlertRepository repository, @Named("RepositoryExecutor") final Executor executor) {
+        _repository = repository;
+        _executor = executor;
+    }
+
+    /**
+     * Get the <code>Alert</code> by identifier.
+     *
+     * @param identifier The <code>Alert</code> identifier.
+     * @param organization The organization owning the alert.
+     * @return <code>CompletionStage</code> of the matching <code>Alert</code> if found or <code>Optional.empty()</code>.
+     */
+    public CompletionStage<Optional<Alert>> get(final UUID identifier, final Organization organization) {
+        return supply(() -> _repository.get(identifier, organization));
+    }
+
+    /**
+     * Create a query against the alerts repository. Creating a query does not
+     * access the underlying store and is therefore synchronous.
+     *
+     * @param organization Organization to search in.
+     * @return Instance of <code>AlertQuery</code>.
+     */
+    public AlertQuery createQuery(final Organization organization) {
+        return _repository.createQuery(organization);
+    }
+
+    /**
+     * Query alerts.
+     *
+     * @param query Instance of <code>AlertQuery</code>.
+     * @return <code>CompletionStage</code> of the <code>QueryResult</code>.
+     */
+    public CompletionStage<QueryResult<Alert>> query(final AlertQuery query) {
+        return supply(() -> _repository.query(query));
+    }
+
+    /**
+     * Retrieve the total number of alerts in the repository.
+     *
+     * @param organization The organization owning the alerts.
+     * @return <code>CompletionStage</code> of the total number of alerts.
+     */
+    public CompletionStage<Long> getAlertCount(final Organization organization) {
+        return supply(() -> _repository.getAlertCount(organization));
+    }
+
+    /**
+     * Add a new alert or update an existing one in the repository.
+     *
+     * @param alert The alert to add to the repository.
+     * @param organization The organization owning the alert.
+     * @return <code>CompletionStage</code> completed when the alert is written.
+     */
+    public CompletionStage<Void> addOrUpdateAlert(final Alert alert, final Organization organization) {
+        return run(() -> _repository.addOrUpdateAlert(alert, organization));
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("repository", _repository)
+                .put("executor", _executor)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private <T> CompletionStage<T> supply(final Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, _executor);
+        } catch (final RejectedExecutionException e) {
+            // The rejection is returned as a failed stage like any other failure of the call
+            final CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    private CompletionStage<Void> run(final Runnable runnable) {
+        return supply(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    private final AlertRepository _repository;
+    private final Executor _executor;
+}
@@ -15,6 +15,7 @@
  */
 package com.arpnetworking.metrics.portal.alerts.impl;
 
+import com.arpnetworking.database.QueryCursor;
 import com.arpnetworking.metrics.portal.alerts.AlertRepository;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
@@ -22,7 +23,6 @@ import com.arpnetworking.steno.LoggerFactory;
 import com.avaje.ebean.Ebean;
 import com.avaje.ebean.ExpressionList;
 import com.avaje.ebean.Junction;
-import com.avaje.ebean.PagedList;
 import com.avaje.ebean.Query;
 import com.avaje.ebean.Transaction;
 import com.google.inject.Inject;
@@ -42,6 +42,7 @@ import play.Environment;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -134,17 +135,17 @@ public class DatabaseAlertRepository implements AlertRepository {
                 .log();
 
         // Create the base query
-        final PagedList<models.ebean.Alert> pagedAlerts = _alertQueryGenerator.createAlertQuery(query);
+        final QueryResult<models.ebean.Alert> pagedAlerts = _alertQueryGenerator.createAlertQuery(query);
 
         // Compute the etag
         // TODO(deepika): Obfuscate the etag [ISSUE-7]
         final Long etag = _alertQueryGenerator.getEtag(query.getOrganization());
 
         final List<Alert> values = new ArrayList<>();
-        pagedAlerts.getList().forEach(ebeanAlert -> values.add(convertFromEbeanAlert(ebeanAlert)));
+        pagedAlerts.values().forEach(ebeanAlert -> values.add(convertFromEbeanAlert(ebeanAlert)));
 
         // Transform the results
-        return new DefaultQueryResult<>(values, pagedAlerts.getTotalRowCount(), etag.toString());
+        return new DefaultQueryResult<>(values, pagedAlerts.total(), Optional.of(etag.toString()), pagedAlerts.nextCursor());
     }
 
     @Override
@@ -178,7 +179,7 @@ public class DatabaseAlertRepository implements AlertRepository {
                 isNewAlert = true;
             }
 
-            ebeanAlert.setOrganization(models.ebean.Organization.findByOrganization(organization));
+            ebeanAlert.setOrganization(models.ebean.Organization.refByOrganization(organization));
             ebeanAlert.setCluster(alert.getCluster());
             ebeanAlert.setUuid(alert.getId());
             ebeanAlert.setMetric(alert.getMetric());
@@ -278,12 +279,12 @@ public class DatabaseAlertRepository implements AlertRepository {
     public interface AlertQueryGenerator {
 
         /**
-         * Translate the <code>AlertQuery</code> to an Ebean <code>Query</code>.
+         * Translate the <code>AlertQuery</code> to an Ebean <code>Query</code> and execute it.
          *
          * @param query The repository agnostic <code>AlertQuery</code>.
-         * @return The database specific <code>PagedList</code> query result.
+         * @return The page of database specific alerts with the total and the next page cursor.
          */
-        PagedList<models.ebean.Alert> createAlertQuery(AlertQuery query);
+        QueryResult<models.ebean.Alert> createAlertQuery(AlertQuery query);
 
         /**
          * Save the <code>Alert</code> to the database. This needs to be executed in a transaction.
@@ -307,7 +308,47 @@ public class DatabaseAlertRepository implements AlertRepository {
     public static final class GenericQueryGenerator implements AlertQueryGenerator {
 
         @Override
-        public PagedList<models.ebean.Alert> createAlertQuery(final AlertQuery query) {
+        public QueryResult<models.ebean.Alert> createAlertQuery(final AlertQuery query) {
+            final int total = createFilteredQuery(query).findRowCount();
+
+            // Alerts are ordered by id; a cursor seeks past the last id while an offset skips rows
+            ExpressionList<models.ebean.Alert> ebeanExpressionList = createFilteredQuery(query);
+            if (query.getCursor().isPresent()) {
+                final List<String> keys = QueryCursor.decode(query.getCursor().get()).getKeys(CURSOR_ORDERING, 1);
+                ebeanExpressionList = ebeanExpressionList.gt("id", Long.parseLong(keys.get(0)));
+            }
+            final Query<models.ebean.Alert> ebeanQuery = ebeanExpressionList.orderBy().asc("id");
+            if (!query.getCursor().isPresent() && query.getOffset().isPresent()) {
+                ebeanQuery.setFirstRow(query.getOffset().get());
+            }
+
+            // Fetch one extra row to determine whether there is a next page
+            List<models.ebean.Alert> alerts = ebeanQuery.setMaxRows(query.getLimit() + 1).findList();
+            Optional<String> nextCursor = Optional.empty();
+            if (alerts.size() > query.getLimit()) {
+                alerts = alerts.subList(0, query.getLimit());
+                // An empty page has no last row to continue from
+                if (!alerts.isEmpty()) {
+                    nextCursor = Optional.of(new QueryCursor(
+                            CURSOR_ORDERING,
+                            Collections.singletonList(alerts.get(alerts.size() - 1).getId().toString()))
+                            .encode());
+                }
+            }
+            return new DefaultQueryResult<>(alerts, total, Optional.empty(), nextCursor);
+        }
+
+        @Override
+        public void saveAlert(final models.ebean.Alert alert) {
+            Ebean.save(alert);
+        }
+
+        @Override
+        public long getEtag(final Organization organization) {
+            return AlertEtags.getEtagByOrganization(organization);
+        }
+
+        private static ExpressionList<models.ebean.Alert> createFilteredQuery(final AlertQuery query) {
             ExpressionList<models.ebean.Alert> ebeanExpressionList = Ebean.find(models.ebean.Alert.class).where();
             ebeanExpressionList = ebeanExpressionList.eq("organization.uuid", query.getOrganization().getId());
             if (query.getCluster().isPresent()) {
@@ -335,22 +376,9 @@ public class DatabaseAlertRepository implements AlertRepository {
                 ebeanExpressionList = junction.contains("operator", query.getContains().get());
                 ebeanExpressionList = ebeanExpressionList.endJunction();
             }
-            final Query<models.ebean.Alert> ebeanQuery = ebeanExpressionList.query();
-            int pageOffset = 0;
-            if (query.getOffset().isPresent()) {
-                pageOffset = query.getOffset().get() / query.getLimit();
-            }
-            return ebeanQuery.findPagedList(pageOffset, query.getLimit());
+            return ebeanExpressionList;
         }
 
-        @Override
-        public void saveAlert(final models.ebean.Alert alert) {
-            Ebean.save(alert);
-        }
-
-        @Override
-        public long getEtag(final Organization organization) {
-            return AlertEtags.getEtagByOrganization(organization);
-        }
+        private static final String CURSOR_ORDERING = "id";
     }
 }
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.expressions;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Expression;
+import models.internal.ExpressionQuery;
+import models.internal.Organization;
+import models.internal.QueryResult;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Asynchronous variant of the <code>ExpressionRepository</code>. Each call is
+ * executed against the wrapped repository on the repository executor.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Singleton
+public final class AsyncExpressionRepository {
+
+    /**
+     * Public constructor.
+     *
+     * @param repository The <code>ExpressionRepository</code> to execute calls against.
+     * @param executor The <code>Executor</code> to execute calls on.
+     */
+    @Inject
+    public AsyncExpressionRepository(final ExpressionRepository repository, @Named("RepositoryExecutor") final Executor executor) {
+        _repository = repository;
+        _executor = executor;
+    }
+
+    /**
+     * Get the <code>Expression</code> by identifier.
+     *
+     * @param identifier The <code>Expression</code> identifier.
+     * @param organization The organization owning the expression.
+     * @return <code>CompletionStage</code> of the matching <code>Expression</code> if found or <code>Optional.empty()</code>.
+     */
+    public CompletionStage<Optional<Expression>> get(final UUID identifier, final Organization organization) {
+        return supply(() -> _repository.get(identifier, organization));
+    }
+
+    /**
+     * Create a query against the expressions repository. Creating a query
+     * does not access the underlying store and is therefore synchronous.
+     *
+     * @param organization Organization to search in.
+     * @return Instance of <code>ExpressionQuery</code>.
+     */
+    public ExpressionQuery createQuery(final Organization organization) {
+        return _repository.createQuery(organization);
+    }
+
+    /**
+     * Query expressions.
+     *
+     * @param query Instance of <code>ExpressionQuery</code>.
+     * @return <code>CompletionStage</code> of the <code>QueryResult</code>.
+     */
+    public CompletionStage<QueryResult<Expression>> query(final ExpressionQuery query) {
+        return supply(() -> _repository.query(query));
+    }
+
+    /**
+     * Retrieve the total number of expressions in the repository.
+     *
+     * @param organization The organization owning the expressions.
+     * @return <code>CompletionStage</code> of the total number of expressions.
+     */
+    public CompletionStage<Long> getExpressionCount(final Organization organization) {
+        return supply(() -> _repository.getExpressionCount(organization));
+    }
+
+    /**
+     * Add a new expression or update an existing one in the repository.
+     *
+     * @param expression The expression to add to the repository.
+     * @param organization The organization owning the expression.
+     * @return <code>CompletionStage</code> completed when the expression is written.
+     */
+    public CompletionStage<Void> addOrUpdateExpression(final Expression expression, final Organization organization) {
+        return run(() -> _repository.addOrUpdateExpression(expression, organization));
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("repository", _repository)
+                .put("executor", _executor)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private <T> CompletionStage<T> supply(final Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, _executor);
+        } catch (final RejectedExecutionException e) {
+            // The rejection is returned as a failed stage like any other failure of the call
+            final CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    private CompletionStage<Void> run(final Runnable runnable) {
+        return supply(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    private final ExpressionRepository _repository;
+    private final Executor _executor;
+}
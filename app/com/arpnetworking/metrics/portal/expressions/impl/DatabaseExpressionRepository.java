@@ -15,6 +15,7 @@
  */
 package com.arpnetworking.metrics.portal.expressions.impl;
 
+import com.arpnetworking.database.QueryCursor;
 import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
@@ -22,7 +23,6 @@ import com.arpnetworking.steno.LoggerFactory;
 import com.avaje.ebean.Ebean;
 import com.avaje.ebean.ExpressionList;
 import com.avaje.ebean.Junction;
-import com.avaje.ebean.PagedList;
 import com.avaje.ebean.Query;
 import com.avaje.ebean.Transaction;
 import com.google.inject.Inject;
@@ -38,6 +38,8 @@ import play.Configuration;
 import play.Environment;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -131,7 +133,7 @@ public class DatabaseExpressionRepository implements ExpressionRepository {
                 .log();
 
         // Create the base query
-        final PagedList<models.ebean.Expression> pagedExpressions = _expressionQueryGenerator.createExpressionQuery(query);
+        final QueryResult<models.ebean.Expression> pagedExpressions = _expressionQueryGenerator.createExpressionQuery(query);
 
         // Compute the etag
         // TODO(deepika): Obfuscate the etag [ISSUE-7]
@@ -139,12 +141,13 @@ public class DatabaseExpressionRepository implements ExpressionRepository {
 
         // Transform the results
         return new DefaultQueryResult<>(
-                pagedExpressions.getList()
+                pagedExpressions.values()
                         .stream()
                         .map(expression -> convertFromEbeanExpression(expression))
                         .collect(Collectors.toList()),
-                pagedExpressions.getTotalRowCount(),
-                etag.toString());
+                pagedExpressions.total(),
+                Optional.of(etag.toString()),
+                pagedExpressions.nextCursor());
     }
 
     @Override
@@ -182,7 +185,7 @@ public class DatabaseExpressionRepository implements ExpressionRepository {
             ebeanExpression.setMetric(expression.getMetric());
             ebeanExpression.setScript(expression.getScript());
             ebeanExpression.setService(expression.getService());
-            ebeanExpression.setOrganization(models.ebean.Organization.findByOrganization(organization));
+            ebeanExpression.setOrganization(models.ebean.Organization.refByOrganization(organization));
             _expressionQueryGenerator.saveExpression(ebeanExpression);
             transaction.commit();
 
@@ -236,12 +239,12 @@ public class DatabaseExpressionRepository implements ExpressionRepository {
     public interface ExpressionQueryGenerator {
 
         /**
-         * Translate the <code>ExpressionQuery</code> to an Ebean <code>Query</code>.
+         * Translate the <code>ExpressionQuery</code> to an Ebean <code>Query</code> and execute it.
          *
          * @param query The repository agnostic <code>ExpressionQuery</code>.
-         * @return The database specific <code>PagedList</code> query result.
+         * @return The page of database specific expressions with the total and the next page cursor.
          */
-        PagedList<models.ebean.Expression> createExpressionQuery(ExpressionQuery query);
+        QueryResult<models.ebean.Expression> createExpressionQuery(ExpressionQuery query);
 
         /**
          * Save the <code>Expression</code> to the database. This needs to be executed in a transaction.
@@ -265,7 +268,47 @@ public class DatabaseExpressionRepository implements ExpressionRepository {
     public static final class GenericQueryGenerator implements ExpressionQueryGenerator {
 
         @Override
-        public PagedList<models.ebean.Expression> createExpressionQuery(final ExpressionQuery query) {
+        public QueryResult<models.ebean.Expression> createExpressionQuery(final ExpressionQuery query) {
+            final int total = createFilteredQuery(query).findRowCount();
+
+            // Expressions are ordered by id; a cursor seeks past the last id while an offset skips rows
+            ExpressionList<models.ebean.Expression> ebeanExpressionList = createFilteredQuery(query);
+            if (query.getCursor().isPresent()) {
+                final List<String> keys = QueryCursor.decode(query.getCursor().get()).getKeys(CURSOR_ORDERING, 1);
+                ebeanExpressionList = ebeanExpressionList.gt("id", Long.parseLong(keys.get(0)));
+            }
+            final Query<models.ebean.Expression> ebeanQuery = ebeanExpressionList.orderBy().asc("id");
+            if (!query.getCursor().isPresent() && query.getOffset().isPresent()) {
+                ebeanQuery.setFirstRow(query.getOffset().get());
+            }
+
+            // Fetch one extra row to determine whether there is a next page
+            List<models.ebean.Expression> expressions = ebeanQuery.setMaxRows(query.getLimit() + 1).findList();
+            Optional<String> nextCursor = Optional.empty();
+            if (expressions.size() > query.getLimit()) {
+                expressions = expressions.subList(0, query.getLimit());
+                // An empty page has no last row to continue from
+                if (!expressions.isEmpty()) {
+                    nextCursor = Optional.of(new QueryCursor(
+                            CURSOR_ORDERING,
+                            Collections.singletonList(expressions.get(expressions.size() - 1).getId().toString()))
+                            .encode());
+                }
+            }
+            return new DefaultQueryResult<>(expressions, total, Optional.empty(), nextCursor);
+        }
+
+        @Override
+        public void saveExpression(final models.ebean.Expression expression) {
+            Ebean.save(expression);
+        }
+
+        @Override
+        public long getEtag(final Organization organization) {
+            return ExpressionEtags.getEtagByOrganization(organization);
+        }
+
+        private static ExpressionList<models.ebean.Expression> createFilteredQuery(final ExpressionQuery query) {
             ExpressionList<models.ebean.Expression> ebeanExpressionList = Ebean.find(models.ebean.Expression.class).where();
             ebeanExpressionList = ebeanExpressionList.eq("organization.uuid", query.getOrganization().getId());
             if (query.getCluster().isPresent()) {
@@ -287,23 +330,9 @@ public class DatabaseExpressionRepository implements ExpressionRepository {
                 ebeanExpressionList = junction.contains("script", query.getContains().get());
                 ebeanExpressionList = ebeanExpressionList.endJunction();
             }
-            final Query<models.ebean.Expression> ebeanQuery = ebeanExpressionList.query();
-
-            int pageOffset = 0;
-            if (query.getOffset().isPresent()) {
-                pageOffset = query.getOffset().get() / query.getLimit();
-            }
-            return ebeanQuery.findPagedList(pageOffset, query.getLimit());
-        }
-
-        @Override
-        public void saveExpression(final models.ebean.Expression expression) {
-            Ebean.save(expression);
+            return ebeanExpressionList;
         }
 
-        @Override
-        public long getEtag(final Organization organization) {
-            return ExpressionEtags.getEtagByOrganization(organization);
-        }
+        private static final String CURSOR_ORDERING = "id";
     }
 }
@@ -0,0 +1,200 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.QueryResult;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Asynchronous variant of the <code>HostRepository</code>. Each call is
+ * executed against the wrapped repository on the repository executor so that
+ * a slow store blocks the bounded repository threads instead of the threads
+ * serving requests.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Singleton
+public final class AsyncHostRepository {
+
+    /**
+     * Public constructor.
+     *
+     * @param repository The <code>HostRepository</code> to execute calls against.
+     * @param executor The <code>Executor</code> to execute calls on.
+     */
+    @Inject
+    public AsyncHostRepository(final HostRepository repository, @Named("RepositoryExecutor") final Executor executor) {
+        _repository = repository;
+        _executor = executor;
+    }
+
+    /**
+     * Create a query against the hosts repository. Creating a query does not
+     * access the underlying store and is therefore synchronous.
+     *
+     * @param organization Organization to search in.
+     * @return Instance of <code>HostQuery</code>.
+     */
+    public HostQuery createQuery(final Organization organization) {
+        return _repository.createQuery(organization);
+    }
+
+    /**
+     * Query the hosts repository.
+     *
+     * @param query Instance of <code>HostQuery</code>.
+     * @return <code>CompletionStage</code> of the <code>QueryResult</code>.
+     */
+    public CompletionStage<QueryResult<Host>> query(final HostQuery query) {
+        return supply(() -> _repository.query(query));
+    }
+
+    /**
+     * Stream every host matching the query. The stream reads the hosts from
+     * the underlying store as it is consumed and must be consumed and closed
+     * off the threads serving requests.
+     *
+     * @param query Instance of <code>HostQuery</code>.
+     * @return <code>Stream</code> of the matching hosts.
+     */
+    public Stream<Host> export(final HostQuery query) {
+        return _repository.export(query);
+    }
+
+    /**
+     * Add a new host or update an existing host in the repository.
+     *
+     * @param host The host to add to the repository.
+     * @param organization The organization owning the host.
+     * @return <code>CompletionStage</code> completed when the host is written.
+     */
+    public CompletionStage<Void> addOrUpdateHost(final Host host, final Organization organization) {
+        return run(() -> _repository.addOrUpdateHost(host, organization));
+    }
+
+    /**
+     * Add new hosts or update existing hosts in the repository.
+     *
+     * @param hosts The hosts to add to the repository.
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> completed when the hosts are written.
+     */
+    public CompletionStage<Void> addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        return run(() -> _repository.addOrUpdateHosts(hosts, organization));
+    }
+
+    /**
+     * Retrieve the total number of hosts in the repository.
+     *
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> of the total number of hosts.
+     */
+    public CompletionStage<Long> getHostCount(final Organization organization) {
+        return supply(() -> _repository.getHostCount(organization));
+    }
+
+    /**
+     * Retrieve the number of hosts with metrics software in the specified
+     * state.
+     *
+     * @param metricsSoftwareState The state to filter on.
+     * @param organization The organization owning the host.
+     * @return <code>CompletionStage</code> of the number of hosts in the specified state.
+     */
+    public CompletionStage<Long> getHostCount(final MetricsSoftwareState metricsSoftwareState, final Organization organization) {
+        return supply(() -> _repository.getHostCount(metricsSoftwareState, organization));
+    }
+
+    /**
+     * Retrieve the number of hosts grouped by cluster and metrics software
+     * state.
+     *
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> of the <code>List</code> of non-empty host facets.
+     */
+    public CompletionStage<List<HostFacet>> getHostFacets(final Organization organization) {
+        return supply(() -> _repository.getHostFacets(organization));
+    }
+
+    /**
+     * Retrieve the etag representing the current state of the hosts owned by
+     * the organization.
+     *
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> of the <code>Optional</code> etag.
+     */
+    public CompletionStage<Optional<String>> getEtag(final Organization organization) {
+        return supply(() -> _repository.getEtag(organization));
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("repository", _repository)
+                .put("executor", _executor)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private <T> CompletionStage<T> supply(final Supplier<T> supplier) {
+        try {
+            return CompletableFuture.supplyAsync(supplier, _executor);
+        } catch (final RejectedExecutionException e) {
+            // The rejection is returned as a failed stage like any other failure of the call
+            final CompletableFuture<T> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(e);
+            return rejected;
+        }
+    }
+
+    private CompletionStage<Void> run(final Runnable runnable) {
+        return supply(() -> {
+            runnable.run();
+            return null;
+        });
+    }
+
+    private final HostRepository _repository;
+    private final Executor _executor;
+}
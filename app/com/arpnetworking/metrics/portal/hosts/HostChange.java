@@ -0,0 +1,150 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Host;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+
+import java.io.Serializable;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Message published to the cluster for each write to the host repository.
+ * The message only carries plain values so that it can be sent between
+ * nodes.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class HostChange implements Serializable {
+
+    /**
+     * Create a change for a host which was added or updated.
+     *
+     * @param host The host written to the repository.
+     * @param organization The organization owning the host.
+     * @return New instance of <code>HostChange</code>.
+     */
+    public static HostChange updated(final Host host, final Organization organization) {
+        return new HostChange(
+                Type.UPDATED,
+                organization.getId(),
+                host.getHostname(),
+                host.getCluster().orElse(null),
+                host.getMetricsSoftwareState());
+    }
+
+    /**
+     * Create a change for a host which was deleted.
+     *
+     * @param hostname The hostname deleted from the repository.
+     * @param organization The organization owning the host.
+     * @return New instance of <code>HostChange</code>.
+     */
+    public static HostChange deleted(final String hostname, final Organization organization) {
+        return new HostChange(Type.DELETED, organization.getId(), hostname, null, null);
+    }
+
+    public Type getType() {
+        return _type;
+    }
+
+    public UUID getOrganizationId() {
+        return _organizationId;
+    }
+
+    public String getHostname() {
+        return _hostname;
+    }
+
+    public Optional<String> getCluster() {
+        return Optional.ofNullable(_cluster);
+    }
+
+    /**
+     * Accessor for the state of the metrics software on the host. The state
+     * is absent for deleted hosts.
+     *
+     * @return The state of the metrics software on the host.
+     */
+    public Optional<MetricsSoftwareState> getMetricsSoftwareState() {
+        return Optional.ofNullable(_metricsSoftwareState);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("type", _type)
+                .put("organizationId", _organizationId)
+                .put("hostname", _hostname)
+                .put("cluster", _cluster)
+                .put("metricsSoftwareState", _metricsSoftwareState)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private HostChange(
+            final Type type,
+            final UUID organizationId,
+            final String hostname,
+            final String cluster,
+            final MetricsSoftwareState metricsSoftwareState) {
+        _type = type;
+        _organizationId = organizationId;
+        _hostname = hostname;
+        _cluster = cluster;
+        _metricsSoftwareState = metricsSoftwareState;
+    }
+
+    private final Type _type;
+    private final UUID _organizationId;
+    private final String _hostname;
+    private final String _cluster;
+    private final MetricsSoftwareState _metricsSoftwareState;
+
+    /**
+     * The distributed pub-sub topic the changes are published to.
+     */
+    public static final String TOPIC = "host-changes";
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The kind of change.
+     */
+    public enum Type {
+        /**
+         * The host was added or updated.
+         */
+        UPDATED,
+        /**
+         * The host was deleted.
+         */
+        DELETED
+    }
+}
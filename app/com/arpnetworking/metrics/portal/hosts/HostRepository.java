@@ -16,11 +16,17 @@
 package com.arpnetworking.metrics.portal.hosts;
 
 import models.internal.Host;
+import models.internal.HostFacet;
 import models.internal.HostQuery;
 import models.internal.MetricsSoftwareState;
 import models.internal.Organization;
 import models.internal.QueryResult;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
 /**
  * Interface for repository of hosts available for metrics. The repository is
  * designed around the host name as the primary key.
@@ -48,6 +54,17 @@ public interface HostRepository extends AutoCloseable {
      */
     void addOrUpdateHost(Host host, Organization organization);
 
+    /**
+     * Add new hosts or update existing hosts in the repository. Implementations
+     * should apply the hosts in as few round trips to the underlying store as
+     * possible. The hosts are stored when this returns; if some of them were
+     * not stored a <code>HostWriteException</code> listing them is thrown.
+     *
+     * @param hosts The hosts to add to the repository.
+     * @param organization The organization owning the hosts.
+     */
+    void addOrUpdateHosts(Collection<? extends Host> hosts, Organization organization);
+
     /**
      * Remove the host by hostname from the repository.
      *
@@ -56,6 +73,18 @@ public interface HostRepository extends AutoCloseable {
      */
     void deleteHost(String hostname, Organization organization);
 
+    /**
+     * Remove the hosts by hostname from the repository. Implementations
+     * should remove the hosts in as few operations against the underlying
+     * store as possible. Hostnames which are not found are ignored. If some
+     * of the hosts were not removed a <code>HostWriteException</code> listing
+     * them is thrown.
+     *
+     * @param hostnames The hostnames of the hosts to remove.
+     * @param organization The organization owning the hosts.
+     */
+    void deleteHosts(Collection<String> hostnames, Organization organization);
+
     /**
      * Create a query against the hosts repository.
      *
@@ -72,6 +101,18 @@ public interface HostRepository extends AutoCloseable {
      */
     QueryResult<Host> query(HostQuery query);
 
+    /**
+     * Stream every host matching the query. The limit, offset and cursor of
+     * the query are ignored. Implementations should read the hosts from the
+     * underlying store incrementally instead of loading them into memory. The
+     * returned stream may hold resources of the underlying store and must be
+     * closed.
+     *
+     * @param query Instance of <code>HostQuery</code>.
+     * @return <code>Stream</code> of the matching hosts.
+     */
+    Stream<Host> export(HostQuery query);
+
     /**
      * Retrieve the total number of hosts in the repository.
      *
@@ -89,4 +130,27 @@ public interface HostRepository extends AutoCloseable {
      * @return The number of hosts in the specified state.
      */
     long getHostCount(MetricsSoftwareState metricsSoftwareState, Organization organization);
+
+    /**
+     * Retrieve the number of hosts grouped by cluster and metrics software
+     * state. Only combinations with at least one host are returned; hosts
+     * without a cluster are grouped under an absent cluster. Implementations
+     * should compute the counts in the underlying store instead of reading
+     * the hosts.
+     *
+     * @param organization The organization owning the hosts.
+     * @return The <code>List</code> of non-empty host facets.
+     */
+    List<HostFacet> getHostFacets(Organization organization);
+
+    /**
+     * Retrieve the etag representing the current state of the hosts owned by
+     * the organization. The etag changes whenever one of the organization's
+     * hosts is added, updated or removed and matches the etag of query results.
+     * Retrieving the etag is expected to be much cheaper than any query.
+     *
+     * @param organization The organization owning the hosts.
+     * @return The <code>Optional</code> etag; absent if changes are not tracked.
+     */
+    Optional<String> getEtag(Organization organization);
 }
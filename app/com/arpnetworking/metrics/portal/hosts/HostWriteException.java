@@ -0,0 +1,61 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Thrown by a <code>HostRepository</code> when some of the hosts of a write
+ * were not stored. The hosts which are not listed were stored.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class HostWriteException extends RuntimeException {
+
+    /**
+     * Public constructor.
+     *
+     * @param message The detail message.
+     * @param failedHostnames The hostnames of the hosts which were not stored.
+     */
+    public HostWriteException(final String message, final Collection<String> failedHostnames) {
+        super(message);
+        _failedHostnames = ImmutableList.copyOf(failedHostnames);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param message The detail message.
+     * @param failedHostnames The hostnames of the hosts which were not stored.
+     * @param cause The cause of the failure.
+     */
+    public HostWriteException(final String message, final Collection<String> failedHostnames, final Throwable cause) {
+        super(message, cause);
+        _failedHostnames = ImmutableList.copyOf(failedHostnames);
+    }
+
+    public List<String> getFailedHostnames() {
+        return _failedHostnames;
+    }
+
+    private final ImmutableList<String> _failedHostnames;
+
+    private static final long serialVersionUID = 1L;
+}
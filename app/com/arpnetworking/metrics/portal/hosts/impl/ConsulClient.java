@@ -28,6 +28,7 @@ import play.libs.ws.WSResponse;
 
 import java.io.IOException;
 import java.net.URI;
+import java.time.Duration;
 import java.util.Optional;
 import java.util.concurrent.CompletionStage;
 
@@ -50,6 +51,42 @@ public final class ConsulClient {
                 .thenApply(this::parseWSResponse);
     }
 
+    /**
+     * Calls the Consul API to get a list of hosts using a blocking query. The
+     * response is returned when the catalog index exceeds the specified index
+     * or when the wait time elapses, whichever happens first.
+     *
+     * See: https://www.consul.io/api/index.html#blocking-queries
+     *
+     * @param index The last catalog index observed; zero to return immediately.
+     * @param wait The maximum duration to block for.
+     * @return A Promise containing a {@link HostListResponse}
+     */
+    public CompletionStage<HostListResponse> getHostList(final long index, final Duration wait) {
+        final String blockingQuery = String.format("index=%d&wait=%ds", index, wait.getSeconds());
+        return _client
+                .url(_baseUrl + "/v1/catalog/nodes" + _query.map(q -> q + "&").orElse("?") + blockingQuery)
+                // Consul adds up to wait/16 of jitter to the wait time
+                .setRequestTimeout(wait.plus(wait.dividedBy(16)).plus(REQUEST_TIMEOUT_PADDING).toMillis())
+                .get()
+                .thenApply(response -> new HostListResponse(
+                        parseWSResponse(response),
+                        parseIndex(response.getHeader(CONSUL_INDEX_HEADER))));
+    }
+
+    private static long parseIndex(final String value) {
+        if (value == null) {
+            throw new RuntimeException(String.format("Missing %s header in response from Consul", CONSUL_INDEX_HEADER));
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (final NumberFormatException e) {
+            throw new RuntimeException(
+                    String.format("Invalid %s header in response from Consul; value=%s", CONSUL_INDEX_HEADER, value),
+                    e);
+        }
+    }
+
     private ImmutableList<Host> parseWSResponse(final WSResponse response) {
         try {
             if (response.getStatus() / 100 != 2) {
@@ -80,6 +117,8 @@ public final class ConsulClient {
     private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
     private static final TypeReference<ImmutableList<Host>> HOST_LIST_RESPONSE_TYPE_REFERENCE =
             new TypeReference<ImmutableList<Host>>() {};
+    private static final String CONSUL_INDEX_HEADER = "X-Consul-Index";
+    private static final Duration REQUEST_TIMEOUT_PADDING = Duration.ofSeconds(5);
 
     /**
      * Implementation of the Builder pattern for ConsulClient.
@@ -138,6 +177,29 @@ public final class ConsulClient {
         private WSClient _client;
     }
 
+    /**
+     * Represents the response to a blocking query for hosts from the Consul API.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class HostListResponse {
+        public ImmutableList<Host> getHosts() {
+            return _hosts;
+        }
+
+        public long getIndex() {
+            return _index;
+        }
+
+        private HostListResponse(final ImmutableList<Host> hosts, final long index) {
+            _hosts = hosts;
+            _index = index;
+        }
+
+        private final ImmutableList<Host> _hosts;
+        private final long _index;
+    }
+
     /**
      * Represents a host from the Consul API.
      *
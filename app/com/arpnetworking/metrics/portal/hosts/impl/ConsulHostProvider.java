@@ -15,10 +15,10 @@
  */
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import akka.actor.Cancellable;
 import akka.actor.Status;
 import akka.actor.UntypedActor;
 import akka.pattern.PatternsCS;
-import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
@@ -29,13 +29,34 @@ import models.internal.Organization;
 import models.internal.impl.DefaultHost;
 import play.Configuration;
 import play.libs.ws.WSClient;
+import scala.concurrent.duration.FiniteDuration;
 
 import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Host provider that uses the Consul API to get host data.
  *
+ * By default the catalog is polled every interval. When watch is enabled the
+ * provider instead issues consecutive blocking queries against the catalog and
+ * re-reads it only when its index changes; the interval is then used as the
+ * back off after a failed query. Consecutive blocking queries start at least
+ * the configured minimum watch interval apart so that a query returning early
+ * does not turn the watch into a busy loop.
+ *
+ * Hosts are written through the <code>HostWriter</code>. While the writes of
+ * the previous sync are pending the provider skips ticks, or in watch mode
+ * backs off for the interval, instead of reading the catalog again. Hosts
+ * missing from the configured number of consecutive catalog reads are expired;
+ * a blocking query which returns without a change counts as a catalog read.
+ * Before its first read the provider is seeded with the hosts already in the
+ * repository so that hosts which disappeared while it was not running expire
+ * as well, unless it is merged by a <code>MultiProvider</code> which seeds its
+ * merger instead.
+ *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
  */
 public final class ConsulHostProvider extends UntypedActor {
@@ -43,23 +64,38 @@ public final class ConsulHostProvider extends UntypedActor {
     /**
      * Public constructor.
      *
-     * @param hostRepository Repository to store hosts.
+     * @param hostWriter Writer to store hosts.
      * @param wsClient Webservice client used to make HTTP service calls.
      * @param configuration Play configuration.
      */
     @Inject
     public ConsulHostProvider(
-            final HostRepository hostRepository,
+            final HostWriter hostWriter,
             final WSClient wsClient,
             @Assisted final Configuration configuration) {
-        _hostRepository = hostRepository;
-        getContext().system().scheduler().schedule(
-                ConfigurationHelper.getFiniteDuration(configuration, "initialDelay"),
-                ConfigurationHelper.getFiniteDuration(configuration, "interval"),
-                getSelf(),
-                TICK,
-                getContext().dispatcher(),
-                getSelf());
+        _writes = new HostWrites(hostWriter, getContext(), configuration);
+        _fingerprints = new HostFingerprintTable(configuration.getInt("expirySyncs", DEFAULT_EXPIRY_SYNCS));
+        _interval = ConfigurationHelper.getFiniteDuration(configuration, "interval");
+        _isWatchEnabled = configuration.getBoolean("watch", false);
+        _watchWait = Duration.ofMillis(configuration.getMilliseconds("watchWait", DEFAULT_WATCH_WAIT_MILLIS));
+        _watchMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(
+                configuration.getMilliseconds("watchMinInterval", DEFAULT_WATCH_MIN_INTERVAL_MILLIS));
+        if (_isWatchEnabled) {
+            _cancellable = getContext().system().scheduler().scheduleOnce(
+                    ConfigurationHelper.getFiniteDuration(configuration, "initialDelay"),
+                    getSelf(),
+                    WATCH,
+                    getContext().dispatcher(),
+                    getSelf());
+        } else {
+            _cancellable = getContext().system().scheduler().schedule(
+                    ConfigurationHelper.getFiniteDuration(configuration, "initialDelay"),
+                    _interval,
+                    getSelf(),
+                    TICK,
+                    getContext().dispatcher(),
+                    getSelf());
+        }
         _client = new ConsulClient.Builder()
                 .setBaseUrl(URI.create(configuration.getString("baseUrl")))
                 .setQuery(configuration.getString("query"))
@@ -67,27 +103,103 @@ public final class ConsulHostProvider extends UntypedActor {
                 .build();
     }
 
+    @Override
+    public void postStop() {
+        _cancellable.cancel();
+        if (_watchCancellable != null) {
+            _watchCancellable.cancel();
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
     @Override
     public void onReceive(final Object message) throws Exception {
         if (TICK.equals(message)) {
+            if (!_isSeeded) {
+                seed();
+                return;
+            }
+            if (_writes.isPending()) {
+                LOGGER.debug()
+                        .setMessage("Skipping search; previous writes still pending")
+                        .addData("actor", self())
+                        .log();
+                return;
+            }
             LOGGER.info()
                     .setMessage("Searching for added/updated hosts")
                     .addData("actor", self())
                     .log();
             PatternsCS.pipe(_client.getHostList(), context().dispatcher()).to(self(), self());
+        } else if (WATCH.equals(message)) {
+            if (!_isSeeded) {
+                seed();
+                return;
+            }
+            if (_writes.isPending()) {
+                LOGGER.debug()
+                        .setMessage("Delaying watch; previous writes still pending")
+                        .addData("actor", self())
+                        .log();
+                scheduleWatch(_interval);
+                return;
+            }
+            LOGGER.debug()
+                    .setMessage("Watching for added/updated hosts")
+                    .addData("actor", self())
+                    .addData("index", _index)
+                    .log();
+            _watchStartNanos = System.nanoTime();
+            PatternsCS.pipe(_client.getHostList(_index, _watchWait), context().dispatcher()).to(self(), self());
+        } else if (message instanceof ConsulClient.HostListResponse) {
+            final ConsulClient.HostListResponse response = (ConsulClient.HostListResponse) message;
+            final long index = response.getIndex();
+            // The blocking query returns the unchanged catalog when the wait elapses; it still counts as a sync for expiry
+            synchronize(response.getHosts());
+            // Reset the index if it goes backwards and never block on index zero
+            _index = index < _index ? 0 : Math.max(1, index);
+            // Blocking queries may return early (e.g. the index resets or changes rapidly); rate limit them
+            final long remainingNanos = _watchMinIntervalNanos - (System.nanoTime() - _watchStartNanos);
+            if (remainingNanos > 0) {
+                scheduleWatch(FiniteDuration.create(remainingNanos, TimeUnit.NANOSECONDS));
+            } else {
+                self().tell(WATCH, self());
+            }
         } else if (message instanceof List) {
             @SuppressWarnings("unchecked")
             final List<ConsulClient.Host> hostList = (List<ConsulClient.Host>) message;
-            for (final ConsulClient.Host host : hostList) {
-                final models.internal.Host dh = new DefaultHost.Builder()
-                        .setHostname(host.getNode())
-                        .setMetricsSoftwareState(MetricsSoftwareState.UNKNOWN)
-                        .build();
-                _hostRepository.addOrUpdateHost(dh, Organization.DEFAULT);
+            synchronize(hostList);
+        } else if (message instanceof HostWrites.Seed) {
+            final HostWrites.Seed seed = (HostWrites.Seed) message;
+            _fingerprints.seed(seed.getHosts());
+            if (!seed.isLast()) {
+                return;
             }
+            _isSeeded = true;
+            LOGGER.info()
+                    .setMessage("Seeded fingerprints from repository")
+                    .addData("actor", self())
+                    .addData("fingerprints", _fingerprints)
+                    .log();
+            self().tell(_isWatchEnabled ? WATCH : TICK, self());
+        } else if (message instanceof HostWrites.Failed) {
+            final HostWrites.Failed failed = (HostWrites.Failed) message;
+            LOGGER.warn()
+                    .setMessage("Failed to write hosts; retrying on next search")
+                    .addData("actor", self())
+                    .addData("hostCount", failed.getHosts().size())
+                    .log();
+            _fingerprints.invalidate(failed.getHosts());
+        } else if (message instanceof HostWrites.ExpireFailed) {
+            final HostWrites.ExpireFailed failed = (HostWrites.ExpireFailed) message;
+            LOGGER.warn()
+                    .setMessage("Failed to delete hosts; retrying on next search")
+                    .addData("actor", self())
+                    .addData("hostCount", failed.getKeys().length)
+                    .log();
+            _fingerprints.restore(failed.getKeys());
         } else if (message instanceof Status.Failure) {
             final Status.Failure failure = (Status.Failure) message;
             LOGGER.warn()
@@ -95,6 +207,11 @@ public final class ConsulHostProvider extends UntypedActor {
                     .addData("actor", self())
                     .setThrowable(failure.cause())
                     .log();
+            if (_isWatchEnabled) {
+                // Back off before resuming the watch; the catalog is re-read in full
+                _index = 0;
+                scheduleWatch(_interval);
+            }
         } else {
             LOGGER.warn()
                     .setMessage("Unhandled message")
@@ -105,9 +222,72 @@ public final class ConsulHostProvider extends UntypedActor {
         }
     }
 
-    private final HostRepository _hostRepository;
+    private void seed() {
+        // Hosts already in the repository expire unless the first catalog reads see them
+        if (!_isSeedRequested) {
+            _isSeedRequested = true;
+            _writes.seed(Organization.DEFAULT);
+        }
+    }
+
+    private void scheduleWatch(final FiniteDuration delay) {
+        // At most one watch is scheduled at a time; it is cancelled if the provider stops first
+        if (_watchCancellable != null) {
+            _watchCancellable.cancel();
+        }
+        _watchCancellable = getContext().system().scheduler().scheduleOnce(
+                delay,
+                getSelf(),
+                WATCH,
+                getContext().dispatcher(),
+                getSelf());
+    }
+
+    private void synchronize(final List<ConsulClient.Host> hostList) {
+        _fingerprints.beginSync();
+        final List<models.internal.Host> changedHosts = new ArrayList<>();
+        for (final ConsulClient.Host host : hostList) {
+            final models.internal.Host dh = new DefaultHost.Builder()
+                    .setHostname(host.getNode())
+                    .setMetricsSoftwareState(MetricsSoftwareState.UNKNOWN)
+                    .build();
+            if (_fingerprints.isChanged(dh)) {
+                changedHosts.add(dh);
+            }
+        }
+        if (!changedHosts.isEmpty()) {
+            _writes.addOrUpdateHosts(changedHosts, Organization.DEFAULT);
+            _fingerprints.putAll(changedHosts);
+        }
+        final long[] expiredKeys = _fingerprints.endSync();
+        _writes.completeSync(expiredKeys, Organization.DEFAULT);
+        LOGGER.info()
+                .setMessage("Completed search for added/updated hosts")
+                .addData("actor", self())
+                .addData("hostCount", hostList.size())
+                .addData("changedCount", changedHosts.size())
+                .addData("expiredCount", expiredKeys.length)
+                .log();
+    }
+
+    private final HostWrites _writes;
     private final ConsulClient _client;
+    private final Cancellable _cancellable;
+    private final HostFingerprintTable _fingerprints;
+    private final FiniteDuration _interval;
+    private final boolean _isWatchEnabled;
+    private final Duration _watchWait;
+    private final long _watchMinIntervalNanos;
+    private Cancellable _watchCancellable;
+    private long _index = 0;
+    private long _watchStartNanos;
+    private boolean _isSeedRequested = false;
+    private boolean _isSeeded = false;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ConsulHostProvider.class);
     private static final String TICK = "tick";
+    private static final int DEFAULT_EXPIRY_SYNCS = 3;
+    private static final String WATCH = "watch";
+    private static final long DEFAULT_WATCH_WAIT_MILLIS = 300000;
+    private static final long DEFAULT_WATCH_MIN_INTERVAL_MILLIS = 1000;
 }
@@ -15,38 +15,60 @@
  */
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import com.arpnetworking.database.QueryCursor;
+import com.arpnetworking.database.h2.triggers.HostsUpdateNameTrigramsTrigger;
 import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.avaje.ebean.Ebean;
+import com.avaje.ebean.Expr;
 import com.avaje.ebean.ExpressionList;
-import com.avaje.ebean.PagedList;
 import com.avaje.ebean.Query;
+import com.avaje.ebean.QueryIterator;
 import com.avaje.ebean.RawSql;
 import com.avaje.ebean.RawSqlBuilder;
+import com.avaje.ebean.SqlRow;
+import com.avaje.ebean.SqlUpdate;
 import com.avaje.ebean.Transaction;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.inject.Inject;
+import models.ebean.HostEtags;
 import models.internal.Host;
+import models.internal.HostFacet;
 import models.internal.HostQuery;
 import models.internal.MetricsSoftwareState;
 import models.internal.Organization;
 import models.internal.QueryResult;
 import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultHostFacet;
 import models.internal.impl.DefaultHostQuery;
 import models.internal.impl.DefaultQueryResult;
 import play.Configuration;
 import play.Environment;
 
-import java.sql.Timestamp;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.persistence.PersistenceException;
 
 /**
  * Implementation of <code>HostRepository</code> using SQL database.
@@ -104,33 +126,49 @@ public class DatabaseHostRepository implements HostRepository {
                 .addData("organization", organization)
                 .log();
 
-        final Transaction transaction = Ebean.beginTransaction();
-        try {
-            models.ebean.Host ebeanHost = Ebean.find(models.ebean.Host.class)
-                    .where()
-                    .eq("organization.uuid", organization.getId())
-                    .eq("name", host.getHostname())
-                    .findUnique();
-            boolean isNewHost = false;
-            if (ebeanHost == null) {
-                ebeanHost = new models.ebean.Host();
-                isNewHost = true;
-            }
-            ebeanHost.setCluster(host.getCluster().orElse(null));
-            ebeanHost.setMetricsSoftwareState(host.getMetricsSoftwareState().toString());
-            ebeanHost.setName(host.getHostname());
-            ebeanHost.setOrganization(models.ebean.Organization.findByOrganization(organization));
-            _hostQueryGenerator.saveHost(ebeanHost);
+        final models.ebean.Organization ebeanOrganization = models.ebean.Organization.refByOrganization(organization);
+        try (Transaction transaction = Ebean.beginTransaction()) {
+            final boolean isWritten = _hostQueryGenerator.upsertHost(host, ebeanOrganization);
             transaction.commit();
 
             LOGGER.info()
                     .setMessage("Upserted host")
                     .addData("host", host)
                     .addData("organization", organization)
-                    .addData("isCreated", isNewHost)
+                    .addData("isWritten", isWritten)
+                    .log();
+        }
+    }
+
+    @Override
+    public void addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Adding or updating hosts")
+                .addData("hostCount", hosts.size())
+                .addData("organization", organization)
+                .log();
+        if (hosts.isEmpty()) {
+            return;
+        }
+
+        // The last occurrence of a hostname wins
+        final Map<String, Host> hostsByName = Maps.newLinkedHashMap();
+        for (final Host host : hosts) {
+            hostsByName.put(host.getHostname(), host);
+        }
+
+        final models.ebean.Organization ebeanOrganization = models.ebean.Organization.refByOrganization(organization);
+        try (Transaction transaction = Ebean.beginTransaction()) {
+            final int writtenCount = _hostQueryGenerator.upsertHosts(hostsByName.values(), ebeanOrganization);
+            transaction.commit();
+
+            LOGGER.info()
+                    .setMessage("Upserted hosts")
+                    .addData("organization", organization)
+                    .addData("hostCount", hostsByName.size())
+                    .addData("writtenCount", writtenCount)
                     .log();
-        } finally {
-            transaction.end();
         }
     }
 
@@ -163,6 +201,45 @@ public class DatabaseHostRepository implements HostRepository {
         }
     }
 
+    @Override
+    public void deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Deleting hosts")
+                .addData("hostCount", hostnames.size())
+                .addData("organization", organization)
+                .log();
+        final models.ebean.Organization ebeanOrganization = models.ebean.Organization.refByOrganization(organization);
+        if (hostnames.isEmpty() || ebeanOrganization == null) {
+            return;
+        }
+
+        // Each batch of hostnames is deleted with a single statement instead of loading and deleting each host
+        int deletedCount = 0;
+        try (Transaction transaction = Ebean.beginTransaction()) {
+            for (final List<String> batch : Iterables.partition(hostnames, BATCH_SIZE)) {
+                final StringBuilder sql = new StringBuilder("DELETE FROM portal.hosts WHERE organization = :organization AND name IN (");
+                for (int i = 0; i < batch.size(); ++i) {
+                    sql.append(i == 0 ? ":hostname" : ", :hostname").append(i);
+                }
+                final SqlUpdate sqlUpdate = Ebean.createSqlUpdate(sql.append(")").toString())
+                        .setParameter("organization", ebeanOrganization.getId());
+                for (int i = 0; i < batch.size(); ++i) {
+                    sqlUpdate.setParameter("hostname" + i, batch.get(i));
+                }
+                deletedCount += sqlUpdate.execute();
+            }
+            transaction.commit();
+        }
+
+        LOGGER.info()
+                .setMessage("Deleted hosts")
+                .addData("organization", organization)
+                .addData("hostCount", hostnames.size())
+                .addData("deletedCount", deletedCount)
+                .log();
+    }
+
     @Override
     public HostQuery createQuery(final Organization organization) {
         assertIsOpen();
@@ -182,29 +259,37 @@ public class DatabaseHostRepository implements HostRepository {
                 .log();
         final Organization organization = query.getOrganization();
 
-        // Create the base query
-        final PagedList<models.ebean.Host> pagedHosts = _hostQueryGenerator.createHostQuery(query, organization);
-
         // Compute the etag
-        // NOTE: Another way to do this would be to use the version field and hash those together.
-        final String etag = Long.toHexString(pagedHosts.getList().stream()
-                .map(host -> host.getUpdatedAt().after(host.getCreatedAt()) ? host.getUpdatedAt() : host.getCreatedAt())
-                .max(Timestamp::compareTo)
-                .orElse(new Timestamp(0))
-                .getTime());
+        // NOTE: The etag is read before the query so that it never claims a state newer than the results.
+        final Long etag = _hostQueryGenerator.getEtag(organization);
+
+        // Create the base query
+        final QueryResult<models.ebean.Host> pagedHosts = _hostQueryGenerator.createHostQuery(query, organization);
 
         // Transform the results
         return new DefaultQueryResult<>(
-                pagedHosts.getList()
+                pagedHosts.values()
                         .stream()
-                        .map(host -> new DefaultHost.Builder()
-                                .setCluster(host.getCluster())
-                                .setHostname(host.getName())
-                                .setMetricsSoftwareState(MetricsSoftwareState.valueOf(host.getMetricsSoftwareState()))
-                                .build())
-                .collect(Collectors.toList()),
-                pagedHosts.getTotalRowCount(),
-                etag);
+                        .map(DatabaseHostRepository::convertFromEbeanHost)
+                        .collect(Collectors.toList()),
+                pagedHosts.total(),
+                Optional.of(etag.toString()),
+                pagedHosts.nextCursor());
+    }
+
+    @Override
+    public Stream<Host> export(final HostQuery query) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Exporting")
+                .addData("query", query)
+                .log();
+
+        // The iterator holds the database cursor and its connection until the stream is closed
+        final QueryIterator<models.ebean.Host> hosts = _hostQueryGenerator.createHostIterator(query, query.getOrganization());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(hosts, Spliterator.NONNULL), false)
+                .onClose(hosts::close)
+                .map(DatabaseHostRepository::convertFromEbeanHost);
     }
 
     @Override
@@ -226,6 +311,22 @@ public class DatabaseHostRepository implements HostRepository {
                 .findRowCount();
     }
 
+    @Override
+    public List<HostFacet> getHostFacets(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting host facets")
+                .addData("organization", organization)
+                .log();
+        return _hostQueryGenerator.getHostFacets(organization);
+    }
+
+    @Override
+    public Optional<String> getEtag(final Organization organization) {
+        assertIsOpen();
+        return Optional.of(Long.toString(_hostQueryGenerator.getEtag(organization)));
+    }
+
     private static String mapField(final HostQuery.Field field) {
         switch (field) {
             case HOSTNAME:
@@ -237,6 +338,172 @@ public class DatabaseHostRepository implements HostRepository {
         }
     }
 
+    private static Host convertFromEbeanHost(final models.ebean.Host host) {
+        return new DefaultHost.Builder()
+                .setCluster(host.getCluster())
+                .setHostname(host.getName())
+                .setMetricsSoftwareState(MetricsSoftwareState.valueOf(host.getMetricsSoftwareState()))
+                .build();
+    }
+
+    private static String getSortKey(final models.ebean.Host host, final HostQuery.Field field) {
+        switch (field) {
+            case HOSTNAME:
+                return host.getName();
+            case METRICS_SOFTWARE_STATE:
+                return host.getMetricsSoftwareState();
+            default:
+                throw new UnsupportedOperationException(String.format("Unrecognized field; field=%s", field));
+        }
+    }
+
+    private static QueryResult<models.ebean.Host> createPage(
+            final List<models.ebean.Host> hosts,
+            final int total,
+            final HostQuery query,
+            final Optional<HostQuery.Field> cursorField) {
+        // The hosts include one extra row if and only if there is a next page
+        if (hosts.size() <= query.getLimit()) {
+            return new DefaultQueryResult<>(hosts, total, Optional.empty(), Optional.empty());
+        }
+        final List<models.ebean.Host> page = hosts.subList(0, query.getLimit());
+        if (page.isEmpty()) {
+            // An empty page has no last row to continue from
+            return new DefaultQueryResult<>(page, total, Optional.empty(), Optional.empty());
+        }
+        final models.ebean.Host last = page.get(page.size() - 1);
+        return new DefaultQueryResult<>(
+                page,
+                total,
+                Optional.empty(),
+                cursorField.map(field -> new QueryCursor(
+                        mapField(field),
+                        Arrays.asList(getSortKey(last, field), last.getId().toString()))
+                        .encode()));
+    }
+
+    private static List<HostFacet> executeHostFacetQuery(final Organization organization) {
+        final models.ebean.Organization ebeanOrganization = models.ebean.Organization.refByOrganization(organization);
+        if (ebeanOrganization == null) {
+            return Collections.emptyList();
+        }
+        final List<SqlRow> rows = Ebean.createSqlQuery(
+                "select cluster, metrics_software_state, count(*) as host_count "
+                        + "from portal.hosts "
+                        + "where organization = :organization "
+                        + "group by cluster, metrics_software_state")
+                .setParameter("organization", ebeanOrganization.getId())
+                .findList();
+        final List<HostFacet> facets = new ArrayList<>(rows.size());
+        for (final SqlRow row : rows) {
+            facets.add(new DefaultHostFacet.Builder()
+                    .setCluster(row.getString("cluster"))
+                    .setMetricsSoftwareState(MetricsSoftwareState.valueOf(row.getString("metrics_software_state")))
+                    .setCount(row.getLong("host_count"))
+                    .build());
+        }
+        return facets;
+    }
+
+    private static QueryResult<models.ebean.Host> executeRawHostQuery(
+            final HostQuery query,
+            final StringBuilder selectBuilder,
+            final StringBuilder whereBuilder,
+            final StringBuilder orderBuilder,
+            final Map<String, Object> parameters) {
+        // Count the matches before any seek clause is added
+        final int total = createParameterizedHostQueryFromRawSql(
+                selectBuilder.toString() + " " + whereBuilder.toString(),
+                parameters)
+                .findRowCount();
+
+        // Add the sort order; relevance ordering is not seekable and only supports offsets
+        Optional<HostQuery.Field> cursorField = Optional.empty();
+        if (query.getSortBy().isPresent() || orderBuilder.length() == 0) {
+            final HostQuery.Field field = query.getSortBy().orElse(HostQuery.Field.HOSTNAME);
+            final String column = "t0." + mapField(field);
+            cursorField = Optional.of(field);
+
+            // NOTE: Replace the ordering (if any) with the user specified one
+            orderBuilder.setLength(0);
+            orderBuilder.append("order by ")
+                    .append(column)
+                    .append(" ASC, t0.id ASC");
+
+            if (query.getCursor().isPresent()) {
+                final List<String> keys = QueryCursor.decode(query.getCursor().get()).getKeys(mapField(field), 2);
+                // NOTE: The leading range predicate keeps the seek indexable without row value comparison support
+                beginOrExtend(whereBuilder, "where ", " and ");
+                whereBuilder.append(column)
+                        .append(" >= :cursorKey and (")
+                        .append(column)
+                        .append(" > :cursorKey or t0.id > :cursorId)");
+                parameters.put("cursorKey", keys.get(0));
+                parameters.put("cursorId", Long.parseLong(keys.get(1)));
+            }
+        } else if (query.getCursor().isPresent()) {
+            throw new IllegalArgumentException("Cursor is not supported for relevance ordered queries");
+        }
+
+        // Create and execute the raw parameterized query
+        final Query<models.ebean.Host> ebeanQuery = createParameterizedHostQueryFromRawSql(
+                selectBuilder.toString() + " " + whereBuilder.toString() + " " + orderBuilder.toString(),
+                parameters);
+        if (!query.getCursor().isPresent() && query.getOffset().isPresent()) {
+            ebeanQuery.setFirstRow(query.getOffset().get());
+        }
+        final List<models.ebean.Host> hosts = ebeanQuery.setMaxRows(query.getLimit() + 1).findList();
+        return createPage(hosts, total, query, cursorField);
+    }
+
+    private static QueryIterator<models.ebean.Host> createRawHostIterator(
+            final StringBuilder selectBuilder,
+            final StringBuilder whereBuilder,
+            final Map<String, Object> parameters) {
+        return createParameterizedHostQueryFromRawSql(
+                selectBuilder.toString() + " " + whereBuilder.toString(),
+                parameters)
+                .setBufferFetchSizeHint(EXPORT_FETCH_SIZE)
+                .findIterate();
+    }
+
+    private static Query<models.ebean.Host> createParameterizedHostQueryFromRawSql(
+            final String sql,
+            final Map<String, Object> parameters) {
+        final RawSql rawSql = RawSqlBuilder.parse(sql)
+                .columnMapping("t0.id", "id")
+                .columnMapping("t0.version", "version")
+                .columnMapping("t0.created_at", "createdAt")
+                .columnMapping("t0.updated_at", "updatedAt")
+                .columnMapping("t0.name", "name")
+                .columnMapping("t0.cluster", "cluster")
+                .columnMapping("t0.metrics_software_state", "metricsSoftwareState")
+                .create();
+        final Query<models.ebean.Host> ebeanQuery = Ebean.find(models.ebean.Host.class).setRawSql(rawSql);
+        for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
+            ebeanQuery.setParameter(parameter.getKey(), parameter.getValue());
+        }
+        return ebeanQuery;
+    }
+
+    private static void beginOrExtend(final StringBuilder stringBuilder, final String beginning, final String continuation) {
+        if (stringBuilder.length() == 0) {
+            stringBuilder.append(beginning);
+        } else {
+            stringBuilder.append(continuation);
+        }
+    }
+
+    private static List<String> splitQueryTokens(final String partialHostname) {
+        return Arrays.stream(partialHostname.trim().split("\\s+"))
+                .filter(token -> !token.isEmpty())
+                .collect(Collectors.toList());
+    }
+
+    private static String escapeLike(final String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
     private void assertIsOpen() {
         assertIsOpen(true);
     }
@@ -247,24 +514,97 @@ public class DatabaseHostRepository implements HostRepository {
         }
     }
 
+    private static SqlUpdate bindUpsertParameters(
+            final SqlUpdate sqlUpdate,
+            final Host host,
+            final models.ebean.Organization organization) {
+        sqlUpdate.setParameter("organization", organization.getId())
+                .setParameter("hostname", host.getHostname())
+                .setParameter("metricsSoftwareState", host.getMetricsSoftwareState().toString());
+        if (host.getCluster().isPresent()) {
+            sqlUpdate.setParameter("cluster", host.getCluster().get());
+        } else {
+            sqlUpdate.setNull("cluster", Types.VARCHAR);
+        }
+        return sqlUpdate;
+    }
+
+    private static void bindUpsertParameters(
+            final PreparedStatement statement,
+            final Host host,
+            final models.ebean.Organization organization) throws SQLException {
+        statement.setLong(1, organization.getId());
+        statement.setString(2, host.getHostname());
+        if (host.getCluster().isPresent()) {
+            statement.setString(3, host.getCluster().get());
+        } else {
+            statement.setNull(3, Types.VARCHAR);
+        }
+        statement.setString(4, host.getMetricsSoftwareState().toString());
+    }
+
+    private static int executeUpsertBatch(final String sql, final Collection<? extends Host> hosts, final StatementBinder binder) {
+        // The statements are sent in batches on the connection of the current transaction
+        int writtenCount = 0;
+        try (PreparedStatement statement = Ebean.currentTransaction().getConnection().prepareStatement(sql)) {
+            for (final List<? extends Host> batch : Iterables.partition(hosts, BATCH_SIZE)) {
+                for (final Host host : batch) {
+                    binder.bind(statement, host);
+                    statement.addBatch();
+                }
+                for (final int updateCount : statement.executeBatch()) {
+                    if (updateCount > 0) {
+                        writtenCount += updateCount;
+                    }
+                }
+            }
+        } catch (final SQLException e) {
+            throw new PersistenceException(e);
+        }
+        return writtenCount;
+    }
+
     private final AtomicBoolean _isOpen = new AtomicBoolean(false);
     private final HostQueryGenerator _hostQueryGenerator;
 
+    private static final int BATCH_SIZE = 500;
+    private static final int UPSERT_PARAMETER_COUNT = 4;
+    private static final int EXPORT_FETCH_SIZE = 1000;
+    private static final String SELECT_HOSTS =
+            "select t0.id, t0.version, t0.created_at, t0.updated_at, "
+                    + "t0.name, t0.cluster, t0.metrics_software_state "
+                    + "from portal.hosts t0";
     private static final Logger LOGGER = LoggerFactory.getLogger(DatabaseHostRepository.class);
 
+    @FunctionalInterface
+    private interface StatementBinder {
+
+        void bind(PreparedStatement statement, Host host) throws SQLException;
+    }
+
     /**
      * Inteface for database query generation.
      */
     public interface HostQueryGenerator {
 
         /**
-         * Translate the <code>HostQuery</code> to an Ebean <code>Query</code>.
+         * Translate the <code>HostQuery</code> to an Ebean <code>Query</code> and execute it.
          *
          * @param query The repository agnostic <code>HostQuery</code>.
          * @param organization The organization to query in.
-         * @return The database specific <code>PagedList</code> query result.
+         * @return The page of database specific hosts with the total and the next page cursor.
          */
-        PagedList<models.ebean.Host> createHostQuery(HostQuery query, Organization organization);
+        QueryResult<models.ebean.Host> createHostQuery(HostQuery query, Organization organization);
+
+        /**
+         * Translate the <code>HostQuery</code> ignoring its pagination to an Ebean <code>Query</code> and open a
+         * cursor over the results which fetches the hosts from the database incrementally.
+         *
+         * @param query The repository agnostic <code>HostQuery</code>.
+         * @param organization The organization to query in.
+         * @return The <code>QueryIterator</code> over the matching hosts; the caller must close it.
+         */
+        QueryIterator<models.ebean.Host> createHostIterator(HostQuery query, Organization organization);
 
         /**
          * Save the <code>Host</code> to the database. This needs to be executed in a transaction.
@@ -272,6 +612,42 @@ public class DatabaseHostRepository implements HostRepository {
          * @param host The <code>Host</code> model instance to save.
          */
         void saveHost(models.ebean.Host host);
+
+        /**
+         * Insert the <code>Host</code> instances or update the existing hosts with the same names in the
+         * organization. Unchanged hosts are not written. This needs to be executed in a transaction.
+         *
+         * @param hosts The <code>Host</code> instances to insert or update; the host names must be unique.
+         * @param organization The organization the hosts belong to.
+         * @return The number of hosts inserted or updated.
+         */
+        int upsertHosts(Collection<? extends Host> hosts, models.ebean.Organization organization);
+
+        /**
+         * Insert the <code>Host</code> or update the existing host with the same name in the organization. The host
+         * is not written if it is unchanged. This needs to be executed in a transaction.
+         *
+         * @param host The <code>Host</code> to insert or update.
+         * @param organization The organization the host belongs to.
+         * @return True if and only if the host was inserted or updated.
+         */
+        boolean upsertHost(Host host, models.ebean.Organization organization);
+
+        /**
+         * Gets the etag for the hosts table.
+         *
+         * @param organization The organization owning the hosts.
+         * @return The etag for the table.
+         */
+        long getEtag(Organization organization);
+
+        /**
+         * Count the hosts in the organization grouped by cluster and metrics software state in the database.
+         *
+         * @param organization The organization owning the hosts.
+         * @return The non-empty host facets.
+         */
+        List<HostFacet> getHostFacets(Organization organization);
     }
 
     /**
@@ -280,7 +656,116 @@ public class DatabaseHostRepository implements HostRepository {
     public static final class GenericQueryGenerator implements HostQueryGenerator {
 
         @Override
-        public PagedList<models.ebean.Host> createHostQuery(final HostQuery query, final Organization organization) {
+        public QueryResult<models.ebean.Host> createHostQuery(final HostQuery query, final Organization organization) {
+            final int total = createFilteredQuery(query, organization).findRowCount();
+
+            // Hosts are ordered by the sort field and then by id; a cursor seeks past the last pair
+            final HostQuery.Field field = query.getSortBy().orElse(HostQuery.Field.HOSTNAME);
+            final String property = mapField(field);
+            ExpressionList<models.ebean.Host> ebeanExpressionList = createFilteredQuery(query, organization);
+            if (query.getCursor().isPresent()) {
+                final List<String> keys = QueryCursor.decode(query.getCursor().get()).getKeys(property, 2);
+                final long id = Long.parseLong(keys.get(1));
+                ebeanExpressionList = ebeanExpressionList.add(Expr.or(
+                        Expr.gt(property, keys.get(0)),
+                        Expr.and(Expr.eq(property, keys.get(0)), Expr.gt("id", id))));
+            }
+            final Query<models.ebean.Host> ebeanQuery = ebeanExpressionList.orderBy().asc(property).orderBy().asc("id");
+            if (!query.getCursor().isPresent() && query.getOffset().isPresent()) {
+                ebeanQuery.setFirstRow(query.getOffset().get());
+            }
+            final List<models.ebean.Host> hosts = ebeanQuery.setMaxRows(query.getLimit() + 1).findList();
+            return createPage(hosts, total, query, Optional.of(field));
+        }
+
+        @Override
+        public QueryIterator<models.ebean.Host> createHostIterator(final HostQuery query, final Organization organization) {
+            return createFilteredQuery(query, organization)
+                    .query()
+                    .setBufferFetchSizeHint(EXPORT_FETCH_SIZE)
+                    .findIterate();
+        }
+
+        @Override
+        public void saveHost(final models.ebean.Host host) {
+            Ebean.save(host);
+        }
+
+        @Override
+        public int upsertHosts(final Collection<? extends Host> hosts, final models.ebean.Organization organization) {
+            // Without a portable upsert statement the existing hosts are loaded with one query per batch of host names
+            final Transaction transaction = Ebean.currentTransaction();
+            transaction.setBatchMode(true);
+            transaction.setBatchSize(BATCH_SIZE);
+            final List<models.ebean.Host> ebeanHosts = new ArrayList<>();
+            for (final List<? extends Host> batch : Iterables.partition(hosts, BATCH_SIZE)) {
+                final Map<String, models.ebean.Host> existingHosts = Maps.newHashMap();
+                for (final models.ebean.Host ebeanHost : Ebean.find(models.ebean.Host.class)
+                        .where()
+                        .eq("organization.id", organization.getId())
+                        .in("name", batch.stream().map(Host::getHostname).collect(Collectors.toList()))
+                        .findList()) {
+                    existingHosts.put(ebeanHost.getName(), ebeanHost);
+                }
+                for (final Host host : batch) {
+                    final models.ebean.Host ebeanHost = applyChanges(host, existingHosts.get(host.getHostname()), organization);
+                    if (ebeanHost != null) {
+                        ebeanHosts.add(ebeanHost);
+                    }
+                }
+            }
+            Ebean.saveAll(ebeanHosts);
+            return ebeanHosts.size();
+        }
+
+        @Override
+        public boolean upsertHost(final Host host, final models.ebean.Organization organization) {
+            final models.ebean.Host ebeanHost = applyChanges(
+                    host,
+                    Ebean.find(models.ebean.Host.class)
+                            .where()
+                            .eq("organization.id", organization.getId())
+                            .eq("name", host.getHostname())
+                            .findUnique(),
+                    organization);
+            if (ebeanHost == null) {
+                return false;
+            }
+            Ebean.save(ebeanHost);
+            return true;
+        }
+
+        private static models.ebean.Host applyChanges(
+                final Host host,
+                final models.ebean.Host existingHost,
+                final models.ebean.Organization organization) {
+            final String cluster = host.getCluster().orElse(null);
+            final String metricsSoftwareState = host.getMetricsSoftwareState().toString();
+            models.ebean.Host ebeanHost = existingHost;
+            if (ebeanHost == null) {
+                ebeanHost = new models.ebean.Host();
+                ebeanHost.setName(host.getHostname());
+                ebeanHost.setOrganization(organization);
+            } else if (Objects.equals(ebeanHost.getCluster(), cluster)
+                    && Objects.equals(ebeanHost.getMetricsSoftwareState(), metricsSoftwareState)) {
+                return null;
+            }
+            ebeanHost.setCluster(cluster);
+            ebeanHost.setMetricsSoftwareState(metricsSoftwareState);
+            return ebeanHost;
+        }
+
+        @Override
+        public long getEtag(final Organization organization) {
+            return HostEtags.getEtagByOrganization(organization);
+        }
+
+        @Override
+        public List<HostFacet> getHostFacets(final Organization organization) {
+            return executeHostFacetQuery(organization);
+        }
+
+        private static ExpressionList<models.ebean.Host> createFilteredQuery(final HostQuery query, final Organization organization) {
             ExpressionList<models.ebean.Host> ebeanExpressionList = Ebean.find(models.ebean.Host.class).where();
             ebeanExpressionList = ebeanExpressionList.eq("organization.uuid", organization.getId());
             if (query.getCluster().isPresent()) {
@@ -292,23 +777,149 @@ public class DatabaseHostRepository implements HostRepository {
             if (query.getPartialHostname().isPresent()) {
                 ebeanExpressionList = ebeanExpressionList.like("name", query.getPartialHostname().get() + "%");
             }
+            return ebeanExpressionList;
+        }
+    }
 
-            Query<models.ebean.Host> ebeanQuery = ebeanExpressionList.query();
-            if (query.getSortBy().isPresent()) {
-                ebeanQuery = ebeanQuery.orderBy().asc(mapField(query.getSortBy().get()));
-            }
+    /**
+     * H2 specific query generator. Partial host names match anywhere in the host name using the trigram side table
+     * maintained by <code>HostsUpdateNameTrigramsTrigger</code>; matches are ranked with exact matches first, then
+     * prefix matches and finally infix matches, shorter names first. Hosts are upserted with a single
+     * <code>MERGE</code> statement.
+     */
+    public static final class H2HostQueryGenerator implements HostQueryGenerator {
 
-            int pageOffset = 0;
-            if (query.getOffset().isPresent()) {
-                pageOffset = query.getOffset().get() / query.getLimit();
-            }
-            return ebeanQuery.findPagedList(pageOffset, query.getLimit());
+        @Override
+        public QueryResult<models.ebean.Host> createHostQuery(final HostQuery query, final Organization organization) {
+            final StringBuilder selectBuilder = new StringBuilder(SELECT_HOSTS);
+            final StringBuilder whereBuilder = new StringBuilder();
+            final StringBuilder orderBuilder = new StringBuilder();
+            final Map<String, Object> parameters = Maps.newHashMap();
+            appendFilters(query, organization, selectBuilder, whereBuilder, orderBuilder, parameters);
+            return executeRawHostQuery(query, selectBuilder, whereBuilder, orderBuilder, parameters);
+        }
+
+        @Override
+        public QueryIterator<models.ebean.Host> createHostIterator(final HostQuery query, final Organization organization) {
+            final StringBuilder selectBuilder = new StringBuilder(SELECT_HOSTS);
+            final StringBuilder whereBuilder = new StringBuilder();
+            final Map<String, Object> parameters = Maps.newHashMap();
+            appendFilters(query, organization, selectBuilder, whereBuilder, new StringBuilder(), parameters);
+            return createRawHostIterator(selectBuilder, whereBuilder, parameters);
         }
 
         @Override
         public void saveHost(final models.ebean.Host host) {
-            Ebean.save(host);
+            _genericQueryGenerator.saveHost(host);
+        }
+
+        @Override
+        public int upsertHosts(final Collection<? extends Host> hosts, final models.ebean.Organization organization) {
+            return executeUpsertBatch(
+                    MERGE_HOST_BATCH,
+                    hosts,
+                    (statement, host) -> bindUpsertParameters(statement, host, organization));
+        }
+
+        @Override
+        public boolean upsertHost(final Host host, final models.ebean.Organization organization) {
+            final SqlUpdate sqlUpdate = Ebean.createSqlUpdate(
+                    String.format(MERGE_HOST, ":organization", ":hostname", ":cluster", ":metricsSoftwareState"));
+            return bindUpsertParameters(sqlUpdate, host, organization).execute() > 0;
+        }
+
+        @Override
+        public long getEtag(final Organization organization) {
+            return _genericQueryGenerator.getEtag(organization);
+        }
+
+        @Override
+        public List<HostFacet> getHostFacets(final Organization organization) {
+            return executeHostFacetQuery(organization);
+        }
+
+        private static void appendFilters(
+                final HostQuery query,
+                final Organization organization,
+                final StringBuilder selectBuilder,
+                final StringBuilder whereBuilder,
+                final StringBuilder orderBuilder,
+                final Map<String, Object> parameters) {
+            // Add the organization clause
+            final models.ebean.Organization ebeanOrganization = models.ebean.Organization.refByOrganization(organization);
+            beginOrExtend(whereBuilder, "where ", " and ");
+            whereBuilder.append("t0.organization = :organization");
+            parameters.put("organization", ebeanOrganization == null ? null : ebeanOrganization.getId());
+
+            // Add the cluster name clause
+            if (query.getCluster().isPresent()) {
+                whereBuilder.append(" and t0.cluster = :cluster");
+                parameters.put("cluster", query.getCluster().get());
+            }
+
+            // Add the metrics software state clause
+            if (query.getMetricsSoftwareState().isPresent()) {
+                whereBuilder.append(" and t0.metrics_software_state = :metrics_software_state");
+                parameters.put("metrics_software_state", query.getMetricsSoftwareState().get().toString());
+            }
+
+            // Add the partial host name clause using the trigram index
+            if (query.getPartialHostname().isPresent()) {
+                final String partialHostname = query.getPartialHostname().get().trim().toLowerCase(Locale.getDefault());
+                final List<String> queryTokens = splitQueryTokens(partialHostname);
+                if (!queryTokens.isEmpty()) {
+                    // Each trigram narrows the candidates through its posting list; tokens shorter than a trigram
+                    // are only verified by the like clauses below
+                    int index = 0;
+                    final Set<String> trigrams = Sets.newTreeSet();
+                    queryTokens.forEach(token -> trigrams.addAll(HostsUpdateNameTrigramsTrigger.getTrigrams(token)));
+                    for (final String trigram : trigrams) {
+                        whereBuilder.append(" and t0.id in (select g.host from portal.hosts_name_trigrams g where g.trigram = :trigram")
+                                .append(index)
+                                .append(")");
+                        parameters.put("trigram" + index, trigram);
+                        ++index;
+                    }
+
+                    // Verify that every token is a substring of the host name
+                    index = 0;
+                    for (final String token : queryTokens) {
+                        whereBuilder.append(" and lower(t0.name) like :token").append(index);
+                        parameters.put("token" + index, "%" + escapeLike(token) + "%");
+                        ++index;
+                    }
+
+                    // Rank exact matches first, then prefix matches and finally infix matches
+                    parameters.put("exactName", partialHostname);
+                    parameters.put("prefixName", escapeLike(queryTokens.get(0)) + "%");
+                    selectBuilder.append(", (select cast(:exactName as varchar(255)) exact_name, "
+                            + "cast(:prefixName as varchar(255)) prefix_name) q");
+                    orderBuilder.append("order by case when lower(t0.name) = q.exact_name then 0 "
+                            + "when lower(t0.name) like q.prefix_name then 1 else 2 end ASC, char_length(t0.name) ASC, t0.name ASC");
+                }
+            }
         }
+
+        private final GenericQueryGenerator _genericQueryGenerator = new GenericQueryGenerator();
+
+        // The source row is joined against the existing row so that unchanged hosts produce no row to merge
+        private static final String MERGE_HOST =
+                "MERGE INTO portal.hosts "
+                        + "(organization, name, cluster, metrics_software_state, version, created_at, updated_at) "
+                        + "KEY (organization, name) "
+                        + "SELECT s.organization, s.name, s.cluster, s.metrics_software_state, "
+                        + "COALESCE(h.version + 1, 1), COALESCE(h.created_at, CURRENT_TIMESTAMP()), CURRENT_TIMESTAMP() "
+                        + "FROM (SELECT CAST(%s AS BIGINT) AS organization, "
+                        + "CAST(%s AS VARCHAR(255)) AS name, "
+                        + "CAST(%s AS VARCHAR(255)) AS cluster, "
+                        + "CAST(%s AS VARCHAR(255)) AS metrics_software_state) s "
+                        + "LEFT OUTER JOIN portal.hosts h ON h.organization = s.organization AND h.name = s.name "
+                        + "WHERE h.id IS NULL "
+                        + "OR h.metrics_software_state <> s.metrics_software_state "
+                        + "OR h.cluster <> s.cluster "
+                        + "OR (h.cluster IS NULL AND s.cluster IS NOT NULL) "
+                        + "OR (h.cluster IS NOT NULL AND s.cluster IS NULL)";
+        private static final String MERGE_HOST_BATCH = String.format(MERGE_HOST, "?", "?", "?", "?");
     }
 
     /**
@@ -317,15 +928,31 @@ public class DatabaseHostRepository implements HostRepository {
     public static final class PostgresqlHostQueryGenerator implements HostQueryGenerator {
 
         @Override
-        public PagedList<models.ebean.Host> createHostQuery(final HostQuery query, final Organization organization) {
-            final StringBuilder selectBuilder = new StringBuilder(
-                    "select t0.id, t0.version, t0.created_at, t0.updated_at, "
-                            + "t0.name, t0.cluster, t0.metrics_software_state "
-                            + "from portal.hosts t0");
+        public QueryResult<models.ebean.Host> createHostQuery(final HostQuery query, final Organization organization) {
+            final StringBuilder selectBuilder = new StringBuilder(SELECT_HOSTS);
             final StringBuilder whereBuilder = new StringBuilder();
             final StringBuilder orderBuilder = new StringBuilder();
             final Map<String, Object> parameters = Maps.newHashMap();
+            appendFilters(query, organization, selectBuilder, whereBuilder, orderBuilder, parameters);
+            return executeRawHostQuery(query, selectBuilder, whereBuilder, orderBuilder, parameters);
+        }
+
+        @Override
+        public QueryIterator<models.ebean.Host> createHostIterator(final HostQuery query, final Organization organization) {
+            final StringBuilder selectBuilder = new StringBuilder(SELECT_HOSTS);
+            final StringBuilder whereBuilder = new StringBuilder();
+            final Map<String, Object> parameters = Maps.newHashMap();
+            appendFilters(query, organization, selectBuilder, whereBuilder, new StringBuilder(), parameters);
+            return createRawHostIterator(selectBuilder, whereBuilder, parameters);
+        }
 
+        private static void appendFilters(
+                final HostQuery query,
+                final Organization organization,
+                final StringBuilder selectBuilder,
+                final StringBuilder whereBuilder,
+                final StringBuilder orderBuilder,
+                final Map<String, Object> parameters) {
             // Add the partial host name clause using the postgresql full text index
             if (query.getPartialHostname().isPresent() && !query.getPartialHostname().get().isEmpty()) {
                 final List<String> queryTokens = Arrays.asList(query.getPartialHostname().get().split(" "));
@@ -357,6 +984,12 @@ public class DatabaseHostRepository implements HostRepository {
                 }
             }
 
+            // Add the organization clause
+            final models.ebean.Organization ebeanOrganization = models.ebean.Organization.refByOrganization(organization);
+            beginOrExtend(whereBuilder, "where ", " and ");
+            whereBuilder.append("t0.organization = :organization");
+            parameters.put("organization", ebeanOrganization == null ? null : ebeanOrganization.getId());
+
             // Add the cluster name clause
             if (query.getCluster().isPresent()) {
                 beginOrExtend(whereBuilder, "where ", " and ");
@@ -370,53 +1003,72 @@ public class DatabaseHostRepository implements HostRepository {
                 whereBuilder.append("t0.metrics_software_state = :metrics_software_state");
                 parameters.put("metrics_software_state", query.getMetricsSoftwareState().get().toString());
             }
+        }
 
-            // Add the sort order
-            if (query.getSortBy().isPresent()) {
-                // NOTE: Replace the ordering (if any) with the user specified one
-                orderBuilder.setLength(0);
-                orderBuilder.append("order by ")
-                        .append(mapField(query.getSortBy().get()))
-                        .append(" ASC");
-            }
+        @Override
+        public void saveHost(final models.ebean.Host host) {
+            Ebean.save(host);
+            bindNameIndexParameters(
+                    Ebean.createSqlUpdate("UPDATE portal.hosts SET name_idx_col = " + NAME_INDEX_EXPRESSION + " WHERE id = :id"),
+                    host.getName())
+                    .setParameter("id", host.getId())
+                    .execute();
+        }
 
-            // Compute the page offset
-            int pageOffset = 0;
-            if (query.getOffset().isPresent()) {
-                pageOffset = query.getOffset().get() / query.getLimit();
-            }
+        @Override
+        public boolean upsertHost(final Host host, final models.ebean.Organization organization) {
+            final SqlUpdate sqlUpdate = Ebean.createSqlUpdate(String.format(
+                    INSERT_HOST,
+                    ":organization",
+                    ":hostname",
+                    ":cluster",
+                    ":metricsSoftwareState",
+                    NAME_INDEX_EXPRESSION));
+            bindNameIndexParameters(sqlUpdate, host.getHostname());
+            return bindUpsertParameters(sqlUpdate, host, organization).execute() > 0;
+        }
 
-            // Create and execute the raw parameterized query
-            return createParameterizedHostQueryFromRawSql(
-                    selectBuilder.toString() + " " + whereBuilder.toString() + " " + orderBuilder.toString(),
-                    parameters)
-                    .findPagedList(pageOffset, query.getLimit());
+        @Override
+        public int upsertHosts(final Collection<? extends Host> hosts, final models.ebean.Organization organization) {
+            return executeUpsertBatch(
+                    INSERT_HOST_BATCH,
+                    hosts,
+                    (statement, host) -> {
+                        bindUpsertParameters(statement, host, organization);
+                        int index = UPSERT_PARAMETER_COUNT;
+                        for (final String value : getNameIndexValues(host.getHostname())) {
+                            statement.setString(++index, value);
+                        }
+                    });
         }
 
         @Override
-        public void saveHost(final models.ebean.Host host) {
-            final String hostname = host.getName();
+        public long getEtag(final Organization organization) {
+            return HostEtags.getEtagByOrganization(organization);
+        }
+
+        @Override
+        public List<HostFacet> getHostFacets(final Organization organization) {
+            return executeHostFacetQuery(organization);
+        }
+
+        private static SqlUpdate bindNameIndexParameters(final SqlUpdate sqlUpdate, final String hostname) {
+            final List<String> values = getNameIndexValues(hostname);
+            return sqlUpdate
+                    .setParameter("hostname", values.get(0))
+                    .setParameter("labels", values.get(1))
+                    .setParameter("words", values.get(2))
+                    .setParameter("alnum", values.get(3));
+        }
+
+        private static List<String> getNameIndexValues(final String hostname) {
             final String labels = hostname.replace('.', ' ');
             final String words = labels.replace('-', ' ');
             final String alnum = tokenize(labels)
                     .stream()
                     .reduce((s1, s2) -> s1 + " " + s2)
                     .orElse("");
-
-            Ebean.save(host);
-            Ebean.createSqlUpdate(
-                    "UPDATE portal.hosts SET name_idx_col = "
-                            + "setweight(to_tsvector('simple', coalesce(:hostname,'')), 'A')"
-                            + "|| setweight(to_tsvector('simple', coalesce(:labels,'')), 'B')"
-                            + "|| setweight(to_tsvector('simple', coalesce(:words,'')), 'C')"
-                            + "|| setweight(to_tsvector('simple', coalesce(:alnum,'')), 'D')"
-                            + "WHERE id = :id")
-                    .setParameter("id", host.getId())
-                    .setParameter("hostname", hostname)
-                    .setParameter("labels", labels)
-                    .setParameter("words", words)
-                    .setParameter("alnum", alnum)
-                    .execute();
+            return Arrays.asList(hostname, labels, words, alnum);
         }
 
         // NOTE: Package private for testing
@@ -430,31 +1082,134 @@ public class DatabaseHostRepository implements HostRepository {
             return tokens;
         }
 
-        private static Query<models.ebean.Host> createParameterizedHostQueryFromRawSql(
-                final String sql,
+        private static final String NAME_INDEX_EXPRESSION =
+                "setweight(to_tsvector('simple', coalesce(:hostname,'')), 'A')"
+                        + "|| setweight(to_tsvector('simple', coalesce(:labels,'')), 'B')"
+                        + "|| setweight(to_tsvector('simple', coalesce(:words,'')), 'C')"
+                        + "|| setweight(to_tsvector('simple', coalesce(:alnum,'')), 'D')";
+
+        // The update is skipped by the conflict clause when the host is unchanged
+        private static final String INSERT_HOST =
+                "INSERT INTO portal.hosts AS h (organization, name, cluster, metrics_software_state, name_idx_col) "
+                        + "VALUES (%s, %s, %s, %s, %s) "
+                        + "ON CONFLICT (organization, name) DO UPDATE SET "
+                        + "cluster = EXCLUDED.cluster, "
+                        + "metrics_software_state = EXCLUDED.metrics_software_state, "
+                        + "name_idx_col = EXCLUDED.name_idx_col, "
+                        + "version = h.version + 1, "
+                        + "updated_at = now() "
+                        + "WHERE h.cluster IS DISTINCT FROM EXCLUDED.cluster "
+                        + "OR h.metrics_software_state IS DISTINCT FROM EXCLUDED.metrics_software_state";
+        private static final String INSERT_HOST_BATCH = String.format(
+                INSERT_HOST,
+                "?",
+                "?",
+                "?",
+                "?",
+                "setweight(to_tsvector('simple', coalesce(?,'')), 'A')"
+                        + "|| setweight(to_tsvector('simple', coalesce(?,'')), 'B')"
+                        + "|| setweight(to_tsvector('simple', coalesce(?,'')), 'C')"
+                        + "|| setweight(to_tsvector('simple', coalesce(?,'')), 'D')");
+    }
+
+    /**
+     * Postgresql specific trigram index to query for hosts. Partial host names match anywhere in the host name using
+     * the <code>pg_trgm</code> GIN index on the lower case host name and matches are ranked by their trigram
+     * similarity to the partial host name. Hosts are written as in the <code>PostgresqlHostQueryGenerator</code> so
+     * that the full text index remains current and the generators can be switched without reindexing.
+     */
+    public static final class PostgresqlTrigramHostQueryGenerator implements HostQueryGenerator {
+
+        @Override
+        public QueryResult<models.ebean.Host> createHostQuery(final HostQuery query, final Organization organization) {
+            final StringBuilder selectBuilder = new StringBuilder(SELECT_HOSTS);
+            final StringBuilder whereBuilder = new StringBuilder();
+            final StringBuilder orderBuilder = new StringBuilder();
+            final Map<String, Object> parameters = Maps.newHashMap();
+            appendFilters(query, organization, selectBuilder, whereBuilder, orderBuilder, parameters);
+            return executeRawHostQuery(query, selectBuilder, whereBuilder, orderBuilder, parameters);
+        }
+
+        @Override
+        public QueryIterator<models.ebean.Host> createHostIterator(final HostQuery query, final Organization organization) {
+            final StringBuilder selectBuilder = new StringBuilder(SELECT_HOSTS);
+            final StringBuilder whereBuilder = new StringBuilder();
+            final Map<String, Object> parameters = Maps.newHashMap();
+            appendFilters(query, organization, selectBuilder, whereBuilder, new StringBuilder(), parameters);
+            return createRawHostIterator(selectBuilder, whereBuilder, parameters);
+        }
+
+        @Override
+        public void saveHost(final models.ebean.Host host) {
+            _postgresqlQueryGenerator.saveHost(host);
+        }
+
+        @Override
+        public int upsertHosts(final Collection<? extends Host> hosts, final models.ebean.Organization organization) {
+            return _postgresqlQueryGenerator.upsertHosts(hosts, organization);
+        }
+
+        @Override
+        public boolean upsertHost(final Host host, final models.ebean.Organization organization) {
+            return _postgresqlQueryGenerator.upsertHost(host, organization);
+        }
+
+        @Override
+        public long getEtag(final Organization organization) {
+            return _postgresqlQueryGenerator.getEtag(organization);
+        }
+
+        @Override
+        public List<HostFacet> getHostFacets(final Organization organization) {
+            return _postgresqlQueryGenerator.getHostFacets(organization);
+        }
+
+        private static void appendFilters(
+                final HostQuery query,
+                final Organization organization,
+                final StringBuilder selectBuilder,
+                final StringBuilder whereBuilder,
+                final StringBuilder orderBuilder,
                 final Map<String, Object> parameters) {
-            final RawSql rawSql = RawSqlBuilder.parse(sql)
-                    .columnMapping("t0.id", "id")
-                    .columnMapping("t0.version", "version")
-                    .columnMapping("t0.created_at", "createdAt")
-                    .columnMapping("t0.updated_at", "updatedAt")
-                    .columnMapping("t0.name", "name")
-                    .columnMapping("t0.cluster", "cluster")
-                    .columnMapping("t0.metrics_software_state", "metricsSoftwareState")
-                    .create();
-            final Query<models.ebean.Host> ebeanQuery = Ebean.find(models.ebean.Host.class).setRawSql(rawSql);
-            for (final Map.Entry<String, Object> parameter : parameters.entrySet()) {
-                ebeanQuery.setParameter(parameter.getKey(), parameter.getValue());
+            // Add the organization clause
+            final models.ebean.Organization ebeanOrganization = models.ebean.Organization.refByOrganization(organization);
+            beginOrExtend(whereBuilder, "where ", " and ");
+            whereBuilder.append("t0.organization = :organization");
+            parameters.put("organization", ebeanOrganization == null ? null : ebeanOrganization.getId());
+
+            // Add the cluster name clause
+            if (query.getCluster().isPresent()) {
+                whereBuilder.append(" and t0.cluster = :cluster");
+                parameters.put("cluster", query.getCluster().get());
             }
-            return ebeanQuery;
-        }
 
-        private static void beginOrExtend(final StringBuilder stringBuilder, final String beginning, final String continuation) {
-            if (stringBuilder.length() == 0) {
-                stringBuilder.append(beginning);
-            } else {
-                stringBuilder.append(continuation);
+            // Add the metrics software state clause
+            if (query.getMetricsSoftwareState().isPresent()) {
+                whereBuilder.append(" and t0.metrics_software_state = :metrics_software_state");
+                parameters.put("metrics_software_state", query.getMetricsSoftwareState().get().toString());
+            }
+
+            // Add the partial host name clause using the trigram index; tokens shorter than a trigram cannot use the
+            // index and are only selective in combination with longer tokens or the other clauses
+            if (query.getPartialHostname().isPresent()) {
+                final List<String> queryTokens = splitQueryTokens(query.getPartialHostname().get());
+                if (!queryTokens.isEmpty()) {
+                    int index = 0;
+                    for (final String token : queryTokens) {
+                        whereBuilder.append(" and lower(t0.name) like lower(:token").append(index).append(")");
+                        parameters.put("token" + index, "%" + escapeLike(token) + "%");
+                        ++index;
+                    }
+
+                    // Rank by similarity to the whole partial host name and then prefer shorter names
+                    parameters.put("partialHostname", String.join(" ", queryTokens));
+                    selectBuilder.append(", lower(:partialHostname) partialHostname");
+                    orderBuilder.append("order by similarity(lower(t0.name), partialHostname) DESC, "
+                            + "char_length(t0.name) ASC, t0.name ASC");
+                }
             }
         }
+
+        private final PostgresqlHostQueryGenerator _postgresqlQueryGenerator = new PostgresqlHostQueryGenerator();
     }
 }
@@ -16,6 +16,7 @@
 package com.arpnetworking.metrics.portal.hosts.impl;
 
 import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
+import com.arpnetworking.database.QueryCursor;
 import com.arpnetworking.logback.annotations.LogValue;
 import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
@@ -24,47 +25,93 @@ import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.collect.Lists;
 import com.google.inject.Inject;
 import models.internal.Host;
+import models.internal.HostFacet;
 import models.internal.HostQuery;
 import models.internal.MetricsSoftwareState;
 import models.internal.Organization;
 import models.internal.QueryResult;
 import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultHostFacet;
 import models.internal.impl.DefaultHostQuery;
 import models.internal.impl.DefaultQueryResult;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthRequest;
 import org.elasticsearch.action.admin.cluster.state.ClusterStateResponse;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequestBuilder;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.count.CountResponse;
-import org.elasticsearch.action.delete.DeleteResponse;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchType;
 import org.elasticsearch.action.update.UpdateRequest;
-import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.settings.ImmutableSettings;
 import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.FilterBuilder;
+import org.elasticsearch.index.query.FilterBuilders;
+import org.elasticsearch.index.query.MatchQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.node.Node;
 import org.elasticsearch.node.NodeBuilder;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.bucket.filter.Filter;
+import org.elasticsearch.search.aggregations.bucket.missing.Missing;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsBuilder;
 import org.elasticsearch.search.sort.ScoreSortBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import play.Application;
 import play.Configuration;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Implementation of <code>HostRepository</code> using Elastic Search.
  *
+ * Writes are sent through a bulk processor. Each write waits until the bulk
+ * items of its hosts were acknowledged and throws a
+ * <code>HostWriteException</code> with the hosts which were not stored, so
+ * callers never treat a failed or unacknowledged write as stored.
+ *
  * @author Ruchita Venugopal (rvenugopal at groupon dot com)
  * @author Brandon Arp (brandon dot arp at inscopemetrics dot com)
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
@@ -86,7 +133,7 @@ public final class ElasticSearchHostRepository implements HostRepository {
         //
         // Index Settings:
         // http://www.elasticsearch.org/guide/en/elasticsearch/reference/current/indices-update-settings.html
-        this(buildNodeSettings(configuration, application), buildIndexSettings(configuration));
+        this(buildNodeSettings(configuration, application), buildIndexSettings(configuration), buildRepositorySettings(configuration));
     }
 
     @Override
@@ -104,53 +151,46 @@ public final class ElasticSearchHostRepository implements HostRepository {
         _client = _node.client();
         _client.admin().cluster().prepareHealth().setWaitForGreenStatus().execute().actionGet();
 
+        // Create the versioned index and point the alias at it; the hosts in a previous index are reindexed into it
         final ClusterStateResponse response = _client.admin().cluster().prepareState().execute().actionGet();
-        final boolean hasIndex = response.getState().metaData().hasIndex(INDEX);
-        if (!hasIndex) {
-            _client.admin().indices().create(
-                    Requests.createIndexRequest(INDEX)
-                            .settings(_indexSettings)
-                            .mapping(
-                                    TYPE,
-                                    "{\n"
-                                            + "    \"properties\" : {\n"
-                                            + "        \"hostname\" : {\n"
-                                            + "            \"type\" : \"string\",\n"
-                                            + "            \"store\" : true,\n"
-                                            + "            \"fields\": {\n"
-                                            + "                \"raw\": {\n"
-                                            + "                    \"type\":  \"string\",\n"
-                                            + "                    \"index\": \"not_analyzed\"\n"
-                                            + "                }\n"
-                                            + "            }\n"
-                                            + "        },\n"
-                                            + "        \"metricsSoftwareVersion\" : {\n"
-                                            + "            \"type\" : \"string\", \n"
-                                            + "            \"store\" : true\n"
-                                            + "        },\n"
-                                            + "        \"metricsSoftwareSha\" : {\n"
-                                            + "            \"type\" : \"string\", \n"
-                                            + "            \"store\" : true\n"
-                                            + "        },\n"
-                                            + "        \"organization\" : {\n"
-                                            + "            \"type\" : \"string\", \n"
-                                            + "            \"store\" : true\n"
-                                            + "        },\n"
-                                            + "        \"metricsSoftwareState\" : {\n"
-                                            + "            \"type\" : \"string\", \n"
-                                            + "            \"store\" : true\n"
-                                            + "        },\n"
-                                            + "        \"cluster\" : {\n"
-                                            + "            \"type\" : \"string\",\n"
-                                            + "            \"store\": true\n"
-                                            + "        }\n"
-                                            + "    }\n"
-                                            + "}")
-                            ).actionGet();
-
-            _client.admin().cluster().health(new ClusterHealthRequest(INDEX).waitForGreenStatus()).actionGet();
+        final MetaData metaData = response.getState().metaData();
+        if (!metaData.hasIndex(VERSIONED_INDEX)) {
+            createIndex(VERSIONED_INDEX);
+            if (metaData.hasIndex(INDEX) || metaData.hasAlias(INDEX)) {
+                reindex(INDEX, VERSIONED_INDEX);
+            }
+            if (metaData.hasIndex(INDEX)) {
+                _client.admin().indices().prepareDelete(INDEX).execute().actionGet();
+            }
+
+            // Swap the alias atomically and then remove the previous indexes
+            final IndicesAliasesRequestBuilder aliasesRequest = _client.admin().indices().prepareAliases()
+                    .addAlias(VERSIONED_INDEX, INDEX);
+            final List<String> previousIndexes = Lists.newArrayList();
+            for (int version = FIRST_MAPPING_VERSION; version < MAPPING_VERSION; ++version) {
+                final String previousIndex = getVersionedIndex(version);
+                if (metaData.hasIndex(previousIndex)) {
+                    aliasesRequest.removeAlias(previousIndex, INDEX);
+                    previousIndexes.add(previousIndex);
+                }
+            }
+            aliasesRequest.execute().actionGet();
+            for (final String previousIndex : previousIndexes) {
+                _client.admin().indices().prepareDelete(previousIndex).execute().actionGet();
+            }
+        } else if (!metaData.hasAlias(INDEX)) {
+            _client.admin().indices().prepareAliases().addAlias(VERSIONED_INDEX, INDEX).execute().actionGet();
         }
 
+        // Writes are batched by count, size and time; adding blocks while the maximum number of bulk requests are in flight
+        _bulkProcessor = BulkProcessor.builder(_client, new BulkListener())
+                .setBulkActions(_repositorySettings.getAsInt("bulk.actions", DEFAULT_BULK_ACTIONS))
+                .setBulkSize(_repositorySettings.getAsBytesSize("bulk.size", DEFAULT_BULK_SIZE))
+                .setFlushInterval(_repositorySettings.getAsTime("bulk.flush_interval", DEFAULT_BULK_FLUSH_INTERVAL))
+                .setConcurrentRequests(_repositorySettings.getAsInt("bulk.concurrent_requests", DEFAULT_BULK_CONCURRENT_REQUESTS))
+                .build();
+        _writeTimeout = _repositorySettings.getAsTime("bulk.write_timeout", DEFAULT_BULK_WRITE_TIMEOUT);
+
         _isOpen.set(true);
         LOGGER.info().setMessage("ElasticSearchHostRepository up and healthy").log();
     }
@@ -161,6 +201,22 @@ public final class ElasticSearchHostRepository implements HostRepository {
         LOGGER.debug().setMessage("Closing host repository").log();
         _isOpen.set(false);
 
+        // Write any pending hosts
+        try {
+            if (!_bulkProcessor.awaitClose(CLOSE_TIMEOUT.millis(), TimeUnit.MILLISECONDS)) {
+                LOGGER.warn()
+                        .setMessage("Timed out writing pending hosts")
+                        .addData("timeout", CLOSE_TIMEOUT)
+                        .log();
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            LOGGER.warn()
+                    .setMessage("Interrupted writing pending hosts")
+                    .setThrowable(e)
+                    .log();
+        }
+
         // Shutdown Elastic Search
         _client.close();
         _node.close();
@@ -168,7 +224,6 @@ public final class ElasticSearchHostRepository implements HostRepository {
 
     @Override
     public void addOrUpdateHost(final Host host, final Organization organization) {
-        //TODO(barp): Support organizational separation in ElasticSearch [?]
         assertIsOpen();
         LOGGER.debug()
                 .setMessage("Adding or updating host")
@@ -176,32 +231,28 @@ public final class ElasticSearchHostRepository implements HostRepository {
                 .addData("organization", organization)
                 .log();
 
-        final String hostJson;
-        try {
-            hostJson = OBJECT_MAPPER.writeValueAsString(host);
-        } catch (final JsonProcessingException e) {
-            throw new RuntimeException(String.format("Unable to serialize host; host=%s", host), e);
-        }
-
-        final IndexRequest indexRequest = new IndexRequest(INDEX, TYPE, host.getHostname())
-                .source(hostJson);
-
-        final UpdateRequest updateRequest = new UpdateRequest(INDEX, TYPE, host.getHostname())
-                .doc(hostJson)
-                .upsert(indexRequest);
+        write(Collections.singletonList(createUpsertRequest(host, organization)), Collections.singletonList(host.getHostname()));
+    }
 
-        final UpdateResponse response = _client.update(updateRequest).actionGet();
-        LOGGER.info()
-                .setMessage("Upserted host")
-                .addData("host", host)
+    @Override
+    public void addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Adding or updating hosts")
+                .addData("hostCount", hosts.size())
                 .addData("organization", organization)
-                .addData("isCreated", response.isCreated())
                 .log();
+        final List<ActionRequest<?>> requests = new ArrayList<>(hosts.size());
+        final List<String> hostnames = new ArrayList<>(hosts.size());
+        for (final Host host : hosts) {
+            requests.add(createUpsertRequest(host, organization));
+            hostnames.add(host.getHostname());
+        }
+        write(requests, hostnames);
     }
 
     @Override
     public void deleteHost(final String hostname, final Organization organization) {
-        //TODO(barp): Support organizational separation in ElasticSearch [?]
         assertIsOpen();
         LOGGER.debug()
                 .setMessage("Deleting host")
@@ -209,23 +260,42 @@ public final class ElasticSearchHostRepository implements HostRepository {
                 .addData("organization", organization)
                 .log();
 
-        final DeleteResponse response = _client.prepareDelete(INDEX, TYPE, hostname)
-                .setRefresh(true)
-                .execute()
-                .actionGet();
-        if (response.isFound()) {
-            LOGGER.info()
-                    .setMessage("Deleted host")
-                    .addData("hostname", hostname)
-                    .addData("organization", organization)
-                    .log();
-        } else {
-            LOGGER.info()
-                    .setMessage("Host not found")
-                    .addData("hostname", hostname)
-                    .addData("organization", organization)
-                    .log();
+        write(Collections.singletonList(createDeleteRequest(hostname, organization)), Collections.singletonList(hostname));
+    }
+
+    @Override
+    public void deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Deleting hosts")
+                .addData("hostCount", hostnames.size())
+                .addData("organization", organization)
+                .log();
+
+        // The deletes are sent with the pending upserts in bulk requests
+        final List<ActionRequest<?>> requests = new ArrayList<>(hostnames.size());
+        for (final String hostname : hostnames) {
+            requests.add(createDeleteRequest(hostname, organization));
         }
+        write(requests, new ArrayList<>(hostnames));
+    }
+
+    /**
+     * Write all pending changes, wait for the in flight bulk requests to
+     * complete and refresh the index so that the changes are visible to
+     * queries.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public void flush() throws InterruptedException {
+        assertIsOpen();
+        _bulkProcessor.flush();
+        synchronized (_inFlightMonitor) {
+            while (_inFlightCount > 0) {
+                _inFlightMonitor.wait();
+            }
+        }
+        _client.admin().indices().prepareRefresh(INDEX).execute().actionGet();
     }
 
     @Override
@@ -246,38 +316,90 @@ public final class ElasticSearchHostRepository implements HostRepository {
                 .addData("query", query)
                 .log();
         final Organization organization = query.getOrganization();
-
-        QueryBuilder esQuery = null;
-        if (query.getPartialHostname().isPresent()) {
-            esQuery = QueryBuilders.matchPhrasePrefixQuery("hostname", query.getPartialHostname().get()).maxExpansions(MAX_EXPANSIONS);
-        }
-        if (query.getMetricsSoftwareState().isPresent()) {
-            final QueryBuilder queryState = QueryBuilders.matchQuery("metricsSoftwareState", query.getMetricsSoftwareState().get());
-            esQuery = esQuery == null ? queryState : QueryBuilders.boolQuery().must(esQuery).must(queryState);
-        }
-        if (query.getCluster().isPresent()) {
-            final QueryBuilder queryState = QueryBuilders.matchQuery("cluster", query.getCluster().get());
-            esQuery = esQuery == null ? queryState : QueryBuilders.boolQuery().must(esQuery).must(queryState);
-        }
+        final QueryBuilder esQuery = createQueryBuilder(query);
 
         final SearchRequestBuilder request = _client.prepareSearch(INDEX)
                 .setTypes(TYPE)
-                .setSearchType(SearchType.DFS_QUERY_THEN_FETCH);
+                .setRouting(getRouting(organization))
+                .setSearchType(_searchType)
+                .setQuery(esQuery);
 
-        if (esQuery != null) {
-            request.setQuery(esQuery);
-        }
-        if (query.getSortBy().isPresent()) {
-            request.addSort(mapField(query.getSortBy().get()), SortOrder.ASC);
+        // Hosts are ordered by relevance only for partial host name queries without a sort field; otherwise they are
+        // ordered by the sort field and the host name and a cursor seeks past the sort values of the last hit
+        Optional<HostQuery.Field> cursorField = Optional.empty();
+        if (query.getSortBy().isPresent() || !query.getPartialHostname().isPresent()) {
+            final HostQuery.Field field = query.getSortBy().orElse(HostQuery.Field.HOSTNAME);
+            cursorField = Optional.of(field);
+            request.addSort(mapField(field), SortOrder.ASC);
+            if (field != HostQuery.Field.HOSTNAME) {
+                request.addSort(mapField(HostQuery.Field.HOSTNAME), SortOrder.ASC);
+            }
+            if (query.getCursor().isPresent()) {
+                final List<String> keys = QueryCursor.decode(query.getCursor().get())
+                        .getKeys(mapField(field), field == HostQuery.Field.HOSTNAME ? 1 : 2);
+
+                // NOTE: The seek is a post filter so that the total still counts every match
+                request.setPostFilter(createSeekFilter(field, keys));
+                request.addAggregation(AggregationBuilders.filter(TOTAL_AGGREGATION).filter(FilterBuilders.matchAllFilter()));
+            }
         } else {
             request.addSort(new ScoreSortBuilder());
+            if (query.getCursor().isPresent()) {
+                throw new IllegalArgumentException("Cursor is not supported for relevance ordered queries");
+            }
         }
-        if (query.getOffset().isPresent()) {
+        if (!query.getCursor().isPresent() && query.getOffset().isPresent()) {
             request.setFrom(query.getOffset().get());
         }
-        request.setSize(query.getLimit());
 
-        return deserializeHits(request.execute().actionGet(), organization);
+        // Fetch one extra hit to determine whether there is a next page
+        request.setSize(query.getLimit() + 1);
+        final SearchResponse response = request.execute().actionGet();
+        final long total = query.getCursor().isPresent()
+                ? response.getAggregations().<Filter>get(TOTAL_AGGREGATION).getDocCount()
+                : response.getHits().getTotalHits();
+        final SearchHit[] hits = response.getHits().hits();
+        if (hits.length <= query.getLimit()) {
+            return new DefaultQueryResult<>(deserializeHits(hits, organization), total);
+        }
+        final SearchHit[] page = Arrays.copyOf(hits, query.getLimit());
+        if (page.length == 0) {
+            // An empty page has no last hit to continue from
+            return new DefaultQueryResult<>(Collections.emptyList(), total);
+        }
+        final SearchHit last = page[page.length - 1];
+        return new DefaultQueryResult<>(
+                deserializeHits(page, organization),
+                total,
+                Optional.empty(),
+                cursorField.map(field -> new QueryCursor(
+                        mapField(field),
+                        Arrays.stream(last.getSortValues()).map(String::valueOf).collect(Collectors.toList()))
+                        .encode()));
+    }
+
+    @Override
+    public Stream<Host> export(final HostQuery query) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Exporting")
+                .addData("query", query)
+                .log();
+
+        // Scan and scroll through the matching hosts one batch at a time
+        final SearchRequestBuilder request = _client.prepareSearch(INDEX)
+                .setTypes(TYPE)
+                .setRouting(getRouting(query.getOrganization()))
+                .setSearchType(SearchType.SCAN)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(EXPORT_BATCH_SIZE)
+                .setQuery(createQueryBuilder(query));
+        final ScrollIterator hits = new ScrollIterator(request.execute().actionGet().getScrollId());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(hits, Spliterator.NONNULL), false)
+                .onClose(hits::close)
+                .map(hit -> deserializeHit(hit, query.getOrganization()))
+                .filter(Optional::isPresent)
+                .map(Optional::get);
     }
 
     @Override
@@ -289,6 +411,8 @@ public final class ElasticSearchHostRepository implements HostRepository {
                 .log();
 
         final CountResponse response = _client.prepareCount(INDEX)
+                .setRouting(getRouting(organization))
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), createOrganizationFilter(organization)))
                 .execute()
                 .actionGet();
         return response.getCount();
@@ -306,12 +430,57 @@ public final class ElasticSearchHostRepository implements HostRepository {
         final QueryBuilder queryState = QueryBuilders.matchQuery("metricsSoftwareState", metricsSoftwareState.toString());
 
         final CountResponse response = _client.prepareCount(INDEX)
-                .setQuery(queryState)
+                .setRouting(getRouting(organization))
+                .setQuery(QueryBuilders.filteredQuery(queryState, createOrganizationFilter(organization)))
                 .execute()
                 .actionGet();
         return response.getCount();
     }
 
+    @Override
+    public List<HostFacet> getHostFacets(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting host facets")
+                .addData("organization", organization)
+                .log();
+
+        // Count the hosts by state within each cluster and within the hosts without a cluster; a terms size of zero is unbounded
+        final SearchResponse response = _client.prepareSearch(INDEX)
+                .setTypes(TYPE)
+                .setRouting(getRouting(organization))
+                .setSearchType(SearchType.COUNT)
+                .setQuery(QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(), createOrganizationFilter(organization)))
+                .addAggregation(AggregationBuilders.terms(CLUSTER_AGGREGATION)
+                        .field("cluster.raw")
+                        .size(0)
+                        .subAggregation(createStateAggregation()))
+                .addAggregation(AggregationBuilders.missing(NO_CLUSTER_AGGREGATION)
+                        .field("cluster.raw")
+                        .subAggregation(createStateAggregation()))
+                .execute()
+                .actionGet();
+
+        final List<HostFacet> facets = new ArrayList<>();
+        final Terms clusters = response.getAggregations().get(CLUSTER_AGGREGATION);
+        for (final Terms.Bucket cluster : clusters.getBuckets()) {
+            addHostFacets(facets, cluster.getKey(), cluster.getAggregations());
+        }
+        final Missing noCluster = response.getAggregations().get(NO_CLUSTER_AGGREGATION);
+        addHostFacets(facets, null, noCluster.getAggregations());
+        return facets;
+    }
+
+    @Override
+    public Optional<String> getEtag(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting etag")
+                .addData("organization", organization)
+                .log();
+        return Optional.empty();
+    }
+
     /**
      * Generate a Steno log compatible representation.
      *
@@ -330,6 +499,172 @@ public final class ElasticSearchHostRepository implements HostRepository {
         return toLogValue().toString();
     }
 
+    private void write(final List<ActionRequest<?>> requests, final List<String> hostnames) {
+        final BulkWrite bulkWrite = new BulkWrite(requests.size());
+        try {
+            for (int i = 0; i < requests.size(); ++i) {
+                _pendingItems.put(requests.get(i), new PendingItem(bulkWrite, hostnames.get(i)));
+                _bulkProcessor.add(requests.get(i));
+            }
+            // The caller waits for its hosts so they are sent now instead of after the flush interval
+            _bulkProcessor.flush();
+            bulkWrite.await(_writeTimeout, hostnames);
+        } finally {
+            for (final ActionRequest<?> request : requests) {
+                _pendingItems.remove(request);
+            }
+        }
+    }
+
+    private void createIndex(final String index) {
+        // Host names are indexed as lower case edge n-grams for prefix matches and as trigrams for infix matches so
+        // that partial host name queries are term lookups instead of query time expansions
+        _client.admin().indices().create(
+                Requests.createIndexRequest(index)
+                        .settings(ImmutableSettings.settingsBuilder()
+                                .put(_indexSettings)
+                                .put("analysis.filter.hostname_edge_ngram.type", "edgeNGram")
+                                .put("analysis.filter.hostname_edge_ngram.min_gram", 1)
+                                .put("analysis.filter.hostname_edge_ngram.max_gram", MAX_PREFIX_LENGTH)
+                                .put("analysis.filter.hostname_trigram.type", "nGram")
+                                .put("analysis.filter.hostname_trigram.min_gram", 3)
+                                .put("analysis.filter.hostname_trigram.max_gram", 3)
+                                .put("analysis.analyzer.hostname_lowercase.tokenizer", "keyword")
+                                .putArray("analysis.analyzer.hostname_lowercase.filter", "lowercase")
+                                .put("analysis.analyzer.hostname_prefix.tokenizer", "keyword")
+                                .putArray("analysis.analyzer.hostname_prefix.filter", "lowercase", "hostname_edge_ngram")
+                                .put("analysis.analyzer.hostname_infix.tokenizer", "keyword")
+                                .putArray("analysis.analyzer.hostname_infix.filter", "lowercase", "hostname_trigram")
+                                .build())
+                        .mapping(
+                                TYPE,
+                                "{\n"
+                                        + "    \"_routing\" : {\n"
+                                        + "        \"required\" : true\n"
+                                        + "    },\n"
+                                        + "    \"properties\" : {\n"
+                                        + "        \"hostname\" : {\n"
+                                        + "            \"type\" : \"string\",\n"
+                                        + "            \"store\" : true,\n"
+                                        + "            \"fields\": {\n"
+                                        + "                \"raw\": {\n"
+                                        + "                    \"type\":  \"string\",\n"
+                                        + "                    \"index\": \"not_analyzed\"\n"
+                                        + "                },\n"
+                                        + "                \"prefix\": {\n"
+                                        + "                    \"type\":  \"string\",\n"
+                                        + "                    \"index_analyzer\": \"hostname_prefix\",\n"
+                                        + "                    \"search_analyzer\": \"hostname_lowercase\"\n"
+                                        + "                },\n"
+                                        + "                \"infix\": {\n"
+                                        + "                    \"type\":  \"string\",\n"
+                                        + "                    \"analyzer\": \"hostname_infix\"\n"
+                                        + "                }\n"
+                                        + "            }\n"
+                                        + "        },\n"
+                                        + "        \"metricsSoftwareVersion\" : {\n"
+                                        + "            \"type\" : \"string\", \n"
+                                        + "            \"store\" : true\n"
+                                        + "        },\n"
+                                        + "        \"metricsSoftwareSha\" : {\n"
+                                        + "            \"type\" : \"string\", \n"
+                                        + "            \"store\" : true\n"
+                                        + "        },\n"
+                                        + "        \"organization\" : {\n"
+                                        + "            \"type\" : \"string\", \n"
+                                        + "            \"index\" : \"not_analyzed\", \n"
+                                        + "            \"store\" : true\n"
+                                        + "        },\n"
+                                        + "        \"metricsSoftwareState\" : {\n"
+                                        + "            \"type\" : \"string\", \n"
+                                        + "            \"store\" : true,\n"
+                                        + "            \"fields\": {\n"
+                                        + "                \"raw\": {\n"
+                                        + "                    \"type\":  \"string\",\n"
+                                        + "                    \"index\": \"not_analyzed\"\n"
+                                        + "                }\n"
+                                        + "            }\n"
+                                        + "        },\n"
+                                        + "        \"cluster\" : {\n"
+                                        + "            \"type\" : \"string\",\n"
+                                        + "            \"store\": true,\n"
+                                        + "            \"fields\": {\n"
+                                        + "                \"raw\": {\n"
+                                        + "                    \"type\":  \"string\",\n"
+                                        + "                    \"index\": \"not_analyzed\"\n"
+                                        + "                }\n"
+                                        + "            }\n"
+                                        + "        }\n"
+                                        + "    }\n"
+                                        + "}")
+                ).actionGet();
+
+        _client.admin().cluster().health(new ClusterHealthRequest(index).waitForGreenStatus()).actionGet();
+    }
+
+    private void reindex(final String sourceIndex, final String targetIndex) {
+        LOGGER.info()
+                .setMessage("Reindexing hosts")
+                .addData("sourceIndex", sourceIndex)
+                .addData("targetIndex", targetIndex)
+                .log();
+
+        final SearchResponse response = _client.prepareSearch(sourceIndex)
+                .setTypes(TYPE)
+                .setSearchType(SearchType.SCAN)
+                .setScroll(SCROLL_KEEP_ALIVE)
+                .setSize(EXPORT_BATCH_SIZE)
+                .execute()
+                .actionGet();
+        final ScrollIterator hits = new ScrollIterator(response.getScrollId());
+        long hostCount = 0;
+        try {
+            while (hits.hasNext()) {
+                final BulkRequestBuilder bulkRequest = _client.prepareBulk();
+                while (hits.hasNext() && bulkRequest.numberOfActions() < EXPORT_BATCH_SIZE) {
+                    bulkRequest.add(createReindexRequest(hits.next(), targetIndex));
+                }
+                final BulkResponse bulkResponse = bulkRequest.execute().actionGet();
+                if (bulkResponse.hasFailures()) {
+                    throw new IllegalStateException(String.format(
+                            "Unable to reindex hosts; sourceIndex=%s, targetIndex=%s, failure=%s",
+                            sourceIndex,
+                            targetIndex,
+                            bulkResponse.buildFailureMessage()));
+                }
+                hostCount += bulkRequest.numberOfActions();
+            }
+        } finally {
+            hits.close();
+        }
+        _client.admin().indices().prepareRefresh(targetIndex).execute().actionGet();
+
+        LOGGER.info()
+                .setMessage("Reindexed hosts")
+                .addData("sourceIndex", sourceIndex)
+                .addData("targetIndex", targetIndex)
+                .addData("hostCount", hostCount)
+                .log();
+    }
+
+    private static IndexRequest createReindexRequest(final SearchHit hit, final String targetIndex) {
+        // Hosts indexed before organizations were supported belong to the default organization
+        final ObjectNode document;
+        try {
+            document = (ObjectNode) OBJECT_MAPPER.readTree(hit.getSourceAsString());
+        } catch (final IOException | ClassCastException e) {
+            throw new IllegalStateException(String.format("Unable to reindex host; id=%s", hit.getId()), e);
+        }
+        if (!document.hasNonNull(ORGANIZATION_FIELD)) {
+            document.put(ORGANIZATION_FIELD, getRouting(Organization.DEFAULT));
+        }
+        final String routing = document.get(ORGANIZATION_FIELD).asText();
+        final String hostname = document.hasNonNull("hostname") ? document.get("hostname").asText() : hit.getId();
+        return new IndexRequest(targetIndex, TYPE, getDocumentId(hostname, routing))
+                .routing(routing)
+                .source(document.toString());
+    }
+
     private String mapField(final HostQuery.Field field) {
         switch (field) {
             case HOSTNAME:
@@ -341,27 +676,139 @@ public final class ElasticSearchHostRepository implements HostRepository {
         }
     }
 
-    private QueryResult<Host> deserializeHits(final SearchResponse response, final Organization organization) {
+    private List<Host> deserializeHits(final SearchHit[] hits, final Organization organization) {
         final List<Host> hosts = Lists.newArrayList();
-        for (final SearchHit hit : response.getHits().hits()) {
-            try {
-                hosts.add(OBJECT_MAPPER.readValue(hit.getSourceAsString(), DefaultHost.class));
-            } catch (final IOException e) {
-                LOGGER.error()
-                        .setMessage("Unable to deserialize host")
-                        .addData("json", hit.getSourceAsString())
-                        .addData("organization", organization)
-                        .setThrowable(e)
-                        .log();
+        for (final SearchHit hit : hits) {
+            final Optional<Host> host = deserializeHit(hit, organization);
+            if (host.isPresent()) {
+                hosts.add(host.get());
+            } else {
                 LOGGER.warn()
                         .setMessage("Deleting malformed host")
                         .addData("id", hit.id())
                         .addData("organization", organization)
                         .log();
-                deleteHost(hit.getId(), organization);
+                _bulkProcessor.add(new DeleteRequest(INDEX, TYPE, hit.getId()).routing(getRouting(organization)));
             }
         }
-        return new DefaultQueryResult<>(hosts, response.getHits().getTotalHits());
+        return hosts;
+    }
+
+    private FilterBuilder createSeekFilter(final HostQuery.Field field, final List<String> keys) {
+        final String hostnameField = mapField(HostQuery.Field.HOSTNAME);
+        if (field == HostQuery.Field.HOSTNAME) {
+            return FilterBuilders.rangeFilter(hostnameField).gt(keys.get(0));
+        }
+        final String sortField = mapField(field);
+        return FilterBuilders.boolFilter()
+                .should(FilterBuilders.rangeFilter(sortField).gt(keys.get(0)))
+                .should(FilterBuilders.boolFilter()
+                        .must(FilterBuilders.termFilter(sortField, keys.get(0)))
+                        .must(FilterBuilders.rangeFilter(hostnameField).gt(keys.get(1))));
+    }
+
+    private static Optional<Host> deserializeHit(final SearchHit hit, final Organization organization) {
+        try {
+            final ObjectNode document = (ObjectNode) OBJECT_MAPPER.readTree(hit.getSourceAsString());
+            document.remove(ORGANIZATION_FIELD);
+            return Optional.of(OBJECT_MAPPER.treeToValue(document, DefaultHost.class));
+        } catch (final IOException | ClassCastException e) {
+            LOGGER.error()
+                    .setMessage("Unable to deserialize host")
+                    .addData("json", hit.getSourceAsString())
+                    .addData("organization", organization)
+                    .setThrowable(e)
+                    .log();
+            return Optional.empty();
+        }
+    }
+
+    private static QueryBuilder createQueryBuilder(final HostQuery query) {
+        QueryBuilder esQuery = null;
+        if (query.getPartialHostname().isPresent()) {
+            // Exact matches rank above prefix matches which rank above infix matches
+            final String partialHostname = query.getPartialHostname().get();
+            esQuery = QueryBuilders.boolQuery()
+                    .should(QueryBuilders.termQuery("hostname.raw", partialHostname).boost(EXACT_MATCH_BOOST))
+                    .should(QueryBuilders.matchQuery("hostname.prefix", partialHostname).boost(PREFIX_MATCH_BOOST))
+                    .should(QueryBuilders.matchQuery("hostname.infix", partialHostname).operator(MatchQueryBuilder.Operator.AND))
+                    .minimumNumberShouldMatch(1);
+        }
+        if (query.getMetricsSoftwareState().isPresent()) {
+            final QueryBuilder queryState = QueryBuilders.matchQuery("metricsSoftwareState", query.getMetricsSoftwareState().get());
+            esQuery = esQuery == null ? queryState : QueryBuilders.boolQuery().must(esQuery).must(queryState);
+        }
+        if (query.getCluster().isPresent()) {
+            final QueryBuilder queryState = QueryBuilders.matchQuery("cluster", query.getCluster().get());
+            esQuery = esQuery == null ? queryState : QueryBuilders.boolQuery().must(esQuery).must(queryState);
+        }
+        return QueryBuilders.filteredQuery(
+                esQuery == null ? QueryBuilders.matchAllQuery() : esQuery,
+                createOrganizationFilter(query.getOrganization()));
+    }
+
+    private static TermsBuilder createStateAggregation() {
+        return AggregationBuilders.terms(STATE_AGGREGATION)
+                .field("metricsSoftwareState.raw")
+                .size(MetricsSoftwareState.values().length);
+    }
+
+    private static void addHostFacets(final List<HostFacet> facets, final String cluster, final Aggregations aggregations) {
+        final Terms states = aggregations.get(STATE_AGGREGATION);
+        for (final Terms.Bucket state : states.getBuckets()) {
+            facets.add(new DefaultHostFacet.Builder()
+                    .setCluster(cluster)
+                    .setMetricsSoftwareState(MetricsSoftwareState.valueOf(state.getKey()))
+                    .setCount(state.getDocCount())
+                    .build());
+        }
+    }
+
+    private static FilterBuilder createOrganizationFilter(final Organization organization) {
+        return FilterBuilders.termFilter(ORGANIZATION_FIELD, getRouting(organization));
+    }
+
+    // NOTE: Hosts are routed by organization so that the hosts of an organization are on one shard
+    private static String getRouting(final Organization organization) {
+        return organization.getId().toString();
+    }
+
+    private static String getDocumentId(final String hostname, final Organization organization) {
+        return getDocumentId(hostname, getRouting(organization));
+    }
+
+    private static String getDocumentId(final String hostname, final String organizationId) {
+        return organizationId + ":" + hostname;
+    }
+
+    private static DeleteRequest createDeleteRequest(final String hostname, final Organization organization) {
+        return new DeleteRequest(INDEX, TYPE, getDocumentId(hostname, organization)).routing(getRouting(organization));
+    }
+
+    private static UpdateRequest createUpsertRequest(final Host host, final Organization organization) {
+        final String routing = getRouting(organization);
+        final String hostJson;
+        try {
+            final ObjectNode document = OBJECT_MAPPER.valueToTree(host);
+            document.put(ORGANIZATION_FIELD, routing);
+            hostJson = OBJECT_MAPPER.writeValueAsString(document);
+        } catch (final JsonProcessingException | IllegalArgumentException e) {
+            throw new RuntimeException(String.format("Unable to serialize host; host=%s", host), e);
+        }
+
+        final String id = getDocumentId(host.getHostname(), organization);
+        final IndexRequest indexRequest = new IndexRequest(INDEX, TYPE, id)
+                .routing(routing)
+                .source(hostJson);
+
+        return new UpdateRequest(INDEX, TYPE, id)
+                .routing(routing)
+                .doc(hostJson)
+                .upsert(indexRequest);
+    }
+
+    private static String getVersionedIndex(final int version) {
+        return INDEX + "_v" + version;
     }
 
     private void assertIsOpen() {
@@ -375,8 +822,28 @@ public final class ElasticSearchHostRepository implements HostRepository {
     }
 
     /*package private*/ ElasticSearchHostRepository(final Settings settings, final Settings indexSettings) {
+        this(settings, indexSettings, ImmutableSettings.EMPTY);
+    }
+
+    /*package private*/ ElasticSearchHostRepository(
+            final Settings settings,
+            final Settings indexSettings,
+            final Settings repositorySettings) {
         _settings = settings;
         _indexSettings = indexSettings;
+        _repositorySettings = repositorySettings;
+        _searchType = SearchType.fromString(repositorySettings.get("query.search_type", DEFAULT_SEARCH_TYPE));
+    }
+
+    private static Settings buildRepositorySettings(final Configuration configuration) {
+        return ImmutableSettings.settingsBuilder()
+                .put("bulk.actions", configuration.getString("elasticSearch.bulk.hosts.actions"))
+                .put("bulk.size", configuration.getString("elasticSearch.bulk.hosts.size"))
+                .put("bulk.flush_interval", configuration.getString("elasticSearch.bulk.hosts.flushInterval"))
+                .put("bulk.concurrent_requests", configuration.getString("elasticSearch.bulk.hosts.concurrentRequests"))
+                .put("bulk.write_timeout", configuration.getString("elasticSearch.bulk.hosts.writeTimeout"))
+                .put("query.search_type", configuration.getString("elasticSearch.query.hosts.searchType"))
+                .build();
     }
 
     private static Settings buildIndexSettings(final Configuration configuration) {
@@ -402,14 +869,221 @@ public final class ElasticSearchHostRepository implements HostRepository {
     private final AtomicBoolean _isOpen = new AtomicBoolean(false);
     private final Settings _settings;
     private final Settings _indexSettings;
+    private final Settings _repositorySettings;
+    private final SearchType _searchType;
+    private final Object _inFlightMonitor = new Object();
+    private int _inFlightCount;
     private Client _client;
     private Node _node;
+    private BulkProcessor _bulkProcessor;
+    private TimeValue _writeTimeout;
+    // The write waiting for each bulk item by the identity of its request
+    private final Map<ActionRequest<?>, PendingItem> _pendingItems = Collections.synchronizedMap(new IdentityHashMap<>());
 
     private static final String INDEX = "hosts";
+    private static final int FIRST_MAPPING_VERSION = 2;
+    private static final int MAPPING_VERSION = 4;
+    private static final String VERSIONED_INDEX = getVersionedIndex(MAPPING_VERSION);
+    private static final String ORGANIZATION_FIELD = "organization";
     private static final String TYPE = "host";
     private static final ObjectMapper OBJECT_MAPPER = ObjectMapperFactory.getInstance();
     private static final Logger LOGGER = LoggerFactory.getLogger(ElasticSearchHostRepository.class);
-    private static final int MAX_EXPANSIONS = 10000;
+    private static final int MAX_PREFIX_LENGTH = 64;
+    private static final String DEFAULT_SEARCH_TYPE = "query_then_fetch";
+    private static final String TOTAL_AGGREGATION = "total";
+    private static final String CLUSTER_AGGREGATION = "cluster";
+    private static final String NO_CLUSTER_AGGREGATION = "no_cluster";
+    private static final String STATE_AGGREGATION = "state";
+    private static final float EXACT_MATCH_BOOST = 4.0f;
+    private static final float PREFIX_MATCH_BOOST = 2.0f;
+    private static final int EXPORT_BATCH_SIZE = 500;
+    private static final TimeValue SCROLL_KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+    private static final int DEFAULT_BULK_ACTIONS = 1000;
+    private static final ByteSizeValue DEFAULT_BULK_SIZE = new ByteSizeValue(5, ByteSizeUnit.MB);
+    private static final TimeValue DEFAULT_BULK_FLUSH_INTERVAL = TimeValue.timeValueSeconds(1);
+    private static final int DEFAULT_BULK_CONCURRENT_REQUESTS = 2;
+    private static final TimeValue DEFAULT_BULK_WRITE_TIMEOUT = TimeValue.timeValueMinutes(1);
+    private static final TimeValue CLOSE_TIMEOUT = TimeValue.timeValueSeconds(30);
+
+    /**
+     * Reports the outcome of each bulk request including the individual
+     * hosts which failed to be written to the writes waiting for them and
+     * tracks the requests in flight.
+     */
+    private final class BulkListener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(final long executionId, final BulkRequest request) {
+            synchronized (_inFlightMonitor) {
+                ++_inFlightCount;
+            }
+        }
+
+        @Override
+        public void afterBulk(final long executionId, final BulkRequest request, final BulkResponse response) {
+            int failedCount = 0;
+            for (final BulkItemResponse item : response.getItems()) {
+                if (item.isFailed()) {
+                    ++failedCount;
+                    LOGGER.warn()
+                            .setMessage("Failed to write host")
+                            .addData("hostname", item.getId())
+                            .addData("operation", item.getOpType())
+                            .addData("failure", item.getFailureMessage())
+                            .log();
+                }
+                // The item id is the position of the item's request in the bulk request
+                final PendingItem pendingItem = _pendingItems.remove(request.requests().get(item.getItemId()));
+                if (pendingItem != null) {
+                    pendingItem.complete(item.isFailed());
+                }
+            }
+            LOGGER.info()
+                    .setMessage("Wrote hosts")
+                    .addData("executionId", executionId)
+                    .addData("actionCount", request.numberOfActions())
+                    .addData("failedCount", failedCount)
+                    .addData("tookInMillis", response.getTookInMillis())
+                    .log();
+            completeBulk();
+        }
+
+        @Override
+        public void afterBulk(final long executionId, final BulkRequest request, final Throwable failure) {
+            LOGGER.error()
+                    .setMessage("Failed to write hosts")
+                    .addData("executionId", executionId)
+                    .addData("actionCount", request.numberOfActions())
+                    .setThrowable(failure)
+                    .log();
+            for (final ActionRequest<?> itemRequest : request.requests()) {
+                final PendingItem pendingItem = _pendingItems.remove(itemRequest);
+                if (pendingItem != null) {
+                    pendingItem.complete(true);
+                }
+            }
+            completeBulk();
+        }
+
+        private void completeBulk() {
+            synchronized (_inFlightMonitor) {
+                --_inFlightCount;
+                _inFlightMonitor.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The bulk items of one write. The write completes once every item was
+     * acknowledged or failed.
+     */
+    private static final class BulkWrite {
+
+        /* package private */ BulkWrite(final int itemCount) {
+            _remainingCount = new AtomicInteger(itemCount);
+            if (itemCount == 0) {
+                _completed.complete(null);
+            }
+        }
+
+        public void complete(final String hostname, final boolean isFailed) {
+            if (isFailed) {
+                _failedHostnames.add(hostname);
+            }
+            if (_remainingCount.decrementAndGet() == 0) {
+                _completed.complete(null);
+            }
+        }
+
+        public void await(final TimeValue timeout, final List<String> hostnames) {
+            try {
+                _completed.get(timeout.millis(), TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new HostWriteException("Interrupted waiting for hosts to be written", hostnames, e);
+            } catch (final ExecutionException | TimeoutException e) {
+                // Hosts which were not acknowledged in time may or may not have been stored
+                throw new HostWriteException(String.format("Timed out writing hosts; timeout=%s", timeout), hostnames, e);
+            }
+            synchronized (_failedHostnames) {
+                if (!_failedHostnames.isEmpty()) {
+                    throw new HostWriteException(
+                            String.format("Failed to write hosts; failedCount=%d", _failedHostnames.size()),
+                            _failedHostnames);
+                }
+            }
+        }
+
+        private final AtomicInteger _remainingCount;
+        private final List<String> _failedHostnames = Collections.synchronizedList(new ArrayList<>());
+        private final CompletableFuture<Void> _completed = new CompletableFuture<>();
+    }
+
+    /**
+     * A bulk item of a write.
+     */
+    private static final class PendingItem {
+
+        /* package private */ PendingItem(final BulkWrite bulkWrite, final String hostname) {
+            _bulkWrite = bulkWrite;
+            _hostname = hostname;
+        }
+
+        public void complete(final boolean isFailed) {
+            _bulkWrite.complete(_hostname, isFailed);
+        }
+
+        private final BulkWrite _bulkWrite;
+        private final String _hostname;
+    }
+
+    /**
+     * Iterates over the hits of a scroll, fetching the next batch of hits
+     * when the current one is exhausted. The scroll is cleared when the last
+     * batch is reached or the iterator is closed.
+     */
+    private final class ScrollIterator implements Iterator<SearchHit> {
+
+        /* package private */ ScrollIterator(final String scrollId) {
+            _scrollId = scrollId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (_index >= _hits.length && _scrollId != null) {
+                final SearchResponse response = _client.prepareSearchScroll(_scrollId)
+                        .setScroll(SCROLL_KEEP_ALIVE)
+                        .execute()
+                        .actionGet();
+                _scrollId = response.getScrollId();
+                _hits = response.getHits().hits();
+                _index = 0;
+                if (_hits.length == 0) {
+                    close();
+                }
+            }
+            return _index < _hits.length;
+        }
+
+        @Override
+        public SearchHit next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return _hits[_index++];
+        }
+
+        public void close() {
+            if (_scrollId != null) {
+                _client.prepareClearScroll().addScrollId(_scrollId).execute().actionGet();
+                _scrollId = null;
+            }
+        }
+
+        private String _scrollId;
+        private SearchHit[] _hits = new SearchHit[0];
+        private int _index;
+    }
 }
 
 
@@ -15,10 +15,10 @@
  */
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import akka.actor.Cancellable;
 import akka.actor.Status;
 import akka.actor.UntypedActor;
 import akka.pattern.PatternsCS;
-import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
@@ -32,11 +32,26 @@ import play.Configuration;
 import play.libs.ws.WSClient;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Host provider that uses the Foreman API to get host data.
  *
+ * Once the first page of a sync reports the total number of hosts the remaining
+ * pages are fetched concurrently, bounded by the configured parallelism. The
+ * page size used by the next sync is adapted so that the mean page latency
+ * approaches the configured target latency.
+ *
+ * Hosts are written through the <code>HostWriter</code>; a tick is skipped
+ * while the previous sync or its writes are still pending. Hosts missing from
+ * the configured number of consecutive completed syncs are expired. Before its
+ * first sync the provider is seeded with the hosts already in the repository
+ * so that hosts which disappeared while it was not running expire as well,
+ * unless it is merged by a <code>MultiProvider</code> which seeds its merger
+ * instead.
+ *
  * @author Brandon Arp (brandon dot arp at smartsheet dot com)
  */
 public final class ForemanHostProvider extends UntypedActor {
@@ -44,17 +59,18 @@ public final class ForemanHostProvider extends UntypedActor {
     /**
      * Public constructor.
      *
-     * @param hostRepository Repository to store hosts.
+     * @param hostWriter Writer to store hosts.
      * @param wsClient Webservice client used to make HTTP service calls.
      * @param configuration Play configuration.
      */
     @Inject
     public ForemanHostProvider(
-            final HostRepository hostRepository,
+            final HostWriter hostWriter,
             final WSClient wsClient,
             @Assisted final Configuration configuration) {
-        _hostRepository = hostRepository;
-        getContext().system().scheduler().schedule(
+        _writes = new HostWrites(hostWriter, getContext(), configuration);
+        _fingerprints = new HostFingerprintTable(configuration.getInt("expirySyncs", DEFAULT_EXPIRY_SYNCS));
+        _cancellable = getContext().system().scheduler().schedule(
                 ConfigurationHelper.getFiniteDuration(configuration, "initialDelay"),
                 ConfigurationHelper.getFiniteDuration(configuration, "interval"),
                 getSelf(),
@@ -65,6 +81,17 @@ public final class ForemanHostProvider extends UntypedActor {
                 .setBaseUrl(URI.create(configuration.getString("baseUrl")))
                 .setClient(wsClient)
                 .build();
+        _parallelism = Math.max(1, configuration.getInt("parallelism", DEFAULT_PARALLELISM));
+        _minPageSize = Math.max(1, configuration.getInt("minPageSize", DEFAULT_MIN_PAGE_SIZE));
+        _maxPageSize = Math.max(_minPageSize, configuration.getInt("maxPageSize", DEFAULT_MAX_PAGE_SIZE));
+        _targetPageLatencyNanos = TimeUnit.MILLISECONDS.toNanos(
+                configuration.getMilliseconds("targetPageLatency", DEFAULT_TARGET_PAGE_LATENCY_MILLIS));
+        _pageSize = Math.min(_maxPageSize, Math.max(_minPageSize, configuration.getInt("pageSize", DEFAULT_PAGE_SIZE)));
+    }
+
+    @Override
+    public void postStop() {
+        _cancellable.cancel();
     }
 
     /**
@@ -73,38 +100,108 @@ public final class ForemanHostProvider extends UntypedActor {
     @Override
     public void onReceive(final Object message) throws Exception {
         if (TICK.equals(message)) {
+            if (!_isSeeded) {
+                seed();
+                return;
+            }
+            if (_isSyncInProgress) {
+                LOGGER.debug()
+                        .setMessage("Skipping search; previous search still in progress")
+                        .addData("actor", self())
+                        .log();
+                return;
+            }
+            if (_writes.isPending()) {
+                LOGGER.debug()
+                        .setMessage("Skipping search; previous writes still pending")
+                        .addData("actor", self())
+                        .log();
+                return;
+            }
             LOGGER.info()
                     .setMessage("Searching for added/updated hosts")
                     .addData("actor", self())
+                    .addData("pageSize", _pageSize)
                     .log();
-            PatternsCS.pipe(_client.getHostPage(1), context().dispatcher()).to(self(), self());
-        } else if (message instanceof ForemanClient.HostPageResponse) {
-            final ForemanClient.HostPageResponse response = (ForemanClient.HostPageResponse) message;
+            _isSyncInProgress = true;
+            _isSyncFailed = false;
+            _changedHostCount = 0;
+            _fetchedPageCount = 0;
+            _totalPageLatencyNanos = 0;
+            _nextPage = 1;
+            _lastPage = 1;
+            _fingerprints.beginSync();
+            fetchPages();
+        } else if (message instanceof PageFetched) {
+            final PageFetched pageFetched = (PageFetched) message;
+            final ForemanClient.HostPageResponse response = pageFetched.getResponse();
+            --_inFlightPageCount;
+            ++_fetchedPageCount;
+            _totalPageLatencyNanos += pageFetched.getLatencyNanos();
+
             final List<ForemanClient.ForemanHost> results = response.getResults();
+            final List<Host> changedHosts = new ArrayList<>();
             for (final ForemanClient.ForemanHost host : results) {
                 final Host dh = new DefaultHost.Builder()
                         .setHostname(host.getName())
                         .setMetricsSoftwareState(MetricsSoftwareState.UNKNOWN)
                         .build();
-                _hostRepository.addOrUpdateHost(dh, Organization.DEFAULT);
+                if (_fingerprints.isChanged(dh)) {
+                    changedHosts.add(dh);
+                }
+            }
+            if (!changedHosts.isEmpty()) {
+                _writes.addOrUpdateHosts(changedHosts, Organization.DEFAULT);
+                _fingerprints.putAll(changedHosts);
+                _changedHostCount += changedHosts.size();
             }
 
-            if (response.getTotal() > response.getPage() * response.getPerPage()) {
-                PatternsCS
-                        .pipe(
-                                _client.getHostPage(
-                                        response.getPage() + 1,
-                                        response.getPerPage()),
-                                context().dispatcher())
-                        .to(self(), self());
+            // The first page determines how many pages remain; Foreman may cap the requested page size
+            if (response.getPage() == 1 && response.getPerPage() > 0) {
+                _lastPage = (response.getTotal() + response.getPerPage() - 1) / response.getPerPage();
+                _syncPageSize = response.getPerPage();
+            }
+            fetchPages();
+        } else if (message instanceof HostWrites.Seed) {
+            final HostWrites.Seed seed = (HostWrites.Seed) message;
+            _fingerprints.seed(seed.getHosts());
+            if (!seed.isLast()) {
+                return;
             }
+            _isSeeded = true;
+            LOGGER.info()
+                    .setMessage("Seeded fingerprints from repository")
+                    .addData("actor", self())
+                    .addData("fingerprints", _fingerprints)
+                    .log();
+            self().tell(TICK, self());
+        } else if (message instanceof HostWrites.Failed) {
+            final HostWrites.Failed failed = (HostWrites.Failed) message;
+            LOGGER.warn()
+                    .setMessage("Failed to write hosts; retrying on next search")
+                    .addData("actor", self())
+                    .addData("hostCount", failed.getHosts().size())
+                    .log();
+            _fingerprints.invalidate(failed.getHosts());
+        } else if (message instanceof HostWrites.ExpireFailed) {
+            final HostWrites.ExpireFailed failed = (HostWrites.ExpireFailed) message;
+            LOGGER.warn()
+                    .setMessage("Failed to delete hosts; retrying on next search")
+                    .addData("actor", self())
+                    .addData("hostCount", failed.getKeys().length)
+                    .log();
+            _fingerprints.restore(failed.getKeys());
         } else if (message instanceof Status.Failure) {
+            --_inFlightPageCount;
+            // The fingerprints are not swept so hosts on the unread pages are not deleted
+            _isSyncFailed = true;
             final Status.Failure failure = (Status.Failure) message;
             LOGGER.warn()
                     .setMessage("Failure processing Foreman response")
                     .addData("actor", self())
                     .setThrowable(failure.cause())
                     .log();
+            fetchPages();
         } else {
             LOGGER.warn()
                     .setMessage("Unhandled message")
@@ -115,9 +212,122 @@ public final class ForemanHostProvider extends UntypedActor {
         }
     }
 
-    private final HostRepository _hostRepository;
+    private void seed() {
+        // Hosts already in the repository expire unless the first syncs see them
+        if (!_isSeedRequested) {
+            _isSeedRequested = true;
+            _writes.seed(Organization.DEFAULT);
+        }
+    }
+
+    private void fetchPages() {
+        while (!_isSyncFailed && _inFlightPageCount < _parallelism && _nextPage <= _lastPage) {
+            final int page = _nextPage++;
+            final int pageSize = page == 1 ? _pageSize : _syncPageSize;
+            final long startNanos = System.nanoTime();
+            ++_inFlightPageCount;
+            PatternsCS
+                    .pipe(
+                            _client.getHostPage(page, pageSize)
+                                    .thenApply(response -> new PageFetched(response, System.nanoTime() - startNanos)),
+                            context().dispatcher())
+                    .to(self(), self());
+        }
+        if (_inFlightPageCount == 0) {
+            completeSync();
+        }
+    }
+
+    private void completeSync() {
+        _isSyncInProgress = false;
+        if (_isSyncFailed) {
+            LOGGER.warn()
+                    .setMessage("Abandoned search for added/updated hosts")
+                    .addData("actor", self())
+                    .addData("changedCount", _changedHostCount)
+                    .addData("fetchedPageCount", _fetchedPageCount)
+                    .addData("pageCount", _lastPage)
+                    .log();
+            return;
+        }
+
+        final long[] expiredKeys = _fingerprints.endSync();
+        _writes.completeSync(expiredKeys, Organization.DEFAULT);
+        final long meanPageLatencyNanos = _totalPageLatencyNanos / Math.max(1, _fetchedPageCount);
+        final int previousPageSize = _pageSize;
+        adaptPageSize(meanPageLatencyNanos);
+        LOGGER.info()
+                .setMessage("Completed search for added/updated hosts")
+                .addData("actor", self())
+                .addData("changedCount", _changedHostCount)
+                .addData("expiredCount", expiredKeys.length)
+                .addData("pageCount", _fetchedPageCount)
+                .addData("meanPageLatencyMillis", TimeUnit.NANOSECONDS.toMillis(meanPageLatencyNanos))
+                .addData("previousPageSize", previousPageSize)
+                .addData("pageSize", _pageSize)
+                .addData("fingerprints", _fingerprints)
+                .log();
+    }
+
+    private void adaptPageSize(final long meanPageLatencyNanos) {
+        // Only adapt when the last sync actually used full pages of the requested size
+        if (_fetchedPageCount < 2 || meanPageLatencyNanos <= 0 || _syncPageSize < _pageSize) {
+            return;
+        }
+        final double ratio = Math.max(
+                MIN_PAGE_SIZE_RATIO,
+                Math.min(MAX_PAGE_SIZE_RATIO, (double) _targetPageLatencyNanos / meanPageLatencyNanos));
+        _pageSize = (int) Math.min(_maxPageSize, Math.max(_minPageSize, Math.round(_pageSize * ratio)));
+    }
+
+    private final HostWrites _writes;
     private final ForemanClient _client;
+    private final Cancellable _cancellable;
+    private final HostFingerprintTable _fingerprints;
+    private final int _parallelism;
+    private final int _minPageSize;
+    private final int _maxPageSize;
+    private final long _targetPageLatencyNanos;
+    private int _pageSize;
+    private int _syncPageSize;
+    private boolean _isSeedRequested = false;
+    private boolean _isSeeded = false;
+    private boolean _isSyncInProgress = false;
+    private boolean _isSyncFailed = false;
+    private int _nextPage;
+    private int _lastPage;
+    private int _inFlightPageCount = 0;
+    private int _fetchedPageCount;
+    private long _totalPageLatencyNanos;
+    private int _changedHostCount = 0;
 
     private static final Logger LOGGER = LoggerFactory.getLogger(ForemanHostProvider.class);
     private static final String TICK = "tick";
+    private static final int DEFAULT_EXPIRY_SYNCS = 3;
+    private static final int DEFAULT_PARALLELISM = 4;
+    private static final int DEFAULT_PAGE_SIZE = 250;
+    private static final int DEFAULT_MIN_PAGE_SIZE = 50;
+    private static final int DEFAULT_MAX_PAGE_SIZE = 1000;
+    private static final long DEFAULT_TARGET_PAGE_LATENCY_MILLIS = 2000;
+    private static final double MIN_PAGE_SIZE_RATIO = 0.5;
+    private static final double MAX_PAGE_SIZE_RATIO = 2.0;
+
+    private static final class PageFetched {
+
+        PageFetched(final ForemanClient.HostPageResponse response, final long latencyNanos) {
+            _response = response;
+            _latencyNanos = latencyNanos;
+        }
+
+        public ForemanClient.HostPageResponse getResponse() {
+            return _response;
+        }
+
+        public long getLatencyNanos() {
+            return _latencyNanos;
+        }
+
+        private final ForemanClient.HostPageResponse _response;
+        private final long _latencyNanos;
+    }
 }
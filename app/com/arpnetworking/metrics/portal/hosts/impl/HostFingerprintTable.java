@@ -0,0 +1,346 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import models.internal.Host;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Optional;
+
+/**
+ * Snapshot of the hosts written by a host provider during its last sync. Each
+ * hostname maps to a 64-bit fingerprint of the host's attributes so that a
+ * provider only writes hosts which were added or changed since the previous
+ * sync and can detect hosts which disappeared from its source.
+ *
+ * Each host records the last sync it was seen in. A host expires once it was
+ * not seen during the configured number of consecutive completed syncs, so a
+ * host which is briefly missing from its source is neither deleted nor
+ * rewritten. Abandoned syncs are not counted. The table of a provider which
+ * writes its hosts itself may be seeded with the hosts already in the
+ * repository, which expire like any other host if they are not seen.
+ *
+ * The table uses open addressing over primitive arrays keyed by a 64-bit hash
+ * of the hostname and does not retain the hostnames, so expired hosts are
+ * reported by their keys and the caller resolves them to hostnames. Two
+ * hostnames with the same hash are treated as the same host; for a million
+ * hosts the probability of any collision is below one in ten million. This
+ * class is not thread safe and is intended to be owned by a single provider
+ * actor.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class HostFingerprintTable {
+
+    /**
+     * Package private constructor.
+     *
+     * @param expirySyncs The number of consecutive completed syncs a host must be missing from to expire.
+     */
+    /* package private */ HostFingerprintTable(final int expirySyncs) {
+        _expirySyncs = Math.max(1, expirySyncs);
+        allocate(MINIMUM_CAPACITY);
+    }
+
+    /**
+     * Record hosts already in the repository as not seen so that they expire
+     * unless they are seen during the configured number of consecutive
+     * completed syncs. Hosts already in the table are left as is, so the
+     * table may be seeded in several parts. The table must be seeded between
+     * syncs.
+     *
+     * @param hosts The hosts in the repository.
+     */
+    public void seed(final Collection<? extends Host> hosts) {
+        for (final Host host : hosts) {
+            if ((_size + 1) * 2 > _keys.length) {
+                rebuild(_keys.length * 2, Integer.MIN_VALUE);
+            }
+            final long key = hashHostname(host.getHostname());
+            final int slot = findSlot(key);
+            if (_keys[slot] == EMPTY) {
+                _keys[slot] = key;
+                _fingerprints[slot] = fingerprint(host);
+                // The next sync begins a later generation so the host is not seen until it is visited
+                _generations[slot] = _generation;
+                ++_size;
+            }
+        }
+    }
+
+    /**
+     * Restore hosts which failed to be deleted as not seen so that they expire,
+     * and are deleted again, by the next completed sync unless they are seen.
+     * Hosts which were recorded again since are left as is.
+     *
+     * @param keys The keys of the hosts which failed to be deleted.
+     */
+    public void restore(final long[] keys) {
+        for (final long key : keys) {
+            if ((_size + 1) * 2 > _keys.length) {
+                rebuild(_keys.length * 2, Integer.MIN_VALUE);
+            }
+            final int slot = findSlot(key);
+            if (_keys[slot] == EMPTY) {
+                _keys[slot] = key;
+                // The attributes are unknown so the host is written if it is seen again
+                _fingerprints[slot] = 0;
+                _generations[slot] = UNSEEN_GENERATION;
+                ++_size;
+            }
+        }
+    }
+
+    /**
+     * Start a new sync. Hosts are marked as seen in the sync when visited
+     * through <code>isChanged</code> or <code>put</code>.
+     */
+    public void beginSync() {
+        ++_generation;
+    }
+
+    /**
+     * Determine whether a host was added or changed since it was last recorded
+     * and mark it as seen in the current sync.
+     *
+     * @param host The host reported by the source.
+     * @return True if and only if the host needs to be written.
+     */
+    public boolean isChanged(final Host host) {
+        final int slot = findSlot(hashHostname(host.getHostname()));
+        if (_keys[slot] == EMPTY) {
+            return true;
+        }
+        _generations[slot] = _generation;
+        return _fingerprints[slot] != fingerprint(host);
+    }
+
+    /**
+     * Record the fingerprint of a host which was written to the repository and
+     * mark it as seen in the current sync.
+     *
+     * @param host The host which was written.
+     */
+    public void put(final Host host) {
+        if ((_size + 1) * 2 > _keys.length) {
+            rebuild(_keys.length * 2, Integer.MIN_VALUE);
+        }
+        final long key = hashHostname(host.getHostname());
+        final int slot = findSlot(key);
+        if (_keys[slot] == EMPTY) {
+            _keys[slot] = key;
+            ++_size;
+        }
+        _fingerprints[slot] = fingerprint(host);
+        _generations[slot] = _generation;
+    }
+
+    /**
+     * Record the fingerprints of hosts which were written to the repository.
+     *
+     * @param hosts The hosts which were written.
+     */
+    public void putAll(final Collection<? extends Host> hosts) {
+        for (final Host host : hosts) {
+            put(host);
+        }
+    }
+
+    /**
+     * Invalidate the recorded fingerprints of hosts which failed to be written
+     * so that they are written again by the next sync even if unchanged. A
+     * host whose fingerprint was recorded again since is left as is.
+     *
+     * @param hosts The hosts which failed to be written.
+     */
+    public void invalidate(final Collection<? extends Host> hosts) {
+        for (final Host host : hosts) {
+            final int slot = findSlot(hashHostname(host.getHostname()));
+            final long fingerprint = fingerprint(host);
+            if (_keys[slot] != EMPTY && _fingerprints[slot] == fingerprint) {
+                _fingerprints[slot] = ~fingerprint;
+            }
+        }
+    }
+
+    /**
+     * Complete the current sync and remove every host which was not seen
+     * during it or the preceding completed syncs within the expiry.
+     *
+     * @return The sorted keys of the expired hosts.
+     */
+    public long[] endSync() {
+        _completedGenerations.addLast(_generation);
+        if (_completedGenerations.size() > _expirySyncs) {
+            _completedGenerations.removeFirst();
+        } else if (_completedGenerations.size() < _expirySyncs) {
+            // Seeded hosts were never seen so none may expire before the configured number of syncs completed
+            return NO_KEYS;
+        }
+        // Hosts last seen before the oldest completed sync within the expiry have expired
+        final int minimumGeneration = _completedGenerations.getFirst();
+        int expiredCount = 0;
+        for (int i = 0; i < _keys.length; ++i) {
+            if (_keys[i] != EMPTY && _generations[i] < minimumGeneration) {
+                ++expiredCount;
+            }
+        }
+        if (expiredCount == 0) {
+            return NO_KEYS;
+        }
+        final long[] expired = new long[expiredCount];
+        int index = 0;
+        for (int i = 0; i < _keys.length; ++i) {
+            if (_keys[i] != EMPTY && _generations[i] < minimumGeneration) {
+                expired[index++] = _keys[i];
+            }
+        }
+        Arrays.sort(expired);
+        // Rebuilding is linear in the capacity and avoids tombstones in the probe sequences
+        rebuild(MINIMUM_CAPACITY, minimumGeneration);
+        return expired;
+    }
+
+    /**
+     * Compute the key of a hostname in the table.
+     *
+     * @param hostname The hostname.
+     * @return The key of the hostname.
+     */
+    public static long hashHostname(final String hostname) {
+        final long hash = HASH_FUNCTION.hashString(hostname, StandardCharsets.UTF_8).asLong();
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    /**
+     * Determine whether the key of a hostname is in a sorted array of keys.
+     *
+     * @param keys The sorted keys.
+     * @param hostname The hostname.
+     * @return True if and only if the key of the hostname is in the keys.
+     */
+    public static boolean containsHostname(final long[] keys, final String hostname) {
+        return Arrays.binarySearch(keys, hashHostname(hostname)) >= 0;
+    }
+
+    /**
+     * Retrieve the number of hosts in the table.
+     *
+     * @return The number of hosts.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("size", _size)
+                .put("capacity", _keys.length)
+                .put("generation", _generation)
+                .put("expirySyncs", _expirySyncs)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private int findSlot(final long key) {
+        final int mask = _keys.length - 1;
+        int slot = (int) key & mask;
+        while (_keys[slot] != EMPTY && _keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void rebuild(final int minimumCapacity, final int minimumGeneration) {
+        final long[] keys = _keys;
+        final long[] fingerprints = _fingerprints;
+        final int[] generations = _generations;
+
+        int retained = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != EMPTY && generations[i] >= minimumGeneration) {
+                ++retained;
+            }
+        }
+        int capacity = MINIMUM_CAPACITY;
+        while (capacity < minimumCapacity || capacity < retained * 2) {
+            capacity *= 2;
+        }
+
+        allocate(capacity);
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != EMPTY && generations[i] >= minimumGeneration) {
+                final int slot = findSlot(keys[i]);
+                _keys[slot] = keys[i];
+                _fingerprints[slot] = fingerprints[i];
+                _generations[slot] = generations[i];
+                ++_size;
+            }
+        }
+    }
+
+    private void allocate(final int capacity) {
+        _keys = new long[capacity];
+        _fingerprints = new long[capacity];
+        _generations = new int[capacity];
+        _size = 0;
+    }
+
+    private static long fingerprint(final Host host) {
+        final Hasher hasher = HASH_FUNCTION.newHasher()
+                .putString(host.getMetricsSoftwareState().name(), StandardCharsets.UTF_8);
+        final Optional<String> cluster = host.getCluster();
+        if (cluster.isPresent()) {
+            hasher.putBoolean(true).putString(cluster.get(), StandardCharsets.UTF_8);
+        } else {
+            hasher.putBoolean(false);
+        }
+        return hasher.hash().asLong();
+    }
+
+    private final int _expirySyncs;
+    private final Deque<Integer> _completedGenerations = new ArrayDeque<>();
+    private long[] _keys;
+    private long[] _fingerprints;
+    private int[] _generations;
+    private int _size;
+    private int _generation;
+
+    private static final long EMPTY = 0;
+    private static final int UNSEEN_GENERATION = -1;
+    private static final int MINIMUM_CAPACITY = 16;
+    private static final long[] NO_KEYS = new long[0];
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+}
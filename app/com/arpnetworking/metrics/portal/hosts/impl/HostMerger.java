@@ -0,0 +1,311 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.google.common.collect.ImmutableList;
+import models.internal.Host;
+import models.internal.MetricsSoftwareState;
+import models.internal.impl.DefaultHost;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Merged view of the hosts reported by several host provider sources for
+ * one organization. Each source reports the hosts it added, changed or
+ * removed; the merged host is recomputed field by field from the sources
+ * which report it and only merged hosts which differ from the last flushed
+ * value are returned by <code>flush</code>.
+ *
+ * For each field the value of the first source in the precedence order
+ * which knows the value is used; a source knows the cluster if it reports
+ * one and the metrics software state if it is not <code>UNKNOWN</code>.
+ * Sources not in the precedence order follow those which are, ordered by
+ * name. A host removed by a source while no source reports it is deleted by
+ * the next flush.
+ *
+ * The merger may be seeded with the hosts in the repository. A seeded host is
+ * only written again if the sources report it changed, and is deleted by
+ * the flush after <code>expireUnclaimed</code> unless a source reports it.
+ * This class is not thread safe and is intended to be owned by a single actor.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class HostMerger {
+
+    /**
+     * Package private constructor.
+     *
+     * @param clusterPrecedence The source precedence for the cluster.
+     * @param metricsSoftwareStatePrecedence The source precedence for the metrics software state.
+     */
+    /* package private */ HostMerger(final List<String> clusterPrecedence, final List<String> metricsSoftwareStatePrecedence) {
+        _clusterOrder = createOrder(clusterPrecedence);
+        _metricsSoftwareStateOrder = createOrder(metricsSoftwareStatePrecedence);
+    }
+
+    /**
+     * Record hosts already in the repository as flushed. Hosts flushed since
+     * are left as is, so the merger may be seeded in several parts.
+     *
+     * @param hosts The hosts in the repository.
+     */
+    public void seed(final Collection<? extends Host> hosts) {
+        for (final Host host : hosts) {
+            _flushed.putIfAbsent(host.getHostname(), host);
+        }
+    }
+
+    /**
+     * Record hosts added or changed by a source.
+     *
+     * @param source The name of the source.
+     * @param hosts The hosts added or changed by the source.
+     */
+    public void update(final String source, final Collection<? extends Host> hosts) {
+        for (final Host host : hosts) {
+            _hosts.computeIfAbsent(host.getHostname(), hostname -> new HashMap<>(2)).put(source, host);
+            _orphaned.remove(host.getHostname());
+            _dirty.add(host.getHostname());
+        }
+    }
+
+    /**
+     * Record hosts removed by a source.
+     *
+     * @param source The name of the source.
+     * @param hostnames The hostnames removed by the source.
+     */
+    public void remove(final String source, final Collection<String> hostnames) {
+        for (final String hostname : hostnames) {
+            final Map<String, Host> sources = _hosts.get(hostname);
+            if (sources == null) {
+                _orphaned.add(hostname);
+                _dirty.add(hostname);
+            } else if (sources.remove(source) != null) {
+                if (sources.isEmpty()) {
+                    _hosts.remove(hostname);
+                }
+                _dirty.add(hostname);
+            }
+        }
+    }
+
+    /**
+     * Record hosts which expired from a source by the keys of their hostnames
+     * in the fingerprint table of the source. Only hosts the source reported
+     * are removed; keys matching none of them are ignored.
+     *
+     * @param source The name of the source.
+     * @param keys The sorted keys of the hostnames which expired.
+     */
+    public void expire(final String source, final long[] keys) {
+        if (keys.length == 0) {
+            return;
+        }
+        final Iterator<Map.Entry<String, Map<String, Host>>> iterator = _hosts.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<String, Map<String, Host>> entry = iterator.next();
+            final Map<String, Host> sources = entry.getValue();
+            if (sources.containsKey(source) && HostFingerprintTable.containsHostname(keys, entry.getKey())) {
+                sources.remove(source);
+                if (sources.isEmpty()) {
+                    iterator.remove();
+                }
+                _dirty.add(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Forget the flushed value of merged hosts which failed to be written so
+     * that they are returned again by the next flush.
+     *
+     * @param hosts The merged hosts which failed to be written.
+     */
+    public void invalidate(final Collection<? extends Host> hosts) {
+        for (final Host host : hosts) {
+            if (host.equals(_flushed.get(host.getHostname()))) {
+                _flushed.remove(host.getHostname());
+                _dirty.add(host.getHostname());
+            }
+        }
+    }
+
+    /**
+     * Restore merged hosts which failed to be deleted so that they are deleted
+     * again by the next flush unless a source reported them since.
+     *
+     * @param hostnames The hostnames which failed to be deleted.
+     */
+    public void restore(final Collection<String> hostnames) {
+        for (final String hostname : hostnames) {
+            if (!_hosts.containsKey(hostname)) {
+                _orphaned.add(hostname);
+                _dirty.add(hostname);
+            }
+        }
+    }
+
+    /**
+     * Mark the flushed hosts which no source reports, such as seeded hosts no
+     * source has reported, to be deleted by the next flush. The caller must
+     * only expire unclaimed hosts once every source had the chance to report
+     * its hosts.
+     *
+     * @return The number of hosts to be deleted.
+     */
+    public int expireUnclaimed() {
+        int expiredCount = 0;
+        for (final String hostname : _flushed.keySet()) {
+            if (!_hosts.containsKey(hostname)) {
+                _dirty.add(hostname);
+                ++expiredCount;
+            }
+        }
+        return expiredCount;
+    }
+
+    /**
+     * Compute the merged hosts which changed since the last flush and record
+     * them as flushed.
+     *
+     * @return The changes since the last flush.
+     */
+    public Changes flush() {
+        final List<Host> updated = new ArrayList<>();
+        final List<String> deleted = new ArrayList<>();
+        for (final String hostname : _dirty) {
+            final Map<String, Host> sources = _hosts.get(hostname);
+            if (sources == null) {
+                final boolean isFlushed = _flushed.remove(hostname) != null;
+                if (_orphaned.remove(hostname) || isFlushed) {
+                    deleted.add(hostname);
+                }
+                continue;
+            }
+            final Host merged = merge(hostname, sources);
+            if (!merged.equals(_flushed.get(hostname))) {
+                _flushed.put(hostname, merged);
+                updated.add(merged);
+            }
+        }
+        _dirty.clear();
+        return new Changes(updated, deleted);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("hostCount", _hosts.size())
+                .put("flushedCount", _flushed.size())
+                .put("dirtyCount", _dirty.size())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private Host merge(final String hostname, final Map<String, Host> sources) {
+        final Map<String, Host> byClusterOrder = new TreeMap<>(_clusterOrder);
+        byClusterOrder.putAll(sources);
+        String cluster = null;
+        for (final Host host : byClusterOrder.values()) {
+            final Optional<String> hostCluster = host.getCluster();
+            if (hostCluster.isPresent()) {
+                cluster = hostCluster.get();
+                break;
+            }
+        }
+
+        final Map<String, Host> byStateOrder = new TreeMap<>(_metricsSoftwareStateOrder);
+        byStateOrder.putAll(sources);
+        MetricsSoftwareState metricsSoftwareState = MetricsSoftwareState.UNKNOWN;
+        for (final Host host : byStateOrder.values()) {
+            if (host.getMetricsSoftwareState() != MetricsSoftwareState.UNKNOWN) {
+                metricsSoftwareState = host.getMetricsSoftwareState();
+                break;
+            }
+        }
+
+        return new DefaultHost.Builder()
+                .setHostname(hostname)
+                .setCluster(cluster)
+                .setMetricsSoftwareState(metricsSoftwareState)
+                .build();
+    }
+
+    private static Comparator<String> createOrder(final List<String> precedence) {
+        final Map<String, Integer> ranks = new HashMap<>();
+        for (final String source : precedence) {
+            ranks.putIfAbsent(source, ranks.size());
+        }
+        return Comparator.<String>comparingInt(source -> ranks.getOrDefault(source, Integer.MAX_VALUE))
+                .thenComparing(Comparator.naturalOrder());
+    }
+
+    private final Comparator<String> _clusterOrder;
+    private final Comparator<String> _metricsSoftwareStateOrder;
+    private final Map<String, Map<String, Host>> _hosts = new HashMap<>();
+    private final Map<String, Host> _flushed = new HashMap<>();
+    private final Set<String> _dirty = new LinkedHashSet<>();
+    private final Set<String> _orphaned = new HashSet<>();
+
+    /**
+     * The merged hosts which changed since the last flush.
+     */
+    public static final class Changes {
+
+        /* package private */ Changes(final List<Host> updated, final List<String> deleted) {
+            _updated = ImmutableList.copyOf(updated);
+            _deleted = ImmutableList.copyOf(deleted);
+        }
+
+        public List<Host> getUpdated() {
+            return _updated;
+        }
+
+        public List<String> getDeleted() {
+            return _deleted;
+        }
+
+        public boolean isEmpty() {
+            return _updated.isEmpty() && _deleted.isEmpty();
+        }
+
+        private final ImmutableList<Host> _updated;
+        private final ImmutableList<String> _deleted;
+    }
+}
@@ -0,0 +1,524 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.Metrics;
+import com.arpnetworking.metrics.MetricsFactory;
+import com.arpnetworking.metrics.portal.hosts.HostRepository;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.base.MoreObjects;
+import com.google.common.collect.Iterators;
+import models.internal.Host;
+import models.internal.Organization;
+import play.Configuration;
+import play.inject.ApplicationLifecycle;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+/**
+ * Write-behind writer between the host providers and the host repository.
+ *
+ * Writes are queued and coalesced by organization and hostname so that only
+ * the latest write for a host is applied; a coalesced write keeps the queue
+ * position of the write it replaced. The queue is flushed in batches on the
+ * repository executor, one batch at a time, so the provider actors never
+ * block on the repository and writes for a host are applied in order.
+ *
+ * The queue is bounded: a submission which does not fit is rejected as a
+ * whole and its <code>CompletionStage</code> fails with a
+ * <code>RejectedExecutionException</code>. A single submission larger than
+ * the capacity is accepted only when the queue is empty. Providers are
+ * expected to skip polling while their previous writes are pending.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Singleton
+public final class HostWriter {
+
+    /**
+     * Public constructor.
+     *
+     * @param hostRepository The <code>HostRepository</code> to write to.
+     * @param executor The <code>Executor</code> to flush the queue on.
+     * @param metricsFactory The <code>MetricsFactory</code> instance.
+     * @param configuration Play configuration.
+     * @param lifecycle Play application lifecycle.
+     */
+    @Inject
+    public HostWriter(
+            final HostRepository hostRepository,
+            @Named("RepositoryDispatcher") final Executor executor,
+            final MetricsFactory metricsFactory,
+            final Configuration configuration,
+            final ApplicationLifecycle lifecycle) {
+        this(
+                hostRepository,
+                executor,
+                metricsFactory,
+                configuration.getInt("hostWriter.capacity", DEFAULT_CAPACITY),
+                configuration.getInt("hostWriter.batchSize", DEFAULT_BATCH_SIZE));
+        // Pending writes are flushed before the host repository is closed
+        lifecycle.addStopHook(this::flushed);
+    }
+
+    /**
+     * Queue hosts to be added or updated in the repository.
+     *
+     * @param hosts The hosts to add or update.
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> completed when the hosts are written.
+     */
+    public CompletionStage<Void> addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        final List<Write> writes = new ArrayList<>(hosts.size());
+        for (final Host host : hosts) {
+            writes.add(new Write(organization, host.getHostname(), host, false));
+        }
+        return enqueue(writes);
+    }
+
+    /**
+     * Queue hosts to be deleted from the repository.
+     *
+     * @param hostnames The hostnames to delete.
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> completed when the hosts are deleted.
+     */
+    public CompletionStage<Void> deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        return enqueueDeletes(hostnames, organization, false);
+    }
+
+    /**
+     * Queue hosts which expired from their source to be deleted from the
+     * repository. Expired hosts are deleted like any other host but are also
+     * counted as expired once deleted.
+     *
+     * @param hostnames The hostnames to delete.
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> completed when the hosts are deleted.
+     */
+    public CompletionStage<Void> expireHosts(final Collection<String> hostnames, final Organization organization) {
+        return enqueueDeletes(hostnames, organization, true);
+    }
+
+    /**
+     * Queue hosts which expired from their source to be deleted from the
+     * repository by the keys of their hostnames in a fingerprint table. The
+     * hostnames are resolved from the hosts in the repository on the
+     * repository executor; keys matching no host are ignored.
+     *
+     * @param keys The sorted keys of the hostnames to delete.
+     * @param organization The organization owning the hosts.
+     * @return <code>CompletionStage</code> completed when the hosts are deleted.
+     */
+    public CompletionStage<Void> expireHosts(final long[] keys, final Organization organization) {
+        return readHosts(
+                organization,
+                hosts -> hosts.map(Host::getHostname)
+                        .filter(hostname -> HostFingerprintTable.containsHostname(keys, hostname))
+                        .collect(Collectors.toList()))
+                .thenCompose(hostnames -> expireHosts(hostnames, organization));
+    }
+
+    /**
+     * Stream the hosts of an organization from the repository on the
+     * repository executor, passing them to the consumer in parts of the batch
+     * size so that the hosts are never all held at once. Providers seed their
+     * fingerprint tables, and the <code>MultiProvider</code> its mergers, with
+     * the hosts so that hosts which disappeared while no provider was running
+     * expire.
+     *
+     * @param organization The organization owning the hosts.
+     * @param consumer The consumer of each part of the hosts, called on the repository executor.
+     * @return <code>CompletionStage</code> completed when every host was consumed.
+     */
+    public CompletionStage<Void> exportHosts(final Organization organization, final Consumer<List<Host>> consumer) {
+        return readHosts(organization, hosts -> {
+            Iterators.partition(hosts.iterator(), _batchSize).forEachRemaining(consumer);
+            return null;
+        });
+    }
+
+    /**
+     * Retrieve the number of queued writes.
+     *
+     * @return The number of queued writes.
+     */
+    public int getQueueDepth() {
+        synchronized (_lock) {
+            return _pending.size();
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("hostRepository", _hostRepository)
+                .put("capacity", _capacity)
+                .put("batchSize", _batchSize)
+                .put("queueDepth", getQueueDepth())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    /* package private */ HostWriter(
+            final HostRepository hostRepository,
+            final Executor executor,
+            final MetricsFactory metricsFactory,
+            final int capacity,
+            final int batchSize) {
+        _hostRepository = hostRepository;
+        _executor = executor;
+        _metricsFactory = metricsFactory;
+        _capacity = Math.max(1, capacity);
+        _batchSize = Math.max(1, batchSize);
+    }
+
+    /* package private */ CompletionStage<Void> flushed() {
+        synchronized (_lock) {
+            return _flushed;
+        }
+    }
+
+    private <T> CompletionStage<T> readHosts(final Organization organization, final Function<Stream<Host>, T> reader) {
+        final CompletableFuture<T> read = new CompletableFuture<>();
+        try {
+            _executor.execute(() -> {
+                try (Stream<Host> hosts = _hostRepository.export(_hostRepository.createQuery(organization))) {
+                    read.complete(reader.apply(hosts));
+                    // CHECKSTYLE.OFF: IllegalCatch - The failure is returned to the provider
+                } catch (final RuntimeException e) {
+                    // CHECKSTYLE.ON: IllegalCatch
+                    read.completeExceptionally(e);
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            read.completeExceptionally(e);
+        }
+        return read.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                LOGGER.warn()
+                        .setMessage("Failed to export hosts")
+                        .addData("organization", organization)
+                        .setThrowable(throwable)
+                        .log();
+            }
+        });
+    }
+
+    private CompletionStage<Void> enqueue(final List<Write> writes) {
+        if (writes.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final Submission submission = new Submission(writes.size());
+        final boolean isAccepted;
+        final boolean isFlushStarted;
+        final int queueDepth;
+        int coalescedCount = 0;
+        synchronized (_lock) {
+            int addedCount = 0;
+            for (final Write write : writes) {
+                if (!_pending.containsKey(write.getKey())) {
+                    ++addedCount;
+                }
+            }
+            isAccepted = _pending.isEmpty() || _pending.size() + addedCount <= _capacity;
+            if (isAccepted) {
+                for (final Write write : writes) {
+                    write.getSubmissions().add(submission);
+                    final Write previous = _pending.put(write.getKey(), write);
+                    if (previous != null) {
+                        write.getSubmissions().addAll(previous.getSubmissions());
+                        ++coalescedCount;
+                    }
+                }
+            }
+            isFlushStarted = isAccepted && !_isFlushing;
+            if (isFlushStarted) {
+                _isFlushing = true;
+                _flushed = new CompletableFuture<>();
+            }
+            queueDepth = _pending.size();
+        }
+
+        final Metrics metrics = _metricsFactory.create();
+        metrics.setGauge(METRIC_PREFIX + "queue_depth", queueDepth);
+        metrics.incrementCounter(METRIC_PREFIX + "coalesced", coalescedCount);
+        metrics.incrementCounter(METRIC_PREFIX + "dropped", isAccepted ? 0 : writes.size());
+        metrics.close();
+
+        if (!isAccepted) {
+            LOGGER.warn()
+                    .setMessage("Host write queue full; rejecting writes")
+                    .addData("writeCount", writes.size())
+                    .addData("queueDepth", queueDepth)
+                    .addData("capacity", _capacity)
+                    .log();
+            final CompletableFuture<Void> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new RejectedExecutionException("Host write queue is full"));
+            return rejected;
+        }
+        if (isFlushStarted) {
+            _executor.execute(this::flush);
+        }
+        return submission.getFuture();
+    }
+
+    private CompletionStage<Void> enqueueDeletes(
+            final Collection<String> hostnames,
+            final Organization organization,
+            final boolean isExpiry) {
+        final List<Write> writes = new ArrayList<>(hostnames.size());
+        for (final String hostname : hostnames) {
+            writes.add(new Write(organization, hostname, null, isExpiry));
+        }
+        return enqueue(writes);
+    }
+
+    private void flush() {
+        final List<Write> batch = new ArrayList<>(_batchSize);
+        synchronized (_lock) {
+            final Iterator<Write> iterator = _pending.values().iterator();
+            while (iterator.hasNext() && batch.size() < _batchSize) {
+                batch.add(iterator.next());
+                iterator.remove();
+            }
+        }
+
+        final Metrics metrics = _metricsFactory.create();
+        final long startNanos = System.nanoTime();
+        Throwable failure = null;
+        try {
+            write(batch);
+            // CHECKSTYLE.OFF: IllegalCatch - Any failure must be reported to the submitters
+        } catch (final RuntimeException e) {
+            // CHECKSTYLE.ON: IllegalCatch
+            failure = e;
+            LOGGER.error()
+                    .setMessage("Failed to write hosts")
+                    .addData("batchSize", batch.size())
+                    .setThrowable(e)
+                    .log();
+        }
+        metrics.setTimer(METRIC_PREFIX + "flush_latency", System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        metrics.incrementCounter(METRIC_PREFIX + "written", failure == null ? batch.size() : 0);
+        metrics.incrementCounter(METRIC_PREFIX + "failed", failure == null ? 0 : batch.size());
+        int deletedCount = 0;
+        int expiredCount = 0;
+        for (final Write write : batch) {
+            if (write.getHost() == null) {
+                ++deletedCount;
+                if (write.isExpiry()) {
+                    ++expiredCount;
+                }
+            }
+        }
+        metrics.incrementCounter(METRIC_PREFIX + "deleted", failure == null ? deletedCount : 0);
+        metrics.incrementCounter(METRIC_PREFIX + "expired", failure == null ? expiredCount : 0);
+
+        for (final Write write : batch) {
+            for (final Submission submission : write.getSubmissions()) {
+                submission.complete(failure);
+            }
+        }
+
+        // Each batch is flushed as a separate task so the executor is shared fairly with the controllers
+        final CompletableFuture<Void> flushed;
+        final int queueDepth;
+        synchronized (_lock) {
+            queueDepth = _pending.size();
+            _isFlushing = !_pending.isEmpty();
+            flushed = _flushed;
+        }
+        metrics.setGauge(METRIC_PREFIX + "queue_depth", queueDepth);
+        metrics.close();
+        if (queueDepth > 0) {
+            _executor.execute(this::flush);
+        } else {
+            flushed.complete(null);
+        }
+    }
+
+    private void write(final List<Write> batch) {
+        final Map<UUID, Organization> organizations = new HashMap<>();
+        final Map<UUID, List<Host>> updates = new LinkedHashMap<>();
+        final Map<UUID, List<String>> deletes = new LinkedHashMap<>();
+        for (final Write write : batch) {
+            final UUID organizationId = write.getOrganization().getId();
+            organizations.putIfAbsent(organizationId, write.getOrganization());
+            if (write.getHost() != null) {
+                updates.computeIfAbsent(organizationId, id -> new ArrayList<>()).add(write.getHost());
+            } else {
+                deletes.computeIfAbsent(organizationId, id -> new ArrayList<>()).add(write.getKey().getHostname());
+            }
+        }
+        // A batch holds at most one write per host so updates and deletes may be applied in any order
+        for (final Map.Entry<UUID, List<Host>> entry : updates.entrySet()) {
+            _hostRepository.addOrUpdateHosts(entry.getValue(), organizations.get(entry.getKey()));
+        }
+        for (final Map.Entry<UUID, List<String>> entry : deletes.entrySet()) {
+            _hostRepository.deleteHosts(entry.getValue(), organizations.get(entry.getKey()));
+        }
+    }
+
+    private final HostRepository _hostRepository;
+    private final Executor _executor;
+    private final MetricsFactory _metricsFactory;
+    private final int _capacity;
+    private final int _batchSize;
+    private final Object _lock = new Object();
+    private final LinkedHashMap<Key, Write> _pending = new LinkedHashMap<>();
+    private boolean _isFlushing = false;
+    private CompletableFuture<Void> _flushed = CompletableFuture.completedFuture(null);
+
+    private static final int DEFAULT_CAPACITY = 10000;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final String METRIC_PREFIX = "host_writer/";
+    private static final Logger LOGGER = LoggerFactory.getLogger(HostWriter.class);
+
+    private static final class Key {
+
+        Key(final UUID organizationId, final String hostname) {
+            _organizationId = organizationId;
+            _hostname = hostname;
+        }
+
+        public String getHostname() {
+            return _hostname;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (this == other) {
+                return true;
+            }
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            final Key otherKey = (Key) other;
+            return Objects.equals(_organizationId, otherKey._organizationId)
+                    && Objects.equals(_hostname, otherKey._hostname);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(_organizationId, _hostname);
+        }
+
+        @Override
+        public String toString() {
+            return MoreObjects.toStringHelper(this)
+                    .add("OrganizationId", _organizationId)
+                    .add("Hostname", _hostname)
+                    .toString();
+        }
+
+        private final UUID _organizationId;
+        private final String _hostname;
+    }
+
+    private static final class Write {
+
+        Write(final Organization organization, final String hostname, final Host host, final boolean isExpiry) {
+            _key = new Key(organization.getId(), hostname);
+            _organization = organization;
+            _host = host;
+            _isExpiry = isExpiry;
+        }
+
+        public Key getKey() {
+            return _key;
+        }
+
+        public Organization getOrganization() {
+            return _organization;
+        }
+
+        // Null for a delete
+        public Host getHost() {
+            return _host;
+        }
+
+        public boolean isExpiry() {
+            return _isExpiry;
+        }
+
+        public List<Submission> getSubmissions() {
+            return _submissions;
+        }
+
+        private final Key _key;
+        private final Organization _organization;
+        private final Host _host;
+        private final boolean _isExpiry;
+        private final List<Submission> _submissions = new ArrayList<>(1);
+    }
+
+    private static final class Submission {
+
+        Submission(final int writeCount) {
+            _remaining = new AtomicInteger(writeCount);
+        }
+
+        public CompletableFuture<Void> getFuture() {
+            return _future;
+        }
+
+        public void complete(final Throwable failure) {
+            if (failure != null) {
+                _future.completeExceptionally(failure);
+            }
+            if (_remaining.decrementAndGet() == 0) {
+                _future.complete(null);
+            }
+        }
+
+        private final AtomicInteger _remaining;
+        private final CompletableFuture<Void> _future = new CompletableFuture<>();
+    }
+}
@@ -0,0 +1,308 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import akka.actor.ActorContext;
+import akka.actor.ActorRef;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Host;
+import models.internal.Organization;
+import play.Configuration;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+
+/**
+ * Tracks the writes a host provider submitted to the <code>HostWriter</code>.
+ * The provider skips polling its source while its writes are pending and is
+ * sent a <code>Failed</code> message with the hosts which were not written
+ * so that it can write them again on its next sync, a
+ * <code>DeleteFailed</code> message with the hosts which were not deleted so
+ * that it can delete them again, or an <code>ExpireFailed</code> message with
+ * the keys of the expired hosts which were not deleted.
+ *
+ * A provider merged by a <code>MultiProvider</code> instead reports its
+ * writes and completed syncs to its parent, either the
+ * <code>MultiProvider</code> or the sharding entity relaying them to it. The
+ * <code>MultiProvider</code> merges the hosts of all its providers and writes
+ * them. A merged provider is not seeded with the hosts in the repository,
+ * which other sources may own; only hosts it reported expire from it and the
+ * <code>MultiProvider</code> expires the hosts no source reported. This class
+ * is not thread safe and is intended to be owned by a single provider actor.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class HostWrites {
+
+    /**
+     * Package private constructor.
+     *
+     * @param hostWriter The <code>HostWriter</code> to submit writes to.
+     * @param context The context of the provider actor.
+     * @param configuration The configuration of the provider.
+     */
+    /* package private */ HostWrites(final HostWriter hostWriter, final ActorContext context, final Configuration configuration) {
+        _hostWriter = hostWriter;
+        _provider = context.self();
+        _source = configuration.getString(SOURCE_KEY);
+        _multiProvider = _source != null ? context.parent() : null;
+    }
+
+    /**
+     * Determine whether any submitted write has not completed.
+     *
+     * @return True if and only if a submitted write is pending.
+     */
+    public boolean isPending() {
+        return !_pending.isDone();
+    }
+
+    /**
+     * Stream the hosts in the repository for the provider to seed with. The
+     * provider is sent a <code>Seed</code> message for each part of the hosts
+     * followed by a last <code>Seed</code> message, which is also sent if the
+     * hosts could not be read. A merged provider is only sent the last
+     * message.
+     *
+     * @param organization The organization owning the hosts.
+     */
+    public void seed(final Organization organization) {
+        if (_multiProvider != null) {
+            _provider.tell(new Seed(Collections.emptyList(), true), ActorRef.noSender());
+            return;
+        }
+        _hostWriter.exportHosts(organization, hosts -> _provider.tell(new Seed(hosts, false), ActorRef.noSender()))
+                .whenComplete((ignored, throwable) -> _provider.tell(new Seed(Collections.emptyList(), true), ActorRef.noSender()));
+    }
+
+    /**
+     * Submit hosts to be added or updated.
+     *
+     * @param hosts The hosts to add or update.
+     * @param organization The organization owning the hosts.
+     */
+    public void addOrUpdateHosts(final List<Host> hosts, final Organization organization) {
+        if (_multiProvider != null) {
+            _multiProvider.tell(new MultiProvider.SourceChanges(_source, hosts, Collections.emptyList(), organization), _provider);
+            return;
+        }
+        final CompletableFuture<Void> written = _hostWriter.addOrUpdateHosts(hosts, organization).toCompletableFuture();
+        written.whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                _provider.tell(new Failed(hosts), ActorRef.noSender());
+            }
+        });
+        track(written);
+    }
+
+    /**
+     * Submit hosts to be deleted. The provider is sent a
+     * <code>DeleteFailed</code> message if the hosts are not deleted.
+     *
+     * @param hostnames The hostnames to delete.
+     * @param organization The organization owning the hosts.
+     */
+    public void deleteHosts(final List<String> hostnames, final Organization organization) {
+        if (_multiProvider != null) {
+            _multiProvider.tell(new MultiProvider.SourceChanges(_source, Collections.emptyList(), hostnames, organization), _provider);
+            return;
+        }
+        track(reportFailedDeletes(_hostWriter.deleteHosts(hostnames, organization), hostnames, organization));
+    }
+
+    /**
+     * Submit hosts which expired from the source to be deleted. The provider
+     * is sent a <code>DeleteFailed</code> message if the hosts are not
+     * deleted.
+     *
+     * @param hostnames The hostnames to delete.
+     * @param organization The organization owning the hosts.
+     */
+    public void expireHosts(final List<String> hostnames, final Organization organization) {
+        if (_multiProvider != null) {
+            // The merged host expires only once it expired from every source reporting it
+            _multiProvider.tell(new MultiProvider.SourceChanges(_source, Collections.emptyList(), hostnames, organization), _provider);
+            return;
+        }
+        track(reportFailedDeletes(_hostWriter.expireHosts(hostnames, organization), hostnames, organization));
+    }
+
+    /**
+     * Report a completed sync of the provider and submit the hosts which
+     * expired from its fingerprint table to be deleted by their keys. The
+     * provider is sent an <code>ExpireFailed</code> message if the hosts are
+     * not deleted.
+     *
+     * @param keys The sorted keys of the hostnames to delete.
+     * @param organization The organization owning the hosts.
+     */
+    public void completeSync(final long[] keys, final Organization organization) {
+        if (_multiProvider != null) {
+            // The merger resolves the keys against the hosts this source reported
+            _multiProvider.tell(
+                    new MultiProvider.SourceChanges(_source, Collections.emptyList(), Collections.emptyList(), keys, true, organization),
+                    _provider);
+            return;
+        }
+        if (keys.length == 0) {
+            return;
+        }
+        final CompletableFuture<Void> deleted = _hostWriter.expireHosts(keys, organization).toCompletableFuture();
+        deleted.whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                _provider.tell(new ExpireFailed(keys), ActorRef.noSender());
+            }
+        });
+        track(deleted);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("hostWriter", _hostWriter)
+                .put("multiProvider", _multiProvider)
+                .put("source", _source)
+                .put("isPending", isPending())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private CompletableFuture<Void> reportFailedDeletes(
+            final CompletionStage<Void> stage,
+            final List<String> hostnames,
+            final Organization organization) {
+        final CompletableFuture<Void> deleted = stage.toCompletableFuture();
+        deleted.whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                _provider.tell(new DeleteFailed(hostnames, organization), ActorRef.noSender());
+            }
+        });
+        return deleted;
+    }
+
+    private void track(final CompletableFuture<Void> written) {
+        // Only writes submitted since the last completion are retained
+        _pending = _pending.isDone() ? written : CompletableFuture.allOf(_pending, written);
+    }
+
+    private final HostWriter _hostWriter;
+    private final ActorRef _provider;
+    // The key of the provider in the MultiProvider, or null when writing directly
+    private final String _source;
+    // The MultiProvider the writes are reported to, or null when writing directly
+    private final ActorRef _multiProvider;
+    private CompletableFuture<Void> _pending = CompletableFuture.completedFuture(null);
+
+    /**
+     * Configuration key set by the <code>MultiProvider</code> to the key of
+     * each provider it merges; its parent is sent the writes of the provider.
+     */
+    /* package private */ static final String SOURCE_KEY = "mergeSource";
+
+    /**
+     * Message sent to the provider with a part of the hosts in the repository.
+     */
+    public static final class Seed {
+
+        /* package private */ Seed(final List<Host> hosts, final boolean isLast) {
+            _hosts = hosts;
+            _isLast = isLast;
+        }
+
+        public List<Host> getHosts() {
+            return _hosts;
+        }
+
+        /**
+         * Whether this is the last part of the hosts.
+         *
+         * @return True if and only if no further part follows.
+         */
+        public boolean isLast() {
+            return _isLast;
+        }
+
+        private final List<Host> _hosts;
+        private final boolean _isLast;
+    }
+
+    /**
+     * Message sent to the provider with hosts which failed to be written.
+     */
+    public static final class Failed {
+
+        /* package private */ Failed(final List<Host> hosts) {
+            _hosts = hosts;
+        }
+
+        public List<Host> getHosts() {
+            return _hosts;
+        }
+
+        private final List<Host> _hosts;
+    }
+
+    /**
+     * Message sent to the provider with hostnames which failed to be deleted.
+     */
+    public static final class DeleteFailed {
+
+        /* package private */ DeleteFailed(final List<String> hostnames, final Organization organization) {
+            _hostnames = hostnames;
+            _organization = organization;
+        }
+
+        public List<String> getHostnames() {
+            return _hostnames;
+        }
+
+        public Organization getOrganization() {
+            return _organization;
+        }
+
+        private final List<String> _hostnames;
+        private final Organization _organization;
+    }
+
+    /**
+     * Message sent to the provider with the keys of expired hosts which failed
+     * to be deleted.
+     */
+    public static final class ExpireFailed {
+
+        /* package private */ ExpireFailed(final long[] keys) {
+            _keys = keys;
+        }
+
+        public long[] getKeys() {
+            return _keys;
+        }
+
+        private final long[] _keys;
+    }
+}
@@ -0,0 +1,587 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.QueryResult;
+import models.internal.impl.DefaultHostFacet;
+import models.internal.impl.DefaultQueryResult;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * In-memory indexed store of the hosts belonging to a single organization.
+ * Maintains a sorted hostname index, a trigram index for partial hostname
+ * matching and secondary indexes by cluster and metrics software state. All
+ * indexes, and the host counts by cluster and state, are maintained on write
+ * so that queries only visit candidate hosts and counting visits no hosts.
+ * Queries in hostname order stop at the end of the requested page when the
+ * total is known from the indexes; other orders keep only the hosts up to the
+ * end of the page in a bounded heap.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class LocalHostIndex {
+
+    /**
+     * Add a new host or replace an existing host with the same hostname.
+     *
+     * @param host The host to add or update.
+     */
+    public void put(final Host host) {
+        _lock.writeLock().lock();
+        try {
+            addToIndexes(host);
+            ++_changeCount;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add new hosts or replace existing hosts with the same hostnames. The
+     * hosts are merged into the index under a single write lock.
+     *
+     * @param hosts The hosts to add or update.
+     */
+    public void putAll(final Collection<? extends Host> hosts) {
+        _lock.writeLock().lock();
+        try {
+            for (final Host host : hosts) {
+                addToIndexes(host);
+            }
+            ++_changeCount;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the hosts with the specified hostnames.
+     *
+     * @param hostnames The hostnames of the hosts to remove.
+     * @return The number of hosts removed.
+     */
+    public int removeAll(final Collection<String> hostnames) {
+        _lock.writeLock().lock();
+        try {
+            int removedCount = 0;
+            for (final String hostname : hostnames) {
+                if (removeFromIndexes(hostname)) {
+                    ++removedCount;
+                }
+            }
+            if (removedCount > 0) {
+                ++_changeCount;
+            }
+            return removedCount;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the host with the specified hostname.
+     *
+     * @param hostname The hostname of the host to remove.
+     * @return True if and only if a host was removed.
+     */
+    public boolean remove(final String hostname) {
+        _lock.writeLock().lock();
+        try {
+            final boolean isRemoved = removeFromIndexes(hostname);
+            if (isRemoved) {
+                ++_changeCount;
+            }
+            return isRemoved;
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Execute a query against the index.
+     *
+     * @param query The query to execute.
+     * @return The matching page of hosts and the total number of matches.
+     */
+    public QueryResult<Host> query(final HostQuery query) {
+        // NOTE: The etag is read before the query so that it never claims a state newer than the results.
+        final String etag = getEtag();
+        final int offset = query.getOffset().orElse(0);
+        final int end = (int) Math.min((long) offset + query.getLimit(), Integer.MAX_VALUE);
+        final List<IndexedHost> top;
+        long total = 0;
+        _lock.readLock().lock();
+        try {
+            final Filters filters = new Filters(query);
+            final Optional<Comparator<IndexedHost>> order = getOrder(query, filters.getPartialHostname());
+            if (order.isPresent()) {
+                // Keep the first hosts up to the end of the page in a heap with the last of them on top
+                final Comparator<IndexedHost> comparator = order.get();
+                final PriorityQueue<IndexedHost> heap = new PriorityQueue<>(
+                        Math.max(1, Math.min(end, INITIAL_HEAP_CAPACITY)),
+                        comparator.reversed());
+                for (final IndexedHost indexedHost : filters.matches(Optional.empty())) {
+                    ++total;
+                    if (heap.size() < end) {
+                        heap.add(indexedHost);
+                    } else if (end > 0 && comparator.compare(indexedHost, heap.peek()) < 0) {
+                        heap.poll();
+                        heap.add(indexedHost);
+                    }
+                }
+                top = new ArrayList<>(heap);
+                top.sort(comparator);
+            } else {
+                // Matches are visited in hostname order; stop at the end of the page unless the total must be counted
+                final Optional<Integer> knownTotal = filters.getSize();
+                top = new ArrayList<>(Math.min(end, INITIAL_HEAP_CAPACITY));
+                for (final IndexedHost indexedHost : filters.matches(Optional.empty())) {
+                    if (top.size() == end && knownTotal.isPresent()) {
+                        break;
+                    }
+                    if (top.size() < end) {
+                        top.add(indexedHost);
+                    }
+                    ++total;
+                }
+                if (knownTotal.isPresent()) {
+                    total = knownTotal.get();
+                }
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+
+        // Apply pagination
+        return new DefaultQueryResult<>(
+                top.subList(Math.min(offset, top.size()), top.size())
+                        .stream()
+                        .map(IndexedHost::getHost)
+                        .collect(Collectors.toList()),
+                total,
+                etag);
+    }
+
+    /**
+     * Stream every host matching a query ignoring its pagination. The hosts
+     * are streamed in hostname order and read from the index in chunks, each
+     * under its own read lock, so that the matches are neither held in memory
+     * nor block writers for the duration of the export. Hosts written during
+     * the export may or may not be included.
+     *
+     * @param query The query to execute.
+     * @return The matching hosts.
+     */
+    public Stream<Host> export(final HostQuery query) {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(new ExportIterator(query), Spliterator.ORDERED | Spliterator.NONNULL),
+                false);
+    }
+
+    /**
+     * Retrieve the etag of the index. The etag changes on every write and
+     * matches the etag of query results.
+     *
+     * @return The etag.
+     */
+    public String getEtag() {
+        _lock.readLock().lock();
+        try {
+            return Long.toString(_changeCount);
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieve the number of hosts in the index.
+     *
+     * @return The number of hosts.
+     */
+    public long size() {
+        _lock.readLock().lock();
+        try {
+            return _byName.size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieve the number of hosts with metrics software in the specified state.
+     *
+     * @param metricsSoftwareState The state to count.
+     * @return The number of hosts in the specified state.
+     */
+    public long size(final MetricsSoftwareState metricsSoftwareState) {
+        _lock.readLock().lock();
+        try {
+            return _byState.get(metricsSoftwareState).size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Retrieve the number of hosts grouped by cluster and metrics software
+     * state. Only combinations with at least one host are returned.
+     *
+     * @return The non-empty host facets.
+     */
+    public List<HostFacet> getFacets() {
+        final List<HostFacet> facets = new ArrayList<>();
+        _lock.readLock().lock();
+        try {
+            for (final Map.Entry<Optional<String>, Map<MetricsSoftwareState, Long>> clusterEntry : _facetCounts.entrySet()) {
+                for (final Map.Entry<MetricsSoftwareState, Long> stateEntry : clusterEntry.getValue().entrySet()) {
+                    facets.add(new DefaultHostFacet.Builder()
+                            .setCluster(clusterEntry.getKey().orElse(null))
+                            .setMetricsSoftwareState(stateEntry.getKey())
+                            .setCount(stateEntry.getValue())
+                            .build());
+                }
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+        return facets;
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("size", size())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ static Set<String> trigrams(final String lowerName) {
+        final Set<String> trigrams = Sets.newHashSet();
+        for (int i = 0; i + TRIGRAM_LENGTH <= lowerName.length(); ++i) {
+            trigrams.add(lowerName.substring(i, i + TRIGRAM_LENGTH));
+        }
+        return trigrams;
+    }
+
+    private static Optional<Comparator<IndexedHost>> getOrder(final HostQuery query, final Optional<String> partialHostname) {
+        // Hostname order is the order of the indexes and needs no comparator
+        if (query.getSortBy().isPresent()) {
+            if (HostQuery.Field.METRICS_SOFTWARE_STATE.equals(query.getSortBy().get())) {
+                return Optional.of(Comparator.<IndexedHost, MetricsSoftwareState>comparing(
+                        indexedHost -> indexedHost.getHost().getMetricsSoftwareState())
+                        .thenComparing(INDEXED_HOSTNAME_ORDER));
+            }
+        } else if (partialHostname.isPresent()) {
+            return Optional.of(Comparator.<IndexedHost>comparingInt(
+                    indexedHost -> indexedHost.getMatchTier(partialHostname.get()))
+                    .thenComparing(INDEXED_HOSTNAME_ORDER));
+        }
+        return Optional.empty();
+    }
+
+    private Set<String> findTrigramCandidates(final String lowerPartialHostname) {
+        final List<Set<String>> postings = new ArrayList<>();
+        for (final String trigram : trigrams(lowerPartialHostname)) {
+            final Set<String> posting = _byTrigram.get(trigram);
+            if (posting == null) {
+                return Collections.emptySet();
+            }
+            postings.add(posting);
+        }
+        postings.sort(Comparator.comparingInt(Set::size));
+        final Set<String> candidates = Sets.newHashSet(postings.get(0));
+        for (int i = 1; i < postings.size() && !candidates.isEmpty(); ++i) {
+            candidates.retainAll(postings.get(i));
+        }
+        return candidates;
+    }
+
+    private void addToIndexes(final Host host) {
+        removeFromIndexes(host.getHostname());
+        final IndexedHost indexedHost = new IndexedHost(host);
+        _byName.put(host.getHostname(), indexedHost);
+        for (final String trigram : trigrams(indexedHost.getLowerName())) {
+            _byTrigram.computeIfAbsent(trigram, k -> Sets.newHashSet()).add(host.getHostname());
+        }
+        if (host.getCluster().isPresent()) {
+            _byCluster.computeIfAbsent(host.getCluster().get(), k -> new TreeSet<>(HOSTNAME_ORDER)).add(host.getHostname());
+        }
+        _byState.get(host.getMetricsSoftwareState()).add(host.getHostname());
+        adjustFacetCount(host, 1);
+    }
+
+    private boolean removeFromIndexes(final String hostname) {
+        final IndexedHost existing = _byName.remove(hostname);
+        if (existing == null) {
+            return false;
+        }
+        for (final String trigram : trigrams(existing.getLowerName())) {
+            final Set<String> posting = _byTrigram.get(trigram);
+            posting.remove(hostname);
+            if (posting.isEmpty()) {
+                _byTrigram.remove(trigram);
+            }
+        }
+        final Optional<String> cluster = existing.getHost().getCluster();
+        if (cluster.isPresent()) {
+            final Set<String> clusterHosts = _byCluster.get(cluster.get());
+            clusterHosts.remove(hostname);
+            if (clusterHosts.isEmpty()) {
+                _byCluster.remove(cluster.get());
+            }
+        }
+        _byState.get(existing.getHost().getMetricsSoftwareState()).remove(hostname);
+        adjustFacetCount(existing.getHost(), -1);
+        return true;
+    }
+
+    private void adjustFacetCount(final Host host, final long delta) {
+        final Map<MetricsSoftwareState, Long> stateCounts = _facetCounts.computeIfAbsent(
+                host.getCluster(),
+                k -> Maps.newEnumMap(MetricsSoftwareState.class));
+        // NOTE: Returning null from the remapping removes the count once it reaches zero
+        stateCounts.merge(host.getMetricsSoftwareState(), delta, (count, change) -> count + change == 0 ? null : count + change);
+        if (stateCounts.isEmpty()) {
+            _facetCounts.remove(host.getCluster());
+        }
+    }
+
+    private static Map<MetricsSoftwareState, NavigableSet<String>> createStateIndex() {
+        final Map<MetricsSoftwareState, NavigableSet<String>> byState = Maps.newEnumMap(MetricsSoftwareState.class);
+        for (final MetricsSoftwareState state : MetricsSoftwareState.values()) {
+            byState.put(state, new TreeSet<>(HOSTNAME_ORDER));
+        }
+        return byState;
+    }
+
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, IndexedHost> _byName = new TreeMap<>(HOSTNAME_ORDER);
+    private final Map<String, Set<String>> _byTrigram = Maps.newHashMap();
+    private final Map<String, NavigableSet<String>> _byCluster = Maps.newHashMap();
+    private final Map<MetricsSoftwareState, NavigableSet<String>> _byState = createStateIndex();
+    private final Map<Optional<String>, Map<MetricsSoftwareState, Long>> _facetCounts = Maps.newHashMap();
+    private long _changeCount;
+
+    // NOTE: Package private for testing
+    /* package private */ static final int EXPORT_CHUNK_SIZE = 1000;
+
+    private static final int TRIGRAM_LENGTH = 3;
+    private static final int INITIAL_HEAP_CAPACITY = 1000;
+    private static final Comparator<String> HOSTNAME_ORDER =
+            String.CASE_INSENSITIVE_ORDER.thenComparing(Comparator.naturalOrder());
+    private static final Comparator<IndexedHost> INDEXED_HOSTNAME_ORDER =
+            Comparator.comparing(indexedHost -> indexedHost.getHost().getHostname(), HOSTNAME_ORDER);
+
+    /**
+     * The filters of a query resolved against the indexes. The candidate
+     * hosts are driven from the smallest secondary index in hostname order
+     * and verified against the other indexes. Must be created and iterated
+     * under the read lock.
+     */
+    private final class Filters {
+
+        Filters(final HostQuery query) {
+            _partialHostname = query.getPartialHostname().map(name -> name.toLowerCase(Locale.getDefault()));
+
+            // Gather the candidate sets from the secondary indexes
+            if (query.getCluster().isPresent()) {
+                _filters.add(_byCluster.getOrDefault(query.getCluster().get(), Collections.emptyNavigableSet()));
+            }
+            if (query.getMetricsSoftwareState().isPresent()) {
+                _filters.add(_byState.get(query.getMetricsSoftwareState().get()));
+            }
+            if (_partialHostname.isPresent() && _partialHostname.get().length() >= TRIGRAM_LENGTH) {
+                _filters.add(findTrigramCandidates(_partialHostname.get()));
+            }
+
+            // Drive the scan from the smallest candidate set; the trigram candidates are sorted to be visited in order
+            final Optional<Set<String>> smallest = _filters.stream().min(Comparator.comparingInt(Set::size));
+            _driverFilter = smallest.orElse(null);
+            if (!smallest.isPresent()) {
+                _driver = _byName.navigableKeySet();
+            } else if (smallest.get() instanceof NavigableSet) {
+                _driver = (NavigableSet<String>) smallest.get();
+            } else {
+                _driver = new TreeSet<>(HOSTNAME_ORDER);
+                _driver.addAll(smallest.get());
+            }
+        }
+
+        public Optional<String> getPartialHostname() {
+            return _partialHostname;
+        }
+
+        /**
+         * Retrieve the number of matching hosts if it is known without
+         * visiting them; that is when at most one index filters the hosts.
+         *
+         * @return The number of matching hosts if known.
+         */
+        public Optional<Integer> getSize() {
+            if (_filters.size() <= 1 && !_partialHostname.isPresent()) {
+                return Optional.of(_driver.size());
+            }
+            return Optional.empty();
+        }
+
+        /**
+         * Lazily visit the matching hosts in hostname order.
+         *
+         * @param after The hostname to start after, if any.
+         * @return The matching hosts.
+         */
+        public Iterable<IndexedHost> matches(final Optional<String> after) {
+            final NavigableSet<String> hostnames = after.isPresent() ? _driver.tailSet(after.get(), false) : _driver;
+            return Iterables.filter(Iterables.transform(hostnames, _byName::get), this::isMatch);
+        }
+
+        private boolean isMatch(final IndexedHost indexedHost) {
+            final String hostname = indexedHost.getHost().getHostname();
+            for (final Set<String> filter : _filters) {
+                if (filter != _driverFilter && !filter.contains(hostname)) {
+                    return false;
+                }
+            }
+            return !_partialHostname.isPresent() || indexedHost.getLowerName().contains(_partialHostname.get());
+        }
+
+        private final Optional<String> _partialHostname;
+        private final List<Set<String>> _filters = new ArrayList<>();
+        private final Set<String> _driverFilter;
+        private final NavigableSet<String> _driver;
+    }
+
+    /**
+     * Iterates the hosts matching a query in chunks, resuming each chunk
+     * after the last hostname of the previous one.
+     */
+    private final class ExportIterator extends AbstractIterator<Host> {
+
+        ExportIterator(final HostQuery query) {
+            _query = query;
+        }
+
+        @Override
+        protected Host computeNext() {
+            if (!_chunk.hasNext() && !_isExhausted) {
+                readChunk();
+            }
+            return _chunk.hasNext() ? _chunk.next() : endOfData();
+        }
+
+        private void readChunk() {
+            final List<Host> chunk = new ArrayList<>(EXPORT_CHUNK_SIZE);
+            _lock.readLock().lock();
+            try {
+                for (final IndexedHost indexedHost : new Filters(_query).matches(_lastHostname)) {
+                    chunk.add(indexedHost.getHost());
+                    if (chunk.size() == EXPORT_CHUNK_SIZE) {
+                        break;
+                    }
+                }
+            } finally {
+                _lock.readLock().unlock();
+            }
+            _isExhausted = chunk.size() < EXPORT_CHUNK_SIZE;
+            if (!chunk.isEmpty()) {
+                _lastHostname = Optional.of(chunk.get(chunk.size() - 1).getHostname());
+            }
+            _chunk = chunk.iterator();
+        }
+
+        private final HostQuery _query;
+        private Optional<String> _lastHostname = Optional.empty();
+        private Iterator<Host> _chunk = Collections.emptyIterator();
+        private boolean _isExhausted = false;
+    }
+
+    private static final class IndexedHost {
+
+        IndexedHost(final Host host) {
+            _host = host;
+            _lowerName = host.getHostname().toLowerCase(Locale.getDefault());
+        }
+
+        public Host getHost() {
+            return _host;
+        }
+
+        public String getLowerName() {
+            return _lowerName;
+        }
+
+        /**
+         * Rank the host against a partial hostname; exact matches first, then
+         * prefix matches and finally infix matches.
+         *
+         * @param lowerPartialHostname The lower case partial hostname.
+         * @return The match tier; lower is better.
+         */
+        public int getMatchTier(final String lowerPartialHostname) {
+            if (_lowerName.equals(lowerPartialHostname)) {
+                return 0;
+            } else if (_lowerName.startsWith(lowerPartialHostname)) {
+                return 1;
+            }
+            return 2;
+        }
+
+        private final Host _host;
+        private final String _lowerName;
+    }
+}
@@ -20,30 +20,27 @@ import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
-import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.Inject;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import models.internal.Host;
+import models.internal.HostFacet;
 import models.internal.HostQuery;
 import models.internal.MetricsSoftwareState;
 import models.internal.Organization;
 import models.internal.QueryResult;
 import models.internal.impl.DefaultHostQuery;
-import models.internal.impl.DefaultQueryResult;
 
-import java.io.Serializable;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.Collection;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 /**
- * Implementation of <code>HostRepository</code> using a <code>Map</code>. This
- * is <b>not</b> intended for production usage.
+ * Implementation of <code>HostRepository</code> using an in-memory index per
+ * organization. This is <b>not</b> intended for production usage.
  *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
  */
@@ -77,8 +74,18 @@ public final class LocalHostRepository implements HostRepository {
                 .addData("host", host)
                 .addData("organization", organization)
                 .log();
-        final Map<String, Host> orgMap = getOrganizationMap(organization);
-        orgMap.put(host.getHostname(), host);
+        getOrganizationIndex(organization).put(host);
+    }
+
+    @Override
+    public void addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Adding or updating hosts")
+                .addData("hostCount", hosts.size())
+                .addData("organization", organization)
+                .log();
+        getOrganizationIndex(organization).putAll(hosts);
     }
 
     @Override
@@ -89,8 +96,18 @@ public final class LocalHostRepository implements HostRepository {
                 .addData("hostname", hostname)
                 .addData("organization", organization)
                 .log();
-        final Map<String, Host> orgMap = getOrganizationMap(organization);
-        orgMap.remove(hostname);
+        getOrganizationIndex(organization).remove(hostname);
+    }
+
+    @Override
+    public void deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Deleting hosts")
+                .addData("hostCount", hostnames.size())
+                .addData("organization", organization)
+                .log();
+        getOrganizationIndex(organization).removeAll(hostnames);
     }
 
     @Override
@@ -110,51 +127,17 @@ public final class LocalHostRepository implements HostRepository {
                 .setMessage("Querying")
                 .addData("query", query)
                 .log();
-        final Organization organization = query.getOrganization();
-
-        // Find all matching hosts
-        final List<Host> hosts = Lists.newLinkedList();
-        for (final Map.Entry<String, Host> entry : getOrganizationMap(organization).entrySet()) {
-            boolean matches = true;
-            if (query.getPartialHostname().isPresent()) {
-                final String queryName = query.getPartialHostname().get().toLowerCase(Locale.getDefault());
-                final String hostName = entry.getKey().toLowerCase(Locale.getDefault());
-                if (!hostName.equals(queryName) && !hostName.startsWith(queryName) && !hostName.contains(queryName)) {
-                    matches = false;
-                }
-            }
-            if (query.getMetricsSoftwareState().isPresent()) {
-                final MetricsSoftwareState metricsSoftwareState = entry.getValue().getMetricsSoftwareState();
-                if (!query.getMetricsSoftwareState().get().equals(metricsSoftwareState)) {
-                    matches = false;
-                }
-            }
-            if (query.getCluster().isPresent() && entry.getValue().getCluster().isPresent()) {
-                final String cluster = entry.getValue().getCluster().get();
-                if (!query.getCluster().get().equals(cluster)) {
-                    matches = false;
-                }
-            }
-            if (matches) {
-                hosts.add(entry.getValue());
-            }
-        }
-
-        // Apply sorting
-        Collections.sort(hosts, new HostComparator(query));
-
-        // Apply pagination
-        final long total = hosts.size();
-        if (query.getOffset().isPresent()) {
-            for (long i = 0; i < query.getOffset().get() && !hosts.isEmpty(); ++i) {
-                hosts.remove(0);
-            }
-        }
-        while (hosts.size() > query.getLimit() && !hosts.isEmpty()) {
-            hosts.remove(hosts.size() - 1);
-        }
+        return getOrganizationIndex(query.getOrganization()).query(query);
+    }
 
-        return new DefaultQueryResult<>(hosts, total);
+    @Override
+    public Stream<Host> export(final HostQuery query) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Exporting")
+                .addData("query", query)
+                .log();
+        return getOrganizationIndex(query.getOrganization()).export(query);
     }
 
     @Override
@@ -164,7 +147,7 @@ public final class LocalHostRepository implements HostRepository {
                 .setMessage("Getting host count")
                 .addData("organization", organization)
                 .log();
-        return getOrganizationMap(organization).size();
+        return getOrganizationIndex(organization).size();
     }
 
     @Override
@@ -175,13 +158,27 @@ public final class LocalHostRepository implements HostRepository {
                 .addData("organization", organization)
                 .addData("state", metricsSoftwareState)
                 .log();
-        long count = 0;
-        for (final Host host : getOrganizationMap(organization).values()) {
-            if (!metricsSoftwareState.equals(host.getMetricsSoftwareState())) {
-                ++count;
-            }
-        }
-        return count;
+        return getOrganizationIndex(organization).size(metricsSoftwareState);
+    }
+
+    @Override
+    public List<HostFacet> getHostFacets(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting host facets")
+                .addData("organization", organization)
+                .log();
+        return getOrganizationIndex(organization).getFacets();
+    }
+
+    @Override
+    public Optional<String> getEtag(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting etag")
+                .addData("organization", organization)
+                .log();
+        return Optional.of(getOrganizationIndex(organization).getEtag());
     }
 
     /**
@@ -212,68 +209,12 @@ public final class LocalHostRepository implements HostRepository {
         }
     }
 
-    private Map<String, Host> getOrganizationMap(final Organization organization) {
-        return _temporaryStorage.computeIfAbsent(organization.getId(), (v) -> Maps.newConcurrentMap());
+    private LocalHostIndex getOrganizationIndex(final Organization organization) {
+        return _temporaryStorage.computeIfAbsent(organization.getId(), (v) -> new LocalHostIndex());
     }
 
     private final AtomicBoolean _isOpen = new AtomicBoolean(false);
-    private final Map<UUID, Map<String, Host>> _temporaryStorage = Maps.newConcurrentMap();
+    private final Map<UUID, LocalHostIndex> _temporaryStorage = Maps.newConcurrentMap();
 
     private static final Logger LOGGER = LoggerFactory.getLogger(LocalHostRepository.class);
-
-    @SuppressFBWarnings("SE_BAD_FIELD")
-    private static class HostComparator implements Comparator<Host>, Serializable {
-
-        public HostComparator(final HostQuery query) {
-            _query = query;
-        }
-
-        @Override
-        public int compare(final Host h1, final Host h2) {
-            if (_query.getSortBy().isPresent()) {
-                if (HostQuery.Field.HOSTNAME.equals(_query.getSortBy().get())) {
-                    return String.CASE_INSENSITIVE_ORDER.compare(h1.getHostname(), h2.getHostname());
-                } else if (HostQuery.Field.METRICS_SOFTWARE_STATE.equals(_query.getSortBy().get())) {
-                    return h1.getMetricsSoftwareState().compareTo(h2.getMetricsSoftwareState());
-                } else {
-                    LOGGER.warn()
-                            .setMessage("Unsupported sort by field")
-                            .addData("field", _query.getSortBy().get())
-                            .log();
-                }
-            } else {
-                double s1 = 0.0;
-                double s2 = 0.0;
-                if (_query.getPartialHostname().isPresent()) {
-                    // All comparisons are case-insentive
-                    final String q = _query.getPartialHostname().get().toLowerCase(Locale.getDefault());
-                    final String n1 = h1.getHostname().toLowerCase(Locale.getDefault());
-                    final String n2 = h2.getHostname().toLowerCase(Locale.getDefault());
-
-                    // Compute score
-                    if (n1.equals(q)) {
-                        s1 = 1.0;
-                    } else if (n1.startsWith(q)) {
-                        s1 = (1000000 - _query.getPartialHostname().get().length()) / 1000000.0;
-                    } else if (n1.contains(q)) {
-                        s1 = (1000 - _query.getPartialHostname().get().length()) / 1000000.0;
-                    }
-                    if (n2.equals(q)) {
-                        s2 = 1.0;
-                    } else if (n2.startsWith(q)) {
-                        s2 = (1000000 - _query.getPartialHostname().get().length()) / 1000000.0;
-                    } else if (n2.contains(q)) {
-                        s2 = (1000 - _query.getPartialHostname().get().length()) / 1000000.0;
-                    }
-                }
-
-                return Double.compare(s1, s2);
-            }
-            return 0;
-        }
-
-        private final HostQuery _query;
-
-        private static final long serialVersionUID = 1L;
-    }
 }
@@ -0,0 +1,785 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import com.arpnetworking.database.QueryCursor;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.portal.hosts.HostRepository;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.inject.Inject;
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.QueryResult;
+import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultHostFacet;
+import models.internal.impl.DefaultHostQuery;
+import models.internal.impl.DefaultQueryResult;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.core.LowerCaseFilter;
+import org.apache.lucene.analysis.ngram.EdgeNGramTokenFilter;
+import org.apache.lucene.analysis.ngram.NGramTokenFilter;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.SortedDocValuesField;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.AtomicReaderContext;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.FilteredQuery;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryWrapperFilter;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.Version;
+import play.Application;
+import play.Configuration;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Implementation of <code>HostRepository</code> using an embedded Lucene index
+ * on a memory mapped directory. Host names are analyzed the same way as by the
+ * Elastic Search mapping of <code>ElasticSearchHostRepository</code> so that
+ * partial host name queries rank exact, prefix and infix matches alike without
+ * running an Elastic Search node.
+ *
+ * Each write, including each batch, is committed to disk before it returns
+ * and is visible to queries through near real time readers. A write which
+ * fails or is interrupted by a crash before its commit is lost as a whole,
+ * and since it did not return the host providers do not record its hosts as
+ * written.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class LuceneHostRepository implements HostRepository {
+
+    /**
+     * Public constructor.
+     *
+     * @param configuration Instance of Play's <code>Configuration</code>.
+     * @param application Instance of Play <code>Application</code>.
+     */
+    @Inject
+    public LuceneHostRepository(final Configuration configuration, final Application application) {
+        this(ConfigurationHelper.getFile(configuration, "hostRepository.lucene.path", application));
+    }
+
+    @Override
+    public void open() {
+        assertIsOpen(false);
+        LOGGER.debug().setMessage("Opening host repository").log();
+
+        try {
+            _directory = new MMapDirectory(_path);
+            _writer = new IndexWriter(
+                    _directory,
+                    new IndexWriterConfig(VERSION, ANALYZER).setOpenMode(IndexWriterConfig.OpenMode.CREATE_OR_APPEND));
+            _searcherManager = new SearcherManager(_writer, true, null);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to open host index; path=%s", _path), e);
+        }
+
+        _isOpen.set(true);
+        LOGGER.info()
+                .setMessage("LuceneHostRepository up and healthy")
+                .addData("path", _path)
+                .log();
+    }
+
+    @Override
+    public void close() {
+        assertIsOpen();
+        LOGGER.debug().setMessage("Closing host repository").log();
+        _isOpen.set(false);
+
+        try {
+            _searcherManager.close();
+            _writer.commit();
+            _writer.close();
+            _directory.close();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to close host index; path=%s", _path), e);
+        }
+    }
+
+    @Override
+    public void addOrUpdateHost(final Host host, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Adding or updating host")
+                .addData("host", host)
+                .addData("organization", organization)
+                .log();
+
+        updateDocument(host, organization);
+        commitAndRefresh(organization);
+    }
+
+    @Override
+    public void addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Adding or updating hosts")
+                .addData("hostCount", hosts.size())
+                .addData("organization", organization)
+                .log();
+
+        // The index is committed and the readers are refreshed once for the whole batch
+        for (final Host host : hosts) {
+            updateDocument(host, organization);
+        }
+        commitAndRefresh(organization);
+    }
+
+    @Override
+    public void deleteHost(final String hostname, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Deleting host")
+                .addData("hostname", hostname)
+                .addData("organization", organization)
+                .log();
+
+        try {
+            _writer.deleteDocuments(new Term(ID_FIELD, getDocumentId(hostname, organization)));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to delete host; hostname=%s", hostname), e);
+        }
+        commitAndRefresh(organization);
+    }
+
+    @Override
+    public void deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Deleting hosts")
+                .addData("hostCount", hostnames.size())
+                .addData("organization", organization)
+                .log();
+        if (hostnames.isEmpty()) {
+            return;
+        }
+
+        // The terms are deleted in a single call and the index is committed and the readers are refreshed once for the whole batch
+        final Term[] terms = new Term[hostnames.size()];
+        int i = 0;
+        for (final String hostname : hostnames) {
+            terms[i++] = new Term(ID_FIELD, getDocumentId(hostname, organization));
+        }
+        try {
+            _writer.deleteDocuments(terms);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to delete hosts; hostCount=%d", hostnames.size()), e);
+        }
+        commitAndRefresh(organization);
+    }
+
+    @Override
+    public HostQuery createQuery(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Preparing query")
+                .addData("organization", organization)
+                .log();
+        return new DefaultHostQuery(this, organization);
+    }
+
+    @Override
+    public QueryResult<Host> query(final HostQuery query) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Querying")
+                .addData("query", query)
+                .log();
+
+        // NOTE: The etag is read before the query so that it never claims a state newer than the results.
+        final String etag = createEtag(query.getOrganization());
+        final Query luceneQuery = createLuceneQuery(query);
+
+        // Hosts are ordered by relevance only for partial host name queries without a sort field; otherwise they are
+        // ordered by the sort field and the host name and a cursor searches after the sort values of the last hit
+        Optional<HostQuery.Field> cursorField = Optional.empty();
+        final Sort sort;
+        FieldDoc after = null;
+        if (query.getSortBy().isPresent() || !query.getPartialHostname().isPresent()) {
+            final HostQuery.Field field = query.getSortBy().orElse(HostQuery.Field.HOSTNAME);
+            cursorField = Optional.of(field);
+            sort = createSort(field);
+            if (query.getCursor().isPresent()) {
+                final List<String> keys = QueryCursor.decode(query.getCursor().get())
+                        .getKeys(mapField(field), sort.getSort().length);
+
+                // NOTE: Sort values are unique per organization so the document id of the cursor never breaks a tie
+                after = new FieldDoc(Integer.MAX_VALUE, Float.NaN, keys.stream().map(BytesRef::new).toArray());
+            }
+        } else {
+            sort = new Sort(SortField.FIELD_SCORE, new SortField(RAW_FIELD, SortField.Type.STRING));
+            if (query.getCursor().isPresent()) {
+                throw new IllegalArgumentException("Cursor is not supported for relevance ordered queries");
+            }
+        }
+        final int offset = after == null ? query.getOffset().orElse(0) : 0;
+
+        final IndexSearcher searcher = acquireSearcher();
+        try {
+            // Fetch one extra hit to determine whether there is a next page; the total counts every match
+            final TopDocs topDocs = after == null
+                    ? searcher.search(luceneQuery, offset + query.getLimit() + 1, sort)
+                    : searcher.searchAfter(after, luceneQuery, query.getLimit() + 1, sort);
+            final ScoreDoc[] hits = topDocs.scoreDocs;
+            final int end = Math.min(hits.length, offset + query.getLimit());
+            final List<Host> hosts = Lists.newArrayList();
+            for (int i = offset; i < end; ++i) {
+                hosts.add(deserializeDocument(searcher.doc(hits[i].doc)));
+            }
+            Optional<String> nextCursor = Optional.empty();
+            // An empty page has no last hit to continue from
+            if (hits.length > end && end > offset && cursorField.isPresent()) {
+                final FieldDoc last = (FieldDoc) hits[end - 1];
+                nextCursor = Optional.of(new QueryCursor(
+                        mapField(cursorField.get()),
+                        Arrays.stream(last.fields).map(value -> ((BytesRef) value).utf8ToString()).collect(Collectors.toList()))
+                        .encode());
+            }
+            return new DefaultQueryResult<>(hosts, topDocs.totalHits, Optional.of(etag), nextCursor);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to query hosts; query=%s", query), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    @Override
+    public Stream<Host> export(final HostQuery query) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Exporting")
+                .addData("query", query)
+                .log();
+
+        final ExportIterator hosts = new ExportIterator(createLuceneQuery(query));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(hosts, Spliterator.NONNULL), false)
+                .onClose(hosts::close);
+    }
+
+    @Override
+    public long getHostCount(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting host count")
+                .addData("organization", organization)
+                .log();
+
+        final Term organizationTerm = new Term(ORGANIZATION_FIELD, getOrganizationId(organization));
+        final IndexSearcher searcher = acquireSearcher();
+        try {
+            // NOTE: Document frequencies include deleted documents so the term statistics are exact only without deletions
+            final IndexReader reader = searcher.getIndexReader();
+            if (!reader.hasDeletions()) {
+                return reader.docFreq(organizationTerm);
+            }
+            return count(searcher, new TermQuery(organizationTerm));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to count hosts; organization=%s", organization), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    @Override
+    public long getHostCount(final MetricsSoftwareState metricsSoftwareState, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting host count in state")
+                .addData("state", metricsSoftwareState)
+                .addData("organization", organization)
+                .log();
+
+        final BooleanQuery luceneQuery = new BooleanQuery();
+        luceneQuery.add(new TermQuery(new Term(ORGANIZATION_FIELD, getOrganizationId(organization))), BooleanClause.Occur.MUST);
+        luceneQuery.add(new TermQuery(new Term(STATE_FIELD, metricsSoftwareState.name())), BooleanClause.Occur.MUST);
+
+        final IndexSearcher searcher = acquireSearcher();
+        try {
+            return count(searcher, luceneQuery);
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to count hosts; organization=%s", organization), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    @Override
+    public List<HostFacet> getHostFacets(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting host facets")
+                .addData("organization", organization)
+                .log();
+
+        final IndexSearcher searcher = acquireSearcher();
+        try {
+            final FacetCollector collector = new FacetCollector();
+            searcher.search(new TermQuery(new Term(ORGANIZATION_FIELD, getOrganizationId(organization))), collector);
+            return collector.getFacets();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to count host facets; organization=%s", organization), e);
+        } finally {
+            releaseSearcher(searcher);
+        }
+    }
+
+    @Override
+    public Optional<String> getEtag(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting etag")
+                .addData("organization", organization)
+                .log();
+        return Optional.of(createEtag(organization));
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("path", _path)
+                .put("isOpen", _isOpen)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private void updateDocument(final Host host, final Organization organization) {
+        try {
+            _writer.updateDocument(new Term(ID_FIELD, getDocumentId(host.getHostname(), organization)), createDocument(host, organization));
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to write host; host=%s", host), e);
+        }
+    }
+
+    private void commitAndRefresh(final Organization organization) {
+        try {
+            // NOTE: Callers record hosts as written once the write returns so it must be durable by then
+            _writer.commit();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to commit host index; path=%s", _path), e);
+        }
+        try {
+            _searcherManager.maybeRefreshBlocking();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to refresh host index; path=%s", _path), e);
+        }
+        // NOTE: The etag changes only once the write is visible to queries
+        getGeneration(organization).incrementAndGet();
+    }
+
+    private String createEtag(final Organization organization) {
+        // The instance id prevents etags from matching across restarts of the repository
+        return _instanceId + ":" + getGeneration(organization).get();
+    }
+
+    private AtomicLong getGeneration(final Organization organization) {
+        return _generations.computeIfAbsent(organization.getId(), id -> new AtomicLong());
+    }
+
+    private IndexSearcher acquireSearcher() {
+        try {
+            return _searcherManager.acquire();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to acquire host index searcher; path=%s", _path), e);
+        }
+    }
+
+    private void releaseSearcher(final IndexSearcher searcher) {
+        try {
+            _searcherManager.release(searcher);
+        } catch (final IOException e) {
+            LOGGER.warn()
+                    .setMessage("Unable to release host index searcher")
+                    .addData("path", _path)
+                    .setThrowable(e)
+                    .log();
+        }
+    }
+
+    private void assertIsOpen() {
+        assertIsOpen(true);
+    }
+
+    private void assertIsOpen(final boolean expectedState) {
+        if (_isOpen.get() != expectedState) {
+            throw new IllegalStateException(String.format("Host repository is not %s", expectedState ? "open" : "closed"));
+        }
+    }
+
+    private static long count(final IndexSearcher searcher, final Query query) throws IOException {
+        final TotalHitCountCollector collector = new TotalHitCountCollector();
+        searcher.search(query, collector);
+        return collector.getTotalHits();
+    }
+
+    private static Query createLuceneQuery(final HostQuery query) {
+        final BooleanQuery filter = new BooleanQuery();
+        filter.add(new TermQuery(new Term(ORGANIZATION_FIELD, getOrganizationId(query.getOrganization()))), BooleanClause.Occur.MUST);
+        if (query.getMetricsSoftwareState().isPresent()) {
+            filter.add(new TermQuery(new Term(STATE_FIELD, query.getMetricsSoftwareState().get().name())), BooleanClause.Occur.MUST);
+        }
+        if (query.getCluster().isPresent()) {
+            filter.add(new TermQuery(new Term(CLUSTER_FIELD, query.getCluster().get())), BooleanClause.Occur.MUST);
+        }
+        if (!query.getPartialHostname().isPresent()) {
+            return new ConstantScoreQuery(filter);
+        }
+
+        // Exact matches rank above prefix matches which rank above infix matches
+        final String partialHostname = query.getPartialHostname().get();
+        final BooleanQuery hostnameQuery = new BooleanQuery();
+        final TermQuery exactQuery = new TermQuery(new Term(RAW_FIELD, partialHostname));
+        exactQuery.setBoost(EXACT_MATCH_BOOST);
+        hostnameQuery.add(exactQuery, BooleanClause.Occur.SHOULD);
+        for (final String prefix : analyze(HOSTNAME_FIELD, partialHostname)) {
+            final TermQuery prefixQuery = new TermQuery(new Term(PREFIX_FIELD, prefix));
+            prefixQuery.setBoost(PREFIX_MATCH_BOOST);
+            hostnameQuery.add(prefixQuery, BooleanClause.Occur.SHOULD);
+        }
+        final List<String> trigrams = analyze(INFIX_FIELD, partialHostname);
+        if (!trigrams.isEmpty()) {
+            final BooleanQuery infixQuery = new BooleanQuery();
+            for (final String trigram : trigrams) {
+                infixQuery.add(new TermQuery(new Term(INFIX_FIELD, trigram)), BooleanClause.Occur.MUST);
+            }
+            hostnameQuery.add(infixQuery, BooleanClause.Occur.SHOULD);
+        }
+        hostnameQuery.setMinimumNumberShouldMatch(1);
+        return new FilteredQuery(hostnameQuery, new QueryWrapperFilter(filter));
+    }
+
+    private static List<String> analyze(final String field, final String text) {
+        final List<String> terms = Lists.newArrayList();
+        try (TokenStream stream = ANALYZER.tokenStream(field, text)) {
+            final CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                terms.add(term.toString());
+            }
+            stream.end();
+        } catch (final IOException e) {
+            throw new UncheckedIOException(String.format("Unable to analyze host name; hostname=%s", text), e);
+        }
+        return terms;
+    }
+
+    private static Sort createSort(final HostQuery.Field field) {
+        if (field == HostQuery.Field.HOSTNAME) {
+            return new Sort(new SortField(RAW_FIELD, SortField.Type.STRING));
+        }
+        return new Sort(new SortField(mapField(field), SortField.Type.STRING), new SortField(RAW_FIELD, SortField.Type.STRING));
+    }
+
+    private static String mapField(final HostQuery.Field field) {
+        switch (field) {
+            case HOSTNAME:
+                return RAW_FIELD;
+            case METRICS_SOFTWARE_STATE:
+                return STATE_FIELD;
+            default:
+                throw new UnsupportedOperationException(String.format("Unrecognized field; field=%s", field));
+        }
+    }
+
+    private static Document createDocument(final Host host, final Organization organization) {
+        final Document document = new Document();
+        document.add(new StringField(ID_FIELD, getDocumentId(host.getHostname(), organization), Field.Store.NO));
+        document.add(new StringField(ORGANIZATION_FIELD, getOrganizationId(organization), Field.Store.NO));
+        document.add(new StoredField(HOSTNAME_FIELD, host.getHostname()));
+        document.add(new StringField(RAW_FIELD, host.getHostname(), Field.Store.NO));
+        document.add(new SortedDocValuesField(RAW_FIELD, new BytesRef(host.getHostname())));
+        document.add(new TextField(PREFIX_FIELD, host.getHostname(), Field.Store.NO));
+        document.add(new TextField(INFIX_FIELD, host.getHostname(), Field.Store.NO));
+        document.add(new StringField(STATE_FIELD, host.getMetricsSoftwareState().name(), Field.Store.YES));
+        document.add(new SortedDocValuesField(STATE_FIELD, new BytesRef(host.getMetricsSoftwareState().name())));
+        if (host.getCluster().isPresent()) {
+            document.add(new StringField(CLUSTER_FIELD, host.getCluster().get(), Field.Store.YES));
+            document.add(new SortedDocValuesField(CLUSTER_FIELD, new BytesRef(host.getCluster().get())));
+        }
+        return document;
+    }
+
+    private static Host deserializeDocument(final Document document) {
+        return new DefaultHost.Builder()
+                .setHostname(document.get(HOSTNAME_FIELD))
+                .setMetricsSoftwareState(MetricsSoftwareState.valueOf(document.get(STATE_FIELD)))
+                .setCluster(document.get(CLUSTER_FIELD))
+                .build();
+    }
+
+    private static String getOrganizationId(final Organization organization) {
+        return organization.getId().toString();
+    }
+
+    private static String getDocumentId(final String hostname, final Organization organization) {
+        return getOrganizationId(organization) + ":" + hostname;
+    }
+
+    /*package private*/ LuceneHostRepository(final File path) {
+        _path = path;
+    }
+
+    private final AtomicBoolean _isOpen = new AtomicBoolean(false);
+    private final File _path;
+    private final UUID _instanceId = UUID.randomUUID();
+    private final Map<UUID, AtomicLong> _generations = Maps.newConcurrentMap();
+    private Directory _directory;
+    private IndexWriter _writer;
+    private SearcherManager _searcherManager;
+
+    private static final Version VERSION = Version.LUCENE_4_10_4;
+    private static final String ID_FIELD = "_id";
+    private static final String ORGANIZATION_FIELD = "organization";
+    private static final String HOSTNAME_FIELD = "hostname";
+    private static final String RAW_FIELD = "hostname.raw";
+    private static final String PREFIX_FIELD = "hostname.prefix";
+    private static final String INFIX_FIELD = "hostname.infix";
+    private static final String STATE_FIELD = "metricsSoftwareState";
+    private static final String CLUSTER_FIELD = "cluster";
+    private static final int MAX_PREFIX_LENGTH = 64;
+    private static final float EXACT_MATCH_BOOST = 4.0f;
+    private static final float PREFIX_MATCH_BOOST = 2.0f;
+    private static final int EXPORT_BATCH_SIZE = 500;
+    private static final Sort EXPORT_SORT = new Sort(new SortField(RAW_FIELD, SortField.Type.STRING));
+    private static final Analyzer ANALYZER = new HostnameAnalyzer();
+    private static final Logger LOGGER = LoggerFactory.getLogger(LuceneHostRepository.class);
+
+    /**
+     * Analyzes host names like the analyzers of the Elastic Search mapping:
+     * the whole host name is a single lower case token which is split into
+     * edge n-grams for the prefix field and into trigrams for the infix field.
+     * Every other field is only lower cased, like the search analyzer of the
+     * prefix field.
+     */
+    private static final class HostnameAnalyzer extends Analyzer {
+
+        /* package private */ HostnameAnalyzer() {
+            super(PER_FIELD_REUSE_STRATEGY);
+        }
+
+        @Override
+        protected TokenStreamComponents createComponents(final String fieldName, final Reader reader) {
+            final Tokenizer tokenizer = new KeywordTokenizer(reader);
+            final TokenStream lowerCase = new LowerCaseFilter(VERSION, tokenizer);
+            switch (fieldName) {
+                case PREFIX_FIELD:
+                    return new TokenStreamComponents(tokenizer, new EdgeNGramTokenFilter(VERSION, lowerCase, 1, MAX_PREFIX_LENGTH));
+                case INFIX_FIELD:
+                    return new TokenStreamComponents(tokenizer, new NGramTokenFilter(VERSION, lowerCase, 3, 3));
+                default:
+                    return new TokenStreamComponents(tokenizer, lowerCase);
+            }
+        }
+    }
+
+    /**
+     * Iterates over the hosts matching a query in host name order, searching
+     * for the next batch of hosts after the last one when the current batch is
+     * exhausted. Every batch is read from the same point in time searcher
+     * which is released when the last batch is exhausted or the iterator is
+     * closed.
+     */
+    private final class ExportIterator implements Iterator<Host> {
+
+        /* package private */ ExportIterator(final Query query) {
+            _query = query;
+            _searcher = acquireSearcher();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (_index >= _hits.length && _searcher != null) {
+                try {
+                    final TopDocs topDocs = _after == null
+                            ? _searcher.search(_query, EXPORT_BATCH_SIZE, EXPORT_SORT)
+                            : _searcher.searchAfter(_after, _query, EXPORT_BATCH_SIZE, EXPORT_SORT);
+                    _hits = topDocs.scoreDocs;
+                } catch (final IOException e) {
+                    close();
+                    throw new UncheckedIOException(String.format("Unable to export hosts; query=%s", _query), e);
+                }
+                _index = 0;
+                if (_hits.length == 0) {
+                    close();
+                } else {
+                    _after = _hits[_hits.length - 1];
+                }
+            }
+            return _index < _hits.length;
+        }
+
+        @Override
+        public Host next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            try {
+                return deserializeDocument(_searcher.doc(_hits[_index++].doc));
+            } catch (final IOException e) {
+                close();
+                throw new UncheckedIOException(String.format("Unable to export hosts; query=%s", _query), e);
+            }
+        }
+
+        public void close() {
+            if (_searcher != null) {
+                releaseSearcher(_searcher);
+                _searcher = null;
+            }
+        }
+
+        private final Query _query;
+        private IndexSearcher _searcher;
+        private ScoreDoc _after;
+        private ScoreDoc[] _hits = new ScoreDoc[0];
+        private int _index;
+    }
+
+    /**
+     * Counts the collected hosts by cluster and metrics software state. The
+     * hosts are counted by their per segment doc values ordinals and the
+     * ordinals are resolved once per segment.
+     */
+    private static final class FacetCollector extends Collector {
+
+        @Override
+        public void setScorer(final Scorer scorer) {
+            // Scores are not used
+        }
+
+        @Override
+        public void collect(final int doc) {
+            final int clusterOrd = _clusters == null ? -1 : _clusters.getOrd(doc);
+            ++_segmentCounts[(clusterOrd + 1) * _stateCount + _states.getOrd(doc)];
+        }
+
+        @Override
+        public void setNextReader(final AtomicReaderContext context) throws IOException {
+            flushSegment();
+            _clusters = context.reader().getSortedDocValues(CLUSTER_FIELD);
+            _states = context.reader().getSortedDocValues(STATE_FIELD);
+            _stateCount = _states == null ? 0 : _states.getValueCount();
+            final int clusterCount = _clusters == null ? 0 : _clusters.getValueCount();
+            _segmentCounts = new long[(clusterCount + 1) * _stateCount];
+        }
+
+        @Override
+        public boolean acceptsDocsOutOfOrder() {
+            return true;
+        }
+
+        public List<HostFacet> getFacets() {
+            flushSegment();
+            final List<HostFacet> facets = new ArrayList<>();
+            for (final Map.Entry<Optional<String>, Map<MetricsSoftwareState, Long>> clusterEntry : _counts.entrySet()) {
+                for (final Map.Entry<MetricsSoftwareState, Long> stateEntry : clusterEntry.getValue().entrySet()) {
+                    facets.add(new DefaultHostFacet.Builder()
+                            .setCluster(clusterEntry.getKey().orElse(null))
+                            .setMetricsSoftwareState(stateEntry.getKey())
+                            .setCount(stateEntry.getValue())
+                            .build());
+                }
+            }
+            return facets;
+        }
+
+        private void flushSegment() {
+            for (int i = 0; i < _segmentCounts.length; ++i) {
+                if (_segmentCounts[i] > 0) {
+                    final int clusterOrd = i / _stateCount - 1;
+                    final Optional<String> cluster = clusterOrd < 0
+                            ? Optional.empty()
+                            : Optional.of(_clusters.lookupOrd(clusterOrd).utf8ToString());
+                    final MetricsSoftwareState state = MetricsSoftwareState.valueOf(_states.lookupOrd(i % _stateCount).utf8ToString());
+                    _counts.computeIfAbsent(cluster, k -> Maps.newEnumMap(MetricsSoftwareState.class))
+                            .merge(state, _segmentCounts[i], Long::sum);
+                }
+            }
+            _segmentCounts = new long[0];
+        }
+
+        private final Map<Optional<String>, Map<MetricsSoftwareState, Long>> _counts = Maps.newHashMap();
+        private SortedDocValues _clusters;
+        private SortedDocValues _states;
+        private int _stateCount;
+        private long[] _segmentCounts = new long[0];
+    }
+}
@@ -15,19 +15,37 @@
  */
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import akka.actor.Cancellable;
 import akka.actor.Props;
 import akka.actor.UntypedActor;
+import com.arpnetworking.metrics.portal.hosts.HostChange;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigValueType;
+import models.internal.Host;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultOrganization;
 import play.Configuration;
 import play.Environment;
 
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * Provider that starts multiple sub providers.
@@ -36,6 +54,20 @@ import java.util.Set;
  * key is an object with a type subkey, we will attempt to instantiate it. We leverage the {@link HostProviderFactory}
  * class to create a {@link Props} with the {@link Configuration} built from the subkey.
  *
+ * The sub providers report their writes to the MultiProvider instead of writing them. The hosts reported by all
+ * sub providers are merged field by field with a {@link HostMerger} and every interval each merged host which changed
+ * is written once. The precedence of the sub providers is configured by their keys with "precedence" and may be
+ * overridden for each field with "clusterPrecedence" and "metricsSoftwareStatePrecedence".
+ *
+ * The merger, not the sub providers, is seeded with the hosts in the repository so that each sub provider only
+ * expires hosts it reported itself. Merged hosts are written only once the seed completed, and the seeded hosts
+ * which no sub provider reported are deleted once every sub provider completed "expirySyncs" syncs. A sub provider
+ * which does not report completed syncs, such as the {@link RandomHostProvider}, keeps them from being deleted.
+ *
+ * When the host providers are sharded the sub providers run as sharding entities on any node and the
+ * MultiProvider is started by the {@link ShardedHostProviderKeeper} without sub providers; it only merges and writes
+ * the changes the entities report through the keeper.
+ *
  * @author Brandon Arp (brandon dot arp at smartsheet dot com)
  */
 public class MultiProvider extends UntypedActor {
@@ -43,11 +75,51 @@ public class MultiProvider extends UntypedActor {
      * Public constructor.
      *
      * @param factory a {@link HostProviderFactory}.
+     * @param hostWriter Writer to store hosts.
      * @param environment Play environment.
      * @param configuration Play configuration.
      */
     @Inject
-    public MultiProvider(final HostProviderFactory factory, final Environment environment, @Assisted final Configuration configuration) {
+    public MultiProvider(
+            final HostProviderFactory factory,
+            final HostWriter hostWriter,
+            final Environment environment,
+            @Assisted final Configuration configuration) {
+        final List<String> precedence = configuration.getStringList("precedence", Collections.emptyList());
+        _clusterPrecedence = configuration.getStringList("clusterPrecedence", precedence);
+        _metricsSoftwareStatePrecedence = configuration.getStringList("metricsSoftwareStatePrecedence", precedence);
+        _writes = new HostWrites(hostWriter, getContext(), configuration);
+        _sources = ImmutableSet.copyOf(getChildConfigurations(configuration).keySet());
+        _expirySyncs = configuration.getInt("expirySyncs", DEFAULT_EXPIRY_SYNCS);
+
+        if (!configuration.getBoolean(SHARDED_KEY, false)) {
+            for (final Map.Entry<String, Configuration> entry : getChildConfigurations(configuration).entrySet()) {
+                // The sub provider reports its writes to this actor identified by its key
+                final Configuration subConfig = createSourceConfiguration(entry.getKey(), entry.getValue());
+
+                // Create the props and launch
+                final Props subProps = factory.create(subConfig, ConfigurationHelper.getType(environment, subConfig, "type"));
+                context().actorOf(subProps, entry.getKey());
+            }
+        }
+
+        _cancellable = getContext().system().scheduler().schedule(
+                ConfigurationHelper.getFiniteDuration(configuration, "initialDelay"),
+                ConfigurationHelper.getFiniteDuration(configuration, "interval"),
+                getSelf(),
+                TICK,
+                getContext().dispatcher(),
+                getSelf());
+    }
+
+    /**
+     * Retrieve the configuration of each child provider by its key.
+     *
+     * @param configuration The configuration of the <code>MultiProvider</code>.
+     * @return The configuration of each child provider by its key.
+     */
+    /* package private */ static Map<String, Configuration> getChildConfigurations(final Configuration configuration) {
+        final Map<String, Configuration> childConfigurations = new LinkedHashMap<>();
         final Set<String> entries = configuration.subKeys();
         final Config underlying = configuration.underlying();
         for (String key : entries) {
@@ -62,19 +134,252 @@ public class MultiProvider extends UntypedActor {
                 }
 
                 // Create the child configuration, with a fallback to the current config for things like "interval"
-                final Configuration subConfig = configuration.getConfig(key).withFallback(configuration);
-
-                // Create the props and launch
-                final Props subProps = factory.create(subConfig, ConfigurationHelper.getType(environment, subConfig, "type"));
-                context().actorOf(subProps);
+                childConfigurations.put(key, configuration.getConfig(key).withFallback(configuration));
             }
         }
+        return childConfigurations;
+    }
+
+    /**
+     * Create the configuration of a sub provider which reports its writes
+     * to its parent to be merged instead of writing them.
+     *
+     * @param source The key of the sub provider.
+     * @param configuration The configuration of the sub provider.
+     * @return The configuration of the merged sub provider.
+     */
+    /* package private */ static Configuration createSourceConfiguration(final String source, final Configuration configuration) {
+        return new Configuration(Collections.singletonMap(HostWrites.SOURCE_KEY, source)).withFallback(configuration);
+    }
+
+    @Override
+    public void preStart() {
+        _writes.seed(Organization.DEFAULT);
+    }
+
+    @Override
+    public void postStop() {
+        _cancellable.cancel();
     }
 
     @Override
     public void onReceive(final Object message) throws Exception {
-        unhandled(message);
+        if (message instanceof SourceChanges) {
+            final SourceChanges changes = (SourceChanges) message;
+            final HostMerger merger = getMerger(changes.getOrganization());
+            merger.update(changes.getSource(), changes.getHosts());
+            merger.remove(changes.getSource(), changes.getDeletedHostnames());
+            merger.expire(changes.getSource(), changes.getExpiredKeys());
+            if (changes.isSyncCompleted()) {
+                _completedSyncs.merge(changes.getSource(), 1, Integer::sum);
+                expireUnclaimedHosts();
+            }
+        } else if (message instanceof HostWrites.Seed) {
+            final HostWrites.Seed seed = (HostWrites.Seed) message;
+            final HostMerger merger = getMerger(Organization.DEFAULT);
+            merger.seed(seed.getHosts());
+            if (seed.isLast()) {
+                _isSeeded = true;
+                LOGGER.info()
+                        .setMessage("Seeded merged hosts from repository")
+                        .addData("actor", self())
+                        .addData("merger", merger)
+                        .log();
+                expireUnclaimedHosts();
+            }
+        } else if (TICK.equals(message)) {
+            if (!_isSeeded) {
+                LOGGER.debug()
+                        .setMessage("Skipping merged write; merged hosts not yet seeded")
+                        .addData("actor", self())
+                        .log();
+                return;
+            }
+            if (_writes.isPending()) {
+                LOGGER.debug()
+                        .setMessage("Skipping merged write; previous writes still pending")
+                        .addData("actor", self())
+                        .log();
+                return;
+            }
+            for (final Map.Entry<UUID, HostMerger> entry : _mergers.entrySet()) {
+                final Organization organization = _organizations.get(entry.getKey());
+                final HostMerger.Changes changes = entry.getValue().flush();
+                if (!changes.getUpdated().isEmpty()) {
+                    _writes.addOrUpdateHosts(changes.getUpdated(), organization);
+                }
+                if (!changes.getDeleted().isEmpty()) {
+                    _writes.expireHosts(changes.getDeleted(), organization);
+                }
+                if (!changes.isEmpty()) {
+                    LOGGER.info()
+                            .setMessage("Wrote merged hosts")
+                            .addData("actor", self())
+                            .addData("changedCount", changes.getUpdated().size())
+                            .addData("deletedCount", changes.getDeleted().size())
+                            .addData("merger", entry.getValue())
+                            .log();
+                }
+            }
+        } else if (message instanceof HostWrites.Failed) {
+            final HostWrites.Failed failed = (HostWrites.Failed) message;
+            LOGGER.warn()
+                    .setMessage("Failed to write merged hosts; retrying on next interval")
+                    .addData("actor", self())
+                    .addData("hostCount", failed.getHosts().size())
+                    .log();
+            for (final HostMerger merger : _mergers.values()) {
+                merger.invalidate(failed.getHosts());
+            }
+        } else if (message instanceof HostWrites.DeleteFailed) {
+            final HostWrites.DeleteFailed failed = (HostWrites.DeleteFailed) message;
+            LOGGER.warn()
+                    .setMessage("Failed to delete merged hosts; retrying on next interval")
+                    .addData("actor", self())
+                    .addData("hostCount", failed.getHostnames().size())
+                    .log();
+            getMerger(failed.getOrganization()).restore(failed.getHostnames());
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private void expireUnclaimedHosts() {
+        // Seeded hosts may belong to any source so none expire before every source reported its hosts
+        if (_isUnclaimedExpired || !_isSeeded || _sources.isEmpty()) {
+            return;
+        }
+        for (final String source : _sources) {
+            if (_completedSyncs.getOrDefault(source, 0) < _expirySyncs) {
+                return;
+            }
+        }
+        _isUnclaimedExpired = true;
+        for (final HostMerger merger : _mergers.values()) {
+            final int expiredCount = merger.expireUnclaimed();
+            LOGGER.info()
+                    .setMessage("Expired merged hosts no source reported")
+                    .addData("actor", self())
+                    .addData("expiredCount", expiredCount)
+                    .addData("merger", merger)
+                    .log();
+        }
+    }
+
+    private HostMerger getMerger(final Organization organization) {
+        _organizations.putIfAbsent(organization.getId(), organization);
+        return _mergers.computeIfAbsent(
+                organization.getId(),
+                id -> new HostMerger(_clusterPrecedence, _metricsSoftwareStatePrecedence));
     }
 
+    private final List<String> _clusterPrecedence;
+    private final List<String> _metricsSoftwareStatePrecedence;
+    private final HostWrites _writes;
+    private final Set<String> _sources;
+    private final int _expirySyncs;
+    private final Cancellable _cancellable;
+    private final Map<UUID, HostMerger> _mergers = new HashMap<>();
+    private final Map<UUID, Organization> _organizations = new HashMap<>();
+    private final Map<String, Integer> _completedSyncs = new HashMap<>();
+    private boolean _isSeeded = false;
+    private boolean _isUnclaimedExpired = false;
+
+    private static final String TICK = "tick";
+    private static final int DEFAULT_EXPIRY_SYNCS = 3;
     private static final Logger LOGGER = LoggerFactory.getLogger(MultiProvider.class);
+
+    /**
+     * Configuration key set for a MultiProvider which merges the changes of
+     * sharded sub providers instead of starting them.
+     */
+    /* package private */ static final String SHARDED_KEY = "shardedMerger";
+
+    /**
+     * Message with the writes of a sub provider. The message only carries
+     * plain values so that sharded sub providers can send it between nodes.
+     */
+    /* package private */ static final class SourceChanges implements Serializable {
+
+        /* package private */ SourceChanges(
+                final String source,
+                final List<Host> hosts,
+                final List<String> deletedHostnames,
+                final Organization organization) {
+            this(source, hosts, deletedHostnames, NO_KEYS, false, organization);
+        }
+
+        /* package private */ SourceChanges(
+                final String source,
+                final List<Host> hosts,
+                final List<String> deletedHostnames,
+                final long[] expiredKeys,
+                final boolean isSyncCompleted,
+                final Organization organization) {
+            _source = source;
+            _hosts = ImmutableList.copyOf(hosts.stream()
+                    .map(host -> HostChange.updated(host, organization))
+                    .collect(Collectors.toList()));
+            _deletedHostnames = ImmutableList.copyOf(deletedHostnames);
+            _expiredKeys = expiredKeys.clone();
+            _isSyncCompleted = isSyncCompleted;
+            _organizationId = organization.getId();
+        }
+
+        public String getSource() {
+            return _source;
+        }
+
+        public List<Host> getHosts() {
+            final List<Host> hosts = new ArrayList<>(_hosts.size());
+            for (final HostChange change : _hosts) {
+                hosts.add(new DefaultHost.Builder()
+                        .setHostname(change.getHostname())
+                        .setCluster(change.getCluster().orElse(null))
+                        .setMetricsSoftwareState(change.getMetricsSoftwareState().orElse(MetricsSoftwareState.UNKNOWN))
+                        .build());
+            }
+            return hosts;
+        }
+
+        public List<String> getDeletedHostnames() {
+            return _deletedHostnames;
+        }
+
+        /**
+         * The sorted keys in the fingerprint table of the source of the
+         * hostnames which expired from the source.
+         *
+         * @return The keys of the expired hostnames.
+         */
+        public long[] getExpiredKeys() {
+            return _expiredKeys.clone();
+        }
+
+        /**
+         * Whether the source completed a sync with these changes.
+         *
+         * @return True if and only if the source completed a sync.
+         */
+        public boolean isSyncCompleted() {
+            return _isSyncCompleted;
+        }
+
+        public Organization getOrganization() {
+            if (Organization.DEFAULT.getId().equals(_organizationId)) {
+                return Organization.DEFAULT;
+            }
+            return new DefaultOrganization.Builder().setId(_organizationId).build();
+        }
+
+        private final String _source;
+        private final ImmutableList<HostChange> _hosts;
+        private final ImmutableList<String> _deletedHostnames;
+        private final long[] _expiredKeys;
+        private final boolean _isSyncCompleted;
+        private final UUID _organizationId;
+
+        private static final long[] NO_KEYS = new long[0];
+        private static final long serialVersionUID = 2L;
+    }
 }
@@ -15,6 +15,7 @@
  */
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import akka.actor.Cancellable;
 import akka.actor.UntypedActor;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.Logger;
@@ -39,7 +40,7 @@ public class NoHostProvider extends UntypedActor {
      */
     @Inject
     public NoHostProvider(@Assisted final Configuration configuration) {
-        getContext().system().scheduler().schedule(
+        _cancellable = getContext().system().scheduler().schedule(
                 ConfigurationHelper.getFiniteDuration(configuration, "initialDelay"),
                 ConfigurationHelper.getFiniteDuration(configuration, "interval"),
                 getSelf(),
@@ -48,6 +49,11 @@ public class NoHostProvider extends UntypedActor {
                 getSelf());
     }
 
+    @Override
+    public void postStop() {
+        _cancellable.cancel();
+    }
+
     @Override
     public void onReceive(final Object message) throws Exception {
         if ("tick".equals(message)) {
@@ -59,5 +65,7 @@ public class NoHostProvider extends UntypedActor {
         }
     }
 
+    private final Cancellable _cancellable;
+
     private static final Logger LOGGER = LoggerFactory.getLogger(NoHostProvider.class);
 }
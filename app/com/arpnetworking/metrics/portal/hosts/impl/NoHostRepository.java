@@ -22,6 +22,7 @@ import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.google.inject.Inject;
 import models.internal.Host;
+import models.internal.HostFacet;
 import models.internal.HostQuery;
 import models.internal.MetricsSoftwareState;
 import models.internal.Organization;
@@ -29,8 +30,12 @@ import models.internal.QueryResult;
 import models.internal.impl.DefaultHostQuery;
 import models.internal.impl.DefaultQueryResult;
 
+import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
 
 /**
  * This is a dummy implementation of <code>HostRepository</code>. The use of
@@ -71,6 +76,16 @@ public final class NoHostRepository implements HostRepository {
                 .log();
     }
 
+    @Override
+    public void addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Adding or updating hosts")
+                .addData("hostCount", hosts.size())
+                .addData("organization", organization)
+                .log();
+    }
+
     @Override
     public void deleteHost(final String hostname, final Organization organization) {
         assertIsOpen();
@@ -81,6 +96,16 @@ public final class NoHostRepository implements HostRepository {
                 .log();
     }
 
+    @Override
+    public void deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Deleting hosts")
+                .addData("hostCount", hostnames.size())
+                .addData("organization", organization)
+                .log();
+    }
+
 
     @Override
     public HostQuery createQuery(final Organization organization) {
@@ -102,6 +127,16 @@ public final class NoHostRepository implements HostRepository {
         return new DefaultQueryResult<>(Collections.<Host>emptyList(), 0);
     }
 
+    @Override
+    public Stream<Host> export(final HostQuery query) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Exporting")
+                .addData("query", query)
+                .log();
+        return Stream.empty();
+    }
+
     @Override
     public long getHostCount(final Organization organization) {
         assertIsOpen();
@@ -123,6 +158,26 @@ public final class NoHostRepository implements HostRepository {
         return 0;
     }
 
+    @Override
+    public List<HostFacet> getHostFacets(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting host facets")
+                .addData("organization", organization)
+                .log();
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Optional<String> getEtag(final Organization organization) {
+        assertIsOpen();
+        LOGGER.debug()
+                .setMessage("Getting etag")
+                .addData("organization", organization)
+                .log();
+        return Optional.empty();
+    }
+
     /**
      * Generate a Steno log compatible representation.
      *
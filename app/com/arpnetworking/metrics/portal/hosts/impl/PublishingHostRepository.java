@@ -0,0 +1,181 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import akka.actor.ActorRef;
+import akka.cluster.pubsub.DistributedPubSubMediator;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.portal.hosts.HostChange;
+import com.arpnetworking.metrics.portal.hosts.HostRepository;
+import com.arpnetworking.metrics.portal.hosts.HostWriteException;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.QueryResult;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of <code>HostRepository</code> which publishes a
+ * <code>HostChange</code> through the distributed pub-sub mediator for each
+ * write to the wrapped repository. The change is published only after the
+ * wrapped repository acknowledges the write and only for hosts which were
+ * stored; when a <code>HostWriteException</code> is thrown the changes of the
+ * hosts it does not list are published before it is rethrown. Any other
+ * failure publishes nothing, so subscribers never observe a change which was
+ * not stored.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class PublishingHostRepository implements HostRepository {
+
+    /**
+     * Public constructor.
+     *
+     * @param repository The <code>HostRepository</code> to wrap.
+     * @param mediator The distributed pub-sub mediator to publish changes to.
+     */
+    public PublishingHostRepository(final HostRepository repository, final ActorRef mediator) {
+        _repository = repository;
+        _mediator = mediator;
+    }
+
+    @Override
+    public void open() {
+        _repository.open();
+    }
+
+    @Override
+    public void close() {
+        _repository.close();
+    }
+
+    @Override
+    public void addOrUpdateHost(final Host host, final Organization organization) {
+        _repository.addOrUpdateHost(host, organization);
+        publish(HostChange.updated(host, organization));
+    }
+
+    @Override
+    public void addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        try {
+            _repository.addOrUpdateHosts(hosts, organization);
+        } catch (final HostWriteException e) {
+            final Set<String> failedHostnames = new HashSet<>(e.getFailedHostnames());
+            for (final Host host : hosts) {
+                if (!failedHostnames.contains(host.getHostname())) {
+                    publish(HostChange.updated(host, organization));
+                }
+            }
+            throw e;
+        }
+        for (final Host host : hosts) {
+            publish(HostChange.updated(host, organization));
+        }
+    }
+
+    @Override
+    public void deleteHost(final String hostname, final Organization organization) {
+        _repository.deleteHost(hostname, organization);
+        publish(HostChange.deleted(hostname, organization));
+    }
+
+    @Override
+    public void deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        try {
+            _repository.deleteHosts(hostnames, organization);
+        } catch (final HostWriteException e) {
+            final Set<String> failedHostnames = new HashSet<>(e.getFailedHostnames());
+            for (final String hostname : hostnames) {
+                if (!failedHostnames.contains(hostname)) {
+                    publish(HostChange.deleted(hostname, organization));
+                }
+            }
+            throw e;
+        }
+        for (final String hostname : hostnames) {
+            publish(HostChange.deleted(hostname, organization));
+        }
+    }
+
+    @Override
+    public HostQuery createQuery(final Organization organization) {
+        return _repository.createQuery(organization);
+    }
+
+    @Override
+    public QueryResult<Host> query(final HostQuery query) {
+        return _repository.query(query);
+    }
+
+    @Override
+    public Stream<Host> export(final HostQuery query) {
+        return _repository.export(query);
+    }
+
+    @Override
+    public long getHostCount(final Organization organization) {
+        return _repository.getHostCount(organization);
+    }
+
+    @Override
+    public long getHostCount(final MetricsSoftwareState metricsSoftwareState, final Organization organization) {
+        return _repository.getHostCount(metricsSoftwareState, organization);
+    }
+
+    @Override
+    public List<HostFacet> getHostFacets(final Organization organization) {
+        return _repository.getHostFacets(organization);
+    }
+
+    @Override
+    public Optional<String> getEtag(final Organization organization) {
+        return _repository.getEtag(organization);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("repository", _repository)
+                .put("mediator", _mediator)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private void publish(final HostChange change) {
+        _mediator.tell(new DistributedPubSubMediator.Publish(HostChange.TOPIC, change), ActorRef.noSender());
+    }
+
+    private final HostRepository _repository;
+    private final ActorRef _mediator;
+}
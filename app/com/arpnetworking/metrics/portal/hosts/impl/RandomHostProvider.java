@@ -15,9 +15,9 @@
  */
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import akka.actor.Cancellable;
 import akka.actor.UntypedActor;
 import com.arpnetworking.logback.annotations.LogValue;
-import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
 import com.arpnetworking.steno.LogValueMapFactory;
 import com.arpnetworking.steno.Logger;
@@ -31,6 +31,10 @@ import models.internal.impl.DefaultHost;
 import org.joda.time.Duration;
 import play.Configuration;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 /**
  * This is an actor that finds "random" hosts. The primary purpose of this
  * class is to for development and testing. This is <b>not</b> intended for
@@ -43,13 +47,13 @@ public final class RandomHostProvider extends UntypedActor {
     /**
      * Public constructor.
      *
-     * @param hostRepository The <code>HostRepository</code> instance.
+     * @param hostWriter The <code>HostWriter</code> instance.
      * @param configuration Play configuration.
      */
     @Inject
-    public RandomHostProvider(final HostRepository hostRepository, @Assisted final Configuration configuration) {
-        _hostRepository = hostRepository;
-        getContext().system().scheduler().schedule(
+    public RandomHostProvider(final HostWriter hostWriter, @Assisted final Configuration configuration) {
+        _writes = new HostWrites(hostWriter, getContext(), configuration);
+        _cancellable = getContext().system().scheduler().schedule(
                 ConfigurationHelper.getFiniteDuration(configuration, "initialDelay"),
                 ConfigurationHelper.getFiniteDuration(configuration, "interval"),
                 getSelf(),
@@ -58,15 +62,24 @@ public final class RandomHostProvider extends UntypedActor {
                 getSelf());
     }
 
+    @Override
+    public void postStop() {
+        _cancellable.cancel();
+    }
+
     @Override
     public void onReceive(final Object message) throws Exception {
         if ("tick".equals(message)) {
+            if (_writes.isPending()) {
+                return;
+            }
             LOGGER.trace()
                     .setMessage("Searching for added/updated/deleted hosts")
                     .addData("actor", self())
                     .log();
 
             if (System.currentTimeMillis() - _lastTime > INTERVAL.getMillis()) {
+                final List<Host> hosts = new ArrayList<>();
                 final Host newHost = new DefaultHost.Builder()
                         .setHostname("test-app" + _hostAdd + ".example.com")
                         .setMetricsSoftwareState(MetricsSoftwareState.NOT_INSTALLED)
@@ -77,7 +90,7 @@ public final class RandomHostProvider extends UntypedActor {
                         .addData("actor", self())
                         .addData("hostname", newHost.getHostname())
                         .log();
-                _hostRepository.addOrUpdateHost(newHost, Organization.DEFAULT);
+                hosts.add(newHost);
                 if (_hostUpdateOne > 0) {
                     final Host updatedHost = new DefaultHost.Builder()
                             .setHostname("test-app" + _hostUpdateOne + ".example.com")
@@ -89,7 +102,7 @@ public final class RandomHostProvider extends UntypedActor {
                             .addData("actor", self())
                             .addData("hostname", updatedHost.getHostname())
                             .log();
-                    _hostRepository.addOrUpdateHost(updatedHost, Organization.DEFAULT);
+                    hosts.add(updatedHost);
                 }
                 if (_hostUpdateTwo > 0) {
                     final Host updatedHost = new DefaultHost.Builder()
@@ -102,16 +115,21 @@ public final class RandomHostProvider extends UntypedActor {
                             .addData("actor", self())
                             .addData("hostname", updatedHost.getHostname())
                             .log();
-                    _hostRepository.addOrUpdateHost(updatedHost, Organization.DEFAULT);
+                    hosts.add(updatedHost);
                 }
+                _writes.addOrUpdateHosts(hosts, Organization.DEFAULT);
                 if (_hostRemove > 0) {
-                    final String deletedHostName = "test-app" + _hostRemove + ".example..com";
+                    final String deletedHostName = "test-app" + _hostRemove + ".example.com";
                     LOGGER.debug()
                             .setMessage("Found host to delete")
                             .addData("actor", self())
                             .addData("hostname", deletedHostName)
                             .log();
-                    _hostRepository.deleteHost(deletedHostName, Organization.DEFAULT);
+                    _writes.deleteHosts(Collections.singletonList(deletedHostName), Organization.DEFAULT);
+                }
+                if (!_failedDeletes.isEmpty()) {
+                    _writes.deleteHosts(new ArrayList<>(_failedDeletes), Organization.DEFAULT);
+                    _failedDeletes.clear();
                 }
                 ++_hostAdd;
                 ++_hostUpdateOne;
@@ -119,6 +137,9 @@ public final class RandomHostProvider extends UntypedActor {
                 ++_hostRemove;
                 _lastTime = System.currentTimeMillis();
             }
+        } else if (message instanceof HostWrites.DeleteFailed) {
+            // Deletes are retried with the next writes
+            _failedDeletes.addAll(((HostWrites.DeleteFailed) message).getHostnames());
         }
     }
 
@@ -130,7 +151,7 @@ public final class RandomHostProvider extends UntypedActor {
     @LogValue
     public Object toLogValue() {
         return LogValueMapFactory.builder(this)
-                .put("hostRepository", _hostRepository)
+                .put("writes", _writes)
                 .put("lastTime", _lastTime)
                 .put("hostAdd", _hostAdd)
                 .put("hostUpdateOne", _hostUpdateOne)
@@ -144,7 +165,9 @@ public final class RandomHostProvider extends UntypedActor {
         return toLogValue().toString();
     }
 
-    private final HostRepository _hostRepository;
+    private final HostWrites _writes;
+    private final Cancellable _cancellable;
+    private final List<String> _failedDeletes = new ArrayList<>();
     private long _lastTime = 0;
     private long _hostAdd = 1;
     private long _hostUpdateOne = -5;
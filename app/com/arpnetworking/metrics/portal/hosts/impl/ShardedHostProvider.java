@@ -0,0 +1,216 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import akka.actor.ActorRef;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.cluster.sharding.ShardRegion;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import play.Configuration;
+import play.Environment;
+
+import java.io.Serializable;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Cluster sharding entity which runs one configured host provider. When the
+ * host provider is a <code>MultiProvider</code> each of its child providers
+ * is a separate entity identified by its configuration key; otherwise the
+ * host provider is the only entity. Sources which can be partitioned, such
+ * as Consul datacenters, are distributed by configuring a child provider per
+ * partition.
+ *
+ * The entities are started by the <code>Start</code> messages of the
+ * <code>ShardedHostProviderKeeper</code> and are moved between the nodes
+ * with the shards when the cluster rebalances.
+ *
+ * The child providers of a <code>MultiProvider</code> do not write their
+ * hosts; the entity relays their writes to the keeper which sent the last
+ * <code>Start</code> message and the keeper merges them with the writes of
+ * the other child providers. When the keeper moves to another node the
+ * entity restarts its child provider so that the new keeper is reported all
+ * its hosts.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class ShardedHostProvider extends UntypedActor {
+
+    /**
+     * Public constructor.
+     *
+     * @param factory a {@link HostProviderFactory}.
+     * @param environment Play environment.
+     * @param configuration Play configuration of the host provider.
+     * @throws UnsupportedEncodingException if the entity name cannot be decoded.
+     */
+    @Inject
+    public ShardedHostProvider(
+            final HostProviderFactory factory,
+            final Environment environment,
+            @Assisted final Configuration configuration) throws UnsupportedEncodingException {
+        // The sharding entity is named after its URL encoded entity identifier
+        _key = URLDecoder.decode(self().path().name(), StandardCharsets.UTF_8.name());
+        final Configuration providerConfiguration = getProviderConfigurations(environment, configuration).get(_key);
+        _merged = MultiProvider.class.isAssignableFrom(ConfigurationHelper.getType(environment, configuration, "type"));
+        if (providerConfiguration == null) {
+            LOGGER.warn()
+                    .setMessage("Unknown host provider")
+                    .addData("actor", self())
+                    .addData("key", _key)
+                    .log();
+            _providerProps = null;
+            getContext().stop(self());
+        } else if (_merged) {
+            // The provider is started once the keeper to report to is known
+            final Configuration sourceConfiguration = MultiProvider.createSourceConfiguration(_key, providerConfiguration);
+            _providerProps = factory.create(sourceConfiguration, ConfigurationHelper.getType(environment, sourceConfiguration, "type"));
+        } else {
+            _providerProps = factory.create(providerConfiguration, ConfigurationHelper.getType(environment, providerConfiguration, "type"));
+            getContext().actorOf(_providerProps, "provider");
+        }
+    }
+
+    /**
+     * Retrieve the configuration of each entity by its key.
+     *
+     * @param environment Play environment.
+     * @param configuration Play configuration of the host provider.
+     * @return The configuration of each entity by its key.
+     */
+    public static Map<String, Configuration> getProviderConfigurations(final Environment environment, final Configuration configuration) {
+        if (MultiProvider.class.isAssignableFrom(ConfigurationHelper.getType(environment, configuration, "type"))) {
+            return MultiProvider.getChildConfigurations(configuration);
+        }
+        return Collections.singletonMap(DEFAULT_KEY, configuration);
+    }
+
+    /**
+     * Retrieve the configuration of the <code>MultiProvider</code> merging the
+     * writes of the entities, if the host provider is a
+     * <code>MultiProvider</code>.
+     *
+     * @param environment Play environment.
+     * @param configuration Play configuration of the host provider.
+     * @return The configuration of the merging <code>MultiProvider</code>.
+     */
+    public static Optional<Configuration> getMergerConfiguration(final Environment environment, final Configuration configuration) {
+        if (MultiProvider.class.isAssignableFrom(ConfigurationHelper.getType(environment, configuration, "type"))) {
+            return Optional.of(new Configuration(Collections.singletonMap(MultiProvider.SHARDED_KEY, true)).withFallback(configuration));
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public void preStart() {
+        LOGGER.info()
+                .setMessage("Starting sharded host provider")
+                .addData("actor", self())
+                .addData("key", _key)
+                .log();
+    }
+
+    @Override
+    public void onReceive(final Object message) throws Exception {
+        if (message instanceof Start) {
+            if (_merged && _providerProps != null && !getSender().equals(_keeper)) {
+                // A new keeper has an empty merge state so it needs all the hosts of a new provider
+                if (_provider != null) {
+                    getContext().stop(_provider);
+                }
+                LOGGER.info()
+                        .setMessage("Starting merged host provider")
+                        .addData("actor", self())
+                        .addData("key", _key)
+                        .addData("keeper", getSender())
+                        .log();
+                _keeper = getSender();
+                _provider = getContext().actorOf(_providerProps, "provider-" + _generation++);
+            }
+            // Otherwise the keep alive only ensures that the entity is started
+        } else if (message instanceof MultiProvider.SourceChanges) {
+            if (getSender().equals(_provider)) {
+                _keeper.tell(message, self());
+            }
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private final String _key;
+    private final boolean _merged;
+    private final Props _providerProps;
+    private ActorRef _keeper;
+    private ActorRef _provider;
+    private int _generation;
+
+    private static final String DEFAULT_KEY = "default";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedHostProvider.class);
+
+    /**
+     * Message which starts the entity for a host provider if it is not
+     * running.
+     */
+    public static final class Start implements Serializable {
+
+        /**
+         * Public constructor.
+         *
+         * @param key The key of the host provider.
+         */
+        public Start(final String key) {
+            _key = key;
+        }
+
+        public String getKey() {
+            return _key;
+        }
+
+        private final String _key;
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * Extracts the entity and shard of the host provider from a
+     * <code>Start</code> message.
+     */
+    public static final class MessageExtractor extends ShardRegion.HashCodeMessageExtractor {
+
+        /**
+         * Public constructor.
+         *
+         * @param maxNumberOfShards The number of shards.
+         */
+        public MessageExtractor(final int maxNumberOfShards) {
+            super(maxNumberOfShards);
+        }
+
+        @Override
+        public String entityId(final Object message) {
+            return message instanceof Start ? ((Start) message).getKey() : null;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.ImmutableList;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Collection;
+import java.util.Optional;
+
+/**
+ * Actor which keeps the sharded host providers running. It periodically
+ * sends a <code>Start</code> message for each configured host provider to the
+ * shard region so that the entities are started initially and restarted on
+ * another node after the node running them leaves the cluster. It runs as a
+ * cluster singleton.
+ *
+ * When the host provider is a <code>MultiProvider</code> the keeper runs the
+ * <code>MultiProvider</code> merging and writing the hosts of the entities,
+ * which report their writes to the keeper.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class ShardedHostProviderKeeper extends UntypedActor {
+
+    /**
+     * Creates a {@link Props} for this actor.
+     *
+     * @param region The shard region of the host providers.
+     * @param keys The keys of the host providers.
+     * @param interval The interval between keep alives.
+     * @param merger The props of the <code>MultiProvider</code> merging the writes of the entities, if any.
+     * @return A new Props.
+     */
+    public static Props props(
+            final ActorRef region,
+            final Collection<String> keys,
+            final FiniteDuration interval,
+            final Optional<Props> merger) {
+        return Props.create(ShardedHostProviderKeeper.class, region, ImmutableList.copyOf(keys), interval, merger);
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param region The shard region of the host providers.
+     * @param keys The keys of the host providers.
+     * @param interval The interval between keep alives.
+     * @param merger The props of the <code>MultiProvider</code> merging the writes of the entities, if any.
+     */
+    public ShardedHostProviderKeeper(
+            final ActorRef region,
+            final ImmutableList<String> keys,
+            final FiniteDuration interval,
+            final Optional<Props> merger) {
+        _region = region;
+        _keys = keys;
+        _interval = interval;
+        _mergerProps = merger;
+    }
+
+    @Override
+    public void preStart() {
+        LOGGER.info()
+                .setMessage("Starting sharded host provider keeper")
+                .addData("actor", self())
+                .addData("keys", _keys)
+                .log();
+        _merger = _mergerProps.map(props -> getContext().actorOf(props, "merger"));
+        _cancellable = getContext().system().scheduler().schedule(
+                FiniteDuration.Zero(),
+                _interval,
+                self(),
+                TICK,
+                getContext().dispatcher(),
+                self());
+    }
+
+    @Override
+    public void postStop() {
+        _cancellable.cancel();
+    }
+
+    @Override
+    public void onReceive(final Object message) throws Exception {
+        if (TICK.equals(message)) {
+            for (final String key : _keys) {
+                _region.tell(new ShardedHostProvider.Start(key), self());
+            }
+        } else if (message instanceof MultiProvider.SourceChanges) {
+            if (_merger.isPresent()) {
+                _merger.get().forward(message, getContext());
+            } else {
+                unhandled(message);
+            }
+        } else {
+            unhandled(message);
+        }
+    }
+
+    private final ActorRef _region;
+    private final ImmutableList<String> _keys;
+    private final FiniteDuration _interval;
+    private final Optional<Props> _mergerProps;
+    private Optional<ActorRef> _merger = Optional.empty();
+    private Cancellable _cancellable;
+
+    private static final String TICK = "tick";
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedHostProviderKeeper.class);
+}
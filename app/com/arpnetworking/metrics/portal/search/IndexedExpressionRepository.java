@@ -0,0 +1,104 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.search;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Expression;
+import models.internal.ExpressionQuery;
+import models.internal.Organization;
+import models.internal.QueryResult;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Implementation of <code>ExpressionRepository</code> which maintains the
+ * <code>SearchIndex</code> from the writes to the wrapped repository.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class IndexedExpressionRepository implements ExpressionRepository {
+
+    /**
+     * Public constructor.
+     *
+     * @param repository The <code>ExpressionRepository</code> to wrap.
+     * @param searchIndex The <code>SearchIndex</code> to maintain.
+     */
+    public IndexedExpressionRepository(final ExpressionRepository repository, final SearchIndex searchIndex) {
+        _repository = repository;
+        _searchIndex = searchIndex;
+    }
+
+    @Override
+    public void open() {
+        _repository.open();
+    }
+
+    @Override
+    public void close() {
+        _repository.close();
+    }
+
+    @Override
+    public Optional<Expression> get(final UUID identifier, final Organization organization) {
+        return _repository.get(identifier, organization);
+    }
+
+    @Override
+    public ExpressionQuery createQuery(final Organization organization) {
+        return _repository.createQuery(organization);
+    }
+
+    @Override
+    public QueryResult<Expression> query(final ExpressionQuery query) {
+        return _repository.query(query);
+    }
+
+    @Override
+    public long getExpressionCount(final Organization organization) {
+        return _repository.getExpressionCount(organization);
+    }
+
+    @Override
+    public void addOrUpdateExpression(final Expression expression, final Organization organization) {
+        _repository.addOrUpdateExpression(expression, organization);
+        _searchIndex.putExpression(expression, organization);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("repository", _repository)
+                .put("searchIndex", _searchIndex)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private final ExpressionRepository _repository;
+    private final SearchIndex _searchIndex;
+}
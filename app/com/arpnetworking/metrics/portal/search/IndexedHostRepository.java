@@ -0,0 +1,145 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.search;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.portal.hosts.HostRepository;
+import com.arpnetworking.steno.LogValueMapFactory;
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.QueryResult;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Implementation of <code>HostRepository</code> which maintains the
+ * <code>SearchIndex</code> from the writes to the wrapped repository.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class IndexedHostRepository implements HostRepository {
+
+    /**
+     * Public constructor.
+     *
+     * @param repository The <code>HostRepository</code> to wrap.
+     * @param searchIndex The <code>SearchIndex</code> to maintain.
+     */
+    public IndexedHostRepository(final HostRepository repository, final SearchIndex searchIndex) {
+        _repository = repository;
+        _searchIndex = searchIndex;
+    }
+
+    @Override
+    public void open() {
+        _repository.open();
+    }
+
+    @Override
+    public void close() {
+        _repository.close();
+    }
+
+    @Override
+    public void addOrUpdateHost(final Host host, final Organization organization) {
+        _repository.addOrUpdateHost(host, organization);
+        _searchIndex.putHost(host, organization);
+    }
+
+    @Override
+    public void addOrUpdateHosts(final Collection<? extends Host> hosts, final Organization organization) {
+        _repository.addOrUpdateHosts(hosts, organization);
+        for (final Host host : hosts) {
+            _searchIndex.putHost(host, organization);
+        }
+    }
+
+    @Override
+    public void deleteHost(final String hostname, final Organization organization) {
+        _repository.deleteHost(hostname, organization);
+        _searchIndex.removeHost(hostname, organization);
+    }
+
+    @Override
+    public void deleteHosts(final Collection<String> hostnames, final Organization organization) {
+        _repository.deleteHosts(hostnames, organization);
+        for (final String hostname : hostnames) {
+            _searchIndex.removeHost(hostname, organization);
+        }
+    }
+
+    @Override
+    public HostQuery createQuery(final Organization organization) {
+        return _repository.createQuery(organization);
+    }
+
+    @Override
+    public QueryResult<Host> query(final HostQuery query) {
+        return _repository.query(query);
+    }
+
+    @Override
+    public Stream<Host> export(final HostQuery query) {
+        return _repository.export(query);
+    }
+
+    @Override
+    public long getHostCount(final Organization organization) {
+        return _repository.getHostCount(organization);
+    }
+
+    @Override
+    public long getHostCount(final MetricsSoftwareState metricsSoftwareState, final Organization organization) {
+        return _repository.getHostCount(metricsSoftwareState, organization);
+    }
+
+    @Override
+    public List<HostFacet> getHostFacets(final Organization organization) {
+        return _repository.getHostFacets(organization);
+    }
+
+    @Override
+    public Optional<String> getEtag(final Organization organization) {
+        return _repository.getEtag(organization);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("repository", _repository)
+                .put("searchIndex", _searchIndex)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private final HostRepository _repository;
+    private final SearchIndex _searchIndex;
+}
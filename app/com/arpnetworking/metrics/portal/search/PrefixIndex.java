@@ -0,0 +1,278 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.search;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import models.internal.Suggestion;
+import models.internal.impl.DefaultSuggestion;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory prefix index of the suggested values of a single organization.
+ * Each value is indexed under its lower case form and under every suffix
+ * which starts after a separator so that "web1.example.com" completes both
+ * "web" and "exa". Values are contributed by sources, such as a host or an
+ * alert, and are weighted by the number of sources referencing them. The
+ * index is maintained on write so that completing a prefix is a bounded
+ * range scan of a sorted map.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class PrefixIndex {
+
+    /**
+     * Replace the values contributed by a source.
+     *
+     * @param source The identifier of the source.
+     * @param terms The values contributed by the source.
+     */
+    public void put(final String source, final Collection<Term> terms) {
+        final Set<Term> newTerms = Collections.unmodifiableSet(Sets.newHashSet(terms));
+        _lock.writeLock().lock();
+        try {
+            final Set<Term> oldTerms = _bySource.put(source, newTerms);
+            if (oldTerms != null) {
+                for (final Term term : Sets.difference(oldTerms, newTerms)) {
+                    release(term);
+                }
+            }
+            for (final Term term : oldTerms == null ? newTerms : Sets.difference(newTerms, oldTerms)) {
+                acquire(term);
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the values contributed by a source.
+     *
+     * @param source The identifier of the source.
+     */
+    public void remove(final String source) {
+        _lock.writeLock().lock();
+        try {
+            final Set<Term> oldTerms = _bySource.remove(source);
+            if (oldTerms != null) {
+                for (final Term term : oldTerms) {
+                    release(term);
+                }
+            }
+        } finally {
+            _lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Complete a prefix. Values indexed exactly under the prefix rank first,
+     * followed by values with more references and then by shorter values.
+     *
+     * @param prefix The prefix to complete.
+     * @param limit The maximum number of suggestions to return.
+     * @return The ranked suggestions.
+     */
+    public List<Suggestion> suggest(final String prefix, final int limit) {
+        final String key = prefix.toLowerCase(Locale.getDefault());
+        final Map<Term, Candidate> candidates = Maps.newHashMap();
+        _lock.readLock().lock();
+        try {
+            // NOTE: The scan is bounded so that short prefixes of large indexes complete in constant time
+            int scanned = 0;
+            for (final Map.Entry<String, Set<Term>> entry : _byKey.tailMap(key, true).entrySet()) {
+                if (!entry.getKey().startsWith(key) || scanned >= MAX_SCANNED_TERMS) {
+                    break;
+                }
+                final boolean isExact = entry.getKey().length() == key.length();
+                for (final Term term : entry.getValue()) {
+                    if (++scanned > MAX_SCANNED_TERMS) {
+                        break;
+                    }
+                    final Candidate candidate = candidates.get(term);
+                    if (candidate == null) {
+                        candidates.put(term, new Candidate(term, _weights.get(term), isExact));
+                    } else if (isExact) {
+                        candidate._isExact = true;
+                    }
+                }
+            }
+        } finally {
+            _lock.readLock().unlock();
+        }
+        return CANDIDATE_ORDER.leastOf(candidates.values(), limit)
+                .stream()
+                .map(candidate -> new DefaultSuggestion.Builder()
+                        .setType(candidate._term.getType())
+                        .setValue(candidate._term.getValue())
+                        .setWeight(candidate._weight)
+                        .build())
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Retrieve the number of distinct values in the index.
+     *
+     * @return The number of distinct values.
+     */
+    public long size() {
+        _lock.readLock().lock();
+        try {
+            return _weights.size();
+        } finally {
+            _lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("size", size())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    // NOTE: Package private for testing
+    /* package private */ static Set<String> keys(final String value) {
+        final String lowerValue = value.toLowerCase(Locale.getDefault());
+        final Set<String> keys = Sets.newHashSet(lowerValue);
+        for (int i = 0; i < lowerValue.length() - 1 && keys.size() < MAX_KEYS_PER_VALUE; ++i) {
+            if (!Character.isLetterOrDigit(lowerValue.charAt(i)) && Character.isLetterOrDigit(lowerValue.charAt(i + 1))) {
+                keys.add(lowerValue.substring(i + 1));
+            }
+        }
+        return keys;
+    }
+
+    private void acquire(final Term term) {
+        final Long weight = _weights.merge(term, 1L, Long::sum);
+        if (weight == 1) {
+            for (final String key : keys(term.getValue())) {
+                _byKey.computeIfAbsent(key, k -> Sets.newHashSet()).add(term);
+            }
+        }
+    }
+
+    private void release(final Term term) {
+        // NOTE: Returning null from the remapping removes the weight once it reaches zero
+        final Long weight = _weights.computeIfPresent(term, (k, count) -> count == 1 ? null : count - 1);
+        if (weight == null) {
+            for (final String key : keys(term.getValue())) {
+                final Set<Term> terms = _byKey.get(key);
+                terms.remove(term);
+                if (terms.isEmpty()) {
+                    _byKey.remove(key);
+                }
+            }
+        }
+    }
+
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+    private final NavigableMap<String, Set<Term>> _byKey = new TreeMap<>();
+    private final Map<Term, Long> _weights = Maps.newHashMap();
+    private final Map<String, Set<Term>> _bySource = Maps.newHashMap();
+
+    private static final int MAX_SCANNED_TERMS = 10000;
+    private static final int MAX_KEYS_PER_VALUE = 16;
+    private static final Ordering<Candidate> CANDIDATE_ORDER = Ordering.from(
+            Comparator.<Candidate, Boolean>comparing(candidate -> !candidate._isExact)
+                    .thenComparing(Comparator.<Candidate>comparingLong(candidate -> candidate._weight).reversed())
+                    .thenComparingInt(candidate -> candidate._term.getValue().length())
+                    .thenComparing(candidate -> candidate._term.getValue())
+                    .thenComparing(candidate -> candidate._term.getType()));
+
+    /**
+     * A value of a particular type contributed by a source.
+     */
+    /* package private */ static final class Term {
+
+        /* package private */ Term(final Suggestion.Type type, final String value) {
+            _type = type;
+            _value = value;
+        }
+
+        public Suggestion.Type getType() {
+            return _type;
+        }
+
+        public String getValue() {
+            return _value;
+        }
+
+        @Override
+        public boolean equals(final Object other) {
+            if (other == this) {
+                return true;
+            }
+            if (!(other instanceof Term)) {
+                return false;
+            }
+            final Term otherTerm = (Term) other;
+            return Objects.equal(_type, otherTerm._type)
+                    && Objects.equal(_value, otherTerm._value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(_type, _value);
+        }
+
+        @Override
+        public String toString() {
+            return _type + ":" + _value;
+        }
+
+        private final Suggestion.Type _type;
+        private final String _value;
+    }
+
+    private static final class Candidate {
+
+        Candidate(final Term term, final long weight, final boolean isExact) {
+            _term = term;
+            _weight = weight;
+            _isExact = isExact;
+        }
+
+        private final Term _term;
+        private final long _weight;
+        private boolean _isExact;
+    }
+}
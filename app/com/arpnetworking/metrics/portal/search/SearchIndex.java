@@ -0,0 +1,316 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.search;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.portal.alerts.AlertRepository;
+import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
+import com.arpnetworking.metrics.portal.hosts.HostChange;
+import com.arpnetworking.metrics.portal.hosts.HostRepository;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.common.collect.Maps;
+import models.internal.Alert;
+import models.internal.Expression;
+import models.internal.Host;
+import models.internal.Organization;
+import models.internal.QueryResult;
+import models.internal.Suggestion;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import javax.inject.Singleton;
+
+/**
+ * In-process search index of the host names, clusters, services, alert names
+ * and metrics of each organization for typeahead suggestions. The index is
+ * loaded from the repositories in the background on startup, serving partial
+ * suggestions until the loads complete, and is then maintained from the
+ * writes to the repositories so that completing a prefix never accesses the
+ * underlying stores. A host written while the hosts are loaded is not
+ * overwritten by the load. The <code>SearchIndexUpdater</code> applies the
+ * host changes written by other nodes and periodically reloads the alerts and
+ * expressions.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Singleton
+public final class SearchIndex {
+
+    /**
+     * Complete a prefix with the values of an organization.
+     *
+     * @param prefix The prefix to complete.
+     * @param limit The maximum number of suggestions to return.
+     * @param organization The organization to complete the prefix in.
+     * @return The ranked suggestions.
+     */
+    public List<Suggestion> suggest(final String prefix, final int limit, final Organization organization) {
+        return getOrganizationIndex(organization.getId()).suggest(prefix, limit);
+    }
+
+    /**
+     * Index a new or updated host.
+     *
+     * @param host The host to index.
+     * @param organization The organization owning the host.
+     */
+    public void putHost(final Host host, final Organization organization) {
+        writeHost(
+                organization.getId(),
+                host.getHostname(),
+                index -> index.put(HOST_SOURCE + host.getHostname(), createHostTerms(host.getHostname(), host.getCluster().orElse(null))));
+    }
+
+    /**
+     * Apply a host change published by the node which wrote it.
+     *
+     * @param change The host change to apply.
+     */
+    public void applyHostChange(final HostChange change) {
+        writeHost(change.getOrganizationId(), change.getHostname(), index -> {
+            if (change.getType() == HostChange.Type.DELETED) {
+                index.remove(HOST_SOURCE + change.getHostname());
+            } else {
+                index.put(HOST_SOURCE + change.getHostname(), createHostTerms(change.getHostname(), change.getCluster().orElse(null)));
+            }
+        });
+    }
+
+    /**
+     * Remove a host from the index.
+     *
+     * @param hostname The hostname of the host to remove.
+     * @param organization The organization owning the host.
+     */
+    public void removeHost(final String hostname, final Organization organization) {
+        writeHost(organization.getId(), hostname, index -> index.remove(HOST_SOURCE + hostname));
+    }
+
+    /**
+     * Index a new or updated alert.
+     *
+     * @param alert The alert to index.
+     * @param organization The organization owning the alert.
+     */
+    public void putAlert(final Alert alert, final Organization organization) {
+        final List<PrefixIndex.Term> terms = new ArrayList<>(4);
+        addTerm(terms, Suggestion.Type.ALERT, alert.getName());
+        addTerm(terms, Suggestion.Type.CLUSTER, alert.getCluster());
+        addTerm(terms, Suggestion.Type.SERVICE, alert.getService());
+        addTerm(terms, Suggestion.Type.METRIC, alert.getMetric());
+        getOrganizationIndex(organization.getId()).put(ALERT_SOURCE + alert.getId(), terms);
+    }
+
+    /**
+     * Index a new or updated expression.
+     *
+     * @param expression The expression to index.
+     * @param organization The organization owning the expression.
+     */
+    public void putExpression(final Expression expression, final Organization organization) {
+        final List<PrefixIndex.Term> terms = new ArrayList<>(3);
+        addTerm(terms, Suggestion.Type.CLUSTER, expression.getCluster());
+        addTerm(terms, Suggestion.Type.SERVICE, expression.getService());
+        addTerm(terms, Suggestion.Type.METRIC, expression.getMetric());
+        getOrganizationIndex(organization.getId()).put(EXPRESSION_SOURCE + expression.getId(), terms);
+    }
+
+    /**
+     * Index every host of an organization in a repository. Hosts written
+     * while the hosts are loaded are left as written.
+     *
+     * @param repository The repository to read the hosts from.
+     * @param organization The organization owning the hosts.
+     */
+    public void loadHosts(final HostRepository repository, final Organization organization) {
+        final PrefixIndex index = getOrganizationIndex(organization.getId());
+        long count = 0;
+        _hostLoadCount.incrementAndGet();
+        try (Stream<Host> hosts = repository.export(repository.createQuery(organization))) {
+            final Iterable<Host> iterable = hosts::iterator;
+            for (final Host host : iterable) {
+                // The entry of a host written since the load started is at least as recent as the exported host
+                _hostsWrittenDuringLoad.computeIfAbsent(createHostKey(organization.getId(), host.getHostname()), key -> {
+                    index.put(HOST_SOURCE + host.getHostname(), createHostTerms(host.getHostname(), host.getCluster().orElse(null)));
+                    return null;
+                });
+                ++count;
+            }
+        } finally {
+            if (_hostLoadCount.decrementAndGet() == 0) {
+                _hostsWrittenDuringLoad.clear();
+            }
+        }
+        logLoaded("hosts", count, organization);
+    }
+
+    /**
+     * Index every alert of an organization in a repository.
+     *
+     * @param repository The repository to read the alerts from.
+     * @param organization The organization owning the alerts.
+     */
+    public void loadAlerts(final AlertRepository repository, final Organization organization) {
+        final long count = loadPages(
+                (cursor, offset) -> repository.query(repository.createQuery(organization)
+                        .limit(LOAD_PAGE_SIZE)
+                        .cursor(cursor)
+                        .offset(offset)),
+                Alert::getId,
+                alert -> putAlert(alert, organization));
+        logLoaded("alerts", count, organization);
+    }
+
+    /**
+     * Index every expression of an organization in a repository.
+     *
+     * @param repository The repository to read the expressions from.
+     * @param organization The organization owning the expressions.
+     */
+    public void loadExpressions(final ExpressionRepository repository, final Organization organization) {
+        final long count = loadPages(
+                (cursor, offset) -> repository.query(repository.createQuery(organization)
+                        .limit(LOAD_PAGE_SIZE)
+                        .cursor(cursor)
+                        .offset(offset)),
+                Expression::getId,
+                expression -> putExpression(expression, organization));
+        logLoaded("expressions", count, organization);
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("organizations", _organizationIndexes.keySet())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private void writeHost(final UUID organizationId, final String hostname, final Consumer<PrefixIndex> write) {
+        final PrefixIndex index = getOrganizationIndex(organizationId);
+        if (_hostLoadCount.get() == 0) {
+            write.accept(index);
+            return;
+        }
+        // Recording the write and applying it under the lock of its key orders it with the load of the host
+        _hostsWrittenDuringLoad.compute(createHostKey(organizationId, hostname), (key, value) -> {
+            write.accept(index);
+            return Boolean.TRUE;
+        });
+    }
+
+    private static String createHostKey(final UUID organizationId, final String hostname) {
+        return organizationId + HOST_SOURCE + hostname;
+    }
+
+    private static <T> long loadPages(final PageReader<T> reader, final Function<T, UUID> idFunction, final Consumer<T> consumer) {
+        // Page with cursors where the repository supports them and with offsets otherwise
+        Optional<String> cursor = Optional.empty();
+        int offset = 0;
+        final Set<UUID> loadedIds = new HashSet<>();
+        while (true) {
+            final QueryResult<T> page = reader.read(cursor, cursor.isPresent() ? Optional.empty() : Optional.of(offset));
+            boolean isNew = false;
+            for (final T value : page.values()) {
+                if (loadedIds.add(idFunction.apply(value))) {
+                    consumer.accept(value);
+                    isNew = true;
+                }
+            }
+            final long count = loadedIds.size();
+            if (!isNew && !page.values().isEmpty()) {
+                // The repository ignored the offset or the cursor and returned values already loaded
+                LOGGER.warn()
+                        .setMessage("Stopped loading search index; page contained no new values")
+                        .addData("count", count)
+                        .addData("offset", offset)
+                        .addData("cursor", cursor)
+                        .log();
+                return count;
+            }
+            if (page.nextCursor().isPresent()) {
+                cursor = page.nextCursor();
+            } else if (cursor.isPresent() || page.values().size() < LOAD_PAGE_SIZE) {
+                return count;
+            } else {
+                offset += page.values().size();
+            }
+        }
+    }
+
+    private void logLoaded(final String source, final long count, final Organization organization) {
+        LOGGER.info()
+                .setMessage("Loaded search index")
+                .addData("source", source)
+                .addData("count", count)
+                .addData("organization", organization)
+                .log();
+    }
+
+    private static List<PrefixIndex.Term> createHostTerms(final String hostname, final String cluster) {
+        final List<PrefixIndex.Term> terms = new ArrayList<>(2);
+        addTerm(terms, Suggestion.Type.HOST, hostname);
+        addTerm(terms, Suggestion.Type.CLUSTER, cluster);
+        return terms;
+    }
+
+    private static void addTerm(final List<PrefixIndex.Term> terms, final Suggestion.Type type, final String value) {
+        if (value != null && !value.isEmpty()) {
+            terms.add(new PrefixIndex.Term(type, value));
+        }
+    }
+
+    private PrefixIndex getOrganizationIndex(final UUID organizationId) {
+        return _organizationIndexes.computeIfAbsent(organizationId, (v) -> new PrefixIndex());
+    }
+
+    private final Map<UUID, PrefixIndex> _organizationIndexes = Maps.newConcurrentMap();
+    private final AtomicInteger _hostLoadCount = new AtomicInteger();
+    // The hosts written while a host load runs by organization and hostname
+    private final ConcurrentMap<String, Boolean> _hostsWrittenDuringLoad = Maps.newConcurrentMap();
+
+    private static final int LOAD_PAGE_SIZE = 1000;
+    private static final String HOST_SOURCE = "host:";
+    private static final String ALERT_SOURCE = "alert:";
+    private static final String EXPRESSION_SOURCE = "expression:";
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndex.class);
+
+    @FunctionalInterface
+    private interface PageReader<T> {
+        QueryResult<T> read(Optional<String> cursor, Optional<Integer> offset);
+    }
+}
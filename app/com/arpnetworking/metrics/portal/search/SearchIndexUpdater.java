@@ -0,0 +1,182 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.search;
+
+import akka.actor.ActorRef;
+import akka.actor.Cancellable;
+import akka.actor.Status;
+import akka.actor.UntypedActor;
+import akka.cluster.pubsub.DistributedPubSubMediator;
+import akka.pattern.PatternsCS;
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.metrics.portal.alerts.AlertRepository;
+import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
+import com.arpnetworking.metrics.portal.hosts.HostChange;
+import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.steno.LogValueMapFactory;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
+import com.google.inject.Inject;
+import models.internal.Organization;
+import play.Configuration;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import javax.inject.Named;
+
+/**
+ * Actor which keeps the <code>SearchIndex</code> of its node consistent with
+ * the writes of the other nodes. It subscribes to the host changes published
+ * by every node and applies them to the index. Alert and expression writes
+ * are not published, so the alerts and expressions are periodically reloaded
+ * from their repositories on the repository executor.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public final class SearchIndexUpdater extends UntypedActor {
+
+    /**
+     * Public constructor.
+     *
+     * @param searchIndex The <code>SearchIndex</code> to maintain.
+     * @param alertRepository The <code>AlertRepository</code> to reload the alerts from.
+     * @param expressionRepository The <code>ExpressionRepository</code> to reload the expressions from.
+     * @param executor The <code>Executor</code> to reload on.
+     * @param mediator The distributed pub-sub mediator.
+     * @param configuration Play configuration.
+     */
+    @Inject
+    public SearchIndexUpdater(
+            final SearchIndex searchIndex,
+            final AlertRepository alertRepository,
+            final ExpressionRepository expressionRepository,
+            @Named("RepositoryExecutor") final Executor executor,
+            @Named("DistributedPubSubMediator") final ActorRef mediator,
+            final Configuration configuration) {
+        _searchIndex = searchIndex;
+        _alertRepository = alertRepository;
+        _expressionRepository = expressionRepository;
+        _executor = executor;
+        _mediator = mediator;
+        _reloadInterval = ConfigurationHelper.getFiniteDuration(configuration, "searchIndex.reloadInterval");
+    }
+
+    @Override
+    public void preStart() {
+        LOGGER.info()
+                .setMessage("Starting search index updater")
+                .addData("actor", self())
+                .log();
+        _mediator.tell(new DistributedPubSubMediator.Subscribe(HostChange.TOPIC, self()), self());
+        _cancellable = getContext().system().scheduler().schedule(
+                _reloadInterval,
+                _reloadInterval,
+                self(),
+                RELOAD,
+                getContext().dispatcher(),
+                self());
+    }
+
+    @Override
+    public void postStop() {
+        _cancellable.cancel();
+    }
+
+    @Override
+    public void onReceive(final Object message) throws Exception {
+        if (message instanceof HostChange) {
+            // Changes written by this node were already applied by the indexed repository; applying them again is harmless
+            _searchIndex.applyHostChange((HostChange) message);
+        } else if (RELOAD.equals(message)) {
+            if (_isReloading) {
+                LOGGER.debug()
+                        .setMessage("Skipping reload; previous reload still in progress")
+                        .addData("actor", self())
+                        .log();
+                return;
+            }
+            final CompletableFuture<Object> reloaded;
+            try {
+                reloaded = CompletableFuture.supplyAsync(
+                        () -> {
+                            _searchIndex.loadAlerts(_alertRepository, Organization.DEFAULT);
+                            _searchIndex.loadExpressions(_expressionRepository, Organization.DEFAULT);
+                            return RELOADED;
+                        },
+                        _executor);
+            } catch (final RejectedExecutionException e) {
+                LOGGER.warn()
+                        .setMessage("Skipping reload; repository executor is at capacity")
+                        .addData("actor", self())
+                        .setThrowable(e)
+                        .log();
+                return;
+            }
+            _isReloading = true;
+            PatternsCS.pipe(reloaded, getContext().dispatcher()).to(self(), self());
+        } else if (RELOADED.equals(message)) {
+            _isReloading = false;
+        } else if (message instanceof Status.Failure) {
+            _isReloading = false;
+            LOGGER.warn()
+                    .setMessage("Failed to reload search index")
+                    .addData("actor", self())
+                    .setThrowable(((Status.Failure) message).cause())
+                    .log();
+        } else if (message instanceof DistributedPubSubMediator.SubscribeAck) {
+            LOGGER.debug()
+                    .setMessage("Subscribed to host changes")
+                    .addData("actor", self())
+                    .log();
+        } else {
+            unhandled(message);
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("searchIndex", _searchIndex)
+                .put("reloadInterval", _reloadInterval)
+                .put("isReloading", _isReloading)
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private final SearchIndex _searchIndex;
+    private final AlertRepository _alertRepository;
+    private final ExpressionRepository _expressionRepository;
+    private final Executor _executor;
+    private final ActorRef _mediator;
+    private final FiniteDuration _reloadInterval;
+    private Cancellable _cancellable;
+    private boolean _isReloading = false;
+
+    private static final String RELOAD = "reload";
+    private static final String RELOADED = "reloaded";
+    private static final Logger LOGGER = LoggerFactory.getLogger(SearchIndexUpdater.class);
+}
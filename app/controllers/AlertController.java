@@ -16,7 +16,8 @@
 package controllers;
 
 import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
-import com.arpnetworking.metrics.portal.alerts.AlertRepository;
+import com.arpnetworking.database.QueryCursor;
+import com.arpnetworking.metrics.portal.alerts.AsyncAlertRepository;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -33,7 +34,6 @@ import models.internal.NagiosExtension;
 import models.internal.Operator;
 import models.internal.Organization;
 import models.internal.Quantity;
-import models.internal.QueryResult;
 import models.internal.impl.DefaultAlert;
 import models.internal.impl.DefaultQuantity;
 import models.view.PagedContainer;
@@ -49,6 +49,10 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 import javax.inject.Singleton;
 
@@ -64,10 +68,10 @@ public class AlertController extends Controller {
      * Public constructor.
      *
      * @param configuration Instance of Play's <code>Configuration</code>.
-     * @param alertRepository Instance of <code>AlertRepository</code>.
+     * @param alertRepository Instance of <code>AsyncAlertRepository</code>.
      */
     @Inject
-    public AlertController(final Configuration configuration, final AlertRepository alertRepository) {
+    public AlertController(final Configuration configuration, final AsyncAlertRepository alertRepository) {
         this(configuration.getInt("alerts.limit", DEFAULT_MAX_LIMIT), alertRepository);
     }
 
@@ -76,7 +80,7 @@ public class AlertController extends Controller {
      *
      * @return Ok if the alert was created or updated successfully, a failure HTTP status code otherwise.
      */
-    public Result addOrUpdate() {
+    public CompletionStage<Result> addOrUpdate() {
         final Alert alert;
         try {
             final models.view.Alert viewAlert = buildViewAlert(request().body());
@@ -86,21 +90,21 @@ public class AlertController extends Controller {
                     .setMessage("Failed to build an alert.")
                     .setThrowable(e)
                     .log();
-            return badRequest("Invalid request body.");
+            return CompletableFuture.completedFuture(badRequest("Invalid request body."));
         }
 
-        try {
-            _alertRepository.addOrUpdateAlert(alert, Organization.DEFAULT);
-            // CHECKSTYLE.OFF: IllegalCatch - Convert any exception to 500
-        } catch (final Exception e) {
-            // CHECKSTYLE.ON: IllegalCatch
-            LOGGER.error()
-                    .setMessage("Failed to add an alert.")
-                    .setThrowable(e)
-                    .log();
-            return internalServerError();
-        }
-        return ok();
+        return _alertRepository.addOrUpdateAlert(alert, Organization.DEFAULT)
+                .<Result>thenApply(ignored -> ok())
+                .exceptionally(throwable -> {
+                    if (isRejected(throwable)) {
+                        return status(SERVICE_UNAVAILABLE);
+                    }
+                    LOGGER.error()
+                            .setMessage("Failed to add an alert.")
+                            .setThrowable(throwable)
+                            .log();
+                    return internalServerError();
+                });
     }
 
     /**
@@ -112,16 +116,18 @@ public class AlertController extends Controller {
      * @param service The service of the statistic to evaluate as part of the alert. Optional.
      * @param limit The maximum number of results to return. Optional.
      * @param offset The number of results to skip. Optional.
+     * @param cursor The cursor of the next page returned with the previous page. Optional.
      * @return <code>Result</code> paginated matching alerts.
      */
     // CHECKSTYLE.OFF: ParameterNameCheck - Names must match query parameters.
-    public Result query(
+    public CompletionStage<Result> query(
             final String contains,
             final String context,
             final String cluster,
             final String service,
             final Integer limit,
-            final Integer offset) {
+            final Integer offset,
+            final String cursor) {
         // CHECKSTYLE.ON: ParameterNameCheck
 
         // Convert and validate parameters
@@ -130,18 +136,29 @@ public class AlertController extends Controller {
         try {
             contextValue = context == null ? null : Context.valueOf(context);
         } catch (final IllegalArgumentException iae) {
-            return badRequest("Invalid context argument");
+            return CompletableFuture.completedFuture(badRequest("Invalid context argument"));
         }
         final Optional<Context> argContext = Optional.ofNullable(contextValue);
         final Optional<String> argCluster = Optional.ofNullable(cluster);
         final Optional<String> argService = Optional.ofNullable(service);
         final Optional<Integer> argOffset = Optional.ofNullable(offset);
+        final Optional<String> argCursor = Optional.ofNullable(cursor);
         final int argLimit = Math.min(_maxLimit, Optional.of(MoreObjects.firstNonNull(limit, _maxLimit)).get());
         if (argLimit < 0) {
-            return badRequest("Invalid limit; must be greater than or equal to 0");
+            return CompletableFuture.completedFuture(badRequest("Invalid limit; must be greater than or equal to 0"));
         }
         if (argOffset.isPresent() && argOffset.get() < 0) {
-            return badRequest("Invalid offset; must be greater than or equal to 0");
+            return CompletableFuture.completedFuture(badRequest("Invalid offset; must be greater than or equal to 0"));
+        }
+        if (argCursor.isPresent()) {
+            if (argOffset.isPresent()) {
+                return CompletableFuture.completedFuture(badRequest("Invalid cursor; must not be combined with offset"));
+            }
+            try {
+                QueryCursor.decode(argCursor.get());
+            } catch (final IllegalArgumentException iae) {
+                return CompletableFuture.completedFuture(badRequest("Invalid cursor argument"));
+            }
         }
 
         // Build conditions map
@@ -166,59 +183,93 @@ public class AlertController extends Controller {
                 .service(argService)
                 .cluster(argCluster)
                 .limit(argLimit)
-                .offset(argOffset);
+                .offset(argOffset)
+                .cursor(argCursor);
 
-        // Execute the query
-        final QueryResult<Alert> result;
-        try {
-            result = query.execute();
-            // CHECKSTYLE.OFF: IllegalCatch - Convert any exception to 500
-        } catch (final Exception e) {
-            // CHECKSTYLE.ON: IllegalCatch
-            LOGGER.error()
-                    .setMessage("Alert query failed")
-                    .setThrowable(e)
-                    .log();
-            return internalServerError();
-        }
+        // NOTE: The request is read before the repository is called since the stages complete off the request thread
+        final String path = request().path();
 
-        // Wrap the query results and return as JSON
-        if (result.etag().isPresent()) {
-            response().setHeader(HttpHeaders.ETAG, result.etag().get());
-        }
-        return ok(Json.toJson(new PagedContainer<>(
-                result.values()
-                        .stream()
-                        .map(this::internalModelToViewModel)
-                        .collect(Collectors.toList()),
-                new Pagination(
-                        request().path(),
-                        result.total(),
-                        result.values().size(),
-                        argLimit,
-                        argOffset,
-                        conditions))));
+        // Execute the query
+        return _alertRepository.query(query)
+                .<Result>thenApply(result -> {
+                    // Wrap the query results and return as JSON
+                    final Result response = ok(Json.toJson(new PagedContainer<>(
+                            result.values()
+                                    .stream()
+                                    .map(this::internalModelToViewModel)
+                                    .collect(Collectors.toList()),
+                            new Pagination(
+                                    path,
+                                    result.total(),
+                                    result.values().size(),
+                                    argLimit,
+                                    argOffset,
+                                    result.nextCursor(),
+                                    conditions))));
+                    return result.etag().isPresent() ? response.withHeader(HttpHeaders.ETAG, result.etag().get()) : response;
+                })
+                .exceptionally(throwable -> {
+                    if (isRejected(throwable)) {
+                        return status(SERVICE_UNAVAILABLE);
+                    }
+                    if (argCursor.isPresent() && isInvalidCursor(throwable)) {
+                        return badRequest("Invalid cursor argument");
+                    }
+                    LOGGER.error()
+                            .setMessage("Alert query failed")
+                            .setThrowable(throwable)
+                            .log();
+                    return internalServerError();
+                });
     }
 
     /**
      * Get specific alert.
      *
      * @param id The identifier of the alert.
-     * @return Matching alert.
+     * @return <code>CompletionStage</code> of the <code>Result</code> matching alert.
      */
-    public Result get(final String id) {
+    public CompletionStage<Result> get(final String id) {
         final UUID identifier;
         try {
             identifier = UUID.fromString(id);
         } catch (final IllegalArgumentException e) {
-            return badRequest();
-        }
-        final Optional<Alert> result = _alertRepository.get(identifier, Organization.DEFAULT);
-        if (!result.isPresent()) {
-            return notFound();
+            return CompletableFuture.completedFuture(badRequest());
         }
-        // Return as JSON
-        return ok(Json.toJson(result.get()));
+        return _alertRepository.get(identifier, Organization.DEFAULT)
+                .<Result>thenApply(result -> {
+                    if (!result.isPresent()) {
+                        return notFound();
+                    }
+                    // Return as JSON
+                    return ok(Json.toJson(result.get()));
+                })
+                .exceptionally(throwable -> {
+                    if (isRejected(throwable)) {
+                        return status(SERVICE_UNAVAILABLE);
+                    }
+                    LOGGER.error()
+                            .setMessage("Alert lookup failed")
+                            .setThrowable(throwable)
+                            .log();
+                    return internalServerError();
+                });
+    }
+
+    private static boolean isRejected(final Throwable throwable) {
+        // The repository executor rejects calls while its queue is full
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        return cause instanceof RejectedExecutionException;
+    }
+
+    private static boolean isInvalidCursor(final Throwable throwable) {
+        // A cursor which decodes but does not fit the ordering of the query is rejected by the repository
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        return cause instanceof IllegalArgumentException;
     }
 
     private models.view.Alert internalModelToViewModel(final Alert alert) {
@@ -315,13 +366,13 @@ public class AlertController extends Controller {
         return OBJECT_MAPPER.readValue(jsonBody.toString(), models.view.Alert.class);
     }
 
-    private AlertController(final int maxLimit, final AlertRepository alertRepository) {
+    private AlertController(final int maxLimit, final AsyncAlertRepository alertRepository) {
         _maxLimit = maxLimit;
         _alertRepository = alertRepository;
     }
 
     private final int _maxLimit;
-    private final AlertRepository _alertRepository;
+    private final AsyncAlertRepository _alertRepository;
 
     private static final int DEFAULT_MAX_LIMIT = 1000;
     private static final Logger LOGGER = LoggerFactory.getLogger(AlertController.class);
@@ -16,7 +16,8 @@
 package controllers;
 
 import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
-import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
+import com.arpnetworking.database.QueryCursor;
+import com.arpnetworking.metrics.portal.expressions.AsyncExpressionRepository;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -28,7 +29,6 @@ import com.google.inject.Inject;
 import models.internal.Expression;
 import models.internal.ExpressionQuery;
 import models.internal.Organization;
-import models.internal.QueryResult;
 import models.internal.impl.DefaultExpression;
 import models.view.PagedContainer;
 import models.view.Pagination;
@@ -42,6 +42,10 @@ import java.io.IOException;
 import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.stream.Collectors;
 import javax.inject.Singleton;
 
@@ -57,10 +61,10 @@ public class ExpressionController extends Controller {
      * Public constructor.
      *
      * @param configuration Instance of Play's <code>Configuration</code>.
-     * @param expressionRepository Instance of <code>ExpressionRepository</code>.
+     * @param expressionRepository Instance of <code>AsyncExpressionRepository</code>.
      */
     @Inject
-    public ExpressionController(final Configuration configuration, final ExpressionRepository expressionRepository) {
+    public ExpressionController(final Configuration configuration, final AsyncExpressionRepository expressionRepository) {
         this(configuration.getInt("expression.limit", DEFAULT_MAX_LIMIT), expressionRepository);
     }
 
@@ -69,7 +73,7 @@ public class ExpressionController extends Controller {
      *
      * @return Ok if the alert was created or updated successfully, a failure HTTP status code otherwise.
      */
-    public Result addOrUpdate() {
+    public CompletionStage<Result> addOrUpdate() {
         final Expression expression;
         try {
             final models.view.Expression viewExpression = buildViewExpression(request().body());
@@ -79,21 +83,21 @@ public class ExpressionController extends Controller {
                     .setMessage("Failed to build an expression.")
                     .setThrowable(e)
                     .log();
-            return badRequest("Invalid request body.");
+            return CompletableFuture.completedFuture(badRequest("Invalid request body."));
         }
 
-        try {
-            _expressionRepository.addOrUpdateExpression(expression, Organization.DEFAULT);
-            // CHECKSTYLE.OFF: IllegalCatch - Convert any exception to 500
-        } catch (final Exception e) {
-            // CHECKSTYLE.ON: IllegalCatch
-            LOGGER.error()
-                    .setMessage("Failed to add an expression.")
-                    .setThrowable(e)
-                    .log();
-            return internalServerError();
-        }
-        return ok();
+        return _expressionRepository.addOrUpdateExpression(expression, Organization.DEFAULT)
+                .<Result>thenApply(ignored -> ok())
+                .exceptionally(throwable -> {
+                    if (isRejected(throwable)) {
+                        return status(SERVICE_UNAVAILABLE);
+                    }
+                    LOGGER.error()
+                            .setMessage("Failed to add an expression.")
+                            .setThrowable(throwable)
+                            .log();
+                    return internalServerError();
+                });
     }
 
     /**
@@ -104,15 +108,17 @@ public class ExpressionController extends Controller {
      * @param service The service of the statistic to evaluate as part of the expression. Optional.
      * @param limit The maximum number of results to return. Optional.
      * @param offset The number of results to skip. Optional.
+     * @param cursor The cursor of the next page returned with the previous page. Optional.
      * @return <code>Result</code> paginated matching expressions.
      */
     // CHECKSTYLE.OFF: ParameterNameCheck - Names must match query parameters.
-    public Result query(
+    public CompletionStage<Result> query(
             final String contains,
             final String cluster,
             final String service,
             final Integer limit,
-            final Integer offset) {
+            final Integer offset,
+            final String cursor) {
         // CHECKSTYLE.ON: ParameterNameCheck
 
         // Convert and validate parameters
@@ -120,12 +126,23 @@ public class ExpressionController extends Controller {
         final Optional<String> argCluster = Optional.ofNullable(cluster);
         final Optional<String> argService = Optional.ofNullable(service);
         final Optional<Integer> argOffset = Optional.ofNullable(offset);
+        final Optional<String> argCursor = Optional.ofNullable(cursor);
         final int argLimit = Math.min(_maxLimit, Optional.of(MoreObjects.firstNonNull(limit, _maxLimit)).get());
         if (argLimit < 0) {
-            return badRequest("Invalid limit; must be greater than or equal to 0");
+            return CompletableFuture.completedFuture(badRequest("Invalid limit; must be greater than or equal to 0"));
         }
         if (argOffset.isPresent() && argOffset.get() < 0) {
-            return badRequest("Invalid offset; must be greater than or equal to 0");
+            return CompletableFuture.completedFuture(badRequest("Invalid offset; must be greater than or equal to 0"));
+        }
+        if (argCursor.isPresent()) {
+            if (argOffset.isPresent()) {
+                return CompletableFuture.completedFuture(badRequest("Invalid cursor; must not be combined with offset"));
+            }
+            try {
+                QueryCursor.decode(argCursor.get());
+            } catch (final IllegalArgumentException iae) {
+                return CompletableFuture.completedFuture(badRequest("Invalid cursor argument"));
+            }
         }
 
         // Build conditions map
@@ -146,38 +163,60 @@ public class ExpressionController extends Controller {
                 .service(argService)
                 .cluster(argCluster)
                 .limit(argLimit)
-                .offset(argOffset);
+                .offset(argOffset)
+                .cursor(argCursor);
+
+        // NOTE: The request is read before the repository is called since the stages complete off the request thread
+        final String path = request().path();
 
         // Execute the query
-        final QueryResult<Expression> result;
-        try {
-            result = query.execute();
-            // CHECKSTYLE.OFF: IllegalCatch - Convert any exception to 500
-        } catch (final Exception e) {
-            // CHECKSTYLE.ON: IllegalCatch
-            LOGGER.error()
-                    .setMessage("Expression query failed")
-                    .setThrowable(e)
-                    .log();
-            return internalServerError();
-        }
+        return _expressionRepository.query(query)
+                .<Result>thenApply(result -> {
+                    // Wrap the query results and return as JSON
+                    final Result response = ok(Json.toJson(new PagedContainer<>(
+                            result.values()
+                                    .stream()
+                                    .map(this::internalModelToViewModel)
+                                    .collect(Collectors.toList()),
+                            new Pagination(
+                                    path,
+                                    result.total(),
+                                    result.values().size(),
+                                    argLimit,
+                                    argOffset,
+                                    result.nextCursor(),
+                                    conditions))));
+                    return result.etag().isPresent() ? response.withHeader(HttpHeaders.ETAG, result.etag().get()) : response;
+                })
+                .exceptionally(throwable -> {
+                    if (isRejected(throwable)) {
+                        return status(SERVICE_UNAVAILABLE);
+                    }
+                    if (argCursor.isPresent() && isInvalidCursor(throwable)) {
+                        return badRequest("Invalid cursor argument");
+                    }
+                    LOGGER.error()
+                            .setMessage("Expression query failed")
+                            .setThrowable(throwable)
+                            .log();
+                    return internalServerError();
+                });
+    }
 
-        // Wrap the query results and return as JSON
-        if (result.etag().isPresent()) {
-            response().setHeader(HttpHeaders.ETAG, result.etag().get());
-        }
-        return ok(Json.toJson(new PagedContainer<>(
-                result.values()
-                        .stream()
-                        .map(this::internalModelToViewModel)
-                        .collect(Collectors.toList()),
-                new Pagination(
-                        request().path(),
-                        result.total(),
-                        result.values().size(),
-                        argLimit,
-                        argOffset,
-                        conditions))));
+    private static boolean isRejected(final Throwable throwable) {
+        // The repository executor rejects calls while its queue is full
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        return cause instanceof RejectedExecutionException;
+    }
+
+    private static boolean isInvalidCursor(final Throwable throwable) {
+        // A cursor which decodes but does not fit the ordering of the query is rejected by the repository
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        return cause instanceof IllegalArgumentException;
     }
 
     private models.view.Expression buildViewExpression(final Http.RequestBody body) throws IOException {
@@ -218,30 +257,42 @@ public class ExpressionController extends Controller {
      * Get specific expression.
      *
      * @param id The identifier of the expression.
-     * @return Matching expression.
+     * @return <code>CompletionStage</code> of the <code>Result</code> matching expression.
      */
-    public Result get(final String id) {
+    public CompletionStage<Result> get(final String id) {
         final UUID identifier;
         try {
             identifier = UUID.fromString(id);
         } catch (final IllegalArgumentException e) {
-            return badRequest();
-        }
-        final Optional<Expression> result = _expressionRepository.get(identifier, Organization.DEFAULT);
-        if (!result.isPresent()) {
-            return notFound();
+            return CompletableFuture.completedFuture(badRequest());
         }
-        // Return as JSON
-        return ok(Json.toJson(result.get()));
+        return _expressionRepository.get(identifier, Organization.DEFAULT)
+                .<Result>thenApply(result -> {
+                    if (!result.isPresent()) {
+                        return notFound();
+                    }
+                    // Return as JSON
+                    return ok(Json.toJson(result.get()));
+                })
+                .exceptionally(throwable -> {
+                    if (isRejected(throwable)) {
+                        return status(SERVICE_UNAVAILABLE);
+                    }
+                    LOGGER.error()
+                            .setMessage("Expression lookup failed")
+                            .setThrowable(throwable)
+                            .log();
+                    return internalServerError();
+                });
     }
 
-    private ExpressionController(final int maxLimit, final ExpressionRepository expressionRepository) {
+    private ExpressionController(final int maxLimit, final AsyncExpressionRepository expressionRepository) {
         _maxLimit = maxLimit;
         _expressionRepository = expressionRepository;
     }
 
     private final int _maxLimit;
-    private final ExpressionRepository _expressionRepository;
+    private final AsyncExpressionRepository _expressionRepository;
 
     private static final int DEFAULT_MAX_LIMIT = 1000;
     private static final Logger LOGGER = LoggerFactory.getLogger(ExpressionController.class);
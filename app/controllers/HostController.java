@@ -16,7 +16,18 @@
 package controllers;
 
 
-import com.arpnetworking.metrics.portal.hosts.HostRepository;
+import akka.NotUsed;
+import akka.actor.ActorRef;
+import akka.cluster.pubsub.DistributedPubSubMediator;
+import akka.japi.Pair;
+import akka.japi.pf.PFBuilder;
+import akka.stream.BufferOverflowException;
+import akka.stream.OverflowStrategy;
+import akka.stream.javadsl.Source;
+import akka.util.ByteString;
+import com.arpnetworking.database.QueryCursor;
+import com.arpnetworking.metrics.portal.hosts.AsyncHostRepository;
+import com.arpnetworking.metrics.portal.hosts.HostChange;
 import com.arpnetworking.steno.Logger;
 import com.arpnetworking.steno.LoggerFactory;
 import com.google.common.base.MoreObjects;
@@ -24,20 +35,33 @@ import com.google.common.collect.Maps;
 import com.google.common.net.HttpHeaders;
 import com.google.inject.Inject;
 import models.internal.Host;
+import models.internal.HostFacet;
 import models.internal.HostQuery;
 import models.internal.MetricsSoftwareState;
 import models.internal.Organization;
-import models.internal.QueryResult;
 import models.view.PagedContainer;
 import models.view.Pagination;
 import play.Configuration;
+import play.libs.EventSource;
 import play.libs.Json;
 import play.mvc.Controller;
+import play.mvc.Http;
 import play.mvc.Result;
+import scala.concurrent.duration.FiniteDuration;
 
+import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import javax.inject.Named;
 import javax.inject.Singleton;
 
 /**
@@ -52,11 +76,19 @@ public class HostController extends Controller {
      * Public constructor.
      *
      * @param configuration Instance of Play's <code>Configuration</code>.
-     * @param hostRepository Instance of <code>HostRepository</code>.
+     * @param hostRepository Instance of <code>AsyncHostRepository</code>.
+     * @param mediator The distributed pub-sub mediator host changes are published to.
      */
     @Inject
-    public HostController(final Configuration configuration, final HostRepository hostRepository) {
-        this(configuration.getInt("hosts.limit", MAX_LIMIT), hostRepository);
+    public HostController(
+            final Configuration configuration,
+            final AsyncHostRepository hostRepository,
+            @Named("DistributedPubSubMediator") final ActorRef mediator) {
+        this(
+                configuration.getInt("hosts.limit", MAX_LIMIT),
+                configuration.getInt("hosts.stream.bufferSize", STREAM_BUFFER_SIZE),
+                hostRepository,
+                mediator);
     }
 
     /**
@@ -67,16 +99,18 @@ public class HostController extends Controller {
      * @param cluster The name of the cluster for the host. Optional.
      * @param limit The maximum number of results to return. Optional.
      * @param offset The number of results to skip. Optional.
+     * @param cursor The cursor of the next page returned with the previous page. Optional.
      * @param sort_by The field to sort results by. Optional.
-     * @return <code>Result</code> paginated matching hosts.
+     * @return <code>CompletionStage</code> of the <code>Result</code> paginated matching hosts.
      */
     // CHECKSTYLE.OFF: ParameterNameCheck - Names must match query parameters.
-    public Result query(
+    public CompletionStage<Result> query(
             final String name,
             final String state,
             final String cluster,
             final Integer limit,
             final Integer offset,
+            final String cursor,
             final String sort_by) {
         // CHECKSTYLE.ON: ParameterNameCheck
 
@@ -85,25 +119,36 @@ public class HostController extends Controller {
         try {
             stateValue = state == null ? null : MetricsSoftwareState.valueOf(state);
         } catch (final IllegalArgumentException iae) {
-            return badRequest("Invalid state argument");
+            return CompletableFuture.completedFuture(badRequest("Invalid state argument"));
         }
         final HostQuery.Field sortByValue;
         try {
             sortByValue = sort_by == null ? null : HostQuery.Field.valueOf(sort_by);
         } catch (final IllegalArgumentException iae) {
-            return badRequest("Invalid sort_by argument");
+            return CompletableFuture.completedFuture(badRequest("Invalid sort_by argument"));
         }
         final Optional<String> argName = Optional.ofNullable(name);
         final Optional<MetricsSoftwareState> argState = Optional.ofNullable(stateValue);
         final Optional<String> argCluster = Optional.ofNullable(cluster);
         final Optional<Integer> argOffset = Optional.ofNullable(offset);
+        final Optional<String> argCursor = Optional.ofNullable(cursor);
         final Optional<HostQuery.Field> argSortBy = Optional.ofNullable(sortByValue);
         final int argLimit = Math.min(_maxLimit, Optional.of(MoreObjects.firstNonNull(limit, _maxLimit)).get());
         if (argLimit < 0) {
-            return badRequest("Invalid limit; must be greater than or equal to 0");
+            return CompletableFuture.completedFuture(badRequest("Invalid limit; must be greater than or equal to 0"));
         }
         if (argOffset.isPresent() && argOffset.get() < 0) {
-            return badRequest("Invalid offset; must be greater than or equal to 0");
+            return CompletableFuture.completedFuture(badRequest("Invalid offset; must be greater than or equal to 0"));
+        }
+        if (argCursor.isPresent()) {
+            if (argOffset.isPresent()) {
+                return CompletableFuture.completedFuture(badRequest("Invalid cursor; must not be combined with offset"));
+            }
+            try {
+                QueryCursor.decode(argCursor.get());
+            } catch (final IllegalArgumentException iae) {
+                return CompletableFuture.completedFuture(badRequest("Invalid cursor argument"));
+            }
         }
 
         // Build conditions map
@@ -128,47 +173,204 @@ public class HostController extends Controller {
                 .cluster(argCluster)
                 .limit(argLimit)
                 .offset(argOffset)
+                .cursor(argCursor)
                 .sortBy(argSortBy);
 
-        // Execute the query
-        return executeQuery(argOffset, argLimit, conditions, query);
+        // NOTE: The request is read before the repository is called since the stages complete off the request thread
+        final String path = request().path();
+        final String ifNoneMatch = request().getHeader(HttpHeaders.IF_NONE_MATCH);
+
+        // Short circuit if the client already has the current state of the hosts
+        final CompletionStage<Result> response;
+        if (ifNoneMatch != null) {
+            response = _hostRepository.getEtag(Organization.DEFAULT)
+                    .<Result>thenCompose(etag -> {
+                        if (etag.isPresent() && isMatch(ifNoneMatch, etag.get())) {
+                            return CompletableFuture.completedFuture(status(NOT_MODIFIED).withHeader(HttpHeaders.ETAG, etag.get()));
+                        }
+                        return executeQuery(path, argOffset, argLimit, conditions, query);
+                    });
+        } else {
+            response = executeQuery(path, argOffset, argLimit, conditions, query);
+        }
+        return response.exceptionally(throwable -> {
+            if (isRejected(throwable)) {
+                return status(SERVICE_UNAVAILABLE);
+            }
+            if (argCursor.isPresent() && isInvalidCursor(throwable)) {
+                return badRequest("Invalid cursor argument");
+            }
+            LOGGER.error()
+                    .setMessage("Host query failed")
+                    .setThrowable(throwable)
+                    .log();
+            return internalServerError();
+        });
+    }
+
+    /**
+     * Export all matching hosts as newline delimited JSON. The hosts are
+     * streamed from the repository as the response is written so that the
+     * export is not limited by the maximum page size.
+     *
+     * @param name The complete or partial name of the host. Optional.
+     * @param state The state of the metrics software on the host. Optional.
+     * @param cluster The name of the cluster for the host. Optional.
+     * @return <code>Result</code> chunked matching hosts.
+     */
+    public Result export(
+            final String name,
+            final String state,
+            final String cluster) {
+
+        // Convert and validate parameters
+        final MetricsSoftwareState stateValue;
+        try {
+            stateValue = state == null ? null : MetricsSoftwareState.valueOf(state);
+        } catch (final IllegalArgumentException iae) {
+            return badRequest("Invalid state argument");
+        }
+
+        // Build a host repository query
+        final HostQuery query = _hostRepository.createQuery(Organization.DEFAULT)
+                .partialHostname(Optional.ofNullable(name))
+                .metricsSoftwareState(Optional.ofNullable(stateValue))
+                .cluster(Optional.ofNullable(cluster));
+
+        // Stream the hosts; the repository stream is opened on materialization and closed on completion or cancellation
+        final Source<ByteString, ?> source = Source.<Pair<Stream<Host>, Iterator<Host>>, Host>unfoldResource(
+                () -> {
+                    final Stream<Host> hosts = _hostRepository.export(query);
+                    return Pair.create(hosts, hosts.iterator());
+                },
+                hosts -> hosts.second().hasNext() ? Optional.of(hosts.second().next()) : Optional.empty(),
+                hosts -> hosts.first().close())
+                .map(host -> ByteString.fromString(Json.stringify(Json.toJson(internalModelToViewModel(host))) + "\n"));
+        return ok().chunked(source).as(NDJSON_CONTENT_TYPE);
     }
 
-    private Result executeQuery(
+    /**
+     * Count hosts grouped by cluster and metrics software state. Hosts without
+     * a cluster are counted under a null cluster.
+     *
+     * @return <code>CompletionStage</code> of the <code>Result</code> non-empty host facets.
+     */
+    public CompletionStage<Result> facets() {
+        return _hostRepository.getHostFacets(Organization.DEFAULT)
+                .<Result>thenApply(facets -> ok(Json.toJson(facets.stream()
+                        .map(this::internalModelToViewModel)
+                        .collect(Collectors.toList()))))
+                .exceptionally(throwable -> {
+                    if (isRejected(throwable)) {
+                        return status(SERVICE_UNAVAILABLE);
+                    }
+                    LOGGER.error()
+                            .setMessage("Host facets failed")
+                            .setThrowable(throwable)
+                            .log();
+                    return internalServerError();
+                });
+    }
+
+    /**
+     * Stream changes to the hosts as server-sent events. Each added or updated
+     * host is sent as an <code>updated</code> event and each deleted host as a
+     * <code>deleted</code> event. The changes are published by whichever node
+     * writes to the host repository and are received on every node.
+     *
+     * Clients should open the stream before querying the hosts so that no
+     * change is missed between the two. Changes are buffered for each client;
+     * a client which falls further behind than the buffer is sent a
+     * <code>resync</code> event and the stream is completed, after which the
+     * client should reconnect and query the hosts again.
+     *
+     * @return <code>Result</code> stream of host changes.
+     */
+    public Result stream() {
+        final UUID organizationId = Organization.DEFAULT.getId();
+        final Source<EventSource.Event, ?> events = Source.<Object>actorRef(_streamBufferSize, OverflowStrategy.fail())
+                .mapMaterializedValue(subscriber -> {
+                    // The mediator watches the subscriber and removes the subscription when the stream ends
+                    _mediator.tell(new DistributedPubSubMediator.Subscribe(HostChange.TOPIC, subscriber), ActorRef.noSender());
+                    return NotUsed.getInstance();
+                })
+                .filter(message -> message instanceof HostChange)
+                .map(message -> (HostChange) message)
+                .filter(change -> organizationId.equals(change.getOrganizationId()))
+                .map(change -> EventSource.Event.event(Json.toJson(internalModelToViewModel(change)))
+                        .withName(change.getType().name().toLowerCase(Locale.ENGLISH)))
+                .recover(new PFBuilder<Throwable, EventSource.Event>()
+                        .match(BufferOverflowException.class, e -> {
+                            LOGGER.warn()
+                                    .setMessage("Host change stream fell behind; requesting resync")
+                                    .addData("bufferSize", _streamBufferSize)
+                                    .log();
+                            return EventSource.Event.event("").withName(RESYNC_EVENT);
+                        })
+                        .build())
+                .keepAlive(KEEP_ALIVE_INTERVAL, () -> EventSource.Event.event("").withName(KEEP_ALIVE_EVENT));
+        return ok().chunked(events.via(EventSource.flow())).as(Http.MimeTypes.EVENT_STREAM);
+    }
+
+    private CompletionStage<Result> executeQuery(
+            final String path,
             final Optional<Integer> argOffset,
             final int argLimit,
             final Map<String, String> conditions,
             final HostQuery query) {
+        return _hostRepository.query(query).thenApply(result -> {
+            // Wrap the query results and return as JSON
+            final Result response = ok(Json.toJson(new PagedContainer<>(
+                    result.values()
+                            .stream()
+                            .map(this::internalModelToViewModel)
+                            .collect(Collectors.toList()),
+                    new Pagination(
+                            path,
+                            result.total(),
+                            result.values().size(),
+                            argLimit,
+                            argOffset,
+                            result.nextCursor(),
+                            conditions))));
+            return result.etag().isPresent() ? response.withHeader(HttpHeaders.ETAG, result.etag().get()) : response;
+        });
+    }
 
-        final QueryResult<Host> result;
-        try {
-            result = _hostRepository.query(query);
-            // CHECKSTYLE.OFF: IllegalCatch - Convert any exception to 500
-        } catch (final Exception e) {
-            // CHECKSTYLE.ON: IllegalCatch
-            LOGGER.error()
-                    .setMessage("Host query failed")
-                    .setThrowable(e)
-                    .log();
-            return internalServerError();
-        }
+    private static boolean isRejected(final Throwable throwable) {
+        // The repository executor rejects calls while its queue is full
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        return cause instanceof RejectedExecutionException;
+    }
+
+    private static boolean isInvalidCursor(final Throwable throwable) {
+        // A cursor which decodes but does not fit the ordering of the query is rejected by the repository
+        final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                ? throwable.getCause()
+                : throwable;
+        return cause instanceof IllegalArgumentException;
+    }
 
-        // Wrap the query results and return as JSON
-        if (result.etag().isPresent()) {
-            response().setHeader(HttpHeaders.ETAG, result.etag().get());
+    // NOTE: Package private for testing
+    /* package private */ static boolean isMatch(final String ifNoneMatch, final String etag) {
+        for (final String entityTag : ifNoneMatch.split(",")) {
+            String value = entityTag.trim();
+            if ("*".equals(value)) {
+                return true;
+            }
+            if (value.startsWith("W/")) {
+                value = value.substring(2);
+            }
+            if (value.length() >= 2 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            if (etag.equals(value)) {
+                return true;
+            }
         }
-        return ok(Json.toJson(new PagedContainer<>(
-                result.values()
-                        .stream()
-                        .map(this::internalModelToViewModel)
-                        .collect(Collectors.toList()),
-                new Pagination(
-                        request().path(),
-                        result.total(),
-                        result.values().size(),
-                        argLimit,
-                        argOffset,
-                        conditions))));
+        return false;
     }
 
     private models.view.Host internalModelToViewModel(final Host host) {
@@ -179,14 +381,43 @@ public class HostController extends Controller {
         return viewHost;
     }
 
-    private HostController(final int maxLimit, final HostRepository hostRepository) {
+    private models.view.Host internalModelToViewModel(final HostChange change) {
+        final models.view.Host viewHost = new models.view.Host();
+        viewHost.setCluster(change.getCluster().orElse(null));
+        viewHost.setHostname(change.getHostname());
+        viewHost.setMetricsSoftwareState(change.getMetricsSoftwareState().map(Object::toString).orElse(null));
+        return viewHost;
+    }
+
+    private models.view.HostFacet internalModelToViewModel(final HostFacet facet) {
+        final models.view.HostFacet viewFacet = new models.view.HostFacet();
+        viewFacet.setCluster(facet.getCluster().orElse(null));
+        viewFacet.setMetricsSoftwareState(facet.getMetricsSoftwareState().toString());
+        viewFacet.setCount(facet.getCount());
+        return viewFacet;
+    }
+
+    private HostController(
+            final int maxLimit,
+            final int streamBufferSize,
+            final AsyncHostRepository hostRepository,
+            final ActorRef mediator) {
         _maxLimit = maxLimit;
+        _streamBufferSize = streamBufferSize;
         _hostRepository = hostRepository;
+        _mediator = mediator;
     }
 
     private final int _maxLimit;
-    private final HostRepository _hostRepository;
+    private final int _streamBufferSize;
+    private final AsyncHostRepository _hostRepository;
+    private final ActorRef _mediator;
 
     private static final int MAX_LIMIT = 1000;
+    private static final int STREAM_BUFFER_SIZE = 256;
+    private static final FiniteDuration KEEP_ALIVE_INTERVAL = FiniteDuration.create(30, TimeUnit.SECONDS);
+    private static final String RESYNC_EVENT = "resync";
+    private static final String KEEP_ALIVE_EVENT = "keepalive";
+    private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
     private static final Logger LOGGER = LoggerFactory.getLogger(HostController.class);
 }
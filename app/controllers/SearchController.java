@@ -0,0 +1,92 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package controllers;
+
+import com.arpnetworking.metrics.portal.search.SearchIndex;
+import com.google.common.base.MoreObjects;
+import com.google.inject.Inject;
+import models.internal.Organization;
+import models.internal.Suggestion;
+import play.Configuration;
+import play.libs.Json;
+import play.mvc.Controller;
+import play.mvc.Result;
+
+import java.util.stream.Collectors;
+import javax.inject.Singleton;
+
+/**
+ * Metrics portal search controller. Exposes typeahead suggestions across
+ * host names, clusters, services, alert names and metrics.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Singleton
+public class SearchController extends Controller {
+
+    /**
+     * Public constructor.
+     *
+     * @param configuration Instance of Play's <code>Configuration</code>.
+     * @param searchIndex Instance of <code>SearchIndex</code>.
+     */
+    @Inject
+    public SearchController(final Configuration configuration, final SearchIndex searchIndex) {
+        this(configuration.getInt("search.limit", MAX_LIMIT), searchIndex);
+    }
+
+    /**
+     * Suggest completions of a prefix. The suggestions are served from the
+     * in-process search index without accessing the repositories.
+     *
+     * @param q The prefix to complete.
+     * @param limit The maximum number of suggestions to return. Optional.
+     * @return <code>Result</code> ranked suggestions.
+     */
+    public Result search(final String q, final Integer limit) {
+        if (q == null || q.isEmpty()) {
+            return badRequest("Missing q argument");
+        }
+        final int argLimit = Math.min(_maxLimit, MoreObjects.firstNonNull(limit, DEFAULT_LIMIT));
+        if (argLimit < 0) {
+            return badRequest("Invalid limit; must be greater than or equal to 0");
+        }
+
+        return ok(Json.toJson(_searchIndex.suggest(q, argLimit, Organization.DEFAULT)
+                .stream()
+                .map(this::internalModelToViewModel)
+                .collect(Collectors.toList())));
+    }
+
+    private models.view.Suggestion internalModelToViewModel(final Suggestion suggestion) {
+        final models.view.Suggestion viewSuggestion = new models.view.Suggestion();
+        viewSuggestion.setType(suggestion.getType().toString());
+        viewSuggestion.setValue(suggestion.getValue());
+        viewSuggestion.setWeight(suggestion.getWeight());
+        return viewSuggestion;
+    }
+
+    private SearchController(final int maxLimit, final SearchIndex searchIndex) {
+        _maxLimit = maxLimit;
+        _searchIndex = searchIndex;
+    }
+
+    private final int _maxLimit;
+    private final SearchIndex _searchIndex;
+
+    private static final int DEFAULT_LIMIT = 10;
+    private static final int MAX_LIMIT = 100;
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package global;
+
+import com.arpnetworking.logback.annotations.LogValue;
+import com.arpnetworking.steno.LogValueMapFactory;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executor which rejects tasks with a <code>RejectedExecutionException</code>
+ * once the configured number of tasks are queued or running on the wrapped
+ * executor. An Akka dispatcher with a full bounded queue runs the task on the
+ * submitting thread instead of rejecting it, which would block the threads
+ * serving requests.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+/* package private */ final class BoundedExecutor implements Executor {
+
+    /**
+     * Package private constructor.
+     *
+     * @param executor The <code>Executor</code> to execute tasks on.
+     * @param capacity The maximum number of queued or running tasks.
+     */
+    /* package private */ BoundedExecutor(final Executor executor, final int capacity) {
+        _executor = executor;
+        _capacity = Math.max(1, capacity);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+        if (_pending.incrementAndGet() > _capacity) {
+            _pending.decrementAndGet();
+            throw new RejectedExecutionException("Executor is at capacity; capacity=" + _capacity);
+        }
+        try {
+            _executor.execute(() -> {
+                try {
+                    command.run();
+                } finally {
+                    _pending.decrementAndGet();
+                }
+            });
+        } catch (final RejectedExecutionException e) {
+            _pending.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Generate a Steno log compatible representation.
+     *
+     * @return Steno log compatible representation.
+     */
+    @LogValue
+    public Object toLogValue() {
+        return LogValueMapFactory.builder(this)
+                .put("executor", _executor)
+                .put("capacity", _capacity)
+                .put("pending", _pending.get())
+                .build();
+    }
+
+    @Override
+    public String toString() {
+        return toLogValue().toString();
+    }
+
+    private final Executor _executor;
+    private final int _capacity;
+    private final AtomicInteger _pending = new AtomicInteger();
+}
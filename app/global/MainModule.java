@@ -21,6 +21,9 @@ import akka.actor.ActorSystem;
 import akka.actor.PoisonPill;
 import akka.actor.Props;
 import akka.cluster.Cluster;
+import akka.cluster.pubsub.DistributedPubSub;
+import akka.cluster.sharding.ClusterSharding;
+import akka.cluster.sharding.ClusterShardingSettings;
 import akka.cluster.singleton.ClusterSingletonManager;
 import akka.cluster.singleton.ClusterSingletonManagerSettings;
 import com.arpnetworking.commons.akka.GuiceActorCreator;
@@ -32,7 +35,18 @@ import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
 import com.arpnetworking.metrics.portal.health.HealthProvider;
 import com.arpnetworking.metrics.portal.hosts.HostRepository;
 import com.arpnetworking.metrics.portal.hosts.impl.HostProviderFactory;
+import com.arpnetworking.metrics.portal.hosts.impl.MultiProvider;
+import com.arpnetworking.metrics.portal.hosts.impl.PublishingHostRepository;
+import com.arpnetworking.metrics.portal.hosts.impl.ShardedHostProvider;
+import com.arpnetworking.metrics.portal.hosts.impl.ShardedHostProviderKeeper;
+import com.arpnetworking.metrics.portal.search.IndexedAlertRepository;
+import com.arpnetworking.metrics.portal.search.IndexedExpressionRepository;
+import com.arpnetworking.metrics.portal.search.IndexedHostRepository;
+import com.arpnetworking.metrics.portal.search.SearchIndex;
+import com.arpnetworking.metrics.portal.search.SearchIndexUpdater;
 import com.arpnetworking.play.configuration.ConfigurationHelper;
+import com.arpnetworking.steno.Logger;
+import com.arpnetworking.steno.LoggerFactory;
 import com.datastax.driver.core.CodecRegistry;
 import com.datastax.driver.extras.codecs.enums.EnumNameCodec;
 import com.datastax.driver.extras.codecs.joda.InstantCodec;
@@ -45,6 +59,7 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import models.internal.Context;
 import models.internal.Features;
 import models.internal.Operator;
+import models.internal.Organization;
 import models.internal.impl.DefaultFeatures;
 import play.Configuration;
 import play.Environment;
@@ -53,6 +68,7 @@ import play.inject.ApplicationLifecycle;
 import java.net.URI;
 import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
@@ -82,6 +98,10 @@ public class MainModule extends AbstractModule {
         bind(ExpressionRepository.class)
                 .toProvider(ExpressionRepositoryProvider.class)
                 .asEagerSingleton();
+        bind(ActorRef.class)
+                .annotatedWith(Names.named("SearchIndexUpdater"))
+                .toProvider(SearchIndexUpdaterProvider.class)
+                .asEagerSingleton();
         bind(ActorRef.class)
                 .annotatedWith(Names.named("HostProviderScheduler"))
                 .toProvider(HostProviderProvider.class)
@@ -111,6 +131,35 @@ public class MainModule extends AbstractModule {
                 .build();
     }
 
+    @Provides
+    @Singleton
+    @Named("RepositoryExecutor")
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private Executor getRepositoryExecutor(@Named("RepositoryDispatcher") final Executor dispatcher, final Configuration configuration) {
+        // Calls beyond the threads and the queue of the dispatcher are rejected so that the controllers answer 503
+        return new BoundedExecutor(
+                dispatcher,
+                configuration.getInt(REPOSITORY_DISPATCHER + ".thread-pool-executor.fixed-pool-size")
+                        + configuration.getInt(REPOSITORY_DISPATCHER + ".thread-pool-executor.task-queue-size"));
+    }
+
+    @Provides
+    @Singleton
+    @Named("RepositoryDispatcher")
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private Executor getRepositoryDispatcher(final ActorSystem system) {
+        // The repository calls of the controllers block on the store; the dispatcher is sized to the database connection pool
+        return system.dispatchers().lookup(REPOSITORY_DISPATCHER);
+    }
+
+    @Provides
+    @Singleton
+    @Named("DistributedPubSubMediator")
+    @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
+    private ActorRef getDistributedPubSubMediator(final ActorSystem system) {
+        return DistributedPubSub.get(system).mediator();
+    }
+
     @Provides
     @Singleton
     @SuppressFBWarnings("UPM_UNCALLED_PRIVATE_METHOD") // Invoked reflectively by Guice
@@ -128,6 +177,22 @@ public class MainModule extends AbstractModule {
         return registry;
     }
 
+    private static void loadSearchIndex(final String source, final Runnable load, final Executor executor) {
+        // Startup does not wait for the load; until it completes the suggestions only cover the values indexed so far
+        CompletableFuture.runAsync(load, executor).whenComplete((ignored, throwable) -> {
+            if (throwable != null) {
+                LOGGER.error()
+                        .setMessage("Failed to load search index")
+                        .addData("source", source)
+                        .setThrowable(throwable)
+                        .log();
+            }
+        });
+    }
+
+    private static final String REPOSITORY_DISPATCHER = "repository-dispatcher";
+    private static final Logger LOGGER = LoggerFactory.getLogger(MainModule.class);
+
     private static final class HealthProviderProvider implements Provider<HealthProvider> {
 
         @Inject
@@ -158,11 +223,17 @@ public class MainModule extends AbstractModule {
                 final Injector injector,
                 final Environment environment,
                 final Configuration configuration,
-                final ApplicationLifecycle lifecycle) {
+                final ApplicationLifecycle lifecycle,
+                final SearchIndex searchIndex,
+                @Named("RepositoryDispatcher") final Executor executor,
+                @Named("DistributedPubSubMediator") final ActorRef mediator) {
             _injector = injector;
             _environment = environment;
             _configuration = configuration;
             _lifecycle = lifecycle;
+            _searchIndex = searchIndex;
+            _executor = executor;
+            _mediator = mediator;
         }
 
         @Override
@@ -175,13 +246,21 @@ public class MainModule extends AbstractModule {
                         hostRepository.close();
                         return CompletableFuture.completedFuture(null);
                     });
-            return hostRepository;
+
+            // The search index is loaded from the repository once and then maintained from the writes to it
+            loadSearchIndex("hosts", () -> _searchIndex.loadHosts(hostRepository, Organization.DEFAULT), _executor);
+
+            // Writes are published to the cluster so that the host change streams on every node see them
+            return new PublishingHostRepository(new IndexedHostRepository(hostRepository, _searchIndex), _mediator);
         }
 
         private final Injector _injector;
         private final Environment _environment;
         private final Configuration _configuration;
         private final ApplicationLifecycle _lifecycle;
+        private final SearchIndex _searchIndex;
+        private final Executor _executor;
+        private final ActorRef _mediator;
     }
 
     private static final class ExpressionRepositoryProvider implements Provider<ExpressionRepository> {
@@ -191,11 +270,15 @@ public class MainModule extends AbstractModule {
                 final Injector injector,
                 final Environment environment,
                 final Configuration configuration,
-                final ApplicationLifecycle lifecycle) {
+                final ApplicationLifecycle lifecycle,
+                final SearchIndex searchIndex,
+                @Named("RepositoryDispatcher") final Executor executor) {
             _injector = injector;
             _environment = environment;
             _configuration = configuration;
             _lifecycle = lifecycle;
+            _searchIndex = searchIndex;
+            _executor = executor;
         }
 
         @Override
@@ -208,13 +291,17 @@ public class MainModule extends AbstractModule {
                         expressionRepository.close();
                         return CompletableFuture.completedFuture(null);
                     });
-            return expressionRepository;
+
+            loadSearchIndex("expressions", () -> _searchIndex.loadExpressions(expressionRepository, Organization.DEFAULT), _executor);
+            return new IndexedExpressionRepository(expressionRepository, _searchIndex);
         }
 
         private final Injector _injector;
         private final Environment _environment;
         private final Configuration _configuration;
         private final ApplicationLifecycle _lifecycle;
+        private final SearchIndex _searchIndex;
+        private final Executor _executor;
     }
 
     private static final class AlertRepositoryProvider implements Provider<AlertRepository> {
@@ -224,11 +311,15 @@ public class MainModule extends AbstractModule {
                 final Injector injector,
                 final Environment environment,
                 final Configuration configuration,
-                final ApplicationLifecycle lifecycle) {
+                final ApplicationLifecycle lifecycle,
+                final SearchIndex searchIndex,
+                @Named("RepositoryDispatcher") final Executor executor) {
             _injector = injector;
             _environment = environment;
             _configuration = configuration;
             _lifecycle = lifecycle;
+            _searchIndex = searchIndex;
+            _executor = executor;
         }
 
         @Override
@@ -241,13 +332,17 @@ public class MainModule extends AbstractModule {
                         alertRepository.close();
                         return CompletableFuture.completedFuture(null);
                     });
-            return alertRepository;
+
+            loadSearchIndex("alerts", () -> _searchIndex.loadAlerts(alertRepository, Organization.DEFAULT), _executor);
+            return new IndexedAlertRepository(alertRepository, _searchIndex);
         }
 
         private final Injector _injector;
         private final Environment _environment;
         private final Configuration _configuration;
         private final ApplicationLifecycle _lifecycle;
+        private final SearchIndex _searchIndex;
+        private final Executor _executor;
     }
 
     private static final class HostProviderProvider implements Provider<ActorRef> {
@@ -255,29 +350,74 @@ public class MainModule extends AbstractModule {
         public HostProviderProvider(
                 final ActorSystem system,
                 @Named("HostProviderProps")
-                final Props hostProviderProps) {
+                final Props hostProviderProps,
+                final HostProviderFactory hostProviderFactory,
+                final Environment environment,
+                final Configuration configuration) {
             _system = system;
             _hostProviderProps = hostProviderProps;
+            _hostProviderFactory = hostProviderFactory;
+            _environment = environment;
+            _configuration = configuration;
         }
 
         @Override
         public ActorRef get() {
             final Cluster cluster = Cluster.get(_system);
-            // Start a singleton instance of the scheduler on a "host_indexer" node in the cluster.
-            if (cluster.selfRoles().contains(INDEXER_ROLE)) {
+            if (!cluster.selfRoles().contains(INDEXER_ROLE)) {
+                return null;
+            }
+            if (_configuration.getBoolean("hostProviderSharding.enabled", false)) {
+                // Distribute the host providers across the "host_indexer" nodes; the singleton keeps them running and merges them
+                final Configuration hostProviderConfiguration = _configuration.getConfig("hostProvider");
+                final ActorRef region = ClusterSharding.get(_system).start(
+                        SHARDING_TYPE_NAME,
+                        _hostProviderFactory.create(hostProviderConfiguration, ShardedHostProvider.class),
+                        ClusterShardingSettings.create(_system).withRole(INDEXER_ROLE),
+                        new ShardedHostProvider.MessageExtractor(_configuration.getInt("hostProviderSharding.shardCount")));
                 return _system.actorOf(ClusterSingletonManager.props(
-                                _hostProviderProps,
+                                ShardedHostProviderKeeper.props(
+                                        region,
+                                        ShardedHostProvider.getProviderConfigurations(_environment, hostProviderConfiguration).keySet(),
+                                        ConfigurationHelper.getFiniteDuration(_configuration, "hostProviderSharding.keepAliveInterval"),
+                                        ShardedHostProvider.getMergerConfiguration(_environment, hostProviderConfiguration)
+                                                .map(merger -> _hostProviderFactory.create(merger, MultiProvider.class))),
                                 PoisonPill.getInstance(),
                                 ClusterSingletonManagerSettings.create(_system).withRole(INDEXER_ROLE)),
                         "host-provider-scheduler");
             }
-            return null;
+            // Start a singleton instance of the scheduler on a "host_indexer" node in the cluster.
+            return _system.actorOf(ClusterSingletonManager.props(
+                            _hostProviderProps,
+                            PoisonPill.getInstance(),
+                            ClusterSingletonManagerSettings.create(_system).withRole(INDEXER_ROLE)),
+                    "host-provider-scheduler");
         }
 
         private final ActorSystem _system;
         private final Props _hostProviderProps;
+        private final HostProviderFactory _hostProviderFactory;
+        private final Environment _environment;
+        private final Configuration _configuration;
 
         private static final String INDEXER_ROLE = "host_indexer";
+        private static final String SHARDING_TYPE_NAME = "host-provider";
+    }
+
+    private static final class SearchIndexUpdaterProvider implements Provider<ActorRef> {
+        @Inject
+        public SearchIndexUpdaterProvider(final Injector injector, final ActorSystem system) {
+            _injector = injector;
+            _system = system;
+        }
+
+        @Override
+        public ActorRef get() {
+            return _system.actorOf(GuiceActorCreator.props(_injector, SearchIndexUpdater.class), "search-index-updater");
+        }
+
+        private final Injector _injector;
+        private final ActorSystem _system;
     }
 
     private static final class JvmMetricsCollectorProvider implements Provider<ActorRef> {
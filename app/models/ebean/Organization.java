@@ -21,6 +21,8 @@ import com.avaje.ebean.annotation.UpdatedTimestamp;
 
 import java.sql.Timestamp;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.persistence.Column;
@@ -76,6 +78,45 @@ public class Organization extends Model {
         return org;
     }
 
+    /**
+     * Returns an {@link Organization} by reference when given an {@link models.internal.Organization}. The mapping
+     * from uuid to primary key is cached in-process because organizations are rarely changed, so only the first
+     * lookup for each organization queries the database. Use {@link #invalidateCache(UUID)} or
+     * {@link #invalidateCache()} after modifying or deleting organizations.
+     *
+     * @param organization The organization to lookup.
+     * @return The {@link Organization} reference or null if the organization does not exist.
+     */
+    @Nullable
+    public static Organization refByOrganization(@Nonnull final models.internal.Organization organization) {
+        Long id = ID_BY_UUID.get(organization.getId());
+        if (id == null) {
+            final Organization org = findByOrganization(organization);
+            if (org == null) {
+                return null;
+            }
+            id = org.getId();
+            ID_BY_UUID.put(organization.getId(), id);
+        }
+        return refById(id);
+    }
+
+    /**
+     * Remove the cached primary key of an organization.
+     *
+     * @param uuid The uuid of the organization.
+     */
+    public static void invalidateCache(final UUID uuid) {
+        ID_BY_UUID.remove(uuid);
+    }
+
+    /**
+     * Remove the cached primary keys of all organizations.
+     */
+    public static void invalidateCache() {
+        ID_BY_UUID.clear();
+    }
+
     /**
      * Returns an {@link Organization} by reference. This defers all database operations until a field besides id is
      * requested.
@@ -128,5 +169,6 @@ public class Organization extends Model {
     }
 
     private static final Finder<Long, Organization> FINDER = new Finder<>(Organization.class);
+    private static final ConcurrentMap<UUID, Long> ID_BY_UUID = new ConcurrentHashMap<>();
 }
 // CHECKSTYLE.ON: MemberNameCheck
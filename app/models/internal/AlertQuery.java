@@ -72,6 +72,15 @@ public interface AlertQuery {
      */
     AlertQuery offset(final Optional<Integer> offset);
 
+    /**
+     * The cursor returned with the previous page of results. Optional. Default is not set. A cursor seeks directly
+     * to the next page and may not be combined with an offset. Repositories which do not return cursors ignore it.
+     *
+     * @param cursor The opaque cursor from the previous page.
+     * @return This instance of <code>AlertQuery</code>.
+     */
+    AlertQuery cursor(final Optional<String> cursor);
+
     /**
      * Execute the query and return the results.
      *
@@ -127,4 +136,11 @@ public interface AlertQuery {
      * @return The offset.
      */
     Optional<Integer> getOffset();
+
+    /**
+     * Accessor for the cursor.
+     *
+     * @return The cursor.
+     */
+    Optional<String> getCursor();
 }
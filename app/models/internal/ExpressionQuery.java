@@ -64,6 +64,15 @@ public interface ExpressionQuery {
      */
     ExpressionQuery offset(final Optional<Integer> offset);
 
+    /**
+     * The cursor returned with the previous page of results. Optional. Default is not set. A cursor seeks directly
+     * to the next page and may not be combined with an offset. Repositories which do not return cursors ignore it.
+     *
+     * @param cursor The opaque cursor from the previous page.
+     * @return This instance of <code>ExpressionQuery</code>.
+     */
+    ExpressionQuery cursor(final Optional<String> cursor);
+
     /**
      * Execute the query and return the results.
      *
@@ -112,4 +121,11 @@ public interface ExpressionQuery {
      * @return The offset.
      */
     Optional<Integer> getOffset();
+
+    /**
+     * Accessor for the cursor.
+     *
+     * @return The cursor.
+     */
+    Optional<String> getCursor();
 }
@@ -65,6 +65,15 @@ public interface HostQuery {
      */
     HostQuery offset(final Optional<Integer> offset);
 
+    /**
+     * The cursor returned with the previous page of results. Optional. Default is not set. A cursor seeks directly
+     * to the next page and may not be combined with an offset. Repositories which do not return cursors ignore it.
+     *
+     * @param cursor The opaque cursor from the previous page.
+     * @return This instance of <code>HostQuery</code>.
+     */
+    HostQuery cursor(final Optional<String> cursor);
+
     /**
      * Sort the results by the specified field. Optional. Default sorting is defined by the underlying repository
      * implementation but it is strongly recommended that the repository make some attempt to sort by score or relevance
@@ -117,6 +126,13 @@ public interface HostQuery {
      */
     Optional<Integer> getOffset();
 
+    /**
+     * Accessor for the cursor.
+     *
+     * @return The cursor.
+     */
+    Optional<String> getCursor();
+
     /**
      * Accessor for the field to sort by.
      * @return The field to sort by.
@@ -49,4 +49,13 @@ public interface QueryResult<T> {
      * @return The <code>Optional</code> etag.
      */
     Optional<String> etag();
+
+    /**
+     * An opaque cursor positioned after the last returned instance of {@code <T>}. Passing the cursor to the
+     * next query seeks directly to the following page instead of skipping over an offset. The cursor is absent
+     * if there are no more matching instances or the query does not support seeking.
+     *
+     * @return The <code>Optional</code> cursor for the next page.
+     */
+    Optional<String> nextCursor();
 }
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.internal;
+
+/**
+ * Internal model interface for a search suggestion. A suggestion is a value
+ * of a particular type, such as a host name or a metric, which completes a
+ * search prefix.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public interface Suggestion {
+
+    /**
+     * Accessor for the type of the suggested value.
+     *
+     * @return The type of the suggested value.
+     */
+    Type getType();
+
+    /**
+     * Accessor for the suggested value.
+     *
+     * @return The suggested value.
+     */
+    String getValue();
+
+    /**
+     * Accessor for the weight of the suggestion; the number of hosts, alerts
+     * and expressions referencing the value.
+     *
+     * @return The weight of the suggestion.
+     */
+    long getWeight();
+
+    /**
+     * The types of suggested values.
+     */
+    public enum Type {
+        /**
+         * The name of a host.
+         */
+        HOST,
+        /**
+         * The name of a cluster.
+         */
+        CLUSTER,
+        /**
+         * The name of a service.
+         */
+        SERVICE,
+        /**
+         * The name of an alert.
+         */
+        ALERT,
+        /**
+         * The name of a metric.
+         */
+        METRIC;
+    }
+}
@@ -81,6 +81,12 @@ public final class DefaultAlertQuery implements AlertQuery {
         return this;
     }
 
+    @Override
+    public AlertQuery cursor(final Optional<String> cursor) {
+        _cursor = cursor;
+        return this;
+    }
+
     @Override
     public QueryResult<Alert> execute() {
         return _repository.query(this);
@@ -121,6 +127,11 @@ public final class DefaultAlertQuery implements AlertQuery {
         return _offset;
     }
 
+    @Override
+    public Optional<String> getCursor() {
+        return _cursor;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -133,6 +144,7 @@ public final class DefaultAlertQuery implements AlertQuery {
                 .add("Service", _service)
                 .add("Limit", _limit)
                 .add("Offset", _offset)
+                .add("Cursor", _cursor)
                 .toString();
     }
 
@@ -144,6 +156,7 @@ public final class DefaultAlertQuery implements AlertQuery {
     private Optional<String> _service = Optional.empty();
     private int _limit = DEFAULT_LIMIT;
     private Optional<Integer> _offset = Optional.empty();
+    private Optional<String> _cursor = Optional.empty();
 
     private static final int DEFAULT_LIMIT = 1000;
 }
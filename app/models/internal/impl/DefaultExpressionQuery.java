@@ -74,6 +74,12 @@ public final class DefaultExpressionQuery implements ExpressionQuery {
         return this;
     }
 
+    @Override
+    public ExpressionQuery cursor(final Optional<String> cursor) {
+        _cursor = cursor;
+        return this;
+    }
+
     @Override
     public QueryResult<Expression> execute() {
         return _repository.query(this);
@@ -109,6 +115,11 @@ public final class DefaultExpressionQuery implements ExpressionQuery {
         return _offset;
     }
 
+    @Override
+    public Optional<String> getCursor() {
+        return _cursor;
+    }
+
     @Override
     public String toString() {
         return MoreObjects.toStringHelper(this)
@@ -120,6 +131,7 @@ public final class DefaultExpressionQuery implements ExpressionQuery {
                 .add("Service", _service)
                 .add("Limit", _limit)
                 .add("Offset", _offset)
+                .add("Cursor", _cursor)
                 .toString();
     }
 
@@ -130,6 +142,7 @@ public final class DefaultExpressionQuery implements ExpressionQuery {
     private Optional<String> _service = Optional.empty();
     private int _limit = DEFAULT_LIMIT;
     private Optional<Integer> _offset = Optional.empty();
+    private Optional<String> _cursor = Optional.empty();
 
     private static final int DEFAULT_LIMIT = 1000;
 }
@@ -0,0 +1,150 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.internal.impl;
+
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.logback.annotations.Loggable;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import models.internal.HostFacet;
+import models.internal.MetricsSoftwareState;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotEmpty;
+import net.sf.oval.constraint.NotNull;
+
+import java.util.Optional;
+
+/**
+ * Default internal model implementation for a host facet.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Loggable
+public final class DefaultHostFacet implements HostFacet {
+
+    @Override
+    public Optional<String> getCluster() {
+        return _cluster;
+    }
+
+    @Override
+    public MetricsSoftwareState getMetricsSoftwareState() {
+        return _metricsSoftwareState;
+    }
+
+    @Override
+    public long getCount() {
+        return _count;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (other == this) {
+            return true;
+        }
+
+        if (!(other instanceof DefaultHostFacet)) {
+            return false;
+        }
+
+        final DefaultHostFacet otherHostFacet = (DefaultHostFacet) other;
+        return Objects.equal(_cluster, otherHostFacet._cluster)
+                && Objects.equal(_metricsSoftwareState, otherHostFacet._metricsSoftwareState)
+                && _count == otherHostFacet._count;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(_cluster, _metricsSoftwareState, _count);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("class", this.getClass())
+                .add("Cluster", _cluster)
+                .add("MetricsSoftwareState", _metricsSoftwareState)
+                .add("Count", _count)
+                .toString();
+    }
+
+    private DefaultHostFacet(final Builder builder) {
+        _cluster = Optional.ofNullable(builder._cluster);
+        _metricsSoftwareState = builder._metricsSoftwareState;
+        _count = builder._count;
+    }
+
+    private final Optional<String> _cluster;
+    private final MetricsSoftwareState _metricsSoftwareState;
+    private final long _count;
+
+    /**
+     * Implementation of builder pattern for <code>DefaultHostFacet</code>.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class Builder extends OvalBuilder<HostFacet> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(DefaultHostFacet::new);
+        }
+
+        /**
+         * The cluster. Optional. Cannot be empty.
+         *
+         * @param value The cluster.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCluster(final String value) {
+            _cluster = value;
+            return this;
+        }
+
+        /**
+         * The state of the metrics software. Cannot be null.
+         *
+         * @param value The state of the metrics software.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setMetricsSoftwareState(final MetricsSoftwareState value) {
+            _metricsSoftwareState = value;
+            return this;
+        }
+
+        /**
+         * The number of hosts. Cannot be null or negative.
+         *
+         * @param value The number of hosts.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setCount(final Long value) {
+            _count = value;
+            return this;
+        }
+
+        @NotEmpty
+        private String _cluster;
+        @NotNull
+        private MetricsSoftwareState _metricsSoftwareState;
+        @NotNull
+        @Min(0)
+        private Long _count;
+    }
+}
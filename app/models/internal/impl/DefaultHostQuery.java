@@ -73,6 +73,12 @@ public final class DefaultHostQuery implements HostQuery {
         return this;
     }
 
+    @Override
+    public HostQuery cursor(final Optional<String> cursor) {
+        _cursor = cursor;
+        return this;
+    }
+
     @Override
     public HostQuery sortBy(final Optional<Field> sortBy) {
         _sortBy = sortBy;
@@ -109,6 +115,11 @@ public final class DefaultHostQuery implements HostQuery {
         return _offset;
     }
 
+    @Override
+    public Optional<String> getCursor() {
+        return _cursor;
+    }
+
     @Override
     public Optional<Field> getSortBy() {
         return _sortBy;
@@ -124,6 +135,7 @@ public final class DefaultHostQuery implements HostQuery {
                 .add("MetricsSoftwareState", _metricsSoftwareState)
                 .add("Limit", _limit)
                 .add("Offset", _offset)
+                .add("Cursor", _cursor)
                 .add("SortBy", _sortBy)
                 .toString();
     }
@@ -136,6 +148,7 @@ public final class DefaultHostQuery implements HostQuery {
     private Optional<String> _cluster = Optional.empty();
     private int _limit = DEFAULT_LIMIT;
     private Optional<Integer> _offset = Optional.empty();
+    private Optional<String> _cursor = Optional.empty();
     private Optional<Field> _sortBy = Optional.empty();
 
     private static final int DEFAULT_LIMIT = 1000;
@@ -41,6 +41,7 @@ public final class DefaultQueryResult<T> implements QueryResult<T> {
         _values = values;
         _total = total;
         _etag = Optional.empty();
+        _nextCursor = Optional.empty();
     }
 
     /**
@@ -54,6 +55,26 @@ public final class DefaultQueryResult<T> implements QueryResult<T> {
         _values = values;
         _total = total;
         _etag = Optional.of(etag);
+        _nextCursor = Optional.empty();
+    }
+
+    /**
+     * Public constructor.
+     *
+     * @param values The <code>List</code> of <code>Host</code> instances.
+     * @param total The total number of matching <code>Host</code> instances.
+     * @param etag The <code>Optional</code> etag.
+     * @param nextCursor The <code>Optional</code> cursor for the next page.
+     */
+    public DefaultQueryResult(
+            final List<? extends T> values,
+            final long total,
+            final Optional<String> etag,
+            final Optional<String> nextCursor) {
+        _values = values;
+        _total = total;
+        _etag = etag;
+        _nextCursor = nextCursor;
     }
 
     @Override
@@ -71,6 +92,11 @@ public final class DefaultQueryResult<T> implements QueryResult<T> {
         return _etag;
     }
 
+    @Override
+    public Optional<String> nextCursor() {
+        return _nextCursor;
+    }
+
     /**
      * Generate a Steno log compatible representation.
      *
@@ -82,6 +108,7 @@ public final class DefaultQueryResult<T> implements QueryResult<T> {
                 .put("values", _values)
                 .put("total", _total)
                 .put("etag", _etag)
+                .put("nextCursor", _nextCursor)
                 .build();
     }
 
@@ -93,4 +120,5 @@ public final class DefaultQueryResult<T> implements QueryResult<T> {
     private final List<? extends T> _values;
     private final long _total;
     private final Optional<String> _etag;
+    private final Optional<String> _nextCursor;
 }
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.internal.impl;
+
+import com.arpnetworking.commons.builder.OvalBuilder;
+import com.arpnetworking.logback.annotations.Loggable;
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Objects;
+import models.internal.Suggestion;
+import net.sf.oval.constraint.Min;
+import net.sf.oval.constraint.NotEmpty;
+import net.sf.oval.constraint.NotNull;
+
+/**
+ * Default internal model implementation for a search suggestion.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Loggable
+public final class DefaultSuggestion implements Suggestion {
+
+    @Override
+    public Type getType() {
+        return _type;
+    }
+
+    @Override
+    public String getValue() {
+        return _value;
+    }
+
+    @Override
+    public long getWeight() {
+        return _weight;
+    }
+
+    @Override
+    public boolean equals(final Object other) {
+        if (other == this) {
+            return true;
+        }
+
+        if (!(other instanceof DefaultSuggestion)) {
+            return false;
+        }
+
+        final DefaultSuggestion otherSuggestion = (DefaultSuggestion) other;
+        return Objects.equal(_type, otherSuggestion._type)
+                && Objects.equal(_value, otherSuggestion._value)
+                && _weight == otherSuggestion._weight;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(_type, _value, _weight);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("class", this.getClass())
+                .add("Type", _type)
+                .add("Value", _value)
+                .add("Weight", _weight)
+                .toString();
+    }
+
+    private DefaultSuggestion(final Builder builder) {
+        _type = builder._type;
+        _value = builder._value;
+        _weight = builder._weight;
+    }
+
+    private final Type _type;
+    private final String _value;
+    private final long _weight;
+
+    /**
+     * Implementation of builder pattern for <code>DefaultSuggestion</code>.
+     *
+     * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+     */
+    public static final class Builder extends OvalBuilder<Suggestion> {
+
+        /**
+         * Public constructor.
+         */
+        public Builder() {
+            super(DefaultSuggestion::new);
+        }
+
+        /**
+         * The type of the suggested value. Cannot be null.
+         *
+         * @param value The type of the suggested value.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setType(final Type value) {
+            _type = value;
+            return this;
+        }
+
+        /**
+         * The suggested value. Cannot be null or empty.
+         *
+         * @param value The suggested value.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setValue(final String value) {
+            _value = value;
+            return this;
+        }
+
+        /**
+         * The weight of the suggestion. Cannot be null or negative.
+         *
+         * @param value The weight of the suggestion.
+         * @return This instance of <code>Builder</code>.
+         */
+        public Builder setWeight(final Long value) {
+            _weight = value;
+            return this;
+        }
+
+        @NotNull
+        private Type _type;
+        @NotNull
+        @NotEmpty
+        private String _value;
+        @NotNull
+        @Min(0)
+        private Long _weight;
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.view;
+
+import com.arpnetworking.logback.annotations.Loggable;
+import com.google.common.base.MoreObjects;
+
+/**
+ * View model of <code>HostFacet</code>. Play view models are mutable.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Loggable
+public final class HostFacet {
+
+    public void setCluster(final String value) {
+        _cluster = value;
+    }
+
+    public String getCluster() {
+        return _cluster;
+    }
+
+    public void setMetricsSoftwareState(final String value) {
+        _metricsSoftwareState = value;
+    }
+
+    public String getMetricsSoftwareState() {
+        return _metricsSoftwareState;
+    }
+
+    public void setCount(final long value) {
+        _count = value;
+    }
+
+    public long getCount() {
+        return _count;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("class", this.getClass())
+                .add("Cluster", _cluster)
+                .add("MetricsSoftwareState", _metricsSoftwareState)
+                .add("Count", _count)
+                .toString();
+    }
+
+    private String _cluster;
+    private String _metricsSoftwareState;
+    private long _count;
+}
@@ -49,22 +49,48 @@ public class Pagination {
             final int limit,
             final Optional<Integer> offset,
             final Map<String, String> conditions) {
+        this(path, total, size, limit, offset, Optional.empty(), conditions);
+    }
+
+    /**
+     * Public constructor. If a cursor for the next page is provided the next
+     * page reference seeks with the cursor instead of an offset.
+     *
+     * @param path The base path for the query that produced the results.
+     * @param total The total number of matching records available.
+     * @param size The number of records returned in this page.
+     * @param limit The maximum number of records to return in one page.
+     * @param offset The offset, in records, of the first record in this page.
+     * @param nextCursor The opaque cursor for the next page.
+     * @param conditions The <code>Map</code> of query parameter key-value pairs.
+     */
+    public Pagination(
+            final String path,
+            final long total,
+            final int size,
+            final int limit,
+            final Optional<Integer> offset,
+            final Optional<String> nextCursor,
+            final Map<String, String> conditions) {
         _total = total;
         _size = size;
         _offset = offset.isPresent() ? offset.get() : 0;
 
         Optional<URI> previous = Optional.empty();
         Optional<URI> next = Optional.empty();
-        if (_offset + _size < _total) {
+        if (nextCursor.isPresent()) {
+            next = Optional.of(createReference(path, limit, "cursor", nextCursor.get(), conditions));
+        } else if (_offset + _size < _total) {
             final int newOffset = _offset + _size;
             final int newLimit = limit;
-            next = Optional.of(createReference(path, newLimit, newOffset, conditions));
+            next = Optional.of(createReference(path, newLimit, "offset", String.valueOf(newOffset), conditions));
         }
         if (_offset > 0) {
             final int newOffset = Math.max(_offset - limit, 0);
             final int newLimit = Math.min(_offset - newOffset, limit);
-            previous = Optional.of(createReference(path, newLimit, newOffset, conditions));
+            previous = Optional.of(createReference(path, newLimit, "offset", String.valueOf(newOffset), conditions));
         }
+        _nextCursor = nextCursor;
         _next = next;
         _previous = previous;
     }
@@ -81,6 +107,10 @@ public class Pagination {
         return _offset;
     }
 
+    public Optional<String> getNextCursor() {
+        return _nextCursor;
+    }
+
     public Optional<URI> getNext() {
         return _next;
     }
@@ -97,6 +127,7 @@ public class Pagination {
                 .add("Total", _total)
                 .add("Size", _size)
                 .add("Offset", _offset)
+                .add("NextCursor", _nextCursor)
                 .add("Next", _next)
                 .add("Previous", _previous)
                 .toString();
@@ -105,14 +136,15 @@ public class Pagination {
     private URI createReference(
             final String path,
             final int limit,
-            final int offset,
+            final String positionKey,
+            final String positionValue,
             final Map<String, String> conditions) {
         final QueryStringEncoder queryStringEncoder = new QueryStringEncoder(path);
         for (Map.Entry<String, String> entry : conditions.entrySet()) {
             queryStringEncoder.addParam(entry.getKey(), entry.getValue());
         }
         queryStringEncoder.addParam("limit", String.valueOf(limit));
-        queryStringEncoder.addParam("offset", String.valueOf(offset));
+        queryStringEncoder.addParam(positionKey, positionValue);
         try {
             return new URI(queryStringEncoder.toString());
         } catch (final URISyntaxException e) {
@@ -123,6 +155,7 @@ public class Pagination {
     private final long _total;
     private final int _size;
     private final int _offset;
+    private final Optional<String> _nextCursor;
     private final Optional<URI> _next;
     private final Optional<URI> _previous;
 }
@@ -0,0 +1,67 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package models.view;
+
+import com.arpnetworking.logback.annotations.Loggable;
+import com.google.common.base.MoreObjects;
+
+/**
+ * View model of <code>Suggestion</code>. Play view models are mutable.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+@Loggable
+public final class Suggestion {
+
+    public void setType(final String value) {
+        _type = value;
+    }
+
+    public String getType() {
+        return _type;
+    }
+
+    public void setValue(final String value) {
+        _value = value;
+    }
+
+    public String getValue() {
+        return _value;
+    }
+
+    public void setWeight(final long value) {
+        _weight = value;
+    }
+
+    public long getWeight() {
+        return _weight;
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("id", Integer.toHexString(System.identityHashCode(this)))
+                .add("class", this.getClass())
+                .add("Type", _type)
+                .add("Value", _value)
+                .add("Weight", _weight)
+                .toString();
+    }
+
+    private String _type;
+    private String _value;
+    private long _weight;
+}
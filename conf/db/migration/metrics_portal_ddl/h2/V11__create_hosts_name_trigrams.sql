@@ -0,0 +1,35 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+CREATE TABLE portal.hosts_name_trigrams (
+  host BIGINT NOT NULL REFERENCES portal.hosts(id) ON DELETE CASCADE,
+  trigram VARCHAR(3) NOT NULL,
+  PRIMARY KEY (trigram, host)
+);
+
+CREATE INDEX hosts_name_trigrams_host ON portal.hosts_name_trigrams (host);
+
+-- Index the existing hosts --
+INSERT INTO portal.hosts_name_trigrams (host, trigram)
+SELECT DISTINCT h.id, SUBSTRING(LOWER(h.name), r.x, 3)
+FROM portal.hosts h, SYSTEM_RANGE(1, 253) r
+WHERE r.x + 2 <= LENGTH(h.name);
+
+-- Trigger to be executed after each insert, update and delete statement --
+CREATE TRIGGER update_hosts_name_trigrams
+AFTER INSERT, DELETE, UPDATE ON portal.hosts
+FOR EACH ROW
+CALL "com.arpnetworking.database.h2.triggers.HostsUpdateNameTrigramsTrigger";
@@ -0,0 +1,49 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+CREATE TABLE portal.hosts_etags (
+  id BIGSERIAL PRIMARY KEY,
+  organization BIGINT REFERENCES portal.organizations(id),
+  etag BIGINT NOT NULL
+);
+
+CREATE UNIQUE INDEX hosts_etags_organization on portal.hosts_etags (organization);
+
+CREATE OR REPLACE FUNCTION update_hosts_etag() RETURNS TRIGGER AS $update_hosts_etag$
+DECLARE
+  pl_organization integer;
+  pl_modified integer;
+BEGIN
+  IF TG_OP = 'INSERT' OR TG_OP = 'UPDATE' THEN
+    pl_organization = NEW.organization;
+  ELSE
+    pl_organization = OLD.organization;
+  END IF;
+  UPDATE portal.hosts_etags SET etag = etag + 1 WHERE organization = pl_organization;
+  GET DIAGNOSTICS pl_modified = ROW_COUNT;
+  IF pl_modified = 0 THEN
+    INSERT INTO portal.hosts_etags (organization, etag) VALUES (pl_organization, 1);
+  END IF;
+  RETURN NULL;
+END;
+$update_hosts_etag$ LANGUAGE 'plpgsql';
+
+-- Trigger to be executed after each insert, update and delete statement --
+-- NOTE: This must be an after trigger; before insert triggers also fire for upserts which resolve to no change --
+CREATE TRIGGER update_hosts_etag
+AFTER INSERT OR DELETE OR UPDATE ON portal.hosts
+FOR EACH ROW
+EXECUTE PROCEDURE update_hosts_etag();
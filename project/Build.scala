@@ -74,6 +74,7 @@ object ApplicationBuild extends Build {
       "com.h2database" % "h2" % "1.4.192",
       "com.typesafe.akka" %% "akka-actor" % akkaVersion,
       "com.typesafe.akka" %% "akka-cluster" % akkaVersion,
+      "com.typesafe.akka" %% "akka-cluster-sharding" % akkaVersion,
       "com.typesafe.akka" %% "akka-cluster-tools" % akkaVersion,
       "com.typesafe.akka" %% "akka-http" % akkaHttpVersion,
       "com.typesafe.akka" %% "akka-slf4j" % akkaVersion,
@@ -98,6 +99,7 @@ object ApplicationBuild extends Build {
       "org.webjars" % "typeaheadjs" % "0.10.4-1",
       "org.webjars" % "underscorejs" % "1.6.0-3",
 
+      "com.typesafe.akka" %% "akka-testkit" % akkaVersion % "test",
       "org.cassandraunit" % "cassandra-unit" % "3.1.3.2" % "test",
       "junit" % "junit" % "4.12" % "test",
       "org.mockito" % "mockito-core" % "1.10.19" % "test"
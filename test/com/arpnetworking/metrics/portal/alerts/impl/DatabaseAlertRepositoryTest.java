@@ -279,6 +279,17 @@ public class DatabaseAlertRepositoryTest extends WithApplication {
         Assert.assertEquals(2, result2.values().size());
     }
 
+    @Test
+    public void testQueryClauseWithZeroLimit() {
+        alertRepo.addOrUpdateAlert(TestBeanFactory.createAlertBuilder().setId(UUID.randomUUID()).build(), Organization.DEFAULT);
+        final AlertQuery query = new DefaultAlertQuery(alertRepo, Organization.DEFAULT);
+        query.limit(0);
+        final QueryResult<Alert> result = alertRepo.query(query);
+        Assert.assertEquals(1, result.total());
+        Assert.assertTrue(result.values().isEmpty());
+        Assert.assertFalse(result.nextCursor().isPresent());
+    }
+
     @Test
     public void testQueryClauseWithOffsetAndLimit() {
         final Alert alert1 = TestBeanFactory.createAlertBuilder()
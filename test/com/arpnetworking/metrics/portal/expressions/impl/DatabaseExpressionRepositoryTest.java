@@ -228,6 +228,17 @@ public class DatabaseExpressionRepositoryTest extends WithApplication {
         Assert.assertEquals(2, result2.values().size());
     }
 
+    @Test
+    public void testQueryClauseWithZeroLimit() {
+        exprRepo.addOrUpdateExpression(TestBeanFactory.createExpressionBuilder().setId(UUID.randomUUID()).build(), Organization.DEFAULT);
+        final ExpressionQuery query = new DefaultExpressionQuery(exprRepo, Organization.DEFAULT);
+        query.limit(0);
+        final QueryResult<Expression> result = exprRepo.query(query);
+        Assert.assertEquals(1, result.total());
+        Assert.assertTrue(result.values().isEmpty());
+        Assert.assertFalse(result.nextCursor().isPresent());
+    }
+
     @Test
     public void testQueryClauseWithOffsetAndLimit() {
         final Expression expr1 = TestBeanFactory.createExpressionBuilder()
@@ -0,0 +1,86 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts;
+
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.impl.DefaultHost;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Optional;
+
+/**
+ * Tests for <code>HostChange</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class HostChangeTest {
+
+    @Test
+    public void testUpdated() {
+        final HostChange change = HostChange.updated(
+                new DefaultHost.Builder()
+                        .setHostname("host1.example.com")
+                        .setMetricsSoftwareState(MetricsSoftwareState.LATEST_VERSION_INSTALLED)
+                        .setCluster("cluster1")
+                        .build(),
+                Organization.DEFAULT);
+        Assert.assertEquals(HostChange.Type.UPDATED, change.getType());
+        Assert.assertEquals(Organization.DEFAULT.getId(), change.getOrganizationId());
+        Assert.assertEquals("host1.example.com", change.getHostname());
+        Assert.assertEquals(Optional.of("cluster1"), change.getCluster());
+        Assert.assertEquals(Optional.of(MetricsSoftwareState.LATEST_VERSION_INSTALLED), change.getMetricsSoftwareState());
+    }
+
+    @Test
+    public void testDeleted() {
+        final HostChange change = HostChange.deleted("host1.example.com", Organization.DEFAULT);
+        Assert.assertEquals(HostChange.Type.DELETED, change.getType());
+        Assert.assertEquals(Organization.DEFAULT.getId(), change.getOrganizationId());
+        Assert.assertEquals("host1.example.com", change.getHostname());
+        Assert.assertEquals(Optional.empty(), change.getCluster());
+        Assert.assertEquals(Optional.empty(), change.getMetricsSoftwareState());
+    }
+
+    @Test
+    public void testSerializable() throws IOException, ClassNotFoundException {
+        final HostChange change = HostChange.updated(
+                new DefaultHost.Builder()
+                        .setHostname("host1.example.com")
+                        .setMetricsSoftwareState(MetricsSoftwareState.NOT_INSTALLED)
+                        .build(),
+                Organization.DEFAULT);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(change);
+        }
+        final HostChange copy;
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (HostChange) input.readObject();
+        }
+        Assert.assertEquals(change.getType(), copy.getType());
+        Assert.assertEquals(change.getOrganizationId(), copy.getOrganizationId());
+        Assert.assertEquals(change.getHostname(), copy.getHostname());
+        Assert.assertEquals(Optional.empty(), copy.getCluster());
+        Assert.assertEquals(Optional.of(MetricsSoftwareState.NOT_INSTALLED), copy.getMetricsSoftwareState());
+    }
+}
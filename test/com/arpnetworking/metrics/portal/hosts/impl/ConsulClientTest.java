@@ -16,17 +16,32 @@
 package com.arpnetworking.metrics.portal.hosts.impl;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Resources;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionStage;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
+import play.libs.ws.WS;
 import play.libs.ws.WSClient;
 import play.libs.ws.WSRequest;
 import play.libs.ws.WSResponse;
@@ -71,5 +86,132 @@ public final class ConsulClientTest {
         Assert.assertEquals("10.1.0.18", hostList.get(2).getAddress());
     }
 
+    @Test
+    public void testBlockingQueryReturnsImmediatelyForStaleIndex() throws Exception {
+        try (StubConsulServer server = new StubConsulServer();
+             WSClient client = WS.newClient(server.getPort())) {
+            server.setNodes(7, "host1.example.com");
+            final ConsulClient consulClient = createClient(client, server);
+
+            final ConsulClient.HostListResponse response = consulClient.getHostList(0, Duration.ofSeconds(10))
+                    .toCompletableFuture()
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(7, response.getIndex());
+            Assert.assertEquals(1, response.getHosts().size());
+            Assert.assertEquals("host1.example.com", response.getHosts().get(0).getNode());
+        }
+    }
+
+    @Test
+    public void testBlockingQueryReturnsOnChange() throws Exception {
+        try (StubConsulServer server = new StubConsulServer();
+             WSClient client = WS.newClient(server.getPort())) {
+            server.setNodes(7, "host1.example.com");
+            final ConsulClient consulClient = createClient(client, server);
+
+            final CompletableFuture<ConsulClient.HostListResponse> future = consulClient.getHostList(7, Duration.ofSeconds(30))
+                    .toCompletableFuture();
+            Thread.sleep(200);
+            Assert.assertFalse(future.isDone());
+
+            server.setNodes(8, "host1.example.com", "host2.example.com");
+            final ConsulClient.HostListResponse response = future.get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(8, response.getIndex());
+            Assert.assertEquals(2, response.getHosts().size());
+            Assert.assertEquals("host2.example.com", response.getHosts().get(1).getNode());
+        }
+    }
+
+    @Test
+    public void testBlockingQueryReturnsSameIndexOnTimeout() throws Exception {
+        try (StubConsulServer server = new StubConsulServer();
+             WSClient client = WS.newClient(server.getPort())) {
+            server.setNodes(7, "host1.example.com");
+            final ConsulClient consulClient = createClient(client, server);
+
+            final ConsulClient.HostListResponse response = consulClient.getHostList(7, Duration.ofSeconds(1))
+                    .toCompletableFuture()
+                    .get(5, TimeUnit.SECONDS);
+            Assert.assertEquals(7, response.getIndex());
+            Assert.assertEquals(1, response.getHosts().size());
+        }
+    }
+
+    private static ConsulClient createClient(final WSClient client, final StubConsulServer server) {
+        return new ConsulClient.Builder()
+                .setClient(client)
+                .setBaseUrl(URI.create("http://localhost:" + server.getPort()))
+                .build();
+    }
+
     private static final URI BASE_URI = URI.create("https://consul.example.com");
+
+    /**
+     * Minimal Consul catalog which implements the blocking query semantics of
+     * the <code>index</code> and <code>wait</code> parameters.
+     */
+    private static final class StubConsulServer implements AutoCloseable {
+
+        StubConsulServer() throws IOException {
+            _server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+            _server.setExecutor(Executors.newCachedThreadPool());
+            _server.createContext("/v1/catalog/nodes", this::handle);
+            _server.start();
+        }
+
+        public int getPort() {
+            return _server.getAddress().getPort();
+        }
+
+        public synchronized void setNodes(final long index, final String... nodes) {
+            _index = index;
+            _body = Arrays.stream(nodes)
+                    .map(node -> String.format("{\"Node\":\"%s\",\"Address\":\"10.0.0.1\"}", node))
+                    .collect(Collectors.joining(",", "[", "]"));
+            notifyAll();
+        }
+
+        @Override
+        public void close() {
+            _server.stop(0);
+            ((ExecutorService) _server.getExecutor()).shutdownNow();
+        }
+
+        private void handle(final HttpExchange exchange) throws IOException {
+            final Map<String, String> parameters = Splitter.on('&')
+                    .withKeyValueSeparator('=')
+                    .split(Strings.nullToEmpty(exchange.getRequestURI().getQuery()));
+            final long requestIndex = Long.parseLong(parameters.getOrDefault("index", "0"));
+            final long waitMillis = TimeUnit.SECONDS.toMillis(Long.parseLong(parameters.getOrDefault("wait", "300s").replace("s", "")));
+
+            final long index;
+            final byte[] body;
+            synchronized (this) {
+                final long deadline = System.currentTimeMillis() + waitMillis;
+                long remaining = waitMillis;
+                while (_index <= requestIndex && remaining > 0) {
+                    try {
+                        wait(remaining);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    remaining = deadline - System.currentTimeMillis();
+                }
+                index = _index;
+                body = _body.getBytes(StandardCharsets.UTF_8);
+            }
+
+            exchange.getResponseHeaders().add("X-Consul-Index", Long.toString(index));
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(body);
+            }
+        }
+
+        private final HttpServer _server;
+        private long _index = 1;
+        private String _body = "[]";
+    }
 }
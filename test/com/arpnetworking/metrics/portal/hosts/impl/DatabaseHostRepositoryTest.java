@@ -15,17 +15,241 @@
  */
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import com.arpnetworking.metrics.portal.H2ConnectionStringFactory;
+import com.avaje.ebean.Ebean;
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.QueryResult;
+import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultHostFacet;
+import org.junit.After;
 import org.junit.Assert;
+import org.junit.Before;
 import org.junit.Test;
+import play.Application;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.test.WithApplication;
 
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Tests for <code>DatabaseHostRepository</code>.
  *
  * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
  */
-public class DatabaseHostRepositoryTest {
+public class DatabaseHostRepositoryTest extends WithApplication {
+
+    @Before
+    public void setUp() {
+        _repository.open();
+    }
+
+    @After
+    public void tearDown() {
+        _repository.close();
+    }
+
+    @Override
+    protected Application provideApplication() {
+        return new GuiceApplicationBuilder()
+                .configure(H2ConnectionStringFactory.generateConfiguration())
+                .build();
+    }
+
+    @Test
+    public void testH2UpsertHost() {
+        _repository.addOrUpdateHost(createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        models.ebean.Host ebeanHost = findHost("host1.example.com");
+        Assert.assertNull(ebeanHost.getCluster());
+        Assert.assertEquals(Long.valueOf(1), ebeanHost.getVersion());
+
+        // Unchanged hosts are not written
+        _repository.addOrUpdateHost(createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        Assert.assertEquals(Long.valueOf(1), findHost("host1.example.com").getVersion());
+
+        _repository.addOrUpdateHost(
+                createHost("host1.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1"),
+                Organization.DEFAULT);
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        ebeanHost = findHost("host1.example.com");
+        Assert.assertEquals("cluster1", ebeanHost.getCluster());
+        Assert.assertEquals(MetricsSoftwareState.LATEST_VERSION_INSTALLED.toString(), ebeanHost.getMetricsSoftwareState());
+        Assert.assertEquals(Long.valueOf(2), ebeanHost.getVersion());
+
+        _repository.addOrUpdateHost(createHost("host1.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null), Organization.DEFAULT);
+        ebeanHost = findHost("host1.example.com");
+        Assert.assertNull(ebeanHost.getCluster());
+        Assert.assertEquals(Long.valueOf(3), ebeanHost.getVersion());
+    }
+
+    @Test
+    public void testH2UpsertHosts() {
+        assertUpsertHostsSkipsUnchangedHosts(_repository);
+    }
+
+    @Test
+    public void testGenericUpsertHosts() {
+        final DatabaseHostRepository repository = new DatabaseHostRepository(new DatabaseHostRepository.GenericQueryGenerator());
+        repository.open();
+        try {
+            assertUpsertHostsSkipsUnchangedHosts(repository);
+        } finally {
+            repository.close();
+        }
+    }
+
+    @Test
+    public void testEtagChangesOnWrite() {
+        final String initialEtag = _repository.getEtag(Organization.DEFAULT).get();
+
+        _repository.addOrUpdateHost(createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        final String addedEtag = _repository.getEtag(Organization.DEFAULT).get();
+        Assert.assertNotEquals(initialEtag, addedEtag);
+        Assert.assertEquals(Optional.of(addedEtag), _repository.query(_repository.createQuery(Organization.DEFAULT)).etag());
+
+        // Unchanged hosts do not change the etag
+        _repository.addOrUpdateHost(createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        Assert.assertEquals(addedEtag, _repository.getEtag(Organization.DEFAULT).get());
+
+        _repository.deleteHost("host1.example.com", Organization.DEFAULT);
+        Assert.assertNotEquals(addedEtag, _repository.getEtag(Organization.DEFAULT).get());
+    }
+
+    @Test
+    public void testDeleteHosts() {
+        for (final String name : new String[] {"host1", "host2", "host3"}) {
+            _repository.addOrUpdateHost(createHost(name, MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        }
+        _repository.deleteHosts(Arrays.asList("host1", "host3", "host4"), Organization.DEFAULT);
+
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(
+                Arrays.asList("host2"),
+                _repository.query(_repository.createQuery(Organization.DEFAULT))
+                        .values()
+                        .stream()
+                        .map(Host::getHostname)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void testQueryWithCursor() {
+        for (final String name : new String[] {"e-host", "c-host", "a-host", "d-host", "b-host"}) {
+            _repository.addOrUpdateHost(createHost(name, MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        }
+
+        QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT).limit(2));
+        Assert.assertEquals(5, result.total());
+        assertHostnames(result, "a-host", "b-host");
+        Assert.assertTrue(result.nextCursor().isPresent());
+
+        result = _repository.query(_repository.createQuery(Organization.DEFAULT).limit(2).cursor(result.nextCursor()));
+        Assert.assertEquals(5, result.total());
+        assertHostnames(result, "c-host", "d-host");
+        Assert.assertTrue(result.nextCursor().isPresent());
+
+        result = _repository.query(_repository.createQuery(Organization.DEFAULT).limit(2).cursor(result.nextCursor()));
+        assertHostnames(result, "e-host");
+        Assert.assertFalse(result.nextCursor().isPresent());
+    }
+
+    @Test
+    public void testQueryWithZeroLimit() {
+        for (final String name : new String[] {"a-host", "b-host"}) {
+            _repository.addOrUpdateHost(createHost(name, MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        }
+
+        final QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT).limit(0));
+        Assert.assertEquals(2, result.total());
+        Assert.assertTrue(result.values().isEmpty());
+        Assert.assertFalse(result.nextCursor().isPresent());
+    }
+
+    @Test
+    public void testQueryWithUnalignedOffset() {
+        for (final String name : new String[] {"a-host", "b-host", "c-host", "d-host"}) {
+            _repository.addOrUpdateHost(createHost(name, MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        }
+
+        final QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT)
+                .offset(Optional.of(1))
+                .limit(2)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME)));
+        Assert.assertEquals(4, result.total());
+        assertHostnames(result, "b-host", "c-host");
+    }
+
+    @Test
+    public void testExportIteratesMatchingHosts() {
+        for (int i = 0; i < 10; ++i) {
+            _repository.addOrUpdateHost(
+                    createHost("web" + i + ".example.com", MetricsSoftwareState.NOT_INSTALLED, i % 2 == 0 ? "even" : "odd"),
+                    Organization.DEFAULT);
+        }
+        _repository.addOrUpdateHost(createHost("db1.example.com", MetricsSoftwareState.NOT_INSTALLED, "even"), Organization.DEFAULT);
+
+        // The limit and offset of the query are ignored
+        final Set<String> hostnames;
+        try (Stream<Host> hosts = _repository.export(_repository.createQuery(Organization.DEFAULT)
+                .partialHostname(Optional.of("web"))
+                .cluster(Optional.of("even"))
+                .limit(1)
+                .offset(Optional.of(1)))) {
+            hostnames = hosts.map(Host::getHostname).collect(Collectors.toSet());
+        }
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList(
+                        "web0.example.com",
+                        "web2.example.com",
+                        "web4.example.com",
+                        "web6.example.com",
+                        "web8.example.com")),
+                hostnames);
+    }
+
+    @Test
+    public void testH2FindHostsWithInfixAndRanking() {
+        for (final String name : new String[] {"web1234a.example.com", "1234-db.example.com", "1234", "web9999a.example.com"}) {
+            _repository.addOrUpdateHost(createHost(name, MetricsSoftwareState.NOT_INSTALLED, null), Organization.DEFAULT);
+        }
+
+        QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT)
+                .partialHostname(Optional.of("1234")));
+        Assert.assertEquals(3, result.total());
+        assertHostnames(result, "1234", "1234-db.example.com", "web1234a.example.com");
+
+        // Deleted hosts are removed from the index
+        _repository.deleteHost("web1234a.example.com", Organization.DEFAULT);
+        result = _repository.query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("B1234")));
+        Assert.assertEquals(0, result.total());
+        result = _repository.query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("9A.Ex")));
+        assertHostnames(result, "web9999a.example.com");
+    }
+
+    @Test
+    public void testGetHostFacets() {
+        _repository.addOrUpdateHost(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1"), Organization.DEFAULT);
+        _repository.addOrUpdateHost(createHost("host2", MetricsSoftwareState.NOT_INSTALLED, "cluster1"), Organization.DEFAULT);
+        _repository.addOrUpdateHost(createHost("host3", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1"), Organization.DEFAULT);
+        _repository.addOrUpdateHost(createHost("host4", MetricsSoftwareState.OLD_VERSION_INSTALLED, null), Organization.DEFAULT);
+
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList(
+                        createHostFacet("cluster1", MetricsSoftwareState.NOT_INSTALLED, 2),
+                        createHostFacet("cluster1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, 1),
+                        createHostFacet(null, MetricsSoftwareState.OLD_VERSION_INSTALLED, 1))),
+                new HashSet<>(_repository.getHostFacets(Organization.DEFAULT)));
+    }
 
     @Test
     public void testPostgresqlHostQueryGeneratorTokenize() {
@@ -43,4 +267,74 @@ public class DatabaseHostRepositoryTest {
         tokens = DatabaseHostRepository.PostgresqlHostQueryGenerator.tokenize("  ");
         Assert.assertArrayEquals("Actual = " + tokens, new String[]{}, tokens.toArray());
     }
+
+    private static void assertUpsertHostsSkipsUnchangedHosts(final DatabaseHostRepository repository) {
+        repository.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED, null),
+                        createHost("host2.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1")),
+                Organization.DEFAULT);
+        Assert.assertEquals(2, repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(Long.valueOf(1), findHost("host1.example.com").getVersion());
+        Assert.assertEquals("cluster1", findHost("host2.example.com").getCluster());
+        final String etag = repository.getEtag(Organization.DEFAULT).get();
+
+        // Unchanged hosts are not written so the etag is unchanged
+        repository.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED, null),
+                        createHost("host2.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1")),
+                Organization.DEFAULT);
+        Assert.assertEquals(etag, repository.getEtag(Organization.DEFAULT).get());
+        Assert.assertEquals(Long.valueOf(1), findHost("host1.example.com").getVersion());
+
+        // Only the changed host is updated; the last occurrence of a host name wins
+        repository.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED, null),
+                        createHost("host2.example.com", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster2"),
+                        createHost("host2.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null),
+                        createHost("host3.example.com", MetricsSoftwareState.NOT_INSTALLED, null)),
+                Organization.DEFAULT);
+        Assert.assertNotEquals(etag, repository.getEtag(Organization.DEFAULT).get());
+        Assert.assertEquals(3, repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(Long.valueOf(1), findHost("host1.example.com").getVersion());
+        final models.ebean.Host ebeanHost = findHost("host2.example.com");
+        Assert.assertNull(ebeanHost.getCluster());
+        Assert.assertEquals(MetricsSoftwareState.LATEST_VERSION_INSTALLED.toString(), ebeanHost.getMetricsSoftwareState());
+        Assert.assertEquals(Long.valueOf(2), ebeanHost.getVersion());
+    }
+
+    private static Host createHost(final String name, final MetricsSoftwareState state, final String cluster) {
+        return new DefaultHost.Builder()
+                .setHostname(name)
+                .setMetricsSoftwareState(state)
+                .setCluster(cluster)
+                .build();
+    }
+
+    private static HostFacet createHostFacet(final String cluster, final MetricsSoftwareState state, final long count) {
+        return new DefaultHostFacet.Builder()
+                .setCluster(cluster)
+                .setMetricsSoftwareState(state)
+                .setCount(count)
+                .build();
+    }
+
+    private static void assertHostnames(final QueryResult<Host> result, final String... hostnames) {
+        Assert.assertEquals(
+                Arrays.asList(hostnames),
+                result.values().stream().map(Host::getHostname).collect(Collectors.toList()));
+    }
+
+    private static models.ebean.Host findHost(final String name) {
+        return Ebean.find(models.ebean.Host.class)
+                .where()
+                .eq("organization.uuid", Organization.DEFAULT.getId())
+                .eq("name", name)
+                .findUnique();
+    }
+
+    private final DatabaseHostRepository _repository =
+            new DatabaseHostRepository(new DatabaseHostRepository.H2HostQueryGenerator());
 }
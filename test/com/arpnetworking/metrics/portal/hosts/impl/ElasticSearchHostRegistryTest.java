@@ -16,6 +16,7 @@
 
 package com.arpnetworking.metrics.portal.hosts.impl;
 
+import com.arpnetworking.commons.jackson.databind.ObjectMapperFactory;
 import com.google.common.collect.Iterables;
 import com.google.common.io.Files;
 import models.internal.Host;
@@ -24,8 +25,15 @@ import models.internal.MetricsSoftwareState;
 import models.internal.Organization;
 import models.internal.QueryResult;
 import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultOrganization;
 import org.apache.commons.io.FileUtils;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.client.Requests;
+import org.elasticsearch.cluster.metadata.MetaData;
 import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.node.Node;
+import org.elasticsearch.node.NodeBuilder;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -33,8 +41,12 @@ import org.junit.Test;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
  * Tests for <code>ElasticSearchHostRegistry</code>.
@@ -51,20 +63,7 @@ public class ElasticSearchHostRegistryTest {
         } catch (final IOException ioe) {
             // Do nothing
         }
-        _repository = new ElasticSearchHostRepository(
-                ImmutableSettings.settingsBuilder()
-                        .put("cluster.name", "ElasticSearchHostRegistryTest")
-                        .put("node.local", "true")
-                        .put("node.data", "true")
-                        .put("path.logs", _tempDirectory.getAbsolutePath() + "/logs")
-                        .put("path.data", _tempDirectory.getAbsolutePath() + "/data")
-                        .build(),
-                ImmutableSettings.settingsBuilder()
-                        .put("number_of_shards", "1")
-                        .put("number_of_replicas", "0")
-                        .put("refresh_interval", "1s")
-                        .build());
-        _repository.open();
+        _repository = createRepository();
     }
 
     @After
@@ -81,8 +80,8 @@ public class ElasticSearchHostRegistryTest {
     public void testAddHost() throws InterruptedException {
         final Host expectedHost = addOrUpdateHost("testAddHost-host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of(expectedHost.getHostname()));
         final QueryResult<Host> result = _repository.query(hostQuery);
@@ -96,8 +95,8 @@ public class ElasticSearchHostRegistryTest {
         addOrUpdateHost("testUpdateHost-host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         final Host expectedHost = addOrUpdateHost("testUpdateHost-host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of(expectedHost.getHostname()));
         final QueryResult<Host> result = _repository.query(hostQuery);
@@ -111,8 +110,8 @@ public class ElasticSearchHostRegistryTest {
         final Host deletedHost = addOrUpdateHost("testDeleteHost-host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         _repository.deleteHost(deletedHost.getHostname(), Organization.DEFAULT);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of(deletedHost.getHostname()));
         final QueryResult<Host> result = _repository.query(hostQuery);
@@ -127,8 +126,8 @@ public class ElasticSearchHostRegistryTest {
         final Host expectedHost3 = addOrUpdateHost("testFindAllHostsC", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         final Host expectedHost4 = addOrUpdateHost("testFindAllHostsD", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT).limit(10);
         final QueryResult<Host> result = _repository.query(hostQuery);
@@ -145,8 +144,8 @@ public class ElasticSearchHostRegistryTest {
         final Host expectedHost = addOrUpdateHost("testFindHostsWithName-host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         addOrUpdateHost("host-foo", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("testFindHostsWithName-host1"));
         final QueryResult<Host> result = _repository.query(hostQuery);
@@ -160,8 +159,8 @@ public class ElasticSearchHostRegistryTest {
         final Host expectedHost = addOrUpdateHost("testFindHostsWithName-host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1");
         addOrUpdateHost("host-foo", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster2");
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery query = _repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster1"));
         final QueryResult<Host> result = _repository.query(query);
@@ -177,8 +176,8 @@ public class ElasticSearchHostRegistryTest {
         final Host expectedHost3 = addOrUpdateHost("hostfoo", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         final Host expectedHost4 = addOrUpdateHost("hostbar", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery1 = _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("testFindHostsWithNamePrefix"));
         final QueryResult<Host> result1 = _repository.query(hostQuery1);
@@ -187,12 +186,18 @@ public class ElasticSearchHostRegistryTest {
         Assert.assertTrue(hosts1.contains(expectedHost1));
         Assert.assertTrue(hosts1.contains(expectedHost2));
 
+        // Prefix matches rank above infix matches
         final HostQuery hostQuery2 = _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("host"));
         final QueryResult<Host> result2 = _repository.query(hostQuery2);
         final List<? extends Host> hosts2 = result2.values();
-        Assert.assertEquals(2, hosts2.size());
-        Assert.assertTrue(hosts2.contains(expectedHost3));
-        Assert.assertTrue(hosts2.contains(expectedHost4));
+        Assert.assertEquals(4, hosts2.size());
+        Assert.assertTrue(hosts2.subList(0, 2).contains(expectedHost3));
+        Assert.assertTrue(hosts2.subList(0, 2).contains(expectedHost4));
+
+        final HostQuery hostQuery3 = _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("NAMEPREFIX-f"));
+        final QueryResult<Host> result3 = _repository.query(hostQuery3);
+        Assert.assertEquals(1, result3.total());
+        Assert.assertEquals(expectedHost1, Iterables.getFirst(result3.values(), null));
     }
 
     @Test
@@ -202,8 +207,8 @@ public class ElasticSearchHostRegistryTest {
         addOrUpdateHost("host-foo", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         addOrUpdateHost("host-bar", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT)
                 .partialHostname(Optional.of("testFindHostsWithNameAndState"))
@@ -221,8 +226,8 @@ public class ElasticSearchHostRegistryTest {
         addOrUpdateHost("testFindHostsWithNameWithLimit-host3", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         addOrUpdateHost("testFindHostsWithNameWithLimit-host4", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT)
                 .partialHostname(Optional.of("testFindHostsWithNameWithLimit"))
@@ -237,8 +242,8 @@ public class ElasticSearchHostRegistryTest {
         final Host expectedHost1 = addOrUpdateHost("abc-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         final Host expectedHost2 = addOrUpdateHost("host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT)
                 .partialHostname(Optional.of("host"));
@@ -254,8 +259,8 @@ public class ElasticSearchHostRegistryTest {
         final Host expectedHost1 = addOrUpdateHost("abc-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         final Host expectedHost2 = addOrUpdateHost("host-def", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT)
                 .partialHostname(Optional.of("host"))
@@ -275,8 +280,8 @@ public class ElasticSearchHostRegistryTest {
         final Host expectedHost2 = addOrUpdateHost("d-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
         final Host expectedHost3 = addOrUpdateHost("e-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         final HostQuery hostQuery = _repository.createQuery(Organization.DEFAULT)
                 .partialHostname(Optional.of("host"))
@@ -291,6 +296,47 @@ public class ElasticSearchHostRegistryTest {
         Assert.assertEquals(5, result.total());
     }
 
+    @Test
+    public void testFindHostsWithCursor() throws InterruptedException {
+        final Host expectedHost1 = addOrUpdateHost("a-host", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
+        final Host expectedHost2 = addOrUpdateHost("b-host", MetricsSoftwareState.NOT_INSTALLED, null);
+        final Host expectedHost3 = addOrUpdateHost("c-host", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
+
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
+
+        QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.METRICS_SOFTWARE_STATE))
+                .limit(2));
+        Assert.assertEquals(3, result.total());
+        Assert.assertEquals(Arrays.asList(expectedHost2, expectedHost1), result.values());
+        Assert.assertTrue(result.nextCursor().isPresent());
+
+        result = _repository.query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.METRICS_SOFTWARE_STATE))
+                .limit(2)
+                .cursor(result.nextCursor()));
+        Assert.assertEquals(3, result.total());
+        Assert.assertEquals(Collections.singletonList(expectedHost3), result.values());
+        Assert.assertFalse(result.nextCursor().isPresent());
+    }
+
+    @Test
+    public void testFindHostsWithZeroLimit() throws InterruptedException {
+        addOrUpdateHost("a-host", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
+        addOrUpdateHost("b-host", MetricsSoftwareState.NOT_INSTALLED, null);
+
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
+
+        final QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME))
+                .limit(0));
+        Assert.assertEquals(2, result.total());
+        Assert.assertEquals(Collections.emptyList(), result.values());
+        Assert.assertFalse(result.nextCursor().isPresent());
+    }
+
     @Test
     public void testCountHosts() throws InterruptedException {
         addOrUpdateHost("testCountHosts-host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
@@ -298,8 +344,8 @@ public class ElasticSearchHostRegistryTest {
         addOrUpdateHost("testCountHosts-host3", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
         addOrUpdateHost("testCountHosts-host4", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
 
-        // Indexing is asynchronous at an interval of 1 second (see @Before)
-        Thread.sleep(2000);
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
 
         Assert.assertEquals(4, _repository.getHostCount(Organization.DEFAULT));
         Assert.assertEquals(3, _repository.getHostCount(MetricsSoftwareState.LATEST_VERSION_INSTALLED, Organization.DEFAULT));
@@ -307,16 +353,172 @@ public class ElasticSearchHostRegistryTest {
         Assert.assertEquals(0, _repository.getHostCount(MetricsSoftwareState.NOT_INSTALLED, Organization.DEFAULT));
     }
 
+    @Test
+    public void testOrganizationSeparation() throws InterruptedException {
+        final Organization otherOrganization = new DefaultOrganization.Builder()
+                .setId(UUID.randomUUID())
+                .build();
+        final Host expectedHost = addOrUpdateHost("testOrganizationSeparation-host1", MetricsSoftwareState.NOT_INSTALLED, null);
+        final Host otherHost = new DefaultHost.Builder()
+                .setHostname("testOrganizationSeparation-host1")
+                .setMetricsSoftwareState(MetricsSoftwareState.OLD_VERSION_INSTALLED)
+                .build();
+        _repository.addOrUpdateHost(otherHost, otherOrganization);
+
+        // Writes are batched and indexing is asynchronous
+        _repository.flush();
+
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(0, _repository.getHostCount(MetricsSoftwareState.OLD_VERSION_INSTALLED, Organization.DEFAULT));
+        final QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, Iterables.getFirst(result.values(), null));
+        final QueryResult<Host> otherResult = _repository.query(_repository.createQuery(otherOrganization));
+        Assert.assertEquals(1, otherResult.total());
+        Assert.assertEquals(otherHost, Iterables.getFirst(otherResult.values(), null));
+
+        // Deleting a host only removes it from its organization
+        _repository.deleteHost(otherHost.getHostname(), otherOrganization);
+        _repository.flush();
+        Assert.assertEquals(0, _repository.getHostCount(otherOrganization));
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+    }
+
+    @Test
+    public void testOpenReindexesLegacyIndex() throws InterruptedException {
+        _repository.close();
+        final Host expectedHost1 = createHost("legacy-host-alpha", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1");
+        final Host expectedHost2 = createHost("legacy-host-beta", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
+
+        // Replace the versioned index with a concrete index in the legacy mapping keyed by host name alone
+        withNode(client -> {
+            client.admin().indices().prepareDelete("_all").execute().actionGet();
+            client.admin().indices().create(
+                    Requests.createIndexRequest(LEGACY_INDEX)
+                            .settings(createIndexSettings())
+                            .mapping(
+                                    LEGACY_TYPE,
+                                    "{\n"
+                                            + "    \"properties\" : {\n"
+                                            + "        \"hostname\" : {\n"
+                                            + "            \"type\" : \"string\",\n"
+                                            + "            \"store\" : true,\n"
+                                            + "            \"fields\": {\n"
+                                            + "                \"raw\": {\n"
+                                            + "                    \"type\":  \"string\",\n"
+                                            + "                    \"index\": \"not_analyzed\"\n"
+                                            + "                }\n"
+                                            + "            }\n"
+                                            + "        }\n"
+                                            + "    }\n"
+                                            + "}")
+            ).actionGet();
+            client.admin().cluster().prepareHealth(LEGACY_INDEX).setWaitForGreenStatus().execute().actionGet();
+            for (final Host host : Arrays.asList(expectedHost1, expectedHost2)) {
+                try {
+                    client.prepareIndex(LEGACY_INDEX, LEGACY_TYPE, host.getHostname())
+                            .setSource(ObjectMapperFactory.getInstance().writeValueAsString(host))
+                            .setRefresh(true)
+                            .execute()
+                            .actionGet();
+                } catch (final IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+
+        _repository = createRepository();
+
+        // The legacy hosts belong to the default organization
+        Assert.assertEquals(2, _repository.getHostCount(Organization.DEFAULT));
+        final QueryResult<Host> result = _repository.query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME)));
+        Assert.assertEquals(Arrays.asList(expectedHost1, expectedHost2), result.values());
+
+        // Infix matches are only possible with the new mapping
+        final QueryResult<Host> infixResult = _repository.query(_repository.createQuery(Organization.DEFAULT)
+                .partialHostname(Optional.of("HOST-BE")));
+        Assert.assertEquals(1, infixResult.total());
+        Assert.assertEquals(expectedHost2, Iterables.getFirst(infixResult.values(), null));
+
+        // The reindexed hosts are keyed by organization so they are updated in place
+        final Host updatedHost = addOrUpdateHost("legacy-host-alpha", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        _repository.flush();
+        Assert.assertEquals(2, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(1, _repository.getHostCount(MetricsSoftwareState.NOT_INSTALLED, Organization.DEFAULT));
+        Assert.assertEquals(
+                updatedHost,
+                Iterables.getFirst(_repository.query(_repository.createQuery(Organization.DEFAULT)
+                        .partialHostname(Optional.of("alpha"))).values(), null));
+
+        // The legacy index is replaced by an alias to the versioned index
+        _repository.close();
+        withNode(client -> {
+            final MetaData metaData = client.admin().cluster().prepareState().execute().actionGet().getState().metaData();
+            Assert.assertTrue(metaData.hasAlias(LEGACY_INDEX));
+            Assert.assertFalse(metaData.hasIndex(LEGACY_INDEX));
+        });
+        _repository = createRepository();
+        Assert.assertEquals(2, _repository.getHostCount(Organization.DEFAULT));
+    }
+
     private Host addOrUpdateHost(final String name, final MetricsSoftwareState state, final String cluster) {
-        final Host host = new DefaultHost.Builder()
+        final Host host = createHost(name, state, cluster);
+        _repository.addOrUpdateHost(host, Organization.DEFAULT);
+        return host;
+    }
+
+    private static Host createHost(final String name, final MetricsSoftwareState state, final String cluster) {
+        return new DefaultHost.Builder()
                 .setHostname(name)
                 .setMetricsSoftwareState(state)
                 .setCluster(cluster)
                 .build();
-        _repository.addOrUpdateHost(host, Organization.DEFAULT);
-        return host;
+    }
+
+    private ElasticSearchHostRepository createRepository() {
+        final ElasticSearchHostRepository repository = new ElasticSearchHostRepository(createNodeSettings(), createIndexSettings());
+        repository.open();
+        return repository;
+    }
+
+    private void withNode(final Consumer<Client> consumer) {
+        final Node node = new NodeBuilder()
+                .loadConfigSettings(false)
+                .settings(createNodeSettings())
+                .build();
+        node.start();
+        final Client client = node.client();
+        try {
+            client.admin().cluster().prepareHealth().setWaitForGreenStatus().execute().actionGet();
+            consumer.accept(client);
+        } finally {
+            client.close();
+            node.close();
+        }
+    }
+
+    private Settings createNodeSettings() {
+        return ImmutableSettings.settingsBuilder()
+                .put("cluster.name", "ElasticSearchHostRegistryTest")
+                .put("node.local", "true")
+                .put("node.data", "true")
+                .put("path.logs", _tempDirectory.getAbsolutePath() + "/logs")
+                .put("path.data", _tempDirectory.getAbsolutePath() + "/data")
+                .build();
+    }
+
+    private static Settings createIndexSettings() {
+        return ImmutableSettings.settingsBuilder()
+                .put("number_of_shards", "1")
+                .put("number_of_replicas", "0")
+                .put("refresh_interval", "1s")
+                .build();
     }
 
     private ElasticSearchHostRepository _repository;
     private File _tempDirectory;
+
+    private static final String LEGACY_INDEX = "hosts";
+    private static final String LEGACY_TYPE = "host";
 }
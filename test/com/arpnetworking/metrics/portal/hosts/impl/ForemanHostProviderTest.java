@@ -0,0 +1,312 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.testkit.JavaTestKit;
+import com.arpnetworking.metrics.MetricsFactory;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import com.typesafe.config.ConfigFactory;
+import models.internal.Host;
+import models.internal.Organization;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import play.Configuration;
+import play.libs.ws.WSClient;
+import play.libs.ws.WSRequest;
+import play.libs.ws.WSResponse;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Tests for <code>ForemanHostProvider</code> against a stub Foreman server
+ * whose pages are answered by the test.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class ForemanHostProviderTest {
+
+    @Before
+    public void setUp() {
+        _system = ActorSystem.create("ForemanHostProviderTest", ConfigFactory.empty());
+        _repository = new LocalHostRepository();
+        _repository.open();
+        _writer = new HostWriter(_repository, Runnable::run, Mockito.mock(MetricsFactory.class, Mockito.RETURNS_MOCKS), 100, 10);
+        _foreman = new StubForeman();
+    }
+
+    @After
+    public void tearDown() {
+        JavaTestKit.shutdownActorSystem(_system);
+        _repository.close();
+    }
+
+    @Test
+    public void testPagesCompletingOutOfOrder() throws InterruptedException {
+        final ActorRef provider = createProvider(ImmutableMap.<String, Object>of("pageSize", 2, "parallelism", 4));
+
+        final PageRequest first = startSync(provider);
+        Assert.assertEquals(1, first.getPage());
+        first.respond(6, 2, "host1.example.com", "host2.example.com");
+
+        // The remaining pages are requested concurrently once the total is known
+        final PageRequest second = _foreman.take();
+        final PageRequest third = _foreman.take();
+        Assert.assertEquals(Sets.newHashSet(2, 3), Sets.newHashSet(second.getPage(), third.getPage()));
+        final PageRequest last = third.getPage() == 3 ? third : second;
+        final PageRequest middle = third.getPage() == 3 ? second : third;
+        last.respond(6, 2, "host5.example.com", "host6.example.com");
+        middle.respond(6, 2, "host3.example.com", "host4.example.com");
+
+        awaitHostnames(
+                "host1.example.com",
+                "host2.example.com",
+                "host3.example.com",
+                "host4.example.com",
+                "host5.example.com",
+                "host6.example.com");
+        Assert.assertNull(_foreman.poll(SETTLE_MILLIS));
+
+        // The sync completed so the next tick starts a new one
+        Assert.assertEquals(1, startSync(provider).getPage());
+    }
+
+    @Test
+    public void testFailedPageAbandonsSync() throws InterruptedException {
+        final ActorRef provider = createProvider(ImmutableMap.<String, Object>of("pageSize", 2, "parallelism", 1, "expirySyncs", 1));
+
+        startSync(provider).respond(4, 2, "host1.example.com", "host2.example.com");
+        _foreman.take().respond(4, 2, "host3.example.com", "host4.example.com");
+        awaitHostnames("host1.example.com", "host2.example.com", "host3.example.com", "host4.example.com");
+
+        // The second page fails; the sync stops fetching and expires nothing
+        startSync(provider).respond(6, 2, "host1.example.com", "host2.example.com");
+        final PageRequest failed = _foreman.take();
+        Assert.assertEquals(2, failed.getPage());
+        failed.fail(500);
+        Assert.assertNull(_foreman.poll(SETTLE_MILLIS));
+        Assert.assertEquals(4, _repository.getHostCount(Organization.DEFAULT));
+
+        // A completed sync still expires the hosts missing from it
+        startSync(provider).respond(2, 2, "host1.example.com", "host2.example.com");
+        awaitHostnames("host1.example.com", "host2.example.com");
+    }
+
+    @Test
+    public void testPageSizeGrowsWhenPagesAreFast() throws InterruptedException {
+        final ActorRef provider = createProvider(ImmutableMap.<String, Object>of(
+                "pageSize", 2,
+                "maxPageSize", 3,
+                "targetPageLatency", "1 hour"));
+
+        final PageRequest first = startSync(provider);
+        Assert.assertEquals(2, first.getPerPage());
+        first.respond(4, 2, "host1.example.com", "host2.example.com");
+        _foreman.take().respond(4, 2, "host3.example.com", "host4.example.com");
+        awaitHostnames("host1.example.com", "host2.example.com", "host3.example.com", "host4.example.com");
+
+        // Doubled by the latency ratio and capped by the maximum page size
+        Assert.assertEquals(3, startSync(provider).getPerPage());
+    }
+
+    @Test
+    public void testPageSizeShrinksWhenPagesAreSlow() throws InterruptedException {
+        final ActorRef provider = createProvider(ImmutableMap.<String, Object>of(
+                "pageSize", 8,
+                "minPageSize", 5,
+                "targetPageLatency", "1 millisecond"));
+
+        final PageRequest first = startSync(provider);
+        Assert.assertEquals(8, first.getPerPage());
+        Thread.sleep(SLOW_PAGE_MILLIS);
+        first.respond(16, 8, "host1.example.com");
+        final PageRequest second = _foreman.take();
+        Thread.sleep(SLOW_PAGE_MILLIS);
+        second.respond(16, 8, "host2.example.com");
+        awaitHostnames("host1.example.com", "host2.example.com");
+
+        // Halved by the latency ratio and floored by the minimum page size
+        Assert.assertEquals(5, startSync(provider).getPerPage());
+    }
+
+    @Test
+    public void testPageSizeKeptWhenForemanCapsPages() throws InterruptedException {
+        final ActorRef provider = createProvider(ImmutableMap.<String, Object>of("pageSize", 4, "targetPageLatency", "1 hour"));
+
+        // Foreman answers with smaller pages than requested so larger pages would not help
+        startSync(provider).respond(4, 2, "host1.example.com", "host2.example.com");
+        final PageRequest second = _foreman.take();
+        Assert.assertEquals(2, second.getPerPage());
+        second.respond(4, 2, "host3.example.com", "host4.example.com");
+        awaitHostnames("host1.example.com", "host2.example.com", "host3.example.com", "host4.example.com");
+
+        Assert.assertEquals(4, startSync(provider).getPerPage());
+    }
+
+    private ActorRef createProvider(final Map<String, Object> overrides) {
+        final Configuration configuration = new Configuration(overrides).withFallback(new Configuration(ImmutableMap.<String, Object>of(
+                "baseUrl", "http://foreman.example.com",
+                "initialDelay", "1 hour",
+                "interval", "1 hour",
+                "minPageSize", 1)));
+        return _system.actorOf(createProps(_writer, _foreman.getClient(), configuration));
+    }
+
+    private static Props createProps(final HostWriter writer, final WSClient client, final Configuration configuration) {
+        return Props.create(ForemanHostProvider.class, () -> new ForemanHostProvider(writer, client, configuration));
+    }
+
+    private PageRequest startSync(final ActorRef provider) throws InterruptedException {
+        // Ticks are skipped while the provider is seeding or its writes are pending
+        for (int i = 0; i < MAX_ATTEMPTS; ++i) {
+            provider.tell(TICK, ActorRef.noSender());
+            final PageRequest request = _foreman.poll(POLL_MILLIS);
+            if (request != null) {
+                Assert.assertEquals(1, request.getPage());
+                return request;
+            }
+        }
+        Assert.fail("Sync did not start");
+        return null;
+    }
+
+    private void awaitHostnames(final String... hostnames) throws InterruptedException {
+        final Set<String> expected = Sets.newHashSet(hostnames);
+        Set<String> actual = null;
+        for (int i = 0; i < MAX_ATTEMPTS; ++i) {
+            actual = _repository.export(_repository.createQuery(Organization.DEFAULT))
+                    .map(Host::getHostname)
+                    .collect(Collectors.toSet());
+            if (expected.equals(actual)) {
+                return;
+            }
+            Thread.sleep(POLL_MILLIS);
+        }
+        Assert.assertEquals(expected, actual);
+    }
+
+    private ActorSystem _system;
+    private LocalHostRepository _repository;
+    private HostWriter _writer;
+    private StubForeman _foreman;
+
+    private static final String TICK = "tick";
+    private static final int MAX_ATTEMPTS = 50;
+    private static final long POLL_MILLIS = 100;
+    private static final long SETTLE_MILLIS = 250;
+    private static final long SLOW_PAGE_MILLIS = 20;
+
+    /**
+     * Stub Foreman server which queues each page request until the test
+     * answers it.
+     */
+    private static final class StubForeman {
+
+        StubForeman() {
+            Mockito.doAnswer(invocation -> {
+                final WSRequest request = Mockito.mock(WSRequest.class);
+                final CompletableFuture<WSResponse> response = new CompletableFuture<>();
+                Mockito.doReturn(response).when(request).get();
+                _requests.add(new PageRequest((String) invocation.getArguments()[0], response));
+                return request;
+            }).when(_client).url(Mockito.anyString());
+        }
+
+        public WSClient getClient() {
+            return _client;
+        }
+
+        public PageRequest take() throws InterruptedException {
+            final PageRequest request = poll(POLL_MILLIS * MAX_ATTEMPTS);
+            Assert.assertNotNull("Page was not requested", request);
+            return request;
+        }
+
+        public PageRequest poll(final long timeoutMillis) throws InterruptedException {
+            return _requests.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        private final WSClient _client = Mockito.mock(WSClient.class);
+        private final BlockingQueue<PageRequest> _requests = new LinkedBlockingQueue<>();
+    }
+
+    /**
+     * A page request received by the stub Foreman server.
+     */
+    private static final class PageRequest {
+
+        PageRequest(final String url, final CompletableFuture<WSResponse> response) {
+            final Matcher matcher = URL_PATTERN.matcher(url);
+            Assert.assertTrue(url, matcher.matches());
+            _page = Integer.parseInt(matcher.group(1));
+            _perPage = Integer.parseInt(matcher.group(2));
+            _response = response;
+        }
+
+        public int getPage() {
+            return _page;
+        }
+
+        public int getPerPage() {
+            return _perPage;
+        }
+
+        public void respond(final int total, final int perPage, final String... hostnames) {
+            final String results = Arrays.stream(hostnames)
+                    .map(hostname -> "{\"name\":\"" + hostname + "\"}")
+                    .collect(Collectors.joining(","));
+            final WSResponse response = Mockito.mock(WSResponse.class);
+            Mockito.doReturn(200).when(response).getStatus();
+            Mockito.doReturn(String.format(
+                    "{\"total\":%d,\"subtotal\":%d,\"page\":%d,\"per_page\":%d,\"results\":[%s]}",
+                    total,
+                    total,
+                    _page,
+                    perPage,
+                    results))
+                    .when(response)
+                    .getBody();
+            _response.complete(response);
+        }
+
+        public void fail(final int status) {
+            final WSResponse response = Mockito.mock(WSResponse.class);
+            Mockito.doReturn(status).when(response).getStatus();
+            _response.complete(response);
+        }
+
+        private final int _page;
+        private final int _perPage;
+        private final CompletableFuture<WSResponse> _response;
+
+        private static final Pattern URL_PATTERN = Pattern.compile(".*/api/hosts\\?page=(\\d+)&per_page=(\\d+)");
+    }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import models.internal.Host;
+import models.internal.MetricsSoftwareState;
+import models.internal.impl.DefaultHost;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for <code>HostFingerprintTable</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class HostFingerprintTableTest {
+
+    @Test
+    public void testUnchangedHostIsSkipped() {
+        final HostFingerprintTable table = new HostFingerprintTable(1);
+        final Host host = createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+
+        table.beginSync();
+        Assert.assertTrue(table.isChanged(host));
+        table.put(host);
+        Assert.assertArrayEquals(keys(), table.endSync());
+
+        table.beginSync();
+        Assert.assertFalse(table.isChanged(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1")));
+        Assert.assertArrayEquals(keys(), table.endSync());
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testChangedHostIsWritten() {
+        final HostFingerprintTable table = new HostFingerprintTable(1);
+        table.beginSync();
+        table.put(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1"));
+        table.endSync();
+
+        table.beginSync();
+        Assert.assertTrue(table.isChanged(createHost("host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1")));
+        Assert.assertTrue(table.isChanged(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster2")));
+        Assert.assertTrue(table.isChanged(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, null)));
+    }
+
+    @Test
+    public void testMissingHostsAreRemoved() {
+        final HostFingerprintTable table = new HostFingerprintTable(1);
+        final int hostCount = 1000;
+        table.beginSync();
+        for (int i = 0; i < hostCount; ++i) {
+            table.put(createHost("host" + i, MetricsSoftwareState.NOT_INSTALLED, null));
+        }
+        table.endSync();
+        Assert.assertEquals(hostCount, table.size());
+
+        table.beginSync();
+        for (int i = 1; i < hostCount; ++i) {
+            Assert.assertFalse(table.isChanged(createHost("host" + i, MetricsSoftwareState.NOT_INSTALLED, null)));
+        }
+        final long[] removed = table.endSync();
+        Assert.assertArrayEquals(keys("host0"), removed);
+        Assert.assertEquals(hostCount - 1, table.size());
+
+        // Removed hosts are written again if they reappear
+        table.beginSync();
+        Assert.assertTrue(table.isChanged(createHost("host0", MetricsSoftwareState.NOT_INSTALLED, null)));
+        Assert.assertFalse(table.isChanged(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, null)));
+    }
+
+    @Test
+    public void testMissingHostsExpireAfterSyncs() {
+        final HostFingerprintTable table = new HostFingerprintTable(3);
+        table.beginSync();
+        table.put(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, null));
+        table.put(createHost("host2", MetricsSoftwareState.NOT_INSTALLED, null));
+        table.endSync();
+
+        // Missing from two completed syncs; abandoned syncs are not counted
+        for (int i = 0; i < 2; ++i) {
+            table.beginSync();
+            Assert.assertFalse(table.isChanged(createHost("host2", MetricsSoftwareState.NOT_INSTALLED, null)));
+            Assert.assertArrayEquals(keys(), table.endSync());
+            table.beginSync();
+        }
+        Assert.assertEquals(2, table.size());
+
+        // Briefly missing hosts are not written again
+        table.beginSync();
+        Assert.assertFalse(table.isChanged(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, null)));
+        Assert.assertArrayEquals(keys(), table.endSync());
+
+        for (int i = 0; i < 2; ++i) {
+            table.beginSync();
+            Assert.assertFalse(table.isChanged(createHost("host2", MetricsSoftwareState.NOT_INSTALLED, null)));
+            Assert.assertArrayEquals(keys(), table.endSync());
+        }
+        table.beginSync();
+        Assert.assertFalse(table.isChanged(createHost("host2", MetricsSoftwareState.NOT_INSTALLED, null)));
+        Assert.assertArrayEquals(keys("host1"), table.endSync());
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testInvalidatedHostIsRewritten() {
+        final HostFingerprintTable table = new HostFingerprintTable(1);
+        final Host host = createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        table.beginSync();
+        table.put(host);
+        table.endSync();
+
+        table.invalidate(Collections.singletonList(host));
+        table.invalidate(Collections.singletonList(createHost("host2", MetricsSoftwareState.NOT_INSTALLED, null)));
+        table.beginSync();
+        Assert.assertTrue(table.isChanged(host));
+        table.put(host);
+        Assert.assertArrayEquals(keys(), table.endSync());
+        Assert.assertEquals(1, table.size());
+
+        table.beginSync();
+        Assert.assertFalse(table.isChanged(host));
+        table.endSync();
+    }
+
+    @Test
+    public void testSeededHostsExpireAfterSyncs() {
+        final HostFingerprintTable table = new HostFingerprintTable(2);
+        final Host host1 = createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        final Host host2 = createHost("host2", MetricsSoftwareState.NOT_INSTALLED, null);
+        table.seed(Collections.singletonList(host1));
+        table.seed(Collections.singletonList(host2));
+        Assert.assertEquals(2, table.size());
+
+        // Seeded hosts are not written again when seen unchanged
+        table.beginSync();
+        Assert.assertFalse(table.isChanged(host1));
+        Assert.assertArrayEquals(keys(), table.endSync());
+
+        table.beginSync();
+        Assert.assertFalse(table.isChanged(host1));
+        Assert.assertArrayEquals(keys("host2"), table.endSync());
+        Assert.assertEquals(1, table.size());
+    }
+
+    @Test
+    public void testRestoredHostExpiresAgain() {
+        final HostFingerprintTable table = new HostFingerprintTable(1);
+        final Host host = createHost("host1", MetricsSoftwareState.NOT_INSTALLED, null);
+        table.beginSync();
+        table.put(host);
+        table.endSync();
+        table.beginSync();
+        Assert.assertArrayEquals(keys("host1"), table.endSync());
+
+        // The delete failed so the host is deleted again by the next sync unless it is seen
+        table.restore(keys("host1"));
+        Assert.assertEquals(1, table.size());
+        table.beginSync();
+        Assert.assertArrayEquals(keys("host1"), table.endSync());
+
+        table.restore(keys("host1"));
+        table.beginSync();
+        Assert.assertTrue(table.isChanged(host));
+        table.put(host);
+        Assert.assertArrayEquals(keys(), table.endSync());
+    }
+
+    @Test
+    public void testExpiredKeysAreSorted() {
+        final HostFingerprintTable table = new HostFingerprintTable(1);
+        table.beginSync();
+        for (int i = 0; i < 100; ++i) {
+            table.put(createHost("host" + i, MetricsSoftwareState.NOT_INSTALLED, null));
+        }
+        table.endSync();
+
+        table.beginSync();
+        final long[] expired = table.endSync();
+        Assert.assertEquals(100, expired.length);
+        for (int i = 0; i < 100; ++i) {
+            Assert.assertTrue(HostFingerprintTable.containsHostname(expired, "host" + i));
+        }
+        Assert.assertFalse(HostFingerprintTable.containsHostname(expired, "host100"));
+        Assert.assertEquals(0, table.size());
+    }
+
+    private static long[] keys(final String... hostnames) {
+        final long[] keys = new long[hostnames.length];
+        for (int i = 0; i < hostnames.length; ++i) {
+            keys[i] = HostFingerprintTable.hashHostname(hostnames[i]);
+        }
+        Arrays.sort(keys);
+        return keys;
+    }
+
+    private static Host createHost(final String name, final MetricsSoftwareState state, final String cluster) {
+        return new DefaultHost.Builder()
+                .setHostname(name)
+                .setMetricsSoftwareState(state)
+                .setCluster(cluster)
+                .build();
+    }
+}
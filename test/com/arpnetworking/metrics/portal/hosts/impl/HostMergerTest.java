@@ -0,0 +1,193 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import models.internal.Host;
+import models.internal.MetricsSoftwareState;
+import models.internal.impl.DefaultHost;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+/**
+ * Tests for <code>HostMerger</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class HostMergerTest {
+
+    @Test
+    public void testHostReportedBySeveralSourcesIsWrittenOnce() {
+        final HostMerger merger = new HostMerger(Arrays.asList("foreman", "consul"), Arrays.asList("foreman", "consul"));
+        merger.update("consul", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, null)));
+        merger.update("foreman", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, null)));
+
+        final HostMerger.Changes changes = merger.flush();
+        Assert.assertEquals(
+                Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, null)),
+                changes.getUpdated());
+        Assert.assertEquals(Collections.emptyList(), changes.getDeleted());
+        Assert.assertTrue(merger.flush().isEmpty());
+
+        // Reporting the same host again does not write it again
+        merger.update("consul", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, null)));
+        Assert.assertTrue(merger.flush().isEmpty());
+    }
+
+    @Test
+    public void testFieldsAreMergedByPrecedence() {
+        final HostMerger merger = new HostMerger(Arrays.asList("foreman", "consul"), Arrays.asList("consul", "foreman"));
+        merger.update("consul", Collections.singletonList(createHost("host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "c1")));
+        merger.update("foreman", Collections.singletonList(createHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "f1")));
+        Assert.assertEquals(
+                Collections.singletonList(createHost("host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "f1")),
+                merger.flush().getUpdated());
+
+        // Unknown values fall through to the next source
+        merger.update("consul", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, "c1")));
+        merger.update("foreman", Collections.singletonList(createHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, null)));
+        Assert.assertEquals(
+                Collections.singletonList(createHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "c1")),
+                merger.flush().getUpdated());
+    }
+
+    @Test
+    public void testUnlistedSourcesFollowByName() {
+        final HostMerger merger = new HostMerger(Collections.singletonList("foreman"), Collections.emptyList());
+        merger.update("zookeeper", Collections.singletonList(createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "z1")));
+        merger.update("consul", Collections.singletonList(createHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "c1")));
+        Assert.assertEquals(
+                Collections.singletonList(createHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "c1")),
+                merger.flush().getUpdated());
+
+        merger.update("foreman", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, "f1")));
+        Assert.assertEquals(
+                Collections.singletonList(createHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "f1")),
+                merger.flush().getUpdated());
+    }
+
+    @Test
+    public void testHostIsDeletedWhenRemovedByAllSources() {
+        final HostMerger merger = new HostMerger(Arrays.asList("foreman", "consul"), Arrays.asList("foreman", "consul"));
+        merger.update("consul", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, "c1")));
+        merger.update("foreman", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, "f1")));
+        merger.flush();
+
+        merger.remove("foreman", Collections.singletonList("host1"));
+        HostMerger.Changes changes = merger.flush();
+        Assert.assertEquals(Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, "c1")), changes.getUpdated());
+        Assert.assertEquals(Collections.emptyList(), changes.getDeleted());
+
+        merger.remove("consul", Collections.singletonList("host1"));
+        changes = merger.flush();
+        Assert.assertEquals(Collections.emptyList(), changes.getUpdated());
+        Assert.assertEquals(Collections.singletonList("host1"), changes.getDeleted());
+
+        // Removing a host which was never flushed is not a delete
+        merger.update("consul", Collections.singletonList(createHost("host2", MetricsSoftwareState.UNKNOWN, null)));
+        merger.remove("consul", Collections.singletonList("host2"));
+        Assert.assertTrue(merger.flush().isEmpty());
+    }
+
+    @Test
+    public void testHostRemovedWithoutSourcesIsDeleted() {
+        final HostMerger merger = new HostMerger(Collections.emptyList(), Collections.emptyList());
+        merger.remove("foreman", Collections.singletonList("host1"));
+        Assert.assertEquals(Collections.singletonList("host1"), merger.flush().getDeleted());
+        Assert.assertTrue(merger.flush().isEmpty());
+
+        // A host reported again before the flush is not deleted
+        merger.remove("foreman", Collections.singletonList("host2"));
+        merger.update("consul", Collections.singletonList(createHost("host2", MetricsSoftwareState.UNKNOWN, null)));
+        final HostMerger.Changes changes = merger.flush();
+        Assert.assertEquals(Collections.emptyList(), changes.getDeleted());
+        Assert.assertEquals(1, changes.getUpdated().size());
+    }
+
+    @Test
+    public void testRestoredHostIsDeletedAgain() {
+        final HostMerger merger = new HostMerger(Collections.emptyList(), Collections.emptyList());
+        merger.update("foreman", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, null)));
+        merger.flush();
+        merger.remove("foreman", Collections.singletonList("host1"));
+        Assert.assertEquals(Collections.singletonList("host1"), merger.flush().getDeleted());
+
+        merger.restore(Collections.singletonList("host1"));
+        Assert.assertEquals(Collections.singletonList("host1"), merger.flush().getDeleted());
+        Assert.assertTrue(merger.flush().isEmpty());
+    }
+
+    @Test
+    public void testExpiredHostsAreRemovedFromSource() {
+        final HostMerger merger = new HostMerger(Collections.emptyList(), Collections.emptyList());
+        merger.update("foreman", Collections.singletonList(createHost("host1", MetricsSoftwareState.UNKNOWN, null)));
+        merger.update("consul", Collections.singletonList(createHost("host2", MetricsSoftwareState.UNKNOWN, null)));
+        merger.flush();
+
+        // Only the hosts the source reported expire
+        final long[] keys = new long[] {HostFingerprintTable.hashHostname("host1"), HostFingerprintTable.hashHostname("host2")};
+        Arrays.sort(keys);
+        merger.expire("foreman", keys);
+        final HostMerger.Changes changes = merger.flush();
+        Assert.assertEquals(Collections.singletonList("host1"), changes.getDeleted());
+        Assert.assertTrue(merger.flush().isEmpty());
+    }
+
+    @Test
+    public void testSeededHostsAreExpiredUnlessReported() {
+        final HostMerger merger = new HostMerger(Collections.emptyList(), Collections.emptyList());
+        final Host host1 = createHost("host1", MetricsSoftwareState.UNKNOWN, "c1");
+        merger.update("consul", Collections.singletonList(host1));
+        merger.seed(Collections.singletonList(host1));
+        merger.seed(Collections.singletonList(createHost("host2", MetricsSoftwareState.UNKNOWN, null)));
+
+        // Seeded hosts reported unchanged are not written again
+        Assert.assertTrue(merger.flush().isEmpty());
+
+        Assert.assertEquals(1, merger.expireUnclaimed());
+        final HostMerger.Changes changes = merger.flush();
+        Assert.assertEquals(Collections.emptyList(), changes.getUpdated());
+        Assert.assertEquals(Collections.singletonList("host2"), changes.getDeleted());
+        Assert.assertEquals(0, merger.expireUnclaimed());
+    }
+
+    @Test
+    public void testInvalidatedHostIsWrittenAgain() {
+        final HostMerger merger = new HostMerger(Collections.emptyList(), Collections.emptyList());
+        final Host host = createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "c1");
+        merger.update("consul", Collections.singletonList(host));
+        Assert.assertEquals(Collections.singletonList(host), merger.flush().getUpdated());
+
+        merger.invalidate(Collections.singletonList(host));
+        Assert.assertEquals(Collections.singletonList(host), merger.flush().getUpdated());
+
+        // A failed write of a value which was since replaced is ignored
+        merger.update("consul", Collections.singletonList(createHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "c1")));
+        merger.flush();
+        merger.invalidate(Collections.singletonList(host));
+        Assert.assertTrue(merger.flush().isEmpty());
+    }
+
+    private static Host createHost(final String name, final MetricsSoftwareState state, final String cluster) {
+        return new DefaultHost.Builder()
+                .setHostname(name)
+                .setMetricsSoftwareState(state)
+                .setCluster(cluster)
+                .build();
+    }
+}
@@ -0,0 +1,229 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import com.arpnetworking.metrics.MetricsFactory;
+import models.internal.Host;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.impl.DefaultHost;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Tests for <code>HostWriter</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class HostWriterTest {
+
+    @Before
+    public void setUp() {
+        _repository = new LocalHostRepository();
+        _repository.open();
+        _tasks = new ArrayDeque<>();
+        _writer = new HostWriter(_repository, _tasks::add, Mockito.mock(MetricsFactory.class, Mockito.RETURNS_MOCKS), 3, 2);
+    }
+
+    @After
+    public void tearDown() {
+        _repository.close();
+    }
+
+    @Test
+    public void testWritesAreCoalescedByHostname() {
+        final CompletableFuture<Void> first = _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT).toCompletableFuture();
+        final CompletableFuture<Void> second = _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host1.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED)),
+                Organization.DEFAULT).toCompletableFuture();
+        Assert.assertEquals(1, _writer.getQueueDepth());
+        Assert.assertFalse(first.isDone());
+
+        runTasks();
+        Assert.assertTrue(first.isDone());
+        Assert.assertTrue(second.isDone());
+        Assert.assertEquals(0, _writer.getQueueDepth());
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(1, _repository.getHostCount(MetricsSoftwareState.LATEST_VERSION_INSTALLED, Organization.DEFAULT));
+    }
+
+    @Test
+    public void testWritesAreFlushedInBatches() {
+        final CompletableFuture<Void> written = _writer.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED),
+                        createHost("host2.example.com", MetricsSoftwareState.NOT_INSTALLED),
+                        createHost("host3.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT).toCompletableFuture();
+        Assert.assertEquals(1, _tasks.size());
+
+        _tasks.remove().run();
+        Assert.assertEquals(2, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(1, _writer.getQueueDepth());
+        Assert.assertFalse(written.isDone());
+
+        runTasks();
+        Assert.assertTrue(written.isDone());
+        Assert.assertEquals(3, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertTrue(_writer.flushed().toCompletableFuture().isDone());
+    }
+
+    @Test
+    public void testDeleteReplacesPendingUpdate() {
+        _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT);
+        runTasks();
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+
+        _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host1.example.com", MetricsSoftwareState.OLD_VERSION_INSTALLED)),
+                Organization.DEFAULT);
+        _writer.deleteHosts(Collections.singletonList("host1.example.com"), Organization.DEFAULT);
+        Assert.assertEquals(1, _writer.getQueueDepth());
+        runTasks();
+        Assert.assertEquals(0, _repository.getHostCount(Organization.DEFAULT));
+    }
+
+    @Test
+    public void testFullQueueRejectsNewHosts() throws InterruptedException {
+        _writer.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED),
+                        createHost("host2.example.com", MetricsSoftwareState.NOT_INSTALLED),
+                        createHost("host3.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT);
+
+        final CompletableFuture<Void> rejected = _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host4.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT).toCompletableFuture();
+        Assert.assertEquals(Optional.of(RejectedExecutionException.class), getFailure(rejected));
+
+        final CompletableFuture<Void> coalesced = _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host3.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED)),
+                Organization.DEFAULT).toCompletableFuture();
+        Assert.assertFalse(coalesced.isDone());
+        Assert.assertEquals(3, _writer.getQueueDepth());
+
+        runTasks();
+        Assert.assertEquals(Optional.empty(), getFailure(coalesced));
+        Assert.assertEquals(3, _repository.getHostCount(Organization.DEFAULT));
+    }
+
+    @Test
+    public void testFailedWriteFailsSubmission() throws InterruptedException {
+        final CompletableFuture<Void> written = _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT).toCompletableFuture();
+        _repository.close();
+        runTasks();
+        _repository.open();
+
+        Assert.assertEquals(Optional.of(IllegalStateException.class), getFailure(written));
+        Assert.assertEquals(0, _writer.getQueueDepth());
+        Assert.assertTrue(_writer.flushed().toCompletableFuture().isDone());
+    }
+
+    @Test
+    public void testExportHostsReadsRepository() throws InterruptedException, ExecutionException {
+        _writer.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED),
+                        createHost("host2.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT);
+        runTasks();
+
+        _writer.addOrUpdateHosts(
+                Collections.singletonList(createHost("host3.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT);
+        runTasks();
+
+        final List<List<Host>> parts = new ArrayList<>();
+        final CompletableFuture<Void> exported = _writer.exportHosts(Organization.DEFAULT, parts::add).toCompletableFuture();
+        Assert.assertFalse(exported.isDone());
+        runTasks();
+        exported.get();
+        // The hosts are streamed in parts of the batch size
+        Assert.assertEquals(2, parts.size());
+        Assert.assertEquals(2, parts.get(0).size());
+        Assert.assertEquals(1, parts.get(1).size());
+    }
+
+    @Test
+    public void testExpireHostsResolvesKeys() throws InterruptedException {
+        _writer.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1.example.com", MetricsSoftwareState.NOT_INSTALLED),
+                        createHost("host2.example.com", MetricsSoftwareState.NOT_INSTALLED)),
+                Organization.DEFAULT);
+        runTasks();
+
+        final long[] keys = new long[] {
+                HostFingerprintTable.hashHostname("host1.example.com"),
+                HostFingerprintTable.hashHostname("host3.example.com")};
+        Arrays.sort(keys);
+        final CompletableFuture<Void> expired = _writer.expireHosts(keys, Organization.DEFAULT).toCompletableFuture();
+        runTasks();
+        Assert.assertEquals(Optional.empty(), getFailure(expired));
+        Assert.assertEquals(1L, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(
+                "host2.example.com",
+                _repository.query(_repository.createQuery(Organization.DEFAULT)).values().get(0).getHostname());
+    }
+
+    private void runTasks() {
+        while (!_tasks.isEmpty()) {
+            _tasks.remove().run();
+        }
+    }
+
+    private static Optional<Class<?>> getFailure(final CompletableFuture<Void> future) throws InterruptedException {
+        Assert.assertTrue(future.isDone());
+        try {
+            future.get();
+            return Optional.empty();
+        } catch (final ExecutionException e) {
+            return Optional.of(e.getCause().getClass());
+        }
+    }
+
+    private static Host createHost(final String name, final MetricsSoftwareState state) {
+        return new DefaultHost.Builder()
+                .setHostname(name)
+                .setMetricsSoftwareState(state)
+                .build();
+    }
+
+    private LocalHostRepository _repository;
+    private Queue<Runnable> _tasks;
+    private HostWriter _writer;
+}
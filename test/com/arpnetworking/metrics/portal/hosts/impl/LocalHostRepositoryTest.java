@@ -0,0 +1,340 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.QueryResult;
+import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultHostFacet;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests for <code>LocalHostRepository</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class LocalHostRepositoryTest {
+
+    @Before
+    public void setUp() {
+        _repository = new LocalHostRepository();
+        _repository.open();
+    }
+
+    @After
+    public void tearDown() {
+        _repository.close();
+    }
+
+    @Test
+    public void testUpdateHostReplacesIndexes() {
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        final Host expectedHost = addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster2");
+
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(0, _repository.getHostCount(MetricsSoftwareState.NOT_INSTALLED, Organization.DEFAULT));
+        Assert.assertEquals(1, _repository.getHostCount(MetricsSoftwareState.LATEST_VERSION_INSTALLED, Organization.DEFAULT));
+        Assert.assertEquals(0, query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster1"))).total());
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster2")));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, result.values().get(0));
+    }
+
+    @Test
+    public void testAddOrUpdateHosts() {
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        final Host updatedHost = new DefaultHost.Builder()
+                .setHostname("web1234a.example.com")
+                .setMetricsSoftwareState(MetricsSoftwareState.LATEST_VERSION_INSTALLED)
+                .setCluster("cluster1")
+                .build();
+        final Host newHost = new DefaultHost.Builder()
+                .setHostname("web1234b.example.com")
+                .setMetricsSoftwareState(MetricsSoftwareState.NOT_INSTALLED)
+                .setCluster("cluster1")
+                .build();
+        _repository.addOrUpdateHosts(Arrays.asList(updatedHost, newHost), Organization.DEFAULT);
+
+        Assert.assertEquals(2, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(1, _repository.getHostCount(MetricsSoftwareState.LATEST_VERSION_INSTALLED, Organization.DEFAULT));
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster1")));
+        Assert.assertEquals(2, result.total());
+        Assert.assertEquals(updatedHost, result.values().get(0));
+        Assert.assertEquals(newHost, result.values().get(1));
+    }
+
+    @Test
+    public void testDeleteHost() {
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        _repository.deleteHost("web1234a.example.com", Organization.DEFAULT);
+
+        Assert.assertEquals(0, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(0, query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("1234"))).total());
+        Assert.assertEquals(0, query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster1"))).total());
+    }
+
+    @Test
+    public void testDeleteHosts() {
+        addOrUpdateHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        addOrUpdateHost("host2", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        addOrUpdateHost("host3", MetricsSoftwareState.NOT_INSTALLED, "cluster2");
+        _repository.deleteHosts(Arrays.asList("host1", "host3", "host4"), Organization.DEFAULT);
+
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(1, query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster1"))).total());
+        Assert.assertEquals(0, query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster2"))).total());
+    }
+
+    @Test
+    public void testEtagChangesOnWrite() {
+        final String initialEtag = _repository.getEtag(Organization.DEFAULT).get();
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        final String addedEtag = _repository.getEtag(Organization.DEFAULT).get();
+        Assert.assertNotEquals(initialEtag, addedEtag);
+        Assert.assertEquals(Optional.of(addedEtag), query(_repository.createQuery(Organization.DEFAULT)).etag());
+
+        _repository.deleteHost("web1234a.example.com", Organization.DEFAULT);
+        Assert.assertNotEquals(addedEtag, _repository.getEtag(Organization.DEFAULT).get());
+    }
+
+    @Test
+    public void testFindHostsWithInfixAndRanking() {
+        final Host infix = addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, null);
+        final Host prefix = addOrUpdateHost("1234-db.example.com", MetricsSoftwareState.NOT_INSTALLED, null);
+        final Host exact = addOrUpdateHost("1234", MetricsSoftwareState.NOT_INSTALLED, null);
+        addOrUpdateHost("web9999a.example.com", MetricsSoftwareState.NOT_INSTALLED, null);
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("1234")));
+        Assert.assertEquals(3, result.total());
+        Assert.assertEquals(exact, result.values().get(0));
+        Assert.assertEquals(prefix, result.values().get(1));
+        Assert.assertEquals(infix, result.values().get(2));
+    }
+
+    @Test
+    public void testFindHostsWithShortPartialHostname() {
+        final Host expectedHost = addOrUpdateHost("Ab-host", MetricsSoftwareState.NOT_INSTALLED, null);
+        addOrUpdateHost("cd-host", MetricsSoftwareState.NOT_INSTALLED, null);
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("aB")));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, result.values().get(0));
+    }
+
+    @Test
+    public void testFindHostsWithNameAndState() {
+        addOrUpdateHost("host1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1");
+        final Host expectedHost = addOrUpdateHost("host2", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster1");
+        addOrUpdateHost("host3", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster2");
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT)
+                .partialHostname(Optional.of("host"))
+                .cluster(Optional.of("cluster1"))
+                .metricsSoftwareState(Optional.of(MetricsSoftwareState.OLD_VERSION_INSTALLED)));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, result.values().get(0));
+    }
+
+    @Test
+    public void testFindHostsSortByStateThenHostname() {
+        final Host host1 = addOrUpdateHost("c-host", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
+        final Host host2 = addOrUpdateHost("a-host", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
+        final Host host3 = addOrUpdateHost("b-host", MetricsSoftwareState.NOT_INSTALLED, null);
+
+        final List<? extends Host> hosts = query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.METRICS_SOFTWARE_STATE))).values();
+        Assert.assertEquals(3, hosts.size());
+        Assert.assertEquals(host3, hosts.get(0));
+        Assert.assertEquals(host2, hosts.get(1));
+        Assert.assertEquals(host1, hosts.get(2));
+    }
+
+    @Test
+    public void testFindHostsOffset() {
+        addOrUpdateHost("a-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
+        addOrUpdateHost("B-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
+        final Host expectedHost1 = addOrUpdateHost("c-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
+        final Host expectedHost2 = addOrUpdateHost("D-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
+        addOrUpdateHost("e-host", MetricsSoftwareState.LATEST_VERSION_INSTALLED, null);
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT)
+                .partialHostname(Optional.of("host"))
+                .offset(Optional.of(2))
+                .limit(2)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME)));
+        Assert.assertEquals(5, result.total());
+        Assert.assertEquals(2, result.values().size());
+        Assert.assertEquals(expectedHost1, result.values().get(0));
+        Assert.assertEquals(expectedHost2, result.values().get(1));
+    }
+
+    @Test
+    public void testFindHostsPagesEveryOrder() {
+        final MetricsSoftwareState[] states = MetricsSoftwareState.values();
+        for (int i = 0; i < 30; ++i) {
+            addOrUpdateHost(
+                    (i % 5 == 0 ? "web" : "db-web") + String.format("%02d", 29 - i) + ".example.com",
+                    states[i % states.length],
+                    i % 3 == 0 ? "cluster1" : "cluster2");
+        }
+        addOrUpdateHost("web", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+
+        final List<HostQuery> queries = Arrays.asList(
+                _repository.createQuery(Organization.DEFAULT),
+                _repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster2")),
+                _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("web")),
+                _repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("we")).cluster(Optional.of("cluster1")),
+                _repository.createQuery(Organization.DEFAULT).sortBy(Optional.of(HostQuery.Field.METRICS_SOFTWARE_STATE)),
+                _repository.createQuery(Organization.DEFAULT)
+                        .partialHostname(Optional.of("web"))
+                        .sortBy(Optional.of(HostQuery.Field.HOSTNAME)));
+        for (final HostQuery query : queries) {
+            final QueryResult<Host> all = query(query.limit(1000).offset(Optional.empty()));
+            for (int offset = 0; offset <= all.total(); offset += 7) {
+                final QueryResult<Host> page = query(query.limit(7).offset(Optional.of(offset)));
+                Assert.assertEquals(query.toString(), all.total(), page.total());
+                Assert.assertEquals(
+                        query.toString(),
+                        all.values().subList(offset, (int) Math.min(offset + 7, all.total())),
+                        page.values());
+            }
+            Assert.assertEquals(all.total(), query(query.limit(0).offset(Optional.empty())).total());
+        }
+    }
+
+    @Test
+    public void testExportIgnoresPagination() {
+        final Host host1 = addOrUpdateHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster1");
+        final Host host2 = addOrUpdateHost("host2", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster1");
+        addOrUpdateHost("host3", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster2");
+
+        final List<Host> hosts;
+        try (Stream<Host> stream = _repository.export(_repository.createQuery(Organization.DEFAULT)
+                .cluster(Optional.of("cluster1"))
+                .limit(1)
+                .offset(Optional.of(1)))) {
+            hosts = stream.collect(Collectors.toList());
+        }
+        Assert.assertEquals(2, hosts.size());
+        Assert.assertTrue(hosts.contains(host1));
+        Assert.assertTrue(hosts.contains(host2));
+    }
+
+    @Test
+    public void testExportReadsInChunks() {
+        final int hostCount = LocalHostIndex.EXPORT_CHUNK_SIZE * 2 + 1;
+        for (int i = 0; i < hostCount; ++i) {
+            addOrUpdateHost(String.format("host%05d", i), MetricsSoftwareState.NOT_INSTALLED, i % 2 == 0 ? "even" : "odd");
+        }
+
+        final List<String> hostnames;
+        try (Stream<Host> stream = _repository.export(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("even")))) {
+            hostnames = stream.map(Host::getHostname).collect(Collectors.toList());
+        }
+        Assert.assertEquals(LocalHostIndex.EXPORT_CHUNK_SIZE + 1, hostnames.size());
+        for (int i = 0; i < hostnames.size(); ++i) {
+            Assert.assertEquals(String.format("host%05d", i * 2), hostnames.get(i));
+        }
+    }
+
+    @Test
+    public void testExportToleratesConcurrentWrites() {
+        final int hostCount = LocalHostIndex.EXPORT_CHUNK_SIZE + 1;
+        for (int i = 0; i < hostCount; ++i) {
+            addOrUpdateHost(String.format("host%05d", i), MetricsSoftwareState.NOT_INSTALLED, null);
+        }
+
+        final List<String> hostnames = new ArrayList<>();
+        try (Stream<Host> stream = _repository.export(_repository.createQuery(Organization.DEFAULT))) {
+            final Iterator<Host> hosts = stream.iterator();
+            hostnames.add(hosts.next().getHostname());
+
+            // Writes between chunks apply to the hosts after the last exported hostname
+            _repository.deleteHost(String.format("host%05d", hostCount - 1), Organization.DEFAULT);
+            addOrUpdateHost("host99999", MetricsSoftwareState.NOT_INSTALLED, null);
+            addOrUpdateHost("aaa", MetricsSoftwareState.NOT_INSTALLED, null);
+            hosts.forEachRemaining(host -> hostnames.add(host.getHostname()));
+        }
+        Assert.assertEquals(hostCount, hostnames.size());
+        Assert.assertFalse(hostnames.contains("aaa"));
+        Assert.assertEquals("host99999", hostnames.get(hostnames.size() - 1));
+    }
+
+    @Test
+    public void testGetHostFacets() {
+        addOrUpdateHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        addOrUpdateHost("host2", MetricsSoftwareState.NOT_INSTALLED, "cluster1");
+        addOrUpdateHost("host3", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1");
+        addOrUpdateHost("host4", MetricsSoftwareState.NOT_INSTALLED, "cluster2");
+        addOrUpdateHost("host5", MetricsSoftwareState.OLD_VERSION_INSTALLED, null);
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList(
+                        createHostFacet("cluster1", MetricsSoftwareState.NOT_INSTALLED, 2),
+                        createHostFacet("cluster1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, 1),
+                        createHostFacet("cluster2", MetricsSoftwareState.NOT_INSTALLED, 1),
+                        createHostFacet(null, MetricsSoftwareState.OLD_VERSION_INSTALLED, 1))),
+                new HashSet<>(_repository.getHostFacets(Organization.DEFAULT)));
+
+        // Facets are maintained on update and delete and empty facets are dropped
+        addOrUpdateHost("host4", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1");
+        _repository.deleteHost("host5", Organization.DEFAULT);
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList(
+                        createHostFacet("cluster1", MetricsSoftwareState.NOT_INSTALLED, 2),
+                        createHostFacet("cluster1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, 2))),
+                new HashSet<>(_repository.getHostFacets(Organization.DEFAULT)));
+    }
+
+    private QueryResult<Host> query(final HostQuery query) {
+        return _repository.query(query);
+    }
+
+    private static HostFacet createHostFacet(final String cluster, final MetricsSoftwareState state, final long count) {
+        return new DefaultHostFacet.Builder()
+                .setCluster(cluster)
+                .setMetricsSoftwareState(state)
+                .setCount(count)
+                .build();
+    }
+
+    private Host addOrUpdateHost(final String name, final MetricsSoftwareState state, final String cluster) {
+        final Host host = new DefaultHost.Builder()
+                .setHostname(name)
+                .setMetricsSoftwareState(state)
+                .setCluster(cluster)
+                .build();
+        _repository.addOrUpdateHost(host, Organization.DEFAULT);
+        return host;
+    }
+
+    private LocalHostRepository _repository;
+}
@@ -0,0 +1,314 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import com.google.common.io.Files;
+import models.internal.Host;
+import models.internal.HostFacet;
+import models.internal.HostQuery;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.QueryResult;
+import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultHostFacet;
+import models.internal.impl.DefaultOrganization;
+import org.apache.commons.io.FileUtils;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Tests for <code>LuceneHostRepository</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class LuceneHostRepositoryTest {
+
+    @Before
+    public void setUp() {
+        _tempDirectory = Files.createTempDir();
+        _repository = new LuceneHostRepository(_tempDirectory);
+        _repository.open();
+    }
+
+    @After
+    public void tearDown() {
+        _repository.close();
+        try {
+            FileUtils.deleteDirectory(_tempDirectory);
+        } catch (final IOException ioe) {
+            // Do nothing
+        }
+    }
+
+    @Test
+    public void testUpdateHostReplacesDocument() {
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1", Organization.DEFAULT);
+        final Host expectedHost = addOrUpdateHost(
+                "web1234a.example.com",
+                MetricsSoftwareState.LATEST_VERSION_INSTALLED,
+                "cluster2",
+                Organization.DEFAULT);
+
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(0, _repository.getHostCount(MetricsSoftwareState.NOT_INSTALLED, Organization.DEFAULT));
+        Assert.assertEquals(1, _repository.getHostCount(MetricsSoftwareState.LATEST_VERSION_INSTALLED, Organization.DEFAULT));
+        Assert.assertEquals(0, query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster1"))).total());
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).cluster(Optional.of("cluster2")));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, result.values().get(0));
+    }
+
+    @Test
+    public void testDeleteHost() {
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1", Organization.DEFAULT);
+        _repository.deleteHost("web1234a.example.com", Organization.DEFAULT);
+
+        Assert.assertEquals(0, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(0, query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("1234"))).total());
+    }
+
+    @Test
+    public void testDeleteHosts() {
+        addOrUpdateHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1", Organization.DEFAULT);
+        addOrUpdateHost("host2", MetricsSoftwareState.NOT_INSTALLED, "cluster1", Organization.DEFAULT);
+        addOrUpdateHost("host3", MetricsSoftwareState.NOT_INSTALLED, "cluster2", Organization.DEFAULT);
+        _repository.deleteHosts(Arrays.asList("host1", "host3", "host4"), Organization.DEFAULT);
+
+        Assert.assertEquals(1, _repository.getHostCount(Organization.DEFAULT));
+        Assert.assertEquals(1, query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("host"))).total());
+    }
+
+    @Test
+    public void testFindHostsWithInfixAndRanking() {
+        final Host infix = addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+        final Host prefix = addOrUpdateHost("1234-db.example.com", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+        final Host exact = addOrUpdateHost("1234", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+        addOrUpdateHost("web9999a.example.com", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("1234")));
+        Assert.assertEquals(3, result.total());
+        Assert.assertEquals(exact, result.values().get(0));
+        Assert.assertEquals(prefix, result.values().get(1));
+        Assert.assertEquals(infix, result.values().get(2));
+    }
+
+    @Test
+    public void testFindHostsWithShortPartialHostname() {
+        final Host expectedHost = addOrUpdateHost("Ab-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+        addOrUpdateHost("cd-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("aB")));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, result.values().get(0));
+    }
+
+    @Test
+    public void testFindHostsWithCursor() {
+        final List<Host> hosts = Arrays.asList(
+                addOrUpdateHost("a-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT),
+                addOrUpdateHost("b-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT),
+                addOrUpdateHost("c-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT),
+                addOrUpdateHost("d-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT),
+                addOrUpdateHost("e-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT));
+
+        final QueryResult<Host> firstPage = query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME))
+                .limit(2));
+        Assert.assertEquals(5, firstPage.total());
+        Assert.assertEquals(hosts.subList(0, 2), firstPage.values());
+        Assert.assertTrue(firstPage.nextCursor().isPresent());
+
+        final QueryResult<Host> secondPage = query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME))
+                .cursor(firstPage.nextCursor())
+                .limit(2));
+        Assert.assertEquals(5, secondPage.total());
+        Assert.assertEquals(hosts.subList(2, 4), secondPage.values());
+        Assert.assertTrue(secondPage.nextCursor().isPresent());
+
+        final QueryResult<Host> lastPage = query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME))
+                .cursor(secondPage.nextCursor())
+                .limit(2));
+        Assert.assertEquals(hosts.subList(4, 5), lastPage.values());
+        Assert.assertFalse(lastPage.nextCursor().isPresent());
+    }
+
+    @Test
+    public void testFindHostsWithZeroLimit() {
+        addOrUpdateHost("a-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+        addOrUpdateHost("b-host", MetricsSoftwareState.NOT_INSTALLED, null, Organization.DEFAULT);
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT)
+                .sortBy(Optional.of(HostQuery.Field.HOSTNAME))
+                .limit(0));
+        Assert.assertEquals(2, result.total());
+        Assert.assertEquals(Collections.emptyList(), result.values());
+        Assert.assertFalse(result.nextCursor().isPresent());
+    }
+
+    @Test
+    public void testOrganizationSeparation() {
+        final Organization organization = new DefaultOrganization.Builder().setId(UUID.randomUUID()).build();
+        final Host expectedHost = addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1", organization);
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1", Organization.DEFAULT);
+        addOrUpdateHost("web1234b.example.com", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1", Organization.DEFAULT);
+
+        Assert.assertEquals(1, _repository.getHostCount(organization));
+        Assert.assertEquals(2, _repository.getHostCount(Organization.DEFAULT));
+        final QueryResult<Host> result = query(_repository.createQuery(organization).partialHostname(Optional.of("web1234")));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, result.values().get(0));
+
+        _repository.deleteHost("web1234a.example.com", Organization.DEFAULT);
+        Assert.assertEquals(1, _repository.getHostCount(organization));
+    }
+
+    @Test
+    public void testEtagChangesOnWrite() {
+        final String initialEtag = _repository.getEtag(Organization.DEFAULT).get();
+        addOrUpdateHost("web1234a.example.com", MetricsSoftwareState.NOT_INSTALLED, "cluster1", Organization.DEFAULT);
+        final String addedEtag = _repository.getEtag(Organization.DEFAULT).get();
+        Assert.assertNotEquals(initialEtag, addedEtag);
+        Assert.assertEquals(Optional.of(addedEtag), query(_repository.createQuery(Organization.DEFAULT)).etag());
+
+        _repository.deleteHost("web1234a.example.com", Organization.DEFAULT);
+        Assert.assertNotEquals(addedEtag, _repository.getEtag(Organization.DEFAULT).get());
+    }
+
+    @Test
+    public void testHostsPersistAcrossReopen() {
+        final Host expectedHost = addOrUpdateHost(
+                "web1234a.example.com",
+                MetricsSoftwareState.NOT_INSTALLED,
+                "cluster1",
+                Organization.DEFAULT);
+        _repository.close();
+        _repository.open();
+
+        final QueryResult<Host> result = query(_repository.createQuery(Organization.DEFAULT).partialHostname(Optional.of("1234")));
+        Assert.assertEquals(1, result.total());
+        Assert.assertEquals(expectedHost, result.values().get(0));
+    }
+
+    @Test
+    public void testWritesAreCommittedBeforeReturning() throws IOException {
+        _repository.addOrUpdateHosts(
+                Arrays.asList(
+                        createHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1"),
+                        createHost("host2", MetricsSoftwareState.NOT_INSTALLED, "cluster1")),
+                Organization.DEFAULT);
+        Assert.assertEquals(2, getCommittedDocumentCount());
+
+        _repository.deleteHosts(Collections.singletonList("host1"), Organization.DEFAULT);
+        Assert.assertEquals(1, getCommittedDocumentCount());
+    }
+
+    @Test
+    public void testExportIgnoresPagination() {
+        final Host host1 = addOrUpdateHost("host1", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster1", Organization.DEFAULT);
+        final Host host2 = addOrUpdateHost("host2", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster1", Organization.DEFAULT);
+        addOrUpdateHost("host3", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster2", Organization.DEFAULT);
+
+        final List<Host> hosts;
+        try (Stream<Host> stream = _repository.export(_repository.createQuery(Organization.DEFAULT)
+                .cluster(Optional.of("cluster1"))
+                .limit(1)
+                .offset(Optional.of(1)))) {
+            hosts = stream.collect(Collectors.toList());
+        }
+        Assert.assertEquals(Arrays.asList(host1, host2), hosts);
+    }
+
+    @Test
+    public void testGetHostFacets() {
+        final Organization organization = new DefaultOrganization.Builder().setId(UUID.randomUUID()).build();
+        addOrUpdateHost("host1", MetricsSoftwareState.NOT_INSTALLED, "cluster1", Organization.DEFAULT);
+        addOrUpdateHost("host2", MetricsSoftwareState.NOT_INSTALLED, "cluster1", Organization.DEFAULT);
+        addOrUpdateHost("host3", MetricsSoftwareState.LATEST_VERSION_INSTALLED, "cluster1", Organization.DEFAULT);
+        addOrUpdateHost("host4", MetricsSoftwareState.NOT_INSTALLED, "cluster2", Organization.DEFAULT);
+        addOrUpdateHost("host5", MetricsSoftwareState.OLD_VERSION_INSTALLED, null, Organization.DEFAULT);
+        addOrUpdateHost("host6", MetricsSoftwareState.OLD_VERSION_INSTALLED, "cluster1", organization);
+        _repository.deleteHost("host4", Organization.DEFAULT);
+
+        Assert.assertEquals(
+                new HashSet<>(Arrays.asList(
+                        createHostFacet("cluster1", MetricsSoftwareState.NOT_INSTALLED, 2),
+                        createHostFacet("cluster1", MetricsSoftwareState.LATEST_VERSION_INSTALLED, 1),
+                        createHostFacet(null, MetricsSoftwareState.OLD_VERSION_INSTALLED, 1))),
+                new HashSet<>(_repository.getHostFacets(Organization.DEFAULT)));
+        Assert.assertEquals(
+                Arrays.asList(createHostFacet("cluster1", MetricsSoftwareState.OLD_VERSION_INSTALLED, 1)),
+                _repository.getHostFacets(organization));
+    }
+
+    private QueryResult<Host> query(final HostQuery query) {
+        return _repository.query(query);
+    }
+
+    private static HostFacet createHostFacet(final String cluster, final MetricsSoftwareState state, final long count) {
+        return new DefaultHostFacet.Builder()
+                .setCluster(cluster)
+                .setMetricsSoftwareState(state)
+                .setCount(count)
+                .build();
+    }
+
+    private Host addOrUpdateHost(
+            final String name,
+            final MetricsSoftwareState state,
+            final String cluster,
+            final Organization organization) {
+        final Host host = createHost(name, state, cluster);
+        _repository.addOrUpdateHost(host, organization);
+        return host;
+    }
+
+    private static Host createHost(final String name, final MetricsSoftwareState state, final String cluster) {
+        return new DefaultHost.Builder()
+                .setHostname(name)
+                .setMetricsSoftwareState(state)
+                .setCluster(cluster)
+                .build();
+    }
+
+    private int getCommittedDocumentCount() throws IOException {
+        // A reader opened on the directory sees only the last commit
+        try (Directory directory = FSDirectory.open(_tempDirectory);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            return reader.numDocs();
+        }
+    }
+
+    private File _tempDirectory;
+    private LuceneHostRepository _repository;
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.testkit.JavaTestKit;
+import com.google.common.collect.Sets;
+import com.typesafe.config.ConfigFactory;
+import models.internal.Organization;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for <code>ShardedHostProviderKeeper</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class ShardedHostProviderKeeperTest {
+
+    @Before
+    public void setUp() {
+        _system = ActorSystem.create("ShardedHostProviderKeeperTest", ConfigFactory.empty());
+        _region = new JavaTestKit(_system);
+    }
+
+    @After
+    public void tearDown() {
+        JavaTestKit.shutdownActorSystem(_system);
+    }
+
+    @Test
+    public void testStartsEveryProviderEachInterval() {
+        _system.actorOf(ShardedHostProviderKeeper.props(
+                _region.getRef(),
+                Arrays.asList("foreman", "consul"),
+                FiniteDuration.create(100, TimeUnit.MILLISECONDS),
+                Optional.empty()));
+
+        for (int i = 0; i < 2; ++i) {
+            final ShardedHostProvider.Start first = _region.expectMsgClass(ShardedHostProvider.Start.class);
+            final ShardedHostProvider.Start second = _region.expectMsgClass(ShardedHostProvider.Start.class);
+            Assert.assertEquals(Sets.newHashSet("foreman", "consul"), Sets.newHashSet(first.getKey(), second.getKey()));
+        }
+    }
+
+    @Test
+    public void testForwardsChangesToMerger() {
+        final JavaTestKit merger = new JavaTestKit(_system);
+        final ActorRef keeper = _system.actorOf(ShardedHostProviderKeeper.props(
+                _region.getRef(),
+                Collections.singletonList("foreman"),
+                FiniteDuration.create(1, TimeUnit.HOURS),
+                Optional.of(Props.create(Forwarder.class, merger.getRef()))));
+
+        // The merger sees the entity as the sender so the changes are attributed to its source
+        final JavaTestKit entity = new JavaTestKit(_system);
+        final MultiProvider.SourceChanges changes = new MultiProvider.SourceChanges(
+                "foreman",
+                Collections.emptyList(),
+                Collections.singletonList("host1.example.com"),
+                Organization.DEFAULT);
+        keeper.tell(changes, entity.getRef());
+        Assert.assertSame(changes, merger.expectMsgClass(MultiProvider.SourceChanges.class));
+        Assert.assertEquals(entity.getRef(), merger.getLastSender());
+    }
+
+    @Test
+    public void testStopsKeepAlivesWhenStopped() {
+        final ActorRef keeper = _system.actorOf(ShardedHostProviderKeeper.props(
+                _region.getRef(),
+                Collections.singletonList("foreman"),
+                FiniteDuration.create(100, TimeUnit.MILLISECONDS),
+                Optional.empty()));
+        _region.expectMsgClass(ShardedHostProvider.Start.class);
+
+        final JavaTestKit watcher = new JavaTestKit(_system);
+        watcher.watch(keeper);
+        _system.stop(keeper);
+        watcher.expectTerminated(keeper);
+        // Only keep alives sent before the keeper stopped may arrive
+        while (_region.msgAvailable()) {
+            _region.expectMsgClass(ShardedHostProvider.Start.class);
+        }
+        _region.expectNoMsg(FiniteDuration.create(300, TimeUnit.MILLISECONDS));
+    }
+
+    private ActorSystem _system;
+    private JavaTestKit _region;
+
+    /**
+     * Actor which forwards every message to a probe.
+     */
+    public static final class Forwarder extends UntypedActor {
+
+        /**
+         * Public constructor.
+         *
+         * @param target The probe to forward to.
+         */
+        public Forwarder(final ActorRef target) {
+            _target = target;
+        }
+
+        @Override
+        public void onReceive(final Object message) throws Exception {
+            _target.forward(message, getContext());
+        }
+
+        private final ActorRef _target;
+    }
+}
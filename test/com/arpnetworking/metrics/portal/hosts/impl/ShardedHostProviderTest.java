@@ -0,0 +1,231 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.hosts.impl;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Props;
+import akka.actor.UntypedActor;
+import akka.testkit.JavaTestKit;
+import com.google.common.collect.ImmutableMap;
+import com.google.inject.AbstractModule;
+import com.google.inject.Guice;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import com.google.inject.name.Named;
+import com.google.inject.name.Names;
+import com.typesafe.config.ConfigFactory;
+import models.internal.Organization;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import play.Configuration;
+import play.Environment;
+import scala.concurrent.duration.FiniteDuration;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests for <code>ShardedHostProvider</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class ShardedHostProviderTest {
+
+    @Before
+    public void setUp() {
+        _system = ActorSystem.create("ShardedHostProviderTest", ConfigFactory.empty());
+        _providers = new JavaTestKit(_system);
+        _factory = new HostProviderFactory(Guice.createInjector(new AbstractModule() {
+            @Override
+            protected void configure() {
+                bind(ActorRef.class).annotatedWith(Names.named("providers")).toInstance(_providers.getRef());
+            }
+        }));
+    }
+
+    @After
+    public void tearDown() {
+        JavaTestKit.shutdownActorSystem(_system);
+    }
+
+    @Test
+    public void testProviderStartsImmediatelyWhenNotMerged() {
+        final ActorRef entity = createEntity(
+                "default",
+                ImmutableMap.<String, Object>of("type", StubProvider.class.getName()));
+
+        final StubProvider.Started started = _providers.expectMsgClass(StubProvider.Started.class);
+        Assert.assertFalse(started.getConfiguration().keys().contains(HostWrites.SOURCE_KEY));
+        Assert.assertEquals(entity, started.getParent());
+
+        // The keep alive does not restart the provider
+        entity.tell(new ShardedHostProvider.Start("default"), new JavaTestKit(_system).getRef());
+        _providers.expectNoMsg(NO_MESSAGE_WAIT);
+    }
+
+    @Test
+    public void testMergedProviderStartsOnFirstStart() {
+        final ActorRef entity = createEntity("foreman", MULTI_PROVIDER_CONFIGURATION);
+        _providers.expectNoMsg(NO_MESSAGE_WAIT);
+
+        final JavaTestKit keeper = new JavaTestKit(_system);
+        entity.tell(new ShardedHostProvider.Start("foreman"), keeper.getRef());
+        final StubProvider.Started started = _providers.expectMsgClass(StubProvider.Started.class);
+        Assert.assertEquals("foreman", started.getConfiguration().getString(HostWrites.SOURCE_KEY));
+
+        // Further keep alives from the same keeper do not restart the provider
+        entity.tell(new ShardedHostProvider.Start("foreman"), keeper.getRef());
+        _providers.expectNoMsg(NO_MESSAGE_WAIT);
+    }
+
+    @Test
+    public void testMergedProviderChangesAreRelayedToKeeper() {
+        final ActorRef entity = createEntity("foreman", MULTI_PROVIDER_CONFIGURATION);
+        final JavaTestKit keeper = new JavaTestKit(_system);
+        entity.tell(new ShardedHostProvider.Start("foreman"), keeper.getRef());
+        final ActorRef provider = _providers.expectMsgClass(StubProvider.Started.class).getProvider();
+
+        final MultiProvider.SourceChanges changes = createChanges();
+        provider.tell(changes, ActorRef.noSender());
+        Assert.assertSame(changes, keeper.expectMsgClass(MultiProvider.SourceChanges.class));
+        Assert.assertEquals(entity, keeper.getLastSender());
+
+        // Only the writes of the provider are relayed
+        entity.tell(createChanges(), _providers.getRef());
+        keeper.expectNoMsg(NO_MESSAGE_WAIT);
+    }
+
+    @Test
+    public void testMergedProviderRestartsForNewKeeper() {
+        final ActorRef entity = createEntity("foreman", MULTI_PROVIDER_CONFIGURATION);
+        final JavaTestKit oldKeeper = new JavaTestKit(_system);
+        entity.tell(new ShardedHostProvider.Start("foreman"), oldKeeper.getRef());
+        final ActorRef oldProvider = _providers.expectMsgClass(StubProvider.Started.class).getProvider();
+        final JavaTestKit watcher = new JavaTestKit(_system);
+        watcher.watch(oldProvider);
+
+        // The new keeper starts with an empty merge state so the provider is restarted to report all its hosts
+        final JavaTestKit newKeeper = new JavaTestKit(_system);
+        entity.tell(new ShardedHostProvider.Start("foreman"), newKeeper.getRef());
+        watcher.expectTerminated(oldProvider);
+        final ActorRef newProvider = _providers.expectMsgClass(StubProvider.Started.class).getProvider();
+        Assert.assertNotEquals(oldProvider, newProvider);
+
+        newProvider.tell(createChanges(), ActorRef.noSender());
+        newKeeper.expectMsgClass(MultiProvider.SourceChanges.class);
+        oldKeeper.expectNoMsg(NO_MESSAGE_WAIT);
+    }
+
+    @Test
+    public void testUnknownProviderStops() {
+        final ActorRef entity = createEntity("consul", MULTI_PROVIDER_CONFIGURATION);
+        final JavaTestKit watcher = new JavaTestKit(_system);
+        watcher.watch(entity);
+        watcher.expectTerminated(entity);
+        _providers.expectNoMsg(NO_MESSAGE_WAIT);
+    }
+
+    private ActorRef createEntity(final String key, final Map<String, Object> configuration) {
+        return _system.actorOf(createProps(_factory, new Configuration(configuration)), key);
+    }
+
+    private static Props createProps(final HostProviderFactory factory, final Configuration configuration) {
+        return Props.create(
+                ShardedHostProvider.class,
+                () -> new ShardedHostProvider(factory, Environment.simple(), configuration));
+    }
+
+    private static MultiProvider.SourceChanges createChanges() {
+        return new MultiProvider.SourceChanges(
+                "foreman",
+                Collections.emptyList(),
+                Collections.singletonList("host1.example.com"),
+                Organization.DEFAULT);
+    }
+
+    private ActorSystem _system;
+    private JavaTestKit _providers;
+    private HostProviderFactory _factory;
+
+    private static final FiniteDuration NO_MESSAGE_WAIT = FiniteDuration.create(250, TimeUnit.MILLISECONDS);
+    private static final Map<String, Object> MULTI_PROVIDER_CONFIGURATION = ImmutableMap.<String, Object>of(
+            "type", MultiProvider.class.getName(),
+            "foreman.type", StubProvider.class.getName());
+
+    /**
+     * Host provider which reports its start to the test and relays every
+     * message it receives to its parent as if it were its own write.
+     */
+    public static final class StubProvider extends UntypedActor {
+
+        /**
+         * Public constructor.
+         *
+         * @param providers The probe to report the start to.
+         * @param configuration Play configuration.
+         */
+        @Inject
+        public StubProvider(@Named("providers") final ActorRef providers, @Assisted final Configuration configuration) {
+            _providers = providers;
+            _configuration = configuration;
+        }
+
+        @Override
+        public void preStart() {
+            _providers.tell(new Started(self(), getContext().parent(), _configuration), self());
+        }
+
+        @Override
+        public void onReceive(final Object message) throws Exception {
+            getContext().parent().tell(message, self());
+        }
+
+        private final ActorRef _providers;
+        private final Configuration _configuration;
+
+        /**
+         * Message reporting the start of a <code>StubProvider</code>.
+         */
+        public static final class Started {
+
+            Started(final ActorRef provider, final ActorRef parent, final Configuration configuration) {
+                _provider = provider;
+                _parent = parent;
+                _configuration = configuration;
+            }
+
+            public ActorRef getProvider() {
+                return _provider;
+            }
+
+            public ActorRef getParent() {
+                return _parent;
+            }
+
+            public Configuration getConfiguration() {
+                return _configuration;
+            }
+
+            private final ActorRef _provider;
+            private final ActorRef _parent;
+            private final Configuration _configuration;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.arpnetworking.metrics.portal.search;
+
+import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
+import com.arpnetworking.metrics.portal.hosts.HostChange;
+import com.arpnetworking.metrics.portal.hosts.HostRepository;
+import com.google.common.collect.Sets;
+import models.internal.Expression;
+import models.internal.Host;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.Suggestion;
+import models.internal.impl.DefaultExpression;
+import models.internal.impl.DefaultExpressionQuery;
+import models.internal.impl.DefaultHost;
+import models.internal.impl.DefaultOrganization;
+import models.internal.impl.DefaultQueryResult;
+import models.internal.impl.DefaultSuggestion;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+/**
+ * Tests for <code>SearchIndex</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class SearchIndexTest {
+
+    @Test
+    public void testSuggestRanksExactThenWeightThenLength() {
+        _searchIndex.putHost(createHost("web12.example.com", "web"), Organization.DEFAULT);
+        _searchIndex.putHost(createHost("web1.example.com", "web"), Organization.DEFAULT);
+        _searchIndex.putHost(createHost("db1.example.com", "db"), Organization.DEFAULT);
+
+        Assert.assertEquals(
+                Arrays.asList(
+                        createSuggestion(Suggestion.Type.CLUSTER, "web", 2),
+                        createSuggestion(Suggestion.Type.HOST, "web1.example.com", 1),
+                        createSuggestion(Suggestion.Type.HOST, "web12.example.com", 1)),
+                _searchIndex.suggest("WEB", 10, Organization.DEFAULT));
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.CLUSTER, "web", 2)),
+                _searchIndex.suggest("web", 1, Organization.DEFAULT));
+    }
+
+    @Test
+    public void testSuggestMatchesAfterSeparators() {
+        _searchIndex.putHost(createHost("web1.us-east.example.com", null), Organization.DEFAULT);
+
+        final Suggestion expected = createSuggestion(Suggestion.Type.HOST, "web1.us-east.example.com", 1);
+        Assert.assertEquals(Collections.singletonList(expected), _searchIndex.suggest("east", 10, Organization.DEFAULT));
+        Assert.assertEquals(Collections.singletonList(expected), _searchIndex.suggest("exam", 10, Organization.DEFAULT));
+        Assert.assertEquals(Collections.emptyList(), _searchIndex.suggest("ample", 10, Organization.DEFAULT));
+    }
+
+    @Test
+    public void testUpdateAndRemoveHost() {
+        _searchIndex.putHost(createHost("web1.example.com", "web"), Organization.DEFAULT);
+        _searchIndex.putHost(createHost("web1.example.com", "api"), Organization.DEFAULT);
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.HOST, "web1.example.com", 1)),
+                _searchIndex.suggest("web", 10, Organization.DEFAULT));
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.CLUSTER, "api", 1)),
+                _searchIndex.suggest("api", 10, Organization.DEFAULT));
+
+        _searchIndex.removeHost("web1.example.com", Organization.DEFAULT);
+        Assert.assertEquals(Collections.emptyList(), _searchIndex.suggest("web", 10, Organization.DEFAULT));
+        Assert.assertEquals(Collections.emptyList(), _searchIndex.suggest("api", 10, Organization.DEFAULT));
+    }
+
+    @Test
+    public void testApplyHostChange() {
+        _searchIndex.applyHostChange(HostChange.updated(createHost("web1.example.com", "web"), Organization.DEFAULT));
+        Assert.assertEquals(
+                Arrays.asList(
+                        createSuggestion(Suggestion.Type.CLUSTER, "web", 1),
+                        createSuggestion(Suggestion.Type.HOST, "web1.example.com", 1)),
+                _searchIndex.suggest("web", 10, Organization.DEFAULT));
+
+        _searchIndex.applyHostChange(HostChange.deleted("web1.example.com", Organization.DEFAULT));
+        Assert.assertEquals(Collections.emptyList(), _searchIndex.suggest("web", 10, Organization.DEFAULT));
+    }
+
+    @Test
+    public void testSharedValuesAreWeightedAcrossSources() {
+        _searchIndex.putHost(createHost("host1", "cluster1"), Organization.DEFAULT);
+        final Expression expression = new DefaultExpression.Builder()
+                .setId(UUID.randomUUID())
+                .setCluster("cluster1")
+                .setService("service1")
+                .setMetric("cpu/idle")
+                .setScript("script")
+                .build();
+        _searchIndex.putExpression(expression, Organization.DEFAULT);
+
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.CLUSTER, "cluster1", 2)),
+                _searchIndex.suggest("clus", 10, Organization.DEFAULT));
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.METRIC, "cpu/idle", 1)),
+                _searchIndex.suggest("idle", 10, Organization.DEFAULT));
+
+        _searchIndex.removeHost("host1", Organization.DEFAULT);
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.CLUSTER, "cluster1", 1)),
+                _searchIndex.suggest("clus", 10, Organization.DEFAULT));
+    }
+
+    @Test
+    public void testOrganizationSeparation() {
+        final Organization organization = new DefaultOrganization.Builder().setId(UUID.randomUUID()).build();
+        _searchIndex.putHost(createHost("web1.example.com", null), organization);
+
+        Assert.assertEquals(Collections.emptyList(), _searchIndex.suggest("web", 10, Organization.DEFAULT));
+        Assert.assertEquals(1, _searchIndex.suggest("web", 10, organization).size());
+    }
+
+    @Test
+    public void testLoadStopsWhenOffsetIsIgnored() {
+        final List<Expression> expressions = new ArrayList<>();
+        for (int i = 0; i < 1000; ++i) {
+            expressions.add(new DefaultExpression.Builder()
+                    .setId(UUID.randomUUID())
+                    .setCluster("cluster1")
+                    .setService("service1")
+                    .setMetric("metric" + i)
+                    .setScript("script")
+                    .build());
+        }
+        final ExpressionRepository repository = Mockito.mock(ExpressionRepository.class);
+        Mockito.when(repository.createQuery(Organization.DEFAULT))
+                .thenAnswer(invocation -> new DefaultExpressionQuery(repository, Organization.DEFAULT));
+        Mockito.when(repository.query(Mockito.any())).thenReturn(new DefaultQueryResult<>(expressions, 2000));
+
+        _searchIndex.loadExpressions(repository, Organization.DEFAULT);
+        Mockito.verify(repository, Mockito.times(2)).query(Mockito.any());
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.SERVICE, "service1", 1000)),
+                _searchIndex.suggest("service", 10, Organization.DEFAULT));
+    }
+
+    @Test
+    public void testLoadSkipsHostsWrittenDuringLoad() {
+        final Host host1 = createHost("host1", null);
+        final Host host2 = createHost("host2", null);
+        final HostRepository repository = Mockito.mock(HostRepository.class);
+        Mockito.when(repository.export(Mockito.any())).thenReturn(Stream.of(host1, host2).peek(host -> {
+            if (host == host2) {
+                // The host is deleted after the load read it from the repository
+                _searchIndex.removeHost(host2.getHostname(), Organization.DEFAULT);
+            }
+        }));
+
+        _searchIndex.loadHosts(repository, Organization.DEFAULT);
+        Assert.assertEquals(
+                Collections.singletonList(createSuggestion(Suggestion.Type.HOST, "host1", 1)),
+                _searchIndex.suggest("host", 10, Organization.DEFAULT));
+
+        // Writes after the load are applied as usual
+        _searchIndex.putHost(host2, Organization.DEFAULT);
+        Assert.assertEquals(2, _searchIndex.suggest("host", 10, Organization.DEFAULT).size());
+    }
+
+    @Test
+    public void testKeys() {
+        Assert.assertEquals(
+                Sets.newHashSet("web1.us-east.example.com", "us-east.example.com", "east.example.com", "example.com", "com"),
+                PrefixIndex.keys("Web1.US-East.example.com"));
+        Assert.assertEquals(Sets.newHashSet("cpu/idle", "idle"), PrefixIndex.keys("cpu/idle"));
+        Assert.assertEquals(Sets.newHashSet("a.."), PrefixIndex.keys("A.."));
+    }
+
+    private static Host createHost(final String name, final String cluster) {
+        return new DefaultHost.Builder()
+                .setHostname(name)
+                .setMetricsSoftwareState(MetricsSoftwareState.NOT_INSTALLED)
+                .setCluster(cluster)
+                .build();
+    }
+
+    private static Suggestion createSuggestion(final Suggestion.Type type, final String value, final long weight) {
+        return new DefaultSuggestion.Builder()
+                .setType(type)
+                .setValue(value)
+                .setWeight(weight)
+                .build();
+    }
+
+    private final SearchIndex _searchIndex = new SearchIndex();
+}
@@ -15,8 +15,10 @@
  */
 package controllers;
 
+import com.arpnetworking.database.QueryCursor;
 import com.arpnetworking.metrics.portal.H2ConnectionStringFactory;
 import com.arpnetworking.metrics.portal.TestBeanFactory;
+import com.arpnetworking.metrics.portal.alerts.AsyncAlertRepository;
 import com.arpnetworking.metrics.portal.alerts.AlertRepository;
 import com.arpnetworking.metrics.portal.alerts.impl.DatabaseAlertRepository;
 import com.avaje.ebean.Ebean;
@@ -40,7 +42,11 @@ import play.mvc.Result;
 import play.test.Helpers;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Tests class <code>AlertController</code>.
@@ -53,7 +59,8 @@ public class AlertControllerTest {
     public static void instantiate() {
         Configuration configuration = Configuration.empty();
         app = new GuiceApplicationBuilder()
-                .bindings(Bindings.bind(AlertController.class).toInstance(new AlertController(configuration, alertRepo)))
+                .bindings(Bindings.bind(AlertController.class).toInstance(
+                        new AlertController(configuration, new AsyncAlertRepository(alertRepo, ForkJoinPool.commonPool()))))
                 .configure(H2ConnectionStringFactory.generateConfiguration())
                 .build();
         Helpers.start(app);
@@ -291,6 +298,48 @@ public class AlertControllerTest {
         Assert.assertEquals(Http.Status.OK, result.status());
     }
 
+    @Test
+    public void testQueryWithCursor() {
+        alertRepo.addOrUpdateAlert(TestBeanFactory.createAlertBuilder().setId(UUID.randomUUID()).build(), Organization.DEFAULT);
+        final Result result = Helpers.route(new Http.RequestBuilder()
+                .method("GET")
+                .uri("/v1/alerts/query?limit=1&cursor=" + new QueryCursor("id", Collections.singletonList("0")).encode()));
+        Assert.assertEquals(Http.Status.OK, result.status());
+    }
+
+    @Test
+    public void testQueryWithInvalidCursor() {
+        for (final String cursor : new String[] {
+                "not-a-cursor",
+                new QueryCursor("name", Collections.singletonList("0")).encode(),
+                new QueryCursor("id", Arrays.asList("0", "1")).encode(),
+                new QueryCursor("id", Collections.singletonList("abc")).encode()}) {
+            final Result result = Helpers.route(new Http.RequestBuilder()
+                    .method("GET")
+                    .uri("/v1/alerts/query?limit=1&cursor=" + cursor));
+            Assert.assertEquals(cursor, Http.Status.BAD_REQUEST, result.status());
+        }
+    }
+
+    @Test
+    public void testQueryWithCursorAndOffset() {
+        final Result result = Helpers.route(new Http.RequestBuilder()
+                .method("GET")
+                .uri("/v1/alerts/query?offset=1&cursor=" + new QueryCursor("id", Collections.singletonList("0")).encode()));
+        Assert.assertEquals(Http.Status.BAD_REQUEST, result.status());
+    }
+
+    @Test
+    public void testGetWhenExecutorRejects() {
+        final AlertController controller = new AlertController(
+                Configuration.empty(),
+                new AsyncAlertRepository(alertRepo, command -> {
+                    throw new RejectedExecutionException();
+                }));
+        final Result result = controller.get(UUID.randomUUID().toString()).toCompletableFuture().join();
+        Assert.assertEquals(Http.Status.SERVICE_UNAVAILABLE, result.status());
+    }
+
     private JsonNode readTree(final String resourceSuffix) {
         try {
             return OBJECT_MAPPER.readTree(getClass().getClassLoader().getResource("controllers/" + CLASS_NAME + "." + resourceSuffix + ".json"));
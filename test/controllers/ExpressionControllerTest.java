@@ -15,8 +15,10 @@
  */
 package controllers;
 
+import com.arpnetworking.database.QueryCursor;
 import com.arpnetworking.metrics.portal.H2ConnectionStringFactory;
 import com.arpnetworking.metrics.portal.TestBeanFactory;
+import com.arpnetworking.metrics.portal.expressions.AsyncExpressionRepository;
 import com.arpnetworking.metrics.portal.expressions.ExpressionRepository;
 import com.arpnetworking.metrics.portal.expressions.impl.DatabaseExpressionRepository;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -36,7 +38,11 @@ import play.mvc.Result;
 import play.test.Helpers;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.UUID;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Tests <code>ExpressionController</code>.
@@ -49,7 +55,8 @@ public class ExpressionControllerTest {
     public static void instantiate() {
         Configuration configuration = Configuration.empty();
         app = new GuiceApplicationBuilder()
-                .bindings(Bindings.bind(ExpressionController.class).toInstance(new ExpressionController(configuration, exprRepo)))
+                .bindings(Bindings.bind(ExpressionController.class).toInstance(
+                        new ExpressionController(configuration, new AsyncExpressionRepository(exprRepo, ForkJoinPool.commonPool()))))
                 .configure(H2ConnectionStringFactory.generateConfiguration())
                 .build();
         Helpers.start(app);
@@ -160,6 +167,48 @@ public class ExpressionControllerTest {
         Assert.assertEquals(OBJECT_MAPPER.valueToTree(expectedExpr), body);
     }
 
+    @Test
+    public void testQueryWithCursor() {
+        exprRepo.addOrUpdateExpression(TestBeanFactory.createExpressionBuilder().setId(UUID.randomUUID()).build(), Organization.DEFAULT);
+        final Result result = Helpers.route(new Http.RequestBuilder()
+                .method("GET")
+                .uri("/v1/expressions/query?limit=1&cursor=" + new QueryCursor("id", Collections.singletonList("0")).encode()));
+        Assert.assertEquals(Http.Status.OK, result.status());
+    }
+
+    @Test
+    public void testQueryWithInvalidCursor() {
+        for (final String cursor : new String[] {
+                "not-a-cursor",
+                new QueryCursor("name", Collections.singletonList("0")).encode(),
+                new QueryCursor("id", Arrays.asList("0", "1")).encode(),
+                new QueryCursor("id", Collections.singletonList("abc")).encode()}) {
+            final Result result = Helpers.route(new Http.RequestBuilder()
+                    .method("GET")
+                    .uri("/v1/expressions/query?limit=1&cursor=" + cursor));
+            Assert.assertEquals(cursor, Http.Status.BAD_REQUEST, result.status());
+        }
+    }
+
+    @Test
+    public void testQueryWithCursorAndOffset() {
+        final Result result = Helpers.route(new Http.RequestBuilder()
+                .method("GET")
+                .uri("/v1/expressions/query?offset=1&cursor=" + new QueryCursor("id", Collections.singletonList("0")).encode()));
+        Assert.assertEquals(Http.Status.BAD_REQUEST, result.status());
+    }
+
+    @Test
+    public void testGetWhenExecutorRejects() {
+        final ExpressionController controller = new ExpressionController(
+                Configuration.empty(),
+                new AsyncExpressionRepository(exprRepo, command -> {
+                    throw new RejectedExecutionException();
+                }));
+        final Result result = controller.get(UUID.randomUUID().toString()).toCompletableFuture().join();
+        Assert.assertEquals(Http.Status.SERVICE_UNAVAILABLE, result.status());
+    }
+
     private JsonNode readTree(final String resourceSuffix) {
         try {
             return OBJECT_MAPPER.readTree(getClass().getClassLoader().getResource("controllers/" + CLASS_NAME + "." + resourceSuffix + ".json"));
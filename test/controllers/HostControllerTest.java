@@ -0,0 +1,144 @@
+/**
+ * Copyright 2017 Inscope Metrics Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package controllers;
+
+import akka.actor.ActorRef;
+import com.arpnetworking.metrics.portal.H2ConnectionStringFactory;
+import com.arpnetworking.metrics.portal.hosts.AsyncHostRepository;
+import com.arpnetworking.metrics.portal.hosts.impl.LocalHostRepository;
+import com.google.common.net.HttpHeaders;
+import models.internal.MetricsSoftwareState;
+import models.internal.Organization;
+import models.internal.impl.DefaultHost;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import play.Application;
+import play.Configuration;
+import play.inject.Bindings;
+import play.inject.guice.GuiceApplicationBuilder;
+import play.mvc.Http;
+import play.mvc.Result;
+import play.test.Helpers;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Tests class <code>HostController</code>.
+ *
+ * @author Ville Koskela (ville dot koskela at inscopemetrics dot com)
+ */
+public class HostControllerTest {
+
+    @BeforeClass
+    public static void instantiate() {
+        hostRepo.open();
+        app = new GuiceApplicationBuilder()
+                .bindings(Bindings.bind(HostController.class).toInstance(
+                        new HostController(
+                                Configuration.empty(),
+                                new AsyncHostRepository(hostRepo, ForkJoinPool.commonPool()),
+                                ActorRef.noSender())))
+                .configure(H2ConnectionStringFactory.generateConfiguration())
+                .build();
+        Helpers.start(app);
+    }
+
+    @AfterClass
+    public static void shutdown() {
+        hostRepo.close();
+        if (app != null) {
+            Helpers.stop(app);
+        }
+    }
+
+    @Before
+    public void setUp() {
+        addHost();
+    }
+
+    @Test
+    public void testQueryReturnsEtag() {
+        final Result result = query(null);
+        Assert.assertEquals(Http.Status.OK, result.status());
+        Assert.assertEquals(currentEtag(), result.header(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testQueryWithMatchingEtagIsNotModified() {
+        final String etag = currentEtag();
+        final Result result = query("\"" + etag + "\"");
+        Assert.assertEquals(Http.Status.NOT_MODIFIED, result.status());
+        Assert.assertEquals(etag, result.header(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testQueryWithWeakEtagInListIsNotModified() {
+        final Result result = query("\"stale\", W/\"" + currentEtag() + "\"");
+        Assert.assertEquals(Http.Status.NOT_MODIFIED, result.status());
+    }
+
+    @Test
+    public void testQueryWithStaleEtagReturnsHosts() {
+        final String staleEtag = currentEtag();
+        addHost();
+        final Result result = query("\"" + staleEtag + "\"");
+        Assert.assertEquals(Http.Status.OK, result.status());
+        Assert.assertEquals(currentEtag(), result.header(HttpHeaders.ETAG));
+    }
+
+    @Test
+    public void testIsMatch() {
+        Assert.assertTrue(HostController.isMatch("\"123\"", "123"));
+        Assert.assertTrue(HostController.isMatch("W/\"123\"", "123"));
+        Assert.assertTrue(HostController.isMatch("123", "123"));
+        Assert.assertTrue(HostController.isMatch(" \"abc\" , W/\"123\" ", "123"));
+        Assert.assertTrue(HostController.isMatch("*", "123"));
+        Assert.assertFalse(HostController.isMatch("\"1234\"", "123"));
+        Assert.assertFalse(HostController.isMatch("\"12\"3", "123"));
+        Assert.assertFalse(HostController.isMatch("w/\"123\"", "123"));
+        Assert.assertFalse(HostController.isMatch("\"\"", "123"));
+        Assert.assertFalse(HostController.isMatch("", "123"));
+    }
+
+    private static Result query(final String ifNoneMatch) {
+        final Http.RequestBuilder request = new Http.RequestBuilder()
+                .method("GET")
+                .uri("/v1/hosts/query");
+        if (ifNoneMatch != null) {
+            request.header(HttpHeaders.IF_NONE_MATCH, ifNoneMatch);
+        }
+        return Helpers.route(request);
+    }
+
+    private static void addHost() {
+        hostRepo.addOrUpdateHost(
+                new DefaultHost.Builder()
+                        .setHostname("host" + System.nanoTime() + ".example.com")
+                        .setMetricsSoftwareState(MetricsSoftwareState.NOT_INSTALLED)
+                        .build(),
+                Organization.DEFAULT);
+    }
+
+    private static String currentEtag() {
+        return hostRepo.getEtag(Organization.DEFAULT).get();
+    }
+
+    private static Application app;
+    private static final LocalHostRepository hostRepo = new LocalHostRepository();
+}